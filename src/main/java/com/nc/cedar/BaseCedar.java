@@ -1,8 +1,10 @@
 package com.nc.cedar;
 
+import static com.nc.cedar.Bits.UTF8;
+import static com.nc.cedar.Bits.hash;
 import static com.nc.cedar.Bits.i32;
 import static com.nc.cedar.Bits.u32;
-import static com.nc.cedar.Bits.u64;
+import static com.nc.cedar.Bits.utf8;
 import static jdk.incubator.foreign.MemoryAccess.getIntAtOffset;
 import static jdk.incubator.foreign.MemoryAccess.getLongAtOffset;
 import static jdk.incubator.foreign.MemoryAccess.setIntAtOffset;
@@ -10,33 +12,257 @@ import static jdk.incubator.foreign.MemoryAccess.setLongAtOffset;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.OptionalInt;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import jdk.incubator.foreign.MappedMemorySegments;
 import jdk.incubator.foreign.MemorySegment;
 
 /**
- * Common structure and methods shared by {@link Cedar} and {@link ReducedCedar}. <br>
- * There's lots of code duplication in some methods/iterators because we want to place the final
- * method calls at the specialized call sites, e.g., {@link Nodes#base(int)} and
- * {@link Nodes#base_r(int)} run in tight loops and this helps avoiding virtual calls/branching.
+ * Common structure and methods shared by {@link Cedar}, {@link ReducedCedar}, {@link NibbleCedar},
+ * {@link TailCedar} and {@link WideCedar}. <br>
+ * The walks, erasure, iterators and block management live here, written against the unit hooks
+ * ({@link BaseCedar#base(long)}, {@link BaseCedar#check(long)}, {@link BaseCedar#head(int)}, etc)
+ * and the label hooks ({@link BaseCedar#block_shift()}, {@link BaseCedar#labels_per_byte()},
+ * {@link BaseCedar#label_of(byte, int)}), so engines only keep what differs. get is the exception:
+ * it is duplicated in every engine because we want to place the final method calls at the
+ * specialized call sites, e.g., {@link Nodes#base(int)} and {@link Nodes#base_r(int)} run in tight
+ * loops and this helps avoiding virtual calls/branching.
  *
  * @author cmuramoto
  */
 @SuppressWarnings("preview")
-public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
+public sealed abstract class BaseCedar permits Cedar,NibbleCedar,ReducedCedar,TailCedar,WideCedar {
 
 	interface Factory<T extends BaseCedar> {
 		T allocate(Nodes array, NodeInfos infos, Blocks blocks, Rejects reject, int flags);
+
+		/**
+		 * @return an empty node buffer of the engine's layout, for load to bind
+		 */
+		default Nodes nodes() {
+			return new Nodes();
+		}
+	}
+
+	/**
+	 * Binds the buffer of a section found in a header, given its offset (relative to the header)
+	 * and length.
+	 */
+	interface Loader {
+		void load(CedarBuffer cb, int section, long off, long len);
+	}
+
+	final class PrefixIter extends Itr<Match> {
+
+		final byte[] key;
+		final Ptr from;
+		int i;
+
+		PrefixIter(byte[] key) {
+			this.key = key;
+			this.from = new Ptr();
+		}
+
+		@Override
+		void advance() {
+			while (i < key.length) {
+				var value = find(key, from, i, i + 1);
+
+				if (value != ABSENT) {
+					if (value == NO_VALUE) {
+						i++;
+						continue;
+					} else {
+						curr = new Match((int) value, i, from.v);
+						i++;
+						break;
+					}
+				} else {
+					break;
+				}
+			}
+		}
+	}
+
+	final class PrefixPredictIter extends Itr<Match> implements Scratch {
+
+		final byte[] key;
+		final Ptr from;
+		// depth in labels
+		long p;
+		long root;
+		long value;
+
+		PrefixPredictIter(byte[] key) {
+			this.key = key;
+			from = new Ptr();
+		}
+
+		@Override
+		void advance() {
+			if (value == ABSENT) {
+				return;
+			}
+
+			if (from.v == 0 && p == 0) {
+				// To locate the prefix's position first, if it doesn't exist then that means we
+				// don't have do anything. `from` would serve as the cursor.
+
+				if (key.length == 0 || find(key, from) != ABSENT) {
+					this.root = this.from.v;
+
+					begin(this.from.v, this.p, this);
+
+					tryAdvance();
+				}
+			} else {
+				tryAdvance();
+			}
+		}
+
+		@Override
+		public void set(long from, long p, long value) {
+			this.from.v = from;
+			this.p = p;
+			this.value = value;
+		}
+
+		void tryAdvance() {
+			if (value != ABSENT) {
+				// terminals are only reachable at byte boundaries
+				var result = new Match((int) value, (int) (p / labels_per_byte()), from.v);
+
+				BaseCedar.this.next(from.v, p, root, this);
+
+				curr = result;
+			} else {
+				curr = null;
+			}
+		}
+
 	}
 
+	final class ScanItr extends Itr<TextMatch> {
+
+		final byte[] text;
+		final Ptr from;
+		int base;
+		int i;
+
+		ScanItr(byte[] text, int base) {
+			super();
+			this.text = text;
+			from = new Ptr();
+			this.base = base;
+		}
+
+		@Override
+		void advance() {
+			for (; base < text.length; base++) {
+				var limit = text.length - base;
+
+				while (i < limit) {
+					var off = base + i;
+
+					var r = find(text, from, off, off + 1);
+
+					if (r != ABSENT) {
+						if (r == NO_VALUE) {
+							i++;
+							continue;
+						} else {
+							curr = new TextMatch(base, base + i + 1, (int) r);
+							i++;
+							return;
+						}
+					} else {
+						break;
+					}
+				}
+
+				i = 0;
+				from.v = 0;
+			}
+		}
+	}
+
+	/**
+	 * Layout of persistent tries (see {@link BaseCedar#persist(Path)}): a page for the header,
+	 * followed by the rejects and then one region per section, indexed like in the header, each
+	 * STORE_STRIDE bytes apart in a sparse file. 16GB is enough for 2^31 nodes.
+	 */
+	static final long STORE_HEADER = 4096;
+	static final long STORE_STRIDE = 1L << 34;
+	static final long[] STORE_REGIONS = { 3 * STORE_STRIDE, 2 * STORE_STRIDE, STORE_STRIDE, STORE_HEADER, 4 * STORE_STRIDE, 5 * STORE_STRIDE };
+
 	static final int REALLOC_CAP = Integer.getInteger("Cedar.REALLOC_CAP", 4 * 1024 * 1024);
 
+	/**
+	 * Node ids are ints and free nodes are linked by negated ids.
+	 */
+	static final long MAX_CAPACITY = 1L << 31;
+
+	/**
+	 * Bytes reserved in the header for the spec of the {@link GrowthPolicy}. Longer specs are not
+	 * persisted, see {@link BaseCedar#growthSpec(GrowthPolicy)}.
+	 */
+	static final int GROWTH_SPEC = 64;
+
+	/**
+	 * Bytes written by {@link BaseCedar#header(MemorySegment, long, long, long, int[])}: magic,
+	 * version, engine, checksums, counters, section positions and lengths, alphabet and growth
+	 * spec.
+	 */
+	static final int IMAGE_HEADER = 4 * 10 + 4 * 5 + 8 * 16 + 256 + GROWTH_SPEC;
+
+	/**
+	 * Bytes of the header of the original images, which had neither a magic number nor a filter,
+	 * tails, alphabet or growth policy. See {@link BaseCedar#load(Factory, MemorySegment, long, boolean, Loader)}.
+	 */
+	static final int LEGACY_HEADER = 4 * 5 + 8 * 2 + 8 * 8;
+
+	/**
+	 * "CEDR", first int of every image.
+	 */
+	static final int MAGIC = 0x52444543;
+
+	static final int VERSION = 1;
+
+	/**
+	 * Engine of an image is its index here.
+	 */
+	static final List<Class<? extends BaseCedar>> ENGINES = List.of(Cedar.class, ReducedCedar.class, NibbleCedar.class, TailCedar.class, WideCedar.class);
+
+	/**
+	 * Offset of the checksum flag, followed by the CRC32C of each section.
+	 */
+	static final int CHECKSUMS = 12;
+
+	/**
+	 * When set, checksums of images are not verified on load.
+	 */
+	static final boolean SKIP_VERIFY = Boolean.getBoolean("Cedar.SKIP_VERIFY");
+
+	static final CompletableFuture<Void> VERIFIED = CompletableFuture.completedFuture(null);
+
 	static final int BLOCK_TYPE_CLOSED = 0;
 	static final int BLOCK_TYPE_OPEN = 1;
 	static final int BLOCK_TYPE_FULL = 2;
@@ -59,17 +285,205 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 		}
 	}
 
-	static int combine(boolean ordered, int realloc) {
-		var rv = ordered ? 0x1 : 0;
-		if (realloc > 0) {
-			realloc = (int) ceilPowerOfTwo(realloc);
-			rv |= (realloc << 1);
+	static int combine(boolean ordered) {
+		return ordered ? 0x1 : 0;
+	}
+
+	/**
+	 * Maps the legacy realloc argument of the constructors to a policy.
+	 *
+	 * @param realloc
+	 *            - cap, rounded up to a power of two, or 0 for doubling
+	 */
+	static GrowthPolicy growth(int realloc) {
+		return realloc > 0 ? GrowthPolicy.capped(ceilPowerOfTwo(realloc)) : GrowthPolicy.doubling();
+	}
+
+	/**
+	 * @return the policy written in the header, empty if it wasn't persisted
+	 */
+	static String growthSpec(GrowthPolicy growth) {
+		var spec = growth.toString();
+		try {
+			return spec.length() <= GROWTH_SPEC && GrowthPolicy.parse(spec).equals(growth) ? spec : "";
+		} catch (IllegalArgumentException e) {
+			// not one of ours
+			return "";
 		}
-		return rv;
 	}
 
+	/**
+	 * Label to byte table where bytes are ranked by frequency: the most frequent byte is encoded as
+	 * 1, the second as 2 and so on. Byte 0 stays as the terminal label and bytes which do not occur
+	 * take the remaining labels in natural order.
+	 */
+	static byte[] decode(long[] freq) {
+		var ranked = IntStream.range(1, 256).boxed().sorted((l, r) -> {
+			var c = Long.compare(freq[r], freq[l]);
+			return c != 0 ? c : Integer.compare(l, r);
+		}).mapToInt(v -> v).toArray();
+
+		var decode = new byte[256];
+		for (var i = 0; i < ranked.length; i++) {
+			decode[i + 1] = (byte) ranked[i];
+		}
+		return decode;
+	}
+
+	/**
+	 * Sets the checksums of an image whose header was written without them.
+	 */
+	static void checksums(MemorySegment header, int[] crcs) {
+		setIntAtOffset(header, CHECKSUMS, 1);
+		for (var i = 0; i < crcs.length; i++) {
+			setIntAtOffset(header, CHECKSUMS + 4 * (i + 1), crcs[i]);
+		}
+	}
+
+	/**
+	 * @return CRC32C of each section, computed in parallel. Null sections get 0, like empty ones.
+	 */
+	static int[] checksums(CedarBuffer... sections) {
+		var crcs = new int[sections.length];
+		IntStream.range(0, sections.length).parallel().forEach(i -> crcs[i] = sections[i] == null ? 0 : sections[i].crc());
+		return crcs;
+	}
+
+	/**
+	 * Loads an image written by {@link BaseCedar#serialize(MemorySegment)}. Copies are verified
+	 * before returning, mapped images in the background (see {@link BaseCedar#verification()}).
+	 */
 	static <T extends BaseCedar> T deserialize(Factory<T> factory, MemorySegment src, boolean copy) {
-		var off = 0L;
+		return load(factory, src, src.byteSize(), !copy, (cb, section, off, len) -> {
+			var ms = src.asSlice(off, len);
+			if (copy) {
+				cb.copyOf(ms);
+			} else {
+				cb.wrap(ms);
+			}
+		});
+	}
+
+	static <T extends BaseCedar> T deserialize(Factory<T> factory, Path src, boolean copy) {
+		MemorySegment ms = null;
+		try {
+			ms = MemorySegment.mapFile(src, 0, Files.size(src), MapMode.READ_WRITE).share();
+			return deserialize(factory, ms, copy);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (RuntimeException e) {
+			// rejected images are not kept mapped
+			if (ms != null && !copy) {
+				ms.close();
+			}
+			throw e;
+		} finally {
+			if (ms != null && copy) {
+				ms.close();
+			}
+		}
+	}
+
+	/**
+	 * Loads an image written by {@link BaseCedar#serializeCompressed(Path)}, decoding each section
+	 * in parallel straight into its buffer.
+	 */
+	static <T extends BaseCedar> T deserializeCompressed(Factory<T> factory, Path src) {
+		try (var ms = MemorySegment.mapFile(src, 0, Files.size(src), MapMode.READ_ONLY).share()) {
+			var at = new long[]{ -1 };
+			return load(factory, ms, Long.MAX_VALUE, false, (cb, section, off, len) -> {
+				// coded sections follow each other, so off only holds for the first one
+				at[0] = ImageCodec.read(ms, at[0] < 0 ? off : at[0], cb, section, len);
+			});
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	static <T extends BaseCedar> T deserializeReadOnly(Factory<T> factory, Path src) {
+		MemorySegment ms;
+		try {
+			ms = MemorySegment.mapFile(src, 0, Files.size(src), MapMode.READ_ONLY).share();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		var c = deserialize(factory, ms, false);
+		c.readOnly = true;
+		return c;
+	}
+
+	/**
+	 * Inverts a label to byte table.
+	 */
+	static byte[] encode(byte[] decode) {
+		var encode = new byte[256];
+		for (var c = 0; c < 256; c++) {
+			encode[u32(decode[c])] = (byte) c;
+		}
+		return encode;
+	}
+
+	static void guardUpdate(byte[] key, long from, int start, int end) {
+		if (from == 0 && end == 0 || (end > key.length || end < start)) {
+			throw new UnsupportedOperationException("Invalid key/offsets");
+		}
+	}
+
+	static byte label(byte[] encode, byte b) {
+		return encode == null ? b : encode[u32(b)];
+	}
+
+	/**
+	 * Reads a header (the layout written by
+	 * {@link BaseCedar#header(MemorySegment, long, long, long, int[])}), lets the loader bind each
+	 * section and verifies their checksums, if the header has them. Headers without a magic number
+	 * are read as version 0 if their section lengths fit (see
+	 * {@link BaseCedar#legacy(MemorySegment, long, int, long, int)}): the same fields without the
+	 * prefix of magic, version, engine and checksums or, for deserialize, the original layout. The
+	 * flags of both still carry the realloc argument of the constructors next to the ordering bit,
+	 * which is mapped to a {@link GrowthPolicy} unless the header has a growth spec. Either way
+	 * they are loaded as is and rewritten in the current layout by the next serialize or sync.
+	 *
+	 * @param limit
+	 *            bytes of src that sections may span, when they follow the header in src
+	 * @param lazy
+	 *            whether checksums are verified in the background
+	 */
+	static <T extends BaseCedar> T load(Factory<T> factory, MemorySegment src, long limit, boolean lazy, Loader loader) {
+		var bytes = src.byteSize();
+		int version;
+		var engine = -1;
+		var checked = false;
+		var original = false;
+		var crcs = new int[6];
+		long off;
+		if (bytes >= 4 && getIntAtOffset(src, 0) == MAGIC) {
+			if (bytes < IMAGE_HEADER) {
+				throw new CorruptImageException(-1, "Truncated header");
+			}
+			version = getIntAtOffset(src, 4);
+			if (version > VERSION || version < 1) {
+				throw new CorruptImageException(-1, "Unsupported image version: " + version);
+			}
+			engine = getIntAtOffset(src, 8);
+			checked = getIntAtOffset(src, CHECKSUMS) != 0;
+			for (var i = 0; i < crcs.length; i++) {
+				crcs[i] = getIntAtOffset(src, CHECKSUMS + 4 * (i + 1));
+			}
+			off = 4L * 10;
+		} else {
+			// written before images had a magic number: no engine, no checksums. The original layout
+			// had no filter, tails, alphabet or growth policy, and is only read by deserialize, which
+			// knows where the image ends
+			original = limit == bytes && legacy(src, limit, LEGACY_HEADER, 4 * 5 + 8 * 6, 4);
+			if (!original && !legacy(src, limit, IMAGE_HEADER - 4 * 10, 4 * 5 + 8 * 10, 6)) {
+				throw new CorruptImageException(-1, "Not a cedar image");
+			}
+			version = 0;
+			off = 0;
+		}
+
 		var flags = getIntAtOffset(src, off);
 		var blocks_head_full = getIntAtOffset(src, off += 4);
 		var blocks_head_closed = getIntAtOffset(src, off += 4);
@@ -77,8 +491,10 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 		var max_trial = getIntAtOffset(src, off += 4);
 		var capacity = getLongAtOffset(src, off += 4);
 		var size = getLongAtOffset(src, off += 8);
+		var filter_keys = original ? 0 : getLongAtOffset(src, off += 8);
+		var filter_stale = original ? 0 : getLongAtOffset(src, off += 8);
 
-		var array = new Nodes();
+		var array = factory.nodes();
 		array.pos = getLongAtOffset(src, off += 8);
 
 		var infos = new NodeInfos();
@@ -90,61 +506,167 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 		var rejects = new Rejects();
 		rejects.pos = getLongAtOffset(src, off += 8);
 
+		var filter = new Bloom();
+		filter.pos = original ? 0 : getLongAtOffset(src, off += 8);
+
+		var tails = new Tails();
+		tails.pos = original ? 0 : getLongAtOffset(src, off += 8);
+
 		var lengths = new long[]{ //
 				getLongAtOffset(src, off += 8), //
 				getLongAtOffset(src, off += 8), //
 				getLongAtOffset(src, off += 8), //
-				getLongAtOffset(src, off += 8) //
+				getLongAtOffset(src, off += 8), //
+				original ? 0 : getLongAtOffset(src, off += 8), //
+				original ? 0 : getLongAtOffset(src, off += 8) //
 		};
 
-		var slices = Map.of( //
-				array, src.asSlice(off += 8, lengths[0]), //
-				infos, src.asSlice(off += lengths[0], lengths[1]), //
-				blocks, src.asSlice(off += lengths[1], lengths[2]), //
-				rejects, src.asSlice(off += lengths[2], lengths[3])//
-		);
+		var decode = original ? new byte[256] : src.asSlice(off += 8, 256).toByteArray();
+		var spec = original ? "" : new String(src.asSlice(off += 256, GROWTH_SPEC).toByteArray(), StandardCharsets.US_ASCII).trim();
+		// sections start here
+		off += original ? 8 : GROWTH_SPEC;
 
-		for (var e : slices.entrySet()) {
-			var cb = e.getKey();
-			var ms = e.getValue();
-
-			if (copy) {
-				var seg = MemorySegment.allocateNative(ms.byteSize(), cb.alignment());
-				seg.copyFrom(ms);
-				ms = seg;
+		var end = off;
+		for (var i = 0; i < lengths.length; i++) {
+			if (lengths[i] < 0 || (end += lengths[i]) > limit) {
+				throw new CorruptImageException(i, String.format("Truncated image: section ends at %d, image has %d bytes", end, limit));
 			}
-			cb.buffer = ms;
 		}
 
-		var c = factory.allocate(array, infos, blocks, rejects, flags);
+		// binding only happens past this point, so nothing leaks if the engine doesn't match
+		var c = factory.allocate(array, infos, blocks, rejects, flags & 0x1);
+		if (version > 0 && (engine < 0 || engine >= ENGINES.size() || ENGINES.get(engine) != c.getClass())) {
+			throw new CorruptImageException(-1, String.format("Image of a %s can't be loaded as a %s", engine < 0 || engine >= ENGINES.size() ? "unknown engine " + engine : ENGINES.get(engine).getSimpleName(), c.getClass().getSimpleName()));
+		}
+
+		loader.load(array, 0, off, lengths[0]);
+		loader.load(infos, 1, off += lengths[0], lengths[1]);
+		loader.load(blocks, 2, off += lengths[1], lengths[2]);
+		loader.load(rejects, 3, off += lengths[2], lengths[3]);
+		off += lengths[3];
+
+		if (lengths[4] > 0) {
+			loader.load(filter, 4, off, lengths[4]);
+			off += lengths[4];
+		} else {
+			filter = null;
+		}
+
+		if (lengths[5] > 0) {
+			loader.load(tails, 5, off, lengths[5]);
+		} else {
+			tails = null;
+		}
+
+		if (!spec.isEmpty()) {
+			c.growth = GrowthPolicy.parse(spec);
+		} else if (version == 0 && (flags >>> 1) != 0) {
+			c.growth = growth(flags >>> 1);
+		}
+		c.rebalance();
+		// no blocks means the image was written by serializeReadOnly
+		c.readOnly = lengths[2] == 0;
 		c.blocks_head_full = blocks_head_full;
 		c.blocks_head_open = blocks_head_open;
 		c.blocks_head_closed = blocks_head_closed;
 		c.max_trial = max_trial;
 		c.capacity = capacity;
 		c.size = size;
+		c.filter = filter;
+		c.filter_keys = filter_keys;
+		c.filter_stale = filter_stale;
+		c.tails = tails;
+
+		if (decode[1] != 0) {
+			c.encode = encode(decode);
+			c.decode = decode;
+		}
+
+		if (checked && !SKIP_VERIFY) {
+			var sections = new CedarBuffer[]{ array, infos, blocks, rejects, filter, tails };
+			if (lazy) {
+				c.verification = CompletableFuture.runAsync(() -> verify(sections, crcs));
+			} else {
+				try {
+					verify(sections, crcs);
+				} catch (CorruptImageException e) {
+					c.close();
+					throw e;
+				}
+			}
+		}
 
 		return c;
 	}
 
-	static <T extends BaseCedar> T deserialize(Factory<T> factory, Path src, boolean copy) {
-		MemorySegment ms = null;
+	/**
+	 * Tells headers without a magic number apart by their section lengths, since their flags may
+	 * hold anything the realloc argument of the constructors was.
+	 *
+	 * @param header
+	 *            bytes of the header, after which sections start
+	 * @param off
+	 *            offset of the first of the lengths
+	 * @return whether the lengths add up to limit, when src is the whole image, or otherwise (a
+	 *         store, whose sections live in regions) whether each fits a region
+	 */
+	static boolean legacy(MemorySegment src, long limit, int header, long off, int sections) {
+		if (src.byteSize() < header) {
+			return false;
+		}
+		var end = (long) header;
+		for (var i = 0; i < sections; i++) {
+			var len = getLongAtOffset(src, off + 8L * i);
+			if (len < 0 || len > STORE_STRIDE) {
+				return false;
+			}
+			end += len;
+		}
+		return limit != src.byteSize() || end == limit;
+	}
+
+	static MemorySegment map(Path file, long off, long len) {
 		try {
-			ms = MemorySegment.mapFile(src, 0, Files.size(src), MapMode.READ_WRITE).share();
-			return deserialize(factory, ms, copy);
+			return MemorySegment.mapFile(file, off, len, MapMode.READ_WRITE).share();
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
-		} finally {
-			if (ms != null && copy) {
-				ms.close();
-			}
 		}
 	}
 
-	static void guardUpdate(byte[] key, long from, int start, int end) {
-		if (from == 0 && end == 0 || (end > key.length || end < start)) {
-			throw new UnsupportedOperationException("Invalid key/offsets");
+	/**
+	 * Opens the trie stored in file, or creates an empty one there if file is missing or empty.
+	 *
+	 * @see BaseCedar#persist(Path)
+	 */
+	static <T extends BaseCedar> T open(Factory<T> factory, Supplier<T> empty, Path file) {
+		try {
+			// completes a checkpoint cut short by a crash
+			CheckpointJournal.recover(file);
+			if (!Files.exists(file) || Files.size(file) == 0) {
+				var c = empty.get();
+				c.persist(file);
+				return c;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
+
+		var header = map(file, 0, STORE_HEADER);
+
+		var c = load(factory, header, Long.MAX_VALUE, false, (cb, section, off, len) -> {
+			if (cb instanceof Bloom) {
+				// filters are rebuilt, not grown, so they live on heap and are written back on sync
+				try (var ms = map(file, STORE_REGIONS[section], len)) {
+					cb.copyOf(ms);
+				}
+			} else {
+				cb.attach(file, STORE_REGIONS[section], len);
+			}
+		});
+		c.store = header;
+		c.storeFile = file;
+
+		return c;
 	}
 
 	/**
@@ -163,6 +685,81 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 	final Blocks blocks;
 	final Rejects reject;
 	final int flags;
+
+	GrowthPolicy growth;
+
+	/**
+	 * Null if unbounded. See {@link BaseCedar#budget(MemoryBudget)}.
+	 */
+	MemoryBudget budget;
+
+	/**
+	 * Bytes charged to budget so far.
+	 */
+	long charged;
+
+	/**
+	 * Optional front for {@link BaseCedar#get(byte[], int, int)}. See
+	 * {@link BaseCedar#enableFilter(long)}.
+	 */
+	Bloom filter;
+
+	/**
+	 * Number of keys added to the filter since it was last (re)built. Duplicates count more than
+	 * once, which only makes the rebuild happen earlier.
+	 */
+	long filter_keys;
+
+	/**
+	 * Number of keys erased since the filter was last (re)built. Erased keys stay in the filter and
+	 * only increase the false positive rate.
+	 */
+	long filter_stale;
+
+	/**
+	 * Suffixes of single-key branches, null unless this is a {@link TailCedar}.
+	 */
+	Tails tails;
+
+	/**
+	 * Optional byte to label table (and its inverse). See {@link BaseCedar#remap(Iterable)}.
+	 */
+	byte[] encode;
+	byte[] decode;
+
+	/**
+	 * Header of the file this trie lives in, null unless persistent. See
+	 * {@link BaseCedar#persist(Path)}.
+	 */
+	MemorySegment store;
+	Path storeFile;
+
+	/**
+	 * Checksum verification of the image this trie was loaded from. See
+	 * {@link BaseCedar#verification()}.
+	 */
+	CompletableFuture<Void> verification = VERIFIED;
+
+	/**
+	 * Last {@link BaseCedar#snapshotAsync(Path)}, null if none.
+	 */
+	CompletableFuture<Path> snapshot;
+
+	/**
+	 * File of the last {@link BaseCedar#checkpoint(Path)}, whose pages the buffers track.
+	 */
+	Path checkpointFile;
+
+	/**
+	 * Set for lookup-only tries, see {@link BaseCedar#serializeReadOnly(Path, boolean)}.
+	 */
+	boolean readOnly;
+
+	/**
+	 * Null unless mutations are logged. See {@link BaseCedar#wal(WriteAheadLog)}.
+	 */
+	WriteAheadLog wal;
+
 	int blocks_head_full;
 	int blocks_head_closed;
 
@@ -178,8 +775,14 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 		this(array, infos, blocks, reject, ordered, 0);
 	}
 
+	protected BaseCedar(Nodes array, NodeInfos infos, Blocks blocks, Rejects reject, boolean ordered, GrowthPolicy growth) {
+		this(array, infos, blocks, reject, combine(ordered));
+		this.growth = Objects.requireNonNull(growth);
+		rebalance();
+	}
+
 	protected BaseCedar(Nodes array, NodeInfos infos, Blocks blocks, Rejects reject, boolean ordered, int realloc) {
-		this(array, infos, blocks, reject, combine(ordered, realloc));
+		this(array, infos, blocks, reject, ordered, growth(realloc));
 	}
 
 	protected BaseCedar(Nodes array, NodeInfos infos, Blocks blocks, Rejects reject, int flags) {
@@ -188,76 +791,242 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 		this.blocks = blocks;
 		this.reject = reject;
 		this.flags = flags;
+		this.growth = growth(REALLOC_CAP);
+		this.budget = MemoryBudget.GLOBAL;
 	}
 
-	final int add_block() {
-		var cap = this.capacity;
-		if (size == cap) {
-			var r = realloc();
-			var inc = r;
-
-			if (r > 0) {
-				if ((cap + r) > (cap + cap)) {
-					inc = cap;
-				} else {
-					inc = r;
-				}
-			} else {
-				inc = cap;
-			}
-
-			capacity = cap = cap + inc;
-
-			array.resize(cap);
-			infos.resize(cap);
-
-			if (r > 0) {
-				var bc = blocks.cap();
-				var req = ceilPowerOfTwo(cap >> 8);
-
-				if (bc < req) {
-					r = req;
-				} else {
-					// blocks need only to be as big as cap >> 8
-					r = 0;
-				}
-			} else {
-				r = cap >> 8;
-			}
+	/**
+	 * @return whether key has no value in the trie. Keys the filter has never seen are answered
+	 *         without a walk, so only overwrites (and false positives) pay for a lookup.
+	 */
+	final boolean absent(byte[] key, int start, int end) {
+		return !filter.test(hash(key, start, end)) || (get(key, start, end) & ABSENT_OR_NO_VALUE) != 0;
+	}
 
-			if (r > 0) {
-				blocks.resize(r);
-			}
+	/**
+	 * Appends a block of 2^{@link BaseCedar#block_shift()} free nodes, linked in a cycle, to the
+	 * open list.
+	 *
+	 * @return index of the new block
+	 */
+	final int add_block() {
+		var shift = block_shift();
+		if (size == capacity) {
+			grow(shift);
 		}
 
-		blocks.head(size >> 8, i32(size));
+		var width = 1L << shift;
+		var s = size;
+		var idx = i32(s >>> shift);
+		head(idx, s);
+		blocks.num(idx, (short) width);
+		blocks.reject(idx, (short) (width + 1));
+		blocks.trial(idx, 0);
 
 		// make it a doubley linked list
-		array.set(size, -(i32(size) + 255), -(i32(size) + 1));
+		set(s, -(s + width - 1), -(s + 1));
 
-		for (var i = (size + 1); i < (size + 255); i++) {
-			array.set(i, -(i32(i) - 1), -(i32(i) + 1));
+		for (var i = (s + 1); i < (s + width - 1); i++) {
+			set(i, -(i - 1), -(i + 1));
 		}
 
-		array.set(size + 255, -(i32(size) + 254), -i32(size));
+		set(s + width - 1, -(s + width - 2), -s);
 
-		var is_empty = blocks_head_open == 0;
-		var idx = i32(size >> 8);
 		assert (blocks.num(idx) > 1);
-		push_block(idx, BLOCK_TYPE_OPEN, is_empty);
+		push_block(idx, BLOCK_TYPE_OPEN, blocks_head_open == 0);
 
-		size += 256;
+		size += width;
 
-		return i32((size >> 8) - 1);
+		return idx;
 	}
 
 	/**
-	 * Number of bytes allocated for each internal 'array' and reallocation policy.
+	 * Number of bytes allocated for each internal 'array' and number of nodes the next growth will
+	 * add ('growth', also under its former name 'realloc').
 	 *
 	 * @return
 	 */
 	public final Map<String, Long> allocation() {
-		return Map.of("array", array.byteSize(), "blocks", blocks.byteSize(), "infos", infos.byteSize(), "reject", reject.byteSize(), "realloc", realloc());
+		return Map.of("array", array.byteSize(), "blocks", blocks.byteSize(), "infos", infos.byteSize(), "reject", reject.byteSize(), "filter", filter == null ? 0L : filter.byteSize(), "tails", tails == null ? 0L : tails.byteSize(), "growth", increment(block_shift()), "realloc", increment(block_shift()));
+	}
+
+	/**
+	 * Current budget, null if unbounded. Tries start with {@link MemoryBudget#global()}.
+	 */
+	public final MemoryBudget budget() {
+		return budget;
+	}
+
+	/**
+	 * Moves this trie to another budget (null for unbounded). Its current footprint is charged to
+	 * the new budget and released from the old one.
+	 *
+	 * @throws MemoryBudgetException
+	 *             if the footprint doesn't fit, in which case the trie stays in its old budget
+	 */
+	public final void budget(MemoryBudget budget) {
+		var bytes = budget == null ? 0 : footprint();
+		if (budget != null) {
+			budget.acquire(bytes);
+		}
+		if (this.budget != null) {
+			this.budget.release(charged);
+		}
+		this.budget = budget;
+		this.charged = budget == null ? 0 : bytes;
+	}
+
+	/**
+	 * Writes this trie into file, in the layout of persistent tries, so it can be reopened with the
+	 * engine's open(Path). The first checkpoint into a file writes every section, the following
+	 * ones into the same file only write the pages (256 nodes, infos, blocks or bytes of tails)
+	 * modified since the previous one and whatever was added by growth, which extends the regions
+	 * of the sparse file. So the cost of a checkpoint follows the updates, not the size of the trie.
+	 * <br>
+	 * Either way a crash leaves the previous checkpoint, or the new one: the first is written to a
+	 * file next to file and moved over it, like {@link BaseCedar#serialize(Path)}, and the following
+	 * ones go through a {@link CheckpointJournal} before touching file. An attached
+	 * {@link WriteAheadLog} is truncated once the new checkpoint is on disk.
+	 *
+	 * @return bytes written into file, besides the header
+	 */
+	public final long checkpoint(Path file) {
+		guardWritable();
+
+		if (store != null) {
+			throw new IllegalStateException("Already persisted in " + storeFile + ", use sync()");
+		}
+
+		var full = !file.equals(checkpointFile) || !Files.exists(file);
+		// the pages are tracked from here on, so until this one completes the next is a full one
+		checkpointFile = null;
+
+		long written;
+		if (full) {
+			array.dirty = null;
+			infos.dirty = null;
+			blocks.dirty = null;
+			reject.dirty = null;
+			if (filter != null) {
+				filter.dirty = null;
+			}
+			if (tails != null) {
+				tails.dirty = null;
+			}
+
+			Path tmp;
+			try {
+				tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			var done = false;
+			try (var ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				CedarBuffer.Pages pages = (pos, src) -> {
+					for (var at = pos; src.hasRemaining();) {
+						at += ch.write(src, at);
+					}
+				};
+				written = checkpoint(pages);
+				pages.write(0, checkpointHeader());
+				ch.force(false);
+				// a journal of the file being replaced must not be applied to the new one
+				Files.deleteIfExists(CheckpointJournal.of(file));
+				done = true;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				if (!done) {
+					discard(tmp, file);
+				}
+			}
+
+			publish(tmp, file);
+		} else {
+			try {
+				try (var journal = new CheckpointJournal(file)) {
+					written = checkpoint(journal::write);
+					journal.write(0, checkpointHeader());
+					journal.seal();
+				}
+				CheckpointJournal.recover(file);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			if (wal != null) {
+				wal.truncate();
+			}
+		}
+		checkpointFile = file;
+
+		return written;
+	}
+
+	final long checkpoint(CedarBuffer.Pages dst) throws IOException {
+		var written = array.checkpoint(dst, STORE_REGIONS[0], array.unit());
+		written += infos.checkpoint(dst, STORE_REGIONS[1], NodeInfos.UNIT);
+		written += blocks.checkpoint(dst, STORE_REGIONS[2], Blocks.UNIT);
+		written += reject.checkpoint(dst, STORE_REGIONS[3], Rejects.UNIT);
+		if (filter != null) {
+			written += filter.checkpoint(dst, STORE_REGIONS[4], Bloom.UNIT);
+		}
+		if (tails != null) {
+			written += tails.checkpoint(dst, STORE_REGIONS[5], Tails.UNIT);
+		}
+		return written;
+	}
+
+	/**
+	 * @return bytes the next {@link BaseCedar#checkpoint(Path)} into the same file writes, besides
+	 *         the header
+	 */
+	final long pending() {
+		var pending = array.pending(array.unit()) + infos.pending(NodeInfos.UNIT) + blocks.pending(Blocks.UNIT) + reject.pending(Rejects.UNIT);
+		if (filter != null) {
+			pending += filter.pending(Bloom.UNIT);
+		}
+		if (tails != null) {
+			pending += tails.pending(Tails.UNIT);
+		}
+		return pending;
+	}
+
+	final ByteBuffer checkpointHeader() {
+		var header = new byte[IMAGE_HEADER];
+		header(MemorySegment.ofArray(header), infos.byteSize(), blocks.byteSize(), reject.byteSize(), null);
+		return ByteBuffer.wrap(header);
+	}
+
+	/**
+	 * Descends from node from (at depth p) to its first leaf and reports it to s.
+	 */
+	void begin(long from, long p, Scratch s) {
+		var infos = this.infos;
+		var base = base(from);
+
+		var c = infos.child(from);
+
+		if (from == 0) {
+			c = infos.sibling(base ^ u32(c));
+
+			// if no sibling couldn be found from the virtual root, then we are done.
+			if (c == 0) {
+				s.set(from, p, ABSENT);
+				return;
+			}
+		}
+
+		// recursively traversing down to look for the first leaf.
+		while (c != 0) {
+			from = base(from) ^ u32(c);
+			c = infos.child(from);
+			p += 1;
+		}
+
+		// To return the value of the leaf.
+		var v = base(base(from) ^ u32(c));
+		s.set(from, p, v);
 	}
 
 	/**
@@ -274,7 +1043,11 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 	 * @param keys
 	 *            - dictionary
 	 */
-	public abstract <E extends Map.Entry<String, Integer>> void build(Iterable<E> kv);
+	public <E extends Map.Entry<String, Integer>> void build(Iterable<E> kv) {
+		for (var e : kv) {
+			update(e.getKey(), e.getValue());
+		}
+	}
 
 	/**
 	 * Inserts keys in the trie as if
@@ -290,7 +1063,11 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 	 * @param keys
 	 *            - dictionary
 	 */
-	public abstract void build(Map<String, Integer> key_values);
+	public void build(Map<String, Integer> key_values) {
+		for (var e : key_values.entrySet()) {
+			update(e.getKey(), e.getValue());
+		}
+	}
 
 	/**
 	 * Inserts keys in the trie as if
@@ -306,22 +1083,209 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 	 * @param keys
 	 *            - dictionary
 	 */
-	public abstract void build(String... keys);
+	public void build(String... keys) {
+		for (var i = 0; i < keys.length; i++) {
+			update(keys[i], i);
+		}
+	}
+
+	public void build(byte[]... keys) {
+		for (var i = 0; i < keys.length; i++) {
+			update(keys[i], i);
+		}
+	}
 
 	/**
 	 * Releases the allocated memory. This instance will be unusable afterwards.
 	 */
 	public void close() {
+		if (budget != null) {
+			budget.release(charged);
+			charged = 0;
+		}
+		if (store != null) {
+			sync();
+			store.close();
+			store = null;
+		}
 		close(array);
 		close(infos);
 		close(blocks);
 		close(reject);
+		close(filter);
+		close(tails);
+		filter = null;
+	}
+
+	/**
+	 * Number of bits of a node index which address a slot within its block.
+	 */
+	int block_shift() {
+		return 8;
+	}
+
+	/**
+	 * Number of labels a byte of a key takes.
+	 */
+	int labels_per_byte() {
+		return 1;
+	}
+
+	/**
+	 * @return the i-th of the {@link BaseCedar#labels_per_byte()} labels of (encoded) byte b
+	 */
+	byte label_of(byte b, int i) {
+		return b;
+	}
+
+	/**
+	 * Unit hook: base of node ix. Engines with another node layout override all unit hooks.
+	 */
+	long base(long ix) {
+		return array.base(ix);
+	}
+
+	void base(long ix, long v) {
+		array.base(ix, i32(v));
+	}
+
+	/**
+	 * Unit hook: check of node ix.
+	 */
+	long check(long ix) {
+		return array.check(ix);
 	}
 
-	// for rust test suite only, clients should use streams
-	abstract Iterator<Match> common_prefix_iter(String key);
+	void check(long ix, long v) {
+		array.check(ix, i32(v));
+	}
+
+	/**
+	 * Unit hook: sets both base and check of node ix.
+	 */
+	void set(long ix, long base, long check) {
+		array.set(ix, i32(base), i32(check));
+	}
+
+	/**
+	 * Unit hook: replaces the value of terminal ix.
+	 */
+	int getAndSetBase(long ix, int value) {
+		return array.getAndSetBase(ix, value);
+	}
+
+	/**
+	 * Unit hook: first free node of block idx.
+	 */
+	long head(int idx) {
+		return blocks.head(idx);
+	}
+
+	void head(int idx, long e) {
+		blocks.head(idx, i32(e));
+	}
+
+	Iterator<Match> common_prefix_iter(byte[] utf8) {
+		return new PrefixIter(utf8);
+	}
+
+	// for rust test suite only, clients should use streams
+	Iterator<Match> common_prefix_iter(String key) {
+		return common_prefix_iter(utf8(key));
+	}
+
+	/**
+	 * Shrinks the trie to the footprint of a fresh build of its keys, reclaiming the free slots
+	 * left behind by erasures. Surviving keys are reinserted (in trie order, or backwards for
+	 * unordered tries, so that predict keeps its order) into an empty trie of the same kind, whose
+	 * buffers then replace the current ones and are trimmed to the nodes in use. Both tries are
+	 * alive during the rebuild, so peak memory is about twice the compacted size. Persistent tries
+	 * are written back to their file and synced.
+	 */
+	public final void compact() {
+		guardWritable();
+
+		var next = empty();
+		next.encode = encode;
+		next.decode = decode;
+
+		try {
+			next.budget(budget);
+			var scratch = new byte[64];
+			if (ordered()) {
+				for (var itr = predict("").iterator(); itr.hasNext();) {
+					var m = itr.next();
+					scratch = suffixBytes(m.from(), m.length(), scratch);
+					next.update(scratch, m.value(), 0, m.length());
+				}
+			} else {
+				// unordered tries push new siblings to the front, so keys go in backwards to keep the
+				// order of predict
+				var matches = predict("").toArray(Match[]::new);
+				for (var i = matches.length - 1; i >= 0; i--) {
+					var m = matches[i];
+					scratch = suffixBytes(m.from(), m.length(), scratch);
+					next.update(scratch, m.value(), 0, m.length());
+				}
+			}
+		} catch (MemoryBudgetException e) {
+			next.close();
+			throw e;
+		}
+
+		var inPlace = array.address != 0;
+
+		array.take(next.array);
+		infos.take(next.infos);
+		blocks.take(next.blocks);
+		reject.take(next.reject);
+		if (tails != null) {
+			tails.take(next.tails);
+		}
+
+		blocks_head_full = next.blocks_head_full;
+		blocks_head_closed = next.blocks_head_closed;
+		blocks_head_open = next.blocks_head_open;
+		max_trial = next.max_trial;
+		size = next.size;
+
+		// growth policy might have left room for more blocks
+		capacity = size;
+		array.resize(size);
+		infos.resize(size);
+		blocks.resize(size >> block_shift());
+		if (tails != null) {
+			tails.trim();
+		}
+
+		// the buffers of next are ours now
+		next.budget(null);
+		rebalance();
+
+		if (inPlace) {
+			inPlace();
+		}
+
+		if (storeFile != null) {
+			array.persist(storeFile, STORE_REGIONS[0]);
+			infos.persist(storeFile, STORE_REGIONS[1]);
+			blocks.persist(storeFile, STORE_REGIONS[2]);
+			reject.persist(storeFile, STORE_REGIONS[3]);
+			if (tails != null) {
+				tails.persist(storeFile, STORE_REGIONS[5]);
+			}
+		}
+
+		if (filter != null) {
+			rebuild_filter(0);
+		}
+
+		if (store != null) {
+			sync();
+		}
+	}
 
-	final boolean consult(int base_n, int base_p, byte c_n, byte c_p) {
+	final boolean consult(long base_n, long base_p, byte c_n, byte c_p) {
 		do {
 			c_n = infos.sibling(base_n ^ u32(c_n));
 			c_p = infos.sibling(base_p ^ u32(c_p));
@@ -330,10 +1294,59 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 		return c_p != 0;
 	}
 
+	/**
+	 * Releases the filter installed by {@link BaseCedar#enableFilter(long)}, if any.
+	 */
+	public final void disableFilter() {
+		close(filter);
+		filter = null;
+		filter_keys = 0;
+		filter_stale = 0;
+	}
+
+	/**
+	 * Deletes a file of {@link BaseCedar#staging(Path)} that could not be written.
+	 */
+	final void discard(Path file, Path dst) {
+		if (file != dst) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				// the failure being reported matters more
+			}
+		}
+	}
+
+	/**
+	 * @return an empty trie of the same kind, with the same ordering and reallocation policy. The
+	 *         ordering is the raw bit of flags, i.e. the ordered argument of the constructor, which
+	 *         {@link BaseCedar#ordered()} reads inverted.
+	 */
+	abstract BaseCedar empty();
+
+	/**
+	 * Installs an off-heap blocked bloom filter in front of {@link BaseCedar#get(byte[], int, int)},
+	 * so that most lookups for keys which are not in the dictionary are answered by a single cache
+	 * line instead of a walk over the trie. The filter is populated with the keys currently stored,
+	 * maintained by update, rebuilt after enough keys are erased or once it fills up and persisted
+	 * along with the trie. <br>
+	 * When the filter is enabled, a key that only exists as a prefix may be reported as
+	 * {@link BaseCedar#ABSENT} instead of {@link BaseCedar#NO_VALUE}. Other queries (match,
+	 * predict, scan, etc) are not affected.
+	 *
+	 * @param expectedKeys
+	 *            - size hint. The filter is never smaller than the number of keys in the trie.
+	 */
+	public final void enableFilter(long expectedKeys) {
+		rebuild_filter(expectedKeys);
+	}
+
 	/**
 	 * Delegates to {@link BaseCedar#erase(byte[], int, int)} with start=0 and end=key.length
 	 */
-	public abstract long erase(byte[] key);
+	public long erase(byte[] key) {
+		return erase(key, 0, key.length);
+	}
 
 	/**
 	 * /** Marks the key as absent in the trie.
@@ -347,13 +1360,206 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 	 * @return The value associated with {@link BaseCedar#get(byte[])}. Erase has no side effect if
 	 *         the reported value is either {@link BaseCedar#NO_VALUE} or {@link BaseCedar#ABSENT}.
 	 */
-	public abstract long erase(byte[] key, int start, int end);
+	public long erase(byte[] key, int start, int end) {
+		guardWritable();
+
+		var from = new Ptr();
+		var r = find(key, from, start, end);
+
+		if ((r & ABSENT_OR_NO_VALUE) == 0) {
+			erase(from.v);
+
+			if (filter != null) {
+				filter_erased();
+			}
+
+			if (wal != null) {
+				wal.erase(key, start, end);
+			}
+		}
+
+		return r;
+	}
+
+	/**
+	 * Removes the leaf under node from, along with its ancestors that are left without children.
+	 */
+	void erase(long from) {
+		erase(from, base(from));
+	}
+
+	/**
+	 * Frees e, a child of from, and walks up while the freed node was an only child.
+	 */
+	final void erase(long from, long e) {
+		boolean has_sibling;
+		do {
+			var base = base(from);
+			has_sibling = infos.sibling(base ^ u32(infos.child(from))) != 0;
+
+			// if the node has siblings, then remove `e` from the sibling.
+			if (has_sibling) {
+				pop_sibling(from, base, (byte) (base ^ e));
+			}
+
+			// maintain the data structures.
+			push_e_node(e);
+			e = from;
+
+			// traverse to the parent.
+			from = check(from);
+
+			// if it has sibling then this layer has more than one nodes, then we are done.
+		} while (!has_sibling);
+	}
 
 	/**
 	 * @param key
 	 * @return @see {@link BaseCedar#erase(byte[])}
 	 */
-	public abstract long erase(String key);
+	public long erase(String key) {
+		return erase(utf8(key));
+	}
+
+	long find(byte[] key, Ptr from) {
+		return find(key, from, 0, key.length);
+	}
+
+	/**
+	 * Walks key[start, end) from node from.v, which is left at the last node reached.
+	 */
+	long find(byte[] key, Ptr from, int start, int end) {
+		end = (end <= 0 || end <= start) ? key.length : end;
+		var encode = this.encode;
+		var n = labels_per_byte();
+		// hoist in local, then perform a single heap write post-loop
+		var v = from.v;
+
+		for (var pos = start; pos < end; pos++) {
+			var b = label(encode, key[pos]);
+
+			for (var i = 0; i < n; i++) {
+				var to = base(v) ^ u32(label_of(b, i));
+				if (check(to) != v) {
+					from.v = v;
+					return ABSENT;
+				}
+
+				v = to;
+			}
+		}
+
+		var b = base(from.v = v);
+		if (check(b) != v) {
+			return NO_VALUE;
+		} else {
+			return base(b);
+		}
+	}
+
+	final long find_place() {
+		if (blocks_head_closed != 0) {
+			return head(blocks_head_closed);
+		}
+
+		if (blocks_head_open != 0) {
+			return head(blocks_head_open);
+		}
+
+		// the block is not enough, resize it and allocate it.
+		return (long) add_block() << block_shift();
+	}
+
+	final long find_places(byte[] child) {
+		var idx = blocks_head_open;
+
+		// we still have available 'Open' blocks.
+		if (idx != 0) {
+			assert (blocks.num(idx) > 1);
+			var bz = blocks.prev(blocks_head_open);
+			var nc = (short) child.length;
+
+			for (;;) {
+				// only proceed if the free slots are more than the number of children. Also, we
+				// save the minimal number of attempts to fail in the `reject`, it only worths to
+				// try out this block if the number of children is less than that number.
+				if (blocks.num(idx) >= nc && nc < blocks.reject(idx)) {
+					var first = head(idx);
+					var e = first;
+					do {
+						var base = e ^ u32(child[0]);
+
+						var i = 1;
+						// iterate through the children to see if they are available: (check < 0)
+						while (check(base ^ u32(child[i])) < 0) {
+							if (i == child.length - 1) {
+								// we have found the available block.
+								head(idx, e);
+								return e;
+							}
+							i++;
+						}
+
+						// we save the next free block's information in `check`
+						e = -check(e);
+
+					} while (e != first);
+				}
+
+				// we broke out of the loop, that means we failed. We save the information in
+				// `reject` for future pruning.
+				blocks.reject(idx, nc);
+				if (blocks.reject(idx) < reject.at(blocks.num(idx))) {
+					// put this stats into the global array of information as well.
+					reject.set(blocks.num(idx), blocks.reject(idx));
+				}
+
+				var idx_ = blocks.next(idx);
+
+				blocks.trial(idx, blocks.trial(idx) + 1);
+
+				// move this block to the 'Closed' block list since it has reached the max_trial
+				if (blocks.trial(idx) == max_trial) {
+					transfer_block(idx, BLOCK_TYPE_OPEN, BLOCK_TYPE_CLOSED, blocks_head_closed == 0);
+				}
+
+				// we have finsihed one round of this cyclic doubly-linked-list.
+				if (idx == bz) {
+					break;
+				}
+
+				// going to the next in this linked list group
+				idx = idx_;
+			}
+		}
+
+		return (long) add_block() << block_shift();
+	}
+
+	final long follow(long from, byte label) {
+		var base = base(from);
+
+		long to;
+		var ul = u32(label);
+		// the node is not there
+		if (base < 0 || check(base ^ ul) < 0) {
+			// allocate a e node
+			to = pop_e_node(base, label, from);
+			var branch = to ^ ul;
+
+			// maintain the info in ninfo
+			push_sibling(from, branch, label, base >= 0);
+		} else {
+			// the node is already there and the ownership is not `from`, therefore a conflict.
+			to = base ^ ul;
+			if (check(to) != from) {
+				// call `resolve` to relocate.
+				to = resolve(from, base, label);
+			}
+		}
+
+		return to;
+	}
 
 	/**
 	 * @param key
@@ -372,7 +1578,8 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 	 *         {@link BaseCedar#NO_VALUE} if the key exists as a prefix (all bytes are there, but do
 	 *         not form a whole word, e.g. "banana" exists and query was "banan") or
 	 *         {@link BaseCedar#ABSENT} if there's a single byte that does not match the trie at any
-	 *         level (e.g. "banana" exists and query is "badana").
+	 *         level (e.g. "banana" exists and query is "badana"). If a filter is enabled, prefixes
+	 *         may be reported as {@link BaseCedar#ABSENT} as well.
 	 */
 	public abstract long get(byte[] key, int start, int end);
 
@@ -386,6 +1593,114 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 	 */
 	public abstract long get(String key);
 
+	/**
+	 * Adds a key that was not in the trie. Once the filter holds more keys than it was sized for,
+	 * it is rebuilt with room for as many more.
+	 */
+	final void filter_add(byte[] key, int start, int end) {
+		var filter = this.filter;
+		filter.add(hash(key, start, end));
+
+		if (++filter_keys > filter.keys()) {
+			rebuild_filter(2 * filter_keys);
+		}
+	}
+
+	/**
+	 * Charges bytes to the budget, if any.
+	 *
+	 * @throws MemoryBudgetException
+	 *             if they don't fit
+	 */
+	final void charge(long bytes) {
+		var b = budget;
+		if (b != null && bytes > 0) {
+			b.acquire(bytes);
+			charged += bytes;
+		}
+	}
+
+	final void filter_erased() {
+		if (++filter_stale * 4 > filter_keys) {
+			rebuild_filter(0);
+		}
+	}
+
+	/**
+	 * Grows nodes and infos according to the {@link GrowthPolicy} and blocks so that they can hold
+	 * one entry per block.
+	 *
+	 * @param shift
+	 *            - log2 of the block width
+	 */
+	final void grow(int shift) {
+		var inc = increment(shift);
+		if (inc <= 0) {
+			throw new IllegalStateException("Trie is full: " + capacity + " nodes");
+		}
+
+		var cap = capacity + inc;
+
+		// blocks need only to be as big as cap >> shift, but go in powers of two so that small
+		// increments don't resize them every time
+		var bc = blocks.cap();
+		var req = cap >> shift;
+		var nbc = bc < req ? Math.max(req, ceilPowerOfTwo(req)) : bc;
+
+		// all or nothing, before anything is allocated
+		charge(inc * (array.unit() + NodeInfos.UNIT) + (nbc - bc) * Blocks.UNIT);
+
+		capacity = cap;
+		array.resize(cap);
+		infos.resize(cap);
+		if (nbc > bc) {
+			blocks.resize(nbc);
+		}
+	}
+
+	/**
+	 * Current policy, see {@link GrowthPolicy}.
+	 */
+	public final GrowthPolicy growth() {
+		return growth;
+	}
+
+	/**
+	 * Replaces the policy used from the next growth on. It's persisted by serialize if it's one
+	 * of the policies built by {@link GrowthPolicy}'s factories and its spec fits in 64 bytes.
+	 */
+	public final void growth(GrowthPolicy growth) {
+		this.growth = Objects.requireNonNull(growth);
+	}
+
+	/**
+	 * @return bytes of the sections charged to the budget
+	 */
+	final long footprint() {
+		return array.byteSize() + infos.byteSize() + blocks.byteSize() + reject.byteSize() + (tails == null ? 0 : tails.byteSize());
+	}
+
+	final void guardPredict() {
+		if (infos.byteSize() == 0) {
+			throw new UnsupportedOperationException("Image was written without predict support");
+		}
+	}
+
+	final void guardWritable() {
+		if (readOnly) {
+			throw new UnsupportedOperationException("Read-only trie");
+		}
+		if (verification != VERIFIED) {
+			// mapped images are written in place, so the first mutation waits for the checksums
+			try {
+				verification.join();
+				verification = VERIFIED;
+			} catch (CompletionException e) {
+				throw e.getCause() instanceof RuntimeException r ? r : e;
+			}
+		}
+	}
+
 	final int get_head(int type) {
 		return switch (type) {
 		case BLOCK_TYPE_OPEN -> blocks_head_open;
@@ -395,23 +1710,75 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 		};
 	}
 
+	/**
+	 * Reports how much of nodes and infos is actually backed by (transparent) huge pages, which
+	 * -DCedar.HUGE_PAGES=true asks for but the kernel may not grant. Linux only, always 0 elsewhere.
+	 *
+	 * @return bytes backed by huge pages
+	 */
+	public final long hugePageBytes() {
+		return array.hugePageBytes() + infos.hugePageBytes();
+	}
+
 	/**
 	 * @return Total bytes required to serialize this trie.
 	 */
 	public long imageSize() {
-		return 4 * 5 + 8 * 2 + array.totalSize() + infos.totalSize() + blocks.totalSize() + reject.totalSize();
+		return 4 * 10 + 4 * 5 + 8 * 4 + 256 + GROWTH_SPEC + array.totalSize() + infos.totalSize() + blocks.totalSize() + reject.totalSize() + (filter == null ? 8 * 2 : filter.totalSize()) + (tails == null ? 8 * 2 : tails.totalSize());
+	}
+
+	/**
+	 * Moves nodes and infos to malloc'ed memory, so that subsequent growth is done with realloc
+	 * instead of allocate-copy-free. This is what every trie does when -DCedar.IN_PLACE=true is
+	 * set. Requires -Dforeign.restricted=permit.
+	 */
+	public final void inPlace() {
+		array.inPlace();
+		infos.inPlace();
+		if (tails != null) {
+			tails.inPlace();
+		}
+	}
+
+	/**
+	 * Asks the policy for the next increment and rounds it up to whole blocks, at least one, but
+	 * never past {@link #max_capacity()}.
+	 *
+	 * @param shift
+	 *            - log2 of the block width
+	 * @return nodes to add, 0 if the trie is full
+	 */
+	final long increment(int shift) {
+		var cap = capacity;
+		var width = 1L << shift;
+		var inc = Math.max(width, (growth.increment(cap) + width - 1) & -width);
+
+		return Math.min(inc, max_capacity() - cap);
+	}
+
+	/**
+	 * @return the number of nodes ids can address
+	 */
+	long max_capacity() {
+		return MAX_CAPACITY;
 	}
 
 	public final boolean isReduced() {
 		return this instanceof ReducedCedar;
 	}
 
+	public Stream<String> keys() {
+		return predict("").map(this::suffix);
+	}
+
 	/**
 	 * Delegates to {@link BaseCedar#match(byte[], int, int)}} with start=0 and end = key.length
 	 *
 	 * @param key
 	 */
-	public abstract Match match(byte[] key);
+	public Match match(byte[] key) {
+		return match(key, 0, key.length);
+	}
 
 	/**
 	 * @param key
@@ -424,7 +1791,17 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 	 *         method is meant to be used instead of find when the key needs to be rebuilt by
 	 *         calling {@link BaseCedar#suffix(Match)}.
 	 */
-	public abstract Match match(byte[] key, int start, int end);
+	public Match match(byte[] key, int start, int end) {
+		var from = new Ptr();
+
+		var r = find(key, from, start, end);
+
+		if ((r & ABSENT_OR_NO_VALUE) != 0) {
+			return null;
+		} else {
+			return new Match((int) r, key.length, from.v);
+		}
+	}
 
 	/**
 	 * Delegates to {@link BaseCedar#match(byte[])}, by converting the key using
@@ -434,12 +1811,90 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 	 *            - string
 	 * @return - {@link BaseCedar#match(byte[]) }
 	 */
-	public abstract Match match(String key);
+	public Match match(String key) {
+		return match(utf8(key));
+	}
+
+	/**
+	 * Moves from the leaf under node from (at depth p) to the next leaf below root, if any, and
+	 * reports it to scratch.
+	 */
+	void next(long from, long p, long root, Scratch scratch) {
+		var c = infos.sibling(base(from));
+
+		// traversing up until there is a sibling or it has reached the root.
+		while (c == 0 && from != root) {
+			c = infos.sibling(from);
+			from = check(from);
+			p--;
+		}
+
+		if (c != 0) {
+			// it has a sibling so we leverage on `begin` to traverse the subtree down again.
+			from = base(from) ^ u32(c);
+			begin(from, p + 1, scratch);
+		} else {
+			// no more work since we couldn't find anything.
+			scratch.set(from, p, ABSENT);
+		}
+	}
 
 	final boolean ordered() {
 		return (flags & 0x1) == 0;
 	}
 
+	/**
+	 * Moves this trie into file (overwriting it) and keeps it there: every buffer becomes a region
+	 * of the file and grows by remapping a larger region, so the file is always the live image and
+	 * pages beyond the working set can be evicted by the OS. Use {@link BaseCedar#sync()} to make
+	 * updates durable, which {@link BaseCedar#close()} also does. Reopen with the engine's
+	 * open(Path).
+	 */
+	public final void persist(Path file) {
+		guardWritable();
+
+		if (store != null) {
+			throw new IllegalStateException("Already persisted in " + storeFile);
+		}
+
+		var header = map(file, 0, STORE_HEADER);
+		array.persist(file, STORE_REGIONS[0]);
+		infos.persist(file, STORE_REGIONS[1]);
+		blocks.persist(file, STORE_REGIONS[2]);
+		reject.persist(file, STORE_REGIONS[3]);
+		if (tails != null) {
+			tails.persist(file, STORE_REGIONS[5]);
+		}
+
+		store = header;
+		storeFile = file;
+
+		sync();
+	}
+
+	/**
+	 * Atomically replaces dst with a file of {@link BaseCedar#staging(Path)} (or the first
+	 * {@link BaseCedar#checkpoint(Path)} into dst) that was forced to disk, then truncates the log.
+	 */
+	final void publish(Path file, Path dst) {
+		if (file == dst) {
+			return;
+		}
+		try {
+			Files.move(file, dst, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			// makes the rename itself durable
+			try (var dir = FileChannel.open(dst.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+				dir.force(true);
+			}
+		} catch (IOException e) {
+			discard(file, dst);
+			throw new UncheckedIOException(e);
+		}
+		if (wal != null) {
+			wal.truncate();
+		}
+	}
+
 	final void pop_block(int idx, int from, boolean last) {
 		int head;
 		if (last) {
@@ -459,15 +1914,60 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 		set_head(from, head);
 	}
 
-	final void pop_sibling(int from, int base, byte label) {
-		var ix = u64(from);
+	final long pop_e_node(long base, byte label, long from) {
+		long e;
+		if (base < 0) {
+			e = find_place();
+		} else {
+			e = base ^ u32(label);
+		}
+
+		var idx = i32(e >>> block_shift());
+		// avoid alloc
+		// var n = array.at(e);
+		var nbase = base(e);
+		var ncheck = check(e);
+
+		blocks.incrementNum(idx, -1);
+		// move the block at idx to the correct linked-list depending the free slots it still have.
+		if (blocks.num(idx) == 0) {
+			if (idx != 0) {
+				transfer_block(idx, BLOCK_TYPE_CLOSED, BLOCK_TYPE_FULL, blocks_head_full == 0);
+			}
+		} else {
+			check(-nbase, ncheck);
+			base(-ncheck, nbase);
+
+			if (e == head(idx)) {
+				head(idx, -ncheck);
+			}
+
+			if (idx != 0 && blocks.num(idx) == 1 && blocks.trial(idx) != max_trial) {
+				transfer_block(idx, BLOCK_TYPE_OPEN, BLOCK_TYPE_CLOSED, blocks_head_closed == 0);
+			}
+		}
+
+		if (label != 0) {
+			base(e, -1);
+		} else {
+			base(e, 0);
+		}
+		check(e, from);
+		if (base < 0) {
+			base(from, e ^ u32(label));
+		}
+		return e;
+	}
+
+	final void pop_sibling(long from, long base, byte label) {
+		var ix = from;
 		var c = infos.child(ix);
 		var sibling = c != label;
 
 		if (sibling) {
 			do {
 				var code = u32(c);
-				c = infos.sibling(ix = u64(base ^ code));
+				c = infos.sibling(ix = base ^ code);
 			} while (c != label);
 		}
 
@@ -485,92 +1985,57 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 	 * @param key
 	 * @return - All terminal nodes that share key as common prefix.
 	 */
-	public abstract Stream<Match> predict(String key);
-
-	final void push_block(int idx, int to, boolean empty) {
-		var head = get_head(to);
-
-		if (empty) {
-			blocks.next(idx, idx);
-			blocks.prev(idx, idx);
-			head = idx;
-		} else {
-			blocks.prev(idx, blocks.prev(head));
-			blocks.next(idx, head);
-			var t = blocks.prev(head);
-			blocks.next(t, idx);
-			blocks.prev(head, idx);
-			head = idx;
-		}
-
-		set_head(to, head);
+	public Stream<Match> predict(String key) {
+		return predict(utf8(key));
 	}
 
-	final void push_e_node(int e) {
-		var idx = e >> 8;
-		blocks.incrementNum(idx, 1);
-
-		if (blocks.num(idx) == 1) {
-			blocks.head(idx, e);
-			array.set(e, -e, -e);
-
-			if (idx != 0) {
-				// Move the block from 'Full' to 'Closed' since it has one free slot now.
-				transfer_block(idx, BLOCK_TYPE_FULL, BLOCK_TYPE_CLOSED, blocks_head_closed == 0);
-			}
-		} else {
-			var prev = blocks.head(idx);
-
-			var next = -array.check(prev);
-
-			// Insert to the edge immediately after the e_head
-			array.set(e, -prev, -next);
-
-			array.check(prev, -e);
-			array.base(next, -e);
-
-			// Move the block from 'Closed' to 'Open' since it has more than one free slot now.
-			if (blocks.num(idx) == 2 || blocks.trial(idx) == max_trial) {
-				assert (blocks.num(idx) > 1);
-				if (idx != 0) {
-					transfer_block(idx, BLOCK_TYPE_CLOSED, BLOCK_TYPE_OPEN, blocks_head_open == 0);
-				}
-			}
+	public Stream<Match> predict(byte[] utf8) {
+		guardPredict();
 
-			// Reset the trial stats
-			blocks.trial(idx, 0);
-		}
+		return new PrefixPredictIter(utf8).stream();
+	}
 
-		var rej = reject.at(blocks.num(idx));
-		if (blocks.reject(idx) < rej) {
-			blocks.reject(idx, rej);
+	final void push_block(int idx, int to, boolean empty) {
+		var head = get_head(to);
+
+		if (empty) {
+			blocks.next(idx, idx);
+			blocks.prev(idx, idx);
+			head = idx;
+		} else {
+			blocks.prev(idx, blocks.prev(head));
+			blocks.next(idx, head);
+			var t = blocks.prev(head);
+			blocks.next(t, idx);
+			blocks.prev(head, idx);
+			head = idx;
 		}
 
-		infos.set(e, (byte) 0, (byte) 0);
+		set_head(to, head);
 	}
 
-	final void push_e_node_mini(int e) {
-		var idx = e >> 6;
+	final void push_e_node(long e) {
+		var idx = i32(e >>> block_shift());
 		blocks.incrementNum(idx, 1);
 
 		if (blocks.num(idx) == 1) {
-			blocks.head(idx, e);
-			array.set(e, -e, -e);
+			head(idx, e);
+			set(e, -e, -e);
 
 			if (idx != 0) {
 				// Move the block from 'Full' to 'Closed' since it has one free slot now.
 				transfer_block(idx, BLOCK_TYPE_FULL, BLOCK_TYPE_CLOSED, blocks_head_closed == 0);
 			}
 		} else {
-			var prev = blocks.head(idx);
+			var prev = head(idx);
 
-			var next = -array.check(prev);
+			var next = -check(prev);
 
 			// Insert to the edge immediately after the e_head
-			array.set(e, -prev, -next);
+			set(e, -prev, -next);
 
-			array.check(prev, -e);
-			array.base(next, -e);
+			check(prev, -e);
+			base(next, -e);
 
 			// Move the block from 'Closed' to 'Open' since it has more than one free slot now.
 			if (blocks.num(idx) == 2 || blocks.trial(idx) == max_trial) {
@@ -592,11 +2057,11 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 		infos.set(e, (byte) 0, (byte) 0);
 	}
 
-	final void push_sibling(long from, int base, byte label, boolean hasChild) {
+	final void push_sibling(long from, long base, byte label, boolean hasChild) {
 		boolean keep_order;
 		var ordered = ordered();
 		if (ordered) {
-			keep_order = label > infos.child(from);
+			keep_order = u32(label) > u32(infos.child(from));
 		} else {
 			keep_order = infos.child(from) == 0;
 		}
@@ -608,8 +2073,8 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 
 		if (isSibling) {
 			do {
-				c = infos.sibling(c_ix = u64(base ^ u32(c)));
-			} while ((ordered && (c != 0) && (c < label)));
+				c = infos.sibling(c_ix = base ^ u32(c));
+			} while ((ordered && (c != 0) && (u32(c) < u32(label))));
 		}
 
 		sibling = c;
@@ -624,8 +2089,208 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 		infos.sibling(base ^ u32(label), sibling);
 	}
 
-	final long realloc() {
-		return (flags >>> 1) & 0xFFFFFFFFL;
+	private void rebuild_filter(long expectedKeys) {
+		// two passes (count, then hash) to keep the rebuild off-heap regardless of the key count
+		var keys = predict("").count();
+		var next = Bloom.withCapacity(Math.max(keys, expectedKeys));
+		var scratch = new byte[64];
+
+		for (var itr = predict("").iterator(); itr.hasNext();) {
+			var m = itr.next();
+			scratch = suffixBytes(m.from(), m.length(), scratch);
+			next.add(hash(scratch, 0, m.length()));
+		}
+
+		close(filter);
+		filter = next;
+		filter_keys = keys;
+		filter_stale = 0;
+	}
+
+	/**
+	 * Delegates to {@link BaseCedar#remap(Iterable)}.
+	 */
+	public final void remap(String... sample) {
+		remap(Arrays.asList(sample));
+	}
+
+	/**
+	 * Replaces raw bytes with dense labels ranked by their frequency in the sample. Small alphabets
+	 * (digits, hex, etc) then branch into a few adjacent slots instead of being spread over a
+	 * 256-slot block, which reduces both footprint and relocation attempts. The table is applied
+	 * transparently to keys, persisted with the trie and can only be installed while the trie is
+	 * empty. <br>
+	 * Ordered tries will enumerate keys in label order rather than in byte order.
+	 *
+	 * @param sample
+	 *            - keys, usually the ones that will be used to build the trie
+	 */
+	public final void remap(Iterable<String> sample) {
+		if (predict("").findAny().isPresent()) {
+			throw new IllegalStateException("Alphabet can only be remapped on an empty trie");
+		}
+
+		var freq = new long[256];
+		for (var s : sample) {
+			for (var b : utf8(s)) {
+				freq[u32(b)]++;
+			}
+		}
+
+		decode = decode(freq);
+		encode = encode(decode);
+	}
+
+	/**
+	 * Rebuilds the filter installed by {@link BaseCedar#enableFilter(long)} from the keys currently
+	 * stored, evicting erased keys. This happens automatically once enough keys are erased, but
+	 * callers may force it after a bulk erase.
+	 */
+	public final void rebuildFilter() {
+		if (filter != null) {
+			rebuild_filter(0);
+		}
+	}
+
+	/**
+	 * Brings the charge in line with the footprint after buffers were replaced (creation, load,
+	 * compaction). Memory is already there, so this never fails.
+	 */
+	final void rebalance() {
+		var b = budget;
+		if (b != null) {
+			var bytes = footprint();
+			b.force(bytes - charged);
+			charged = bytes;
+		}
+	}
+
+	/**
+	 * Pre-flight of updates under a budget: grows up front, so that the key can be inserted
+	 * without growing half way, where a rejection would leave part of it behind. An update takes
+	 * at most one new block per label, plus one for the terminal. Replacing the value of a key
+	 * takes none, which is only checked when free blocks are short.
+	 */
+	final void reserve(byte[] key, int start, int end) {
+		if (budget == null) {
+			return;
+		}
+
+		var len = Math.max(end - start, 0);
+		var shift = block_shift();
+		var labels = (long) labels_per_byte() * len;
+		var need = (labels + 1) << shift;
+		if (size + need > capacity && (get(key, start, end) & ABSENT_OR_NO_VALUE) == 0) {
+			return;
+		}
+		while (size + need > capacity) {
+			grow(shift);
+		}
+
+		var tails = this.tails;
+		if (tails != null) {
+			// same as Tails.require
+			var n = 8L + len;
+			if (tails.pos + n > tails.byteSize()) {
+				charge(Math.max(n, tails.byteSize()));
+				tails.require(n);
+			}
+		}
+	}
+
+	final long resolve(long from_n, long base_n, byte label_n) {
+		var to_pn = base_n ^ u32(label_n);
+
+		// the `base` and `from` for the conflicting one.
+		var from_p = check(to_pn);
+		var base_p = base(from_p);
+
+		// whether to replace siblings of newly added
+		var flag = consult(base_n, base_p, infos.child(from_n), infos.child(from_p));
+
+		// collect the list of children for the block that we are going to relocate.
+		var children = flag ? set_child(base_n, infos.child(from_n), label_n, true) : set_child(base_p, infos.child(from_p), (byte) 0xFF, false);
+
+		// decide which algorithm to allocate free block depending on the number of children we
+		// have.
+		var base = children.length == 1 ? find_place() : find_places(children);
+
+		base ^= u32(children[0]);
+
+		long from, base_;
+
+		if (flag) {
+			from = from_n;
+			base_ = base_n;
+		} else {
+			from = from_p;
+			base_ = base_p;
+		}
+
+		if (flag && children[0] == label_n) {
+			infos.child(from, label_n);
+		}
+
+		base(from, base);
+
+		// the actual work for relocating the chilren
+		for (var i = 0; i < children.length; i++) {
+			var to = pop_e_node(base, children[i], from);
+			var to_ = base_ ^ u32(children[i]);
+
+			if (i == children.length - 1) {
+				infos.sibling(to, (byte) 0);
+			} else {
+				infos.sibling(to, children[i + 1]);
+			}
+
+			if (flag && to_ == to_pn) {
+				continue;
+			}
+
+			base(to, base(to_));
+
+			var condition = base(to) > 0 && children[i] != 0;
+
+			if (condition) {
+				var c = infos.child(to_);
+
+				infos.child(to, c);
+
+				do {
+					var idx = base(to) ^ u32(c);
+					check(idx, to);
+					c = infos.sibling(idx);
+				} while (c != 0);
+			}
+
+			if (!flag && to_ == from_n) {
+				from_n = to;
+			}
+
+			// clean up the space that was moved away from.
+			if (!flag && to_ == to_pn) {
+				push_sibling(from_n, to_pn ^ u32(label_n), label_n, true);
+				infos.child(to_, (byte) 0);
+
+				if (label_n != 0) {
+					base(to_, -1);
+				} else {
+					base(to_, 0);
+				}
+
+				check(to_, from_n);
+			} else {
+				push_e_node(to_);
+			}
+		}
+
+		// return the position that is free now.
+		if (flag) {
+			return base ^ u32(label_n);
+		} else {
+			return to_pn;
+		}
 	}
 
 	/**
@@ -646,10 +2311,49 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 	 * @param text
 	 * @return
 	 */
-	public abstract Stream<TextMatch> scan(String text);
+	public Stream<TextMatch> scan(String text) {
+		return scan(utf8(text));
+	}
+
+	public Stream<TextMatch> scan(byte[] utf8) {
+		return new ScanItr(utf8, 0).stream();
+	}
 
 	public void serialize(MemorySegment dst) {
-		var off = 0L;
+		var off = header(dst, infos.byteSize(), blocks.byteSize(), reject.byteSize(), checksums(array, infos, blocks, reject, filter, tails));
+
+		array.copyTo(dst.asSlice(off, array.byteSize()));
+		infos.copyTo(dst.asSlice(off += array.byteSize(), infos.byteSize()));
+		blocks.copyTo(dst.asSlice(off += infos.byteSize(), blocks.byteSize()));
+		reject.copyTo(dst.asSlice(off += blocks.byteSize(), reject.byteSize()));
+		off += reject.byteSize();
+
+		if (filter != null) {
+			filter.copyTo(dst.asSlice(off, filter.byteSize()));
+			off += filter.byteSize();
+		}
+
+		if (tails != null) {
+			tails.copyTo(dst.asSlice(off, tails.byteSize()));
+		}
+	}
+
+	/**
+	 * Writes the header: magic, version, engine, checksums (if crcs is not null), counters, section
+	 * positions and lengths, the alphabet table and the growth policy.
+	 *
+	 * @return offset at which sections start
+	 */
+	final long header(MemorySegment dst, long infosLen, long blocksLen, long rejectLen, int[] crcs) {
+		setIntAtOffset(dst, 0, MAGIC);
+		setIntAtOffset(dst, 4, VERSION);
+		setIntAtOffset(dst, 8, ENGINES.indexOf(getClass()));
+		dst.asSlice(CHECKSUMS, 4 * 7).fill((byte) 0);
+		if (crcs != null) {
+			checksums(dst, crcs);
+		}
+
+		var off = 4L * 10;
 
 		setIntAtOffset(dst, off, flags);
 		setIntAtOffset(dst, off += 4, blocks_head_full);
@@ -658,31 +2362,194 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 		setIntAtOffset(dst, off += 4, max_trial);
 		setLongAtOffset(dst, off += 4, capacity);
 		setLongAtOffset(dst, off += 8, size);
+		setLongAtOffset(dst, off += 8, filter_keys);
+		setLongAtOffset(dst, off += 8, filter_stale);
+
+		var filter = this.filter;
+		var tails = this.tails;
 
 		setLongAtOffset(dst, off += 8, array.pos);
 		setLongAtOffset(dst, off += 8, infos.pos);
 		setLongAtOffset(dst, off += 8, blocks.pos);
 		setLongAtOffset(dst, off += 8, reject.pos);
+		setLongAtOffset(dst, off += 8, filter == null ? 0 : filter.pos);
+		setLongAtOffset(dst, off += 8, tails == null ? 0 : tails.pos);
 
 		setLongAtOffset(dst, off += 8, array.byteSize());
-		setLongAtOffset(dst, off += 8, infos.byteSize());
-		setLongAtOffset(dst, off += 8, blocks.byteSize());
-		setLongAtOffset(dst, off += 8, reject.byteSize());
+		setLongAtOffset(dst, off += 8, infosLen);
+		setLongAtOffset(dst, off += 8, blocksLen);
+		setLongAtOffset(dst, off += 8, rejectLen);
+		setLongAtOffset(dst, off += 8, filter == null ? 0 : filter.byteSize());
+		setLongAtOffset(dst, off += 8, tails == null ? 0 : tails.byteSize());
+
+		var alphabet = dst.asSlice(off += 8, 256);
+		if (decode != null) {
+			alphabet.copyFrom(MemorySegment.ofArray(decode));
+		} else {
+			alphabet.fill((byte) 0);
+		}
 
-		dst.asSlice(off += 8, array.byteSize()).copyFrom(array.buffer);
-		dst.asSlice(off += array.byteSize(), infos.byteSize()).copyFrom(infos.buffer);
-		dst.asSlice(off += infos.byteSize(), blocks.byteSize()).copyFrom(blocks.buffer);
-		dst.asSlice(off += blocks.byteSize(), reject.byteSize()).copyFrom(reject.buffer);
+		var spec = dst.asSlice(off += 256, GROWTH_SPEC);
+		spec.fill((byte) 0);
+		spec.copyFrom(MemorySegment.ofArray(growthSpec(growth).getBytes(StandardCharsets.US_ASCII)));
+
+		return off + GROWTH_SPEC;
 	}
 
+	/**
+	 * Writes the image to dst. If a {@link WriteAheadLog} is attached, the image is written to a
+	 * file next to dst, forced to disk and moved over dst, and only then the log is truncated, since
+	 * everything in it is now part of the image. A crash therefore leaves either the previous image
+	 * and the log, or the new image.
+	 */
 	public void serialize(Path dst) {
-		try (var ms = MemorySegment.mapFile(dst, 0, imageSize(), MapMode.READ_WRITE)) {
+		var file = staging(dst);
+		var done = false;
+		try (var ms = MemorySegment.mapFile(file, 0, imageSize(), MapMode.READ_WRITE)) {
 			serialize(ms);
+			if (wal != null) {
+				MappedMemorySegments.force(ms);
+			}
+			done = true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (!done) {
+				discard(file, dst);
+			}
+		}
+
+		publish(file, dst);
+	}
+
+	/**
+	 * Writes the same image as {@link BaseCedar#serialize(Path)} with every section compressed,
+	 * which for node arrays usually takes a fraction of the space (see {@link ImageCodec}). Such
+	 * images can only be loaded by deserializeCompressed, which decodes them into fresh buffers.
+	 */
+	public void serializeCompressed(Path dst) {
+		var header = new byte[IMAGE_HEADER];
+		header(MemorySegment.ofArray(header), infos.byteSize(), blocks.byteSize(), reject.byteSize(), checksums(array, infos, blocks, reject, filter, tails));
+
+		var file = staging(dst);
+		var done = false;
+		try (var ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ImageCodec.write(ch, ByteBuffer.wrap(header));
+			ImageCodec.write(ch, array, 0, array.byteSize());
+			ImageCodec.write(ch, infos, 1, infos.byteSize());
+			ImageCodec.write(ch, blocks, 2, blocks.byteSize());
+			ImageCodec.write(ch, reject, 3, reject.byteSize());
+
+			if (filter != null) {
+				ImageCodec.write(ch, filter, 4, filter.byteSize());
+			}
+
+			if (tails != null) {
+				ImageCodec.write(ch, tails, 5, tails.byteSize());
+			}
+
+			if (wal != null) {
+				ch.force(true);
+			}
+			done = true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (!done) {
+				discard(file, dst);
+			}
+		}
+
+		publish(file, dst);
+	}
+
+	/**
+	 * Writes an image with only what lookups need: nodes (get, match, scan, withCommonPrefix and
+	 * suffix), the filter, alphabet and tails, plus infos if withPredict (predict, keys and values).
+	 * Blocks and rejects are dropped, so the image can only be loaded as a lookup-only trie.
+	 */
+	public void serializeReadOnly(Path dst, boolean withPredict) {
+		var infosLen = withPredict ? infos.byteSize() : 0;
+		var size = imageSize() - (infos.byteSize() - infosLen) - blocks.byteSize() - reject.byteSize();
+
+		try (var ms = MemorySegment.mapFile(dst, 0, size, MapMode.READ_WRITE)) {
+			var off = header(ms, infosLen, 0, 0, checksums(array, withPredict ? infos : null, null, null, filter, tails));
+
+			array.copyTo(ms.asSlice(off, array.byteSize()));
+			off += array.byteSize();
+
+			if (withPredict) {
+				infos.copyTo(ms.asSlice(off, infosLen));
+				off += infosLen;
+			}
+
+			if (filter != null) {
+				filter.copyTo(ms.asSlice(off, filter.byteSize()));
+				off += filter.byteSize();
+			}
+
+			if (tails != null) {
+				tails.copyTo(ms.asSlice(off, tails.byteSize()));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return file that an image of dst is written to: dst itself, or with a log attached, a
+	 *         temporary file in the same directory, which {@link BaseCedar#publish(Path, Path)}
+	 *         moves over dst once it's on disk
+	 */
+	final Path staging(Path dst) {
+		if (wal == null) {
+			return dst;
+		}
+		try {
+			var dir = dst.toAbsolutePath().getParent();
+			return Files.createTempFile(dir, dst.getFileName().toString(), ".tmp");
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
 	}
 
+	final byte[] set_child(long base, byte c, byte label, boolean not_terminal) {
+		var child = new byte[32];
+		var pos = 0;
+
+		if (c == 0) {
+			child[pos++] = c;
+			c = infos.sibling(base ^ u32(c));
+		}
+
+		if (ordered()) {
+			while (c != 0 && u32(c) <= u32(label)) {
+				if (pos == child.length) {
+					child = Arrays.copyOf(child, pos + 16);
+				}
+				child[pos++] = c;
+				c = infos.sibling(base ^ u32(c));
+			}
+		}
+
+		if (not_terminal) {
+			if (pos == child.length) {
+				child = Arrays.copyOf(child, pos + 16);
+			}
+			child[pos++] = label;
+		}
+
+		while (c != 0) {
+			if (pos == child.length) {
+				child = Arrays.copyOf(child, pos + 16);
+			}
+			child[pos++] = c;
+			c = infos.sibling(base ^ u32(c));
+		}
+
+		return child.length == pos ? child : Arrays.copyOf(child, pos);
+	}
+
 	final void set_head(int type, int head) {
 		switch (type) {
 		case BLOCK_TYPE_OPEN:
@@ -699,7 +2566,42 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 		}
 	}
 
-	public abstract String suffix(long to, int len);
+	public String suffix(long to, int len) {
+		return suffix(to, len, new byte[len]);
+	}
+
+	public String suffix(long to, int len, byte[] scratch) {
+		var s = suffixBytes(to, len, scratch);
+		return new String(s, 0, len, UTF8);
+	}
+
+	public byte[] suffixBytes(long to, int len) {
+		return suffixBytes(to, len, new byte[len]);
+	}
+
+	/**
+	 * Rebuilds the raw key bytes of len labels ending at node to.
+	 *
+	 * @param to
+	 *            - cursor, e.g. {@link Match#from()}
+	 * @param len
+	 *            - number of bytes
+	 * @param scratch
+	 *            - reused if not null and large enough
+	 * @return scratch or a new array, with the key in the first len bytes
+	 */
+	public byte[] suffixBytes(long to, int len, byte[] scratch) {
+		scratch = scratch == null || scratch.length < len ? new byte[len] : scratch;
+		var decode = this.decode;
+		while (len-- > 0) {
+			var from = check(to);
+			var label = (byte) ((base(from) ^ to) & 0xFF);
+			scratch[len] = decode == null ? label : decode[u32(label)];
+			to = from;
+		}
+
+		return scratch;
+	}
 
 	/**
 	 * Returns the associated suffix with a match.
@@ -717,7 +2619,63 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 	 * @param m
 	 * @return
 	 */
-	public abstract String suffix(Match m);
+	public String suffix(Match m) {
+		return suffix(m.from(), m.length());
+	}
+
+	/**
+	 * Writes, in a background thread, the image {@link BaseCedar#serialize(Path)} would write now,
+	 * while this trie keeps being updated. The call only copies the header and marks the buffers,
+	 * after which the first write to a page (256 nodes, infos, blocks or bytes of tails) the
+	 * snapshot hasn't written yet copies the page aside, like fork() does. So updates pay at most a
+	 * page copy and the pause of this call doesn't depend on the size of the trie. Operations that
+	 * release or shrink buffers while the snapshot runs (e.g. compact) copy what it still needs.
+	 * An attached {@link WriteAheadLog} is not truncated, since it also holds later updates. Like
+	 * every mutation, must be called by the writer.
+	 *
+	 * @return completed with file once the image is on disk
+	 */
+	public final CompletableFuture<Path> snapshotAsync(Path file) {
+		var running = this.snapshot;
+		if (running != null && !running.isDone()) {
+			throw new IllegalStateException("Snapshot in progress");
+		}
+		return this.snapshot = Snapshot.start(this, file);
+	}
+
+	/**
+	 * Flushes a persistent trie to disk. The header is written last, so it never refers to
+	 * sections that were not flushed. An attached {@link WriteAheadLog} is truncated afterwards.
+	 */
+	public final void sync() {
+		var store = this.store;
+		if (store == null) {
+			throw new IllegalStateException("Not persistent");
+		}
+
+		var filter = this.filter;
+		if (filter != null) {
+			try (var ms = map(storeFile, STORE_REGIONS[4], filter.byteSize())) {
+				filter.copyTo(ms);
+				MappedMemorySegments.force(ms);
+			}
+		}
+
+		array.force();
+		infos.force();
+		blocks.force();
+		reject.force();
+		if (tails != null) {
+			tails.force();
+		}
+
+		header(store, infos.byteSize(), blocks.byteSize(), reject.byteSize(), null);
+		MappedMemorySegments.force(store);
+
+		if (wal != null) {
+			wal.truncate();
+		}
+	}
 
 	final void transfer_block(int idx, int from, int to, boolean toBlockEmpty) {
 		var isLast = idx == blocks.next(idx);
@@ -734,11 +2692,117 @@ public sealed abstract class BaseCedar permits Cedar,ReducedCedar {
 	 * @param value
 	 * @return
 	 */
-	public abstract int update(byte[] utf8, int value);
+	public int update(byte[] utf8, int value) {
+		return update(utf8, value, 0, utf8.length);
+	}
+
+	public final int update(byte[] utf8, int value, int start, int end) {
+		guardWritable();
+		reserve(utf8, start, end);
+
+		// overwrites must not count as keys, or the filter is rebuilt every few updates
+		var fresh = filter != null && absent(utf8, start, end);
+
+		var rv = update(utf8, value, 0L, start, end);
+
+		if (fresh) {
+			filter_add(utf8, start, end);
+		}
+
+		if (wal != null) {
+			wal.update(utf8, value, start, end);
+		}
+
+		return rv;
+	}
+
+	/**
+	 * Inserts key[pos, end) below node from.
+	 *
+	 * @return the previous value, 0 if the key was absent
+	 */
+	int update(byte[] key, int value, long from, int pos, int end) {
+		guardUpdate(key, from, pos, end);
+
+		var encode = this.encode;
+		var n = labels_per_byte();
+		while (pos < end) {
+			var b = label(encode, key[pos++]);
+			for (var i = 0; i < n; i++) {
+				from = follow(from, label_of(b, i));
+			}
+		}
+
+		var to = follow(from, (byte) 0);
+
+		return getAndSetBase(to, value);
+	}
+
+	public int update(String key, int value) {
+		return update(utf8(key), value);
+	}
+
+	/**
+	 * Checksum verification of the image this trie was loaded from. Copied and compressed images
+	 * are verified, in parallel per section, before they are returned, so this is always complete
+	 * for them. Mapped images are verified in the background, so that loading stays near-instant,
+	 * in which case this completes exceptionally with a {@link CorruptImageException} if a section
+	 * doesn't match, and the first mutation waits for it. Tries which were not loaded from a
+	 * checksummed image are always verified.
+	 */
+	public final CompletableFuture<Void> verification() {
+		return verification;
+	}
+
+	/**
+	 * @throws CorruptImageException
+	 *             on the first section whose CRC32C doesn't match crcs
+	 */
+	static void verify(CedarBuffer[] sections, int[] crcs) {
+		var actual = checksums(sections);
+		for (var i = 0; i < crcs.length; i++) {
+			if (actual[i] != crcs[i]) {
+				throw new CorruptImageException(i, String.format("Checksum mismatch: expected %08x, found %08x", crcs[i], actual[i]));
+			}
+		}
+	}
+
+	/**
+	 * Log attached by {@link BaseCedar#wal(WriteAheadLog)}, null if none.
+	 */
+	public final WriteAheadLog wal() {
+		return wal;
+	}
+
+	/**
+	 * Replays log on top of the current contents (usually the image the log was started from) and
+	 * then logs every update and erase into it until detached with null. The log is truncated by
+	 * {@link BaseCedar#serialize(Path)}, {@link BaseCedar#serializeCompressed(Path)},
+	 * {@link BaseCedar#checkpoint(Path)} and {@link BaseCedar#sync()}, so it only holds what
+	 * happened after the last image.
+	 *
+	 * @return number of records replayed
+	 */
+	public final long wal(WriteAheadLog log) {
+		this.wal = null;
+		if (log == null) {
+			return 0;
+		}
+		guardWritable();
+		var replayed = log.replay(this);
+		this.wal = log;
+		return replayed;
+	}
 
-	public abstract int update(byte[] utf8, int value, int start, int end);
+	public IntStream values() {
+		return predict("").mapToInt(Match::value);
+	}
 
-	public abstract int update(String key, int value);
+	public Stream<Match> withCommonPrefix(String key) {
+		return withCommonPrefix(utf8(key));
+	}
 
-	public abstract Stream<Match> withCommonPrefix(String key);
+	public Stream<Match> withCommonPrefix(byte[] utf8) {
+		return new PrefixIter(utf8).stream();
+	}
 }
\ No newline at end of file
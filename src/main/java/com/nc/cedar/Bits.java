@@ -1,5 +1,7 @@
 package com.nc.cedar;
 
+import static jdk.internal.misc.Unsafe.ARRAY_BYTE_BASE_OFFSET;
+
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.invoke.MethodType;
@@ -42,6 +44,28 @@ public final class Bits {
 		return U.getByte(s, C_OFF);
 	}
 
+	/**
+	 * 64-bit hash of the slice [start,end) of key, consumed 8 bytes at a time. Not meant to be
+	 * portable across platforms with distinct endianness.
+	 */
+	static long hash(byte[] key, int start, int end) {
+		var h = 0x9E3779B97F4A7C15L ^ (end - start);
+		var off = ARRAY_BYTE_BASE_OFFSET + (long) start;
+		var lim = ARRAY_BYTE_BASE_OFFSET + (long) end;
+
+		for (; off + 8 <= lim; off += 8) {
+			h ^= U.getLongUnaligned(key, off) * 0xC2B2AE3D27D4EB4FL;
+			h = Long.rotateLeft(h, 31) * 0x9E3779B97F4A7C15L;
+		}
+
+		var tail = 0L;
+		for (; off < lim; off++) {
+			tail = (tail << 8) | (U.getByte(key, off) & 0xFF);
+		}
+
+		return mix(h ^ tail);
+	}
+
 	static int i32(long v) {
 		return (int) v;
 	}
@@ -50,6 +74,14 @@ public final class Bits {
 		return jdk.internal.misc.VM.maxDirectMemory();
 	}
 
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+
 	public static String newAscii(byte[] chunk) {
 		return newString(chunk, (byte) 0);
 	}
@@ -0,0 +1,284 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.BaseCedar.ABSENT_OR_NO_VALUE;
+import static com.nc.cedar.BaseCedar.VALUE_LIMIT;
+import static com.nc.cedar.Bits.utf8;
+import static jdk.incubator.foreign.MemoryAccess.getLongAtOffset;
+import static jdk.incubator.foreign.MemoryAccess.setLongAtOffset;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * Trie with 64-bit values, e.g. offsets into large files or packed (file, offset) pairs. Keys are
+ * kept in a {@link Cedar} (or {@link ReducedCedar}) whose int values are slots of a side array of
+ * longs, so a lookup is the usual walk plus a single load. Slots of erased keys are chained in a
+ * free list and reused by later inserts.<br>
+ * Since every long is a valid value, lookups take the value to return for missing keys.
+ *
+ * <pre>
+ * <code>
+ *   var cedar = new Cedar64();
+ *   cedar.updateLong("part-0042", (42L << 40) | offset);
+ *   var packed = cedar.getLong("part-0042", -1);
+ * </code>
+ * </pre>
+ *
+ * @author cmuramoto
+ */
+public final class Cedar64 {
+
+	static final long HEADER = 40;
+
+	static final long NIL = -1;
+
+	public static Cedar64 deserialize(MemorySegment src, boolean copy) {
+		var reduced = getLongAtOffset(src, 0) != 0;
+		var size = getLongAtOffset(src, 8);
+		var free = getLongAtOffset(src, 16);
+		var slots = getLongAtOffset(src, 24);
+		var trieLen = getLongAtOffset(src, 32);
+
+		var image = src.asSlice(HEADER, trieLen);
+		BaseCedar trie = reduced ? ReducedCedar.deserialize(image, copy) : Cedar.deserialize(image, copy);
+
+		var values = new Longs();
+		var ms = src.asSlice(HEADER + align(trieLen), slots * Longs.UNIT);
+		if (copy) {
+			values.copyOf(ms);
+		} else {
+			values.wrap(ms);
+		}
+		values.pos = slots;
+
+		return new Cedar64(trie, values, size, free);
+	}
+
+	public static Cedar64 deserialize(Path src, boolean copy) {
+		MemorySegment ms = null;
+		try {
+			ms = MemorySegment.mapFile(src, 0, Files.size(src), MapMode.READ_WRITE).share();
+			return deserialize(ms, copy);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (ms != null && copy) {
+				ms.close();
+			}
+		}
+	}
+
+	static long align(long len) {
+		return (len + 7) & ~7L;
+	}
+
+	final BaseCedar trie;
+
+	final Longs values;
+
+	long size;
+
+	/**
+	 * Head of the list of free slots, each holding the next one, {@link #NIL} if empty.
+	 */
+	long free;
+
+	public Cedar64() {
+		this(false);
+	}
+
+	public Cedar64(boolean reduced) {
+		this(reduced ? new ReducedCedar() : new Cedar(), new Longs(256), 0, NIL);
+	}
+
+	private Cedar64(BaseCedar trie, Longs values, long size, long free) {
+		this.trie = trie;
+		this.values = values;
+		this.size = size;
+		this.free = free;
+	}
+
+	/**
+	 * @return bytes held by the trie and the value slots
+	 */
+	public long byteSize() {
+		var rv = values.byteSize();
+		for (var v : trie.allocation().values()) {
+			rv += v;
+		}
+		return rv;
+	}
+
+	public void close() {
+		trie.close();
+		values.close();
+	}
+
+	public boolean containsKey(byte[] key) {
+		return (trie.get(key) & ABSENT_OR_NO_VALUE) == 0;
+	}
+
+	public boolean containsKey(String key) {
+		return containsKey(utf8(key));
+	}
+
+	/**
+	 * Removes key and returns its value, or missing if it was not there.
+	 */
+	public long eraseLong(byte[] key, long missing) {
+		var slot = trie.erase(key);
+		if ((slot & ABSENT_OR_NO_VALUE) != 0) {
+			return missing;
+		}
+
+		var values = this.values;
+		var rv = values.at(slot);
+		values.set(slot, free);
+		free = slot;
+		size--;
+
+		return rv;
+	}
+
+	public long eraseLong(String key, long missing) {
+		return eraseLong(utf8(key), missing);
+	}
+
+	public long getLong(byte[] key, long missing) {
+		var slot = trie.get(key);
+		return (slot & ABSENT_OR_NO_VALUE) == 0 ? values.at(slot) : missing;
+	}
+
+	public long getLong(byte[] key, int start, int end, long missing) {
+		var slot = trie.get(key, start, end);
+		return (slot & ABSENT_OR_NO_VALUE) == 0 ? values.at(slot) : missing;
+	}
+
+	public long getLong(String key, long missing) {
+		return getLong(utf8(key), missing);
+	}
+
+	public long imageSize() {
+		return HEADER + align(trie.imageSize()) + values.pos * Longs.UNIT;
+	}
+
+	public boolean isReduced() {
+		return trie.isReduced();
+	}
+
+	/**
+	 * Same as {@link Cedar#predict(String)}, {@link Match#value()} is a slot, see
+	 * {@link #value(Match)}.
+	 */
+	public Stream<Match> predict(String prefix) {
+		return trie.predict(prefix);
+	}
+
+	public void serialize(MemorySegment dst) {
+		var trieLen = trie.imageSize();
+		setLongAtOffset(dst, 0, trie.isReduced() ? 1 : 0);
+		setLongAtOffset(dst, 8, size);
+		setLongAtOffset(dst, 16, free);
+		setLongAtOffset(dst, 24, values.pos);
+		setLongAtOffset(dst, 32, trieLen);
+
+		trie.serialize(dst.asSlice(HEADER, trieLen));
+
+		var len = values.pos * Longs.UNIT;
+		if (len > 0) {
+			dst.asSlice(HEADER + align(trieLen), len).copyFrom(values.buffer.asSlice(0, len));
+		}
+	}
+
+	public void serialize(Path dst) {
+		try (var ms = MemorySegment.mapFile(dst, 0, imageSize(), MapMode.READ_WRITE)) {
+			serialize(ms);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return number of keys
+	 */
+	public long size() {
+		return size;
+	}
+
+	public String suffix(Match m) {
+		return trie.suffix(m);
+	}
+
+	/**
+	 * Associates value with key.
+	 *
+	 * @return the previous value, or 0 if key is new
+	 * @throws IllegalStateException
+	 *             if the trie ran out of slots
+	 */
+	public long updateLong(byte[] key, long value) {
+		return updateLong(key, 0, key.length, value);
+	}
+
+	public long updateLong(byte[] key, int start, int end, long value) {
+		var trie = this.trie;
+		var values = this.values;
+		var slot = trie.get(key, start, end);
+		if ((slot & ABSENT_OR_NO_VALUE) == 0) {
+			var rv = values.at(slot);
+			values.set(slot, value);
+			return rv;
+		}
+
+		var s = free;
+		if (s != NIL) {
+			free = values.at(s);
+		} else {
+			s = values.pos;
+			if (s >= VALUE_LIMIT) {
+				throw new IllegalStateException("Out of value slots");
+			}
+			values.require(1);
+			values.pos++;
+		}
+
+		try {
+			trie.update(key, (int) s, start, end);
+		} catch (MemoryBudgetException e) {
+			// the trie is untouched, so the slot goes back
+			values.set(s, free);
+			free = s;
+			throw e;
+		}
+		values.set(s, value);
+		size++;
+
+		return 0;
+	}
+
+	public long updateLong(String key, long value) {
+		return updateLong(utf8(key), value);
+	}
+
+	/**
+	 * @return the value of a match produced by {@link #predict(String)} or
+	 *         {@link #withCommonPrefix(String)}
+	 */
+	public long value(Match m) {
+		return values.at(m.value());
+	}
+
+	/**
+	 * Same as {@link Cedar#withCommonPrefix(String)}, {@link Match#value()} is a slot, see
+	 * {@link #value(Match)}.
+	 */
+	public Stream<Match> withCommonPrefix(String key) {
+		return trie.withCommonPrefix(key);
+	}
+}
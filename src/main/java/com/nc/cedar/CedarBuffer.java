@@ -1,16 +1,27 @@
 package com.nc.cedar;
 
+import static com.nc.cedar.Bits.U;
 import static jdk.incubator.foreign.MemoryAccess.getByteAtOffset;
 import static jdk.incubator.foreign.MemoryAccess.getIntAtOffset;
+import static jdk.incubator.foreign.MemoryAccess.getLongAtOffset;
 import static jdk.incubator.foreign.MemoryAccess.getShortAtOffset;
 import static jdk.incubator.foreign.MemoryAccess.setByteAtOffset;
 import static jdk.incubator.foreign.MemoryAccess.setIntAtOffset;
+import static jdk.incubator.foreign.MemoryAccess.setLongAtOffset;
 import static jdk.incubator.foreign.MemoryAccess.setShortAtOffset;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.stream.LongStream;
+import java.util.zip.CRC32C;
 
+import jdk.incubator.foreign.MappedMemorySegments;
+import jdk.incubator.foreign.MemoryAddress;
 import jdk.incubator.foreign.MemorySegment;
 
 final class Blocks extends CedarBuffer {
@@ -24,6 +35,14 @@ final class Blocks extends CedarBuffer {
 		return blocks;
 	}
 
+	static Blocks initial_n() {
+		var blocks = new Blocks(1);
+		blocks.push(0, 0, (short) 32, (short) 33, 0, 0);
+		blocks.head(0, 1);
+
+		return blocks;
+	}
+
 	static long safeOffset(long ix) {
 		return ix * UNIT;
 	}
@@ -49,6 +68,7 @@ final class Blocks extends CedarBuffer {
 	}
 
 	void head(long ix, int value) {
+		mark(ix);
 		setIntAtOffset(buffer, safeOffset(ix) + 16, value);
 	}
 
@@ -62,6 +82,7 @@ final class Blocks extends CedarBuffer {
 	}
 
 	void next(long ix, int v) {
+		mark(ix);
 		setIntAtOffset(buffer, safeOffset(ix) + 4, v);
 	}
 
@@ -70,6 +91,7 @@ final class Blocks extends CedarBuffer {
 	}
 
 	void num(long ix, short v) {
+		mark(ix);
 		setShortAtOffset(buffer, safeOffset(ix) + 8, v);
 	}
 
@@ -82,11 +104,13 @@ final class Blocks extends CedarBuffer {
 	}
 
 	void prev(long ix, int v) {
+		mark(ix);
 		setIntAtOffset(buffer, safeOffset(ix), v);
 	}
 
 	void push(int prev, int next, short num, short reject, int trial, int head) {
 		require(1);
+		mark(pos);
 		var off = offset();
 		var buffer = this.buffer;
 		setIntAtOffset(buffer, off, prev);
@@ -108,6 +132,7 @@ final class Blocks extends CedarBuffer {
 	}
 
 	void reject(long ix, short v) {
+		mark(ix);
 		setShortAtOffset(buffer, safeOffset(ix) + 10, v);
 	}
 
@@ -147,10 +172,92 @@ final class Blocks extends CedarBuffer {
 	}
 
 	void trial(long ix, int v) {
+		mark(ix);
 		setIntAtOffset(buffer, safeOffset(ix) + 12, v);
 	}
 }
 
+/**
+ * Blocked bloom filter. Each 64-byte unit is a cache line with 8 words and every key sets one bit
+ * per word, so a probe never touches more than one line. The number of units is always a power of
+ * two.
+ */
+final class Bloom extends CedarBuffer {
+	static final long UNIT = 64;
+
+	static final int BITS_PER_KEY = 10;
+
+	static final int[] SALT = { 0x47B6137B, 0x44974D91, 0x8824AD5B, 0xA2B7289D, 0x705495C7, 0x2DF1424B, 0x9EFC4947, 0x5C6BFB31 };
+
+	static long keys(long units) {
+		return units * UNIT * 8 / BITS_PER_KEY;
+	}
+
+	static long units(long keys) {
+		var bits = Math.max(keys, 1) * BITS_PER_KEY;
+		var n = (bits + UNIT * 8 - 1) / (UNIT * 8);
+		return n == 1 ? 1 : Long.highestOneBit(n - 1) << 1;
+	}
+
+	static Bloom withCapacity(long keys) {
+		var units = units(keys);
+		var bloom = new Bloom(units);
+		bloom.fill(0);
+		bloom.jump(UNIT);
+		return bloom;
+	}
+
+	Bloom() {
+	}
+
+	Bloom(long cap) {
+		super(cap, UNIT);
+	}
+
+	void add(long h) {
+		var off = offset(h);
+		mark(off >>> 6);
+		var b = buffer;
+		var x = (int) h;
+		for (var i = 0; i < 8; i++) {
+			var w = off + (i << 3);
+			setLongAtOffset(b, w, getLongAtOffset(b, w) | (1L << ((x * SALT[i]) >>> 26)));
+		}
+	}
+
+	@Override
+	long alignment() {
+		return UNIT;
+	}
+
+	long keys() {
+		return keys(pos);
+	}
+
+	long offset(long h) {
+		return ((h >>> 32) & (pos - 1)) << 6;
+	}
+
+	@Override
+	void set(MemorySegment buffer, long off) {
+		for (var i = 0; i < UNIT; i += 8) {
+			setLongAtOffset(buffer, off + i, 0L);
+		}
+	}
+
+	boolean test(long h) {
+		var off = offset(h);
+		var b = buffer;
+		var x = (int) h;
+		for (var i = 0; i < 8; i++) {
+			if ((getLongAtOffset(b, off + (i << 3)) & (1L << ((x * SALT[i]) >>> 26))) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
+
 /**
  * Base storage for cedar. Abstract methods are non-performance critical.
  *
@@ -158,8 +265,54 @@ final class Blocks extends CedarBuffer {
  */
 abstract class CedarBuffer {
 
+	/**
+	 * Destination of the bytes written by {@link CedarBuffer#checkpoint(Pages, long, long)}, given
+	 * their position in the store.
+	 */
+	interface Pages {
+		void write(long pos, ByteBuffer src) throws IOException;
+	}
+
 	static final boolean BOUNDS_CHECK = false;
 
+	/**
+	 * When set, buffers are backed by malloc'ed memory and grown with realloc, which for large
+	 * chunks is served by mremap and therefore does not need to hold the old and the new copies at
+	 * once. Wrapping raw addresses is a restricted operation, so the JVM must also be started with
+	 * -Dforeign.restricted=permit.
+	 */
+	static final boolean IN_PLACE = Boolean.getBoolean("Cedar.IN_PLACE");
+
+	/**
+	 * malloc only guarantees 16-byte alignment, buffers asking for more (blocks and filters, which
+	 * are small anyway) keep using allocateNative.
+	 */
+	static final long MALLOC_ALIGNMENT = 16;
+
+	/**
+	 * When set, nodes and infos are stored in fixed-size chunks of 2^CHUNK_SHIFT entries addressed
+	 * by (ix >>> CHUNK_SHIFT, ix & CHUNK_MASK), so growth only appends chunks and never copies
+	 * what is already there. Both are constants, so the JIT folds away the layout test in the
+	 * accessors.
+	 */
+	static final boolean CHUNKED = Boolean.getBoolean("Cedar.CHUNKED");
+
+	static final int CHUNK_SHIFT = Integer.getInteger("Cedar.CHUNK_SHIFT", 20);
+
+	/**
+	 * When set, flat nodes and infos are allocated at 2MB boundaries and advised to be backed by
+	 * transparent huge pages, so random lookups over large tries take fewer TLB misses. See
+	 * {@link HugePages}.
+	 */
+	static final boolean HUGE_PAGES = Boolean.getBoolean("Cedar.HUGE_PAGES");
+
+	static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+	/**
+	 * Dirty pages are 2^DIRTY_SHIFT units: 256 nodes, infos or blocks, or bytes of tails.
+	 */
+	static final int DIRTY_SHIFT = 8;
+
 	static final long toOffset(long ix, long unit) {
 		return ix * unit;
 	}
@@ -168,6 +321,49 @@ abstract class CedarBuffer {
 
 	long pos;
 
+	/**
+	 * Base address of the malloc'ed chunk backing {@link #buffer}, 0 if the segment is owned by
+	 * someone else (allocateNative, mapped files or slices of an image).
+	 */
+	long address;
+
+	/**
+	 * Whether {@link #buffer} is a 2MB-aligned region inside the chunk at {@link #address}, which
+	 * therefore can't be realloc'ed.
+	 */
+	boolean huge;
+
+	/**
+	 * Non-null for buffers in chunked mode, in which case {@link #buffer} is null. Every chunk but
+	 * the last has exactly {@link #chunkBytes()} bytes.
+	 */
+	MemorySegment[] chunks;
+
+	/**
+	 * Non-null for buffers which are a region of a (sparse) file starting at {@link #region}. Such
+	 * buffers grow by remapping a larger region, so the file is always the live image.
+	 */
+	Path file;
+
+	long region;
+
+	/**
+	 * Pages written since the last {@link #checkpoint(Pages, long, long)}, one bit each,
+	 * null until the first one (or after the storage was replaced), which then writes everything.
+	 */
+	long[] dirty;
+
+	/**
+	 * Bytes written by the last checkpoint. Anything past it is written as a whole by the next.
+	 */
+	long clean;
+
+	/**
+	 * Non-null while a {@link Snapshot} is writing this buffer. Its lock excludes the snapshot
+	 * while the storage is replaced.
+	 */
+	Snapshot.Section cow;
+
 	CedarBuffer() {
 	}
 
@@ -178,13 +374,46 @@ abstract class CedarBuffer {
 	 * @param unit
 	 */
 	CedarBuffer(long cap, long unit) {
-		this.buffer = MemorySegment.allocateNative(cap * unit, alignment()).share();
+		if (chunkBytes() > 0) {
+			this.chunks = new MemorySegment[0];
+			rechunk(cap * unit);
+		} else {
+			this.buffer = allocate(cap * unit);
+		}
 	}
 
 	abstract long alignment();
 
+	final MemorySegment allocate(long len) {
+		if (hugePages()) {
+			var addr = HugePages.allocate(len);
+			this.address = addr;
+			this.huge = true;
+			return MemoryAddress.ofLong(HugePages.align(addr)).asSegmentRestricted(len).share();
+		}
+		if (IN_PLACE && alignment() <= MALLOC_ALIGNMENT) {
+			var addr = U.allocateMemory(len);
+			U.setMemory(addr, len, (byte) 0);
+			return adopt(addr, len);
+		}
+		return MemorySegment.allocateNative(len, alignment()).share();
+	}
+
+	private MemorySegment adopt(long addr, long len) {
+		this.address = addr;
+		return MemoryAddress.ofLong(addr).asSegmentRestricted(len).share();
+	}
+
 	final long byteSize() {
-		return buffer.byteSize();
+		var chunks = this.chunks;
+		if (chunks == null) {
+			return buffer.byteSize();
+		}
+		var len = 0L;
+		for (var c : chunks) {
+			len += c.byteSize();
+		}
+		return len;
 	}
 
 	/**
@@ -198,52 +427,443 @@ abstract class CedarBuffer {
 		return byteSize() / unit;
 	}
 
+	/**
+	 * Binds this buffer to the len bytes of file starting at region, extending the file if needed.
+	 */
+	final void attach(Path file, long region, long len) {
+		this.file = file;
+		this.region = region;
+
+		var cb = chunkBytes();
+		if (cb > 0) {
+			var chunks = new MemorySegment[(int) ((len + cb - 1) / cb)];
+			for (var i = 0; i < chunks.length; i++) {
+				chunks[i] = map(i * cb, Math.min(cb, len - i * cb));
+			}
+			this.chunks = chunks;
+		} else {
+			this.buffer = map(0, len);
+		}
+	}
+
+	/**
+	 * Allocates len bytes like {@link #copyOf(MemorySegment)} would, chunks included, but leaves
+	 * filling them to the caller, through {@link #view(long, long)} or
+	 * {@link #copyFrom(long, MemorySegment)}.
+	 */
+	final void bind(long len) {
+		this.dirty = null;
+		if (len == 0) {
+			wrap(MemorySegment.ofArray(new byte[0]));
+		} else if (chunkBytes() > 0) {
+			this.chunks = new MemorySegment[0];
+			rechunk(len);
+		} else {
+			this.buffer = allocate(len);
+		}
+	}
+
+	final MemorySegment chunk(long ix) {
+		return chunks[(int) (ix >>> CHUNK_SHIFT)];
+	}
+
+	/**
+	 * @return bytes per chunk, 0 if this buffer is always contiguous.
+	 */
+	long chunkBytes() {
+		return 0;
+	}
+
+	/**
+	 * @return CRC32C of the contents
+	 */
+	final int crc() {
+		var crc = new CRC32C();
+		var chunks = this.chunks;
+		if (chunks == null) {
+			crc(crc, buffer);
+		} else {
+			for (var c : chunks) {
+				crc(crc, c);
+			}
+		}
+		return (int) crc.getValue();
+	}
+
+	private static void crc(CRC32C crc, MemorySegment seg) {
+		var len = seg.byteSize();
+		for (var off = 0L; off < len; off += 1 << 30) {
+			crc.update(seg.asSlice(off, Math.min(1 << 30, len - off)).asByteBuffer());
+		}
+	}
+
+	/**
+	 * Writes the pages marked since the previous call, and everything past what it wrote, at region
+	 * of dst. Starts tracking afterwards.
+	 *
+	 * @return bytes written
+	 */
+	final long checkpoint(Pages dst, long region, long unit) throws IOException {
+		var written = pages(dst, region, unit);
+		var page = unit << DIRTY_SHIFT;
+
+		this.clean = byteSize();
+		this.dirty = new long[(int) ((clean / page + 64) >>> 6)];
+		return written;
+	}
+
+	/**
+	 * @return bytes the next {@link #checkpoint(Pages, long, long)} will write
+	 */
+	final long pending(long unit) {
+		try {
+			return pages(null, 0, unit);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes the runs of dirty pages and the tail past {@link #clean}, or only counts them if dst is
+	 * null.
+	 */
+	private long pages(Pages dst, long region, long unit) throws IOException {
+		var len = byteSize();
+		var dirty = this.dirty;
+		var page = unit << DIRTY_SHIFT;
+		var from = dirty == null ? 0 : Math.min(clean, len);
+		var written = 0L;
+
+		if (dirty != null) {
+			// coalesces runs of dirty pages into a single write
+			var start = -1L;
+			var end = -1L;
+			for (var w = 0; w < dirty.length; w++) {
+				for (var bits = dirty[w]; bits != 0; bits &= bits - 1) {
+					var off = (((long) w << 6) + Long.numberOfTrailingZeros(bits)) * page;
+					if (off >= from) {
+						break;
+					}
+					if (off != end) {
+						written += write(dst, region, start, end - start);
+						start = off;
+					}
+					end = Math.min(off + page, from);
+				}
+			}
+			written += write(dst, region, start, end - start);
+		}
+		return written + write(dst, region, from, len - from);
+	}
+
 	final void close() {
+		preserve();
+		var chunks = this.chunks;
+		if (chunks != null) {
+			for (var c : chunks) {
+				if (c.isAlive()) {
+					c.close();
+				}
+			}
+		}
 		var b = buffer;
 		if (b != null && b.isAlive()) {
 			b.close();
 		}
+		release();
+	}
+
+	final void copyOf(MemorySegment src) {
+		this.dirty = null;
+		if (src.byteSize() == 0) {
+			// sections dropped from lookup-only images
+			wrap(MemorySegment.ofArray(new byte[0]));
+		} else if (chunkBytes() > 0) {
+			this.chunks = new MemorySegment[0];
+			rechunk(src.byteSize());
+			copyFrom(src);
+		} else {
+			var seg = allocate(src.byteSize());
+			seg.copyFrom(src);
+			this.buffer = seg;
+		}
+	}
+
+	/**
+	 * Copies src to the src.byteSize() bytes starting at off, which may span chunks.
+	 */
+	final void copyFrom(long off, MemorySegment src) {
+		var chunks = this.chunks;
+		var len = src.byteSize();
+		if (chunks == null) {
+			buffer.asSlice(off, len).copyFrom(src);
+		} else {
+			var cb = chunkBytes();
+			for (var done = 0L; done < len;) {
+				var c = chunks[(int) ((off + done) / cb)];
+				var at = (off + done) % cb;
+				var n = Math.min(len - done, c.byteSize() - at);
+				c.asSlice(at, n).copyFrom(src.asSlice(done, n));
+				done += n;
+			}
+		}
+	}
+
+	private void copyFrom(MemorySegment src) {
+		var off = 0L;
+		for (var c : chunks) {
+			c.copyFrom(src.asSlice(off, c.byteSize()));
+			off += c.byteSize();
+		}
+	}
+
+	final void copyTo(MemorySegment dst) {
+		var chunks = this.chunks;
+		if (chunks == null) {
+			dst.copyFrom(buffer);
+		} else {
+			var off = 0L;
+			for (var c : chunks) {
+				dst.asSlice(off, c.byteSize()).copyFrom(c);
+				off += c.byteSize();
+			}
+		}
+	}
+
+	/**
+	 * Copies the dst.byteSize() bytes starting at off, which may span chunks.
+	 */
+	final void copyTo(long off, MemorySegment dst) {
+		var chunks = this.chunks;
+		var len = dst.byteSize();
+		if (chunks == null) {
+			dst.copyFrom(buffer.asSlice(off, len));
+		} else {
+			var cb = chunkBytes();
+			for (var done = 0L; done < len;) {
+				var c = chunks[(int) ((off + done) / cb)];
+				var at = (off + done) % cb;
+				var n = Math.min(len - done, c.byteSize() - at);
+				dst.asSlice(done, n).copyFrom(c.asSlice(at, n));
+				done += n;
+			}
+		}
 	}
 
 	final void fill(int b) {
-		buffer.fill((byte) b);
+		var chunks = this.chunks;
+		if (chunks == null) {
+			buffer.fill((byte) b);
+		} else {
+			for (var c : chunks) {
+				c.fill((byte) b);
+			}
+		}
 	}
 
 	final void grow(long more, long unit) {
-		var newLen = more * unit + buffer.byteSize();
+		swap(more * unit + byteSize());
+	}
+
+	/**
+	 * @return bytes of a buffer allocated with {@link HugePages} that are backed by huge pages
+	 */
+	final long hugePageBytes() {
+		return huge ? HugePages.backed(buffer) : 0;
+	}
 
-		var next = MemorySegment.allocateNative(newLen, alignment()).share();
+	/**
+	 * @return whether this buffer should be allocated with {@link HugePages}
+	 */
+	boolean hugePages() {
+		return false;
+	}
 
-		var curr = this.buffer;
+	/**
+	 * Moves the buffer to a malloc'ed chunk, so that further growth happens in place. No-op if it
+	 * already is or if its alignment can't be honored by malloc.
+	 */
+	final void inPlace() {
+		if (file == null && chunks == null && address == 0 && alignment() <= MALLOC_ALIGNMENT) {
+			preserve();
+			var curr = this.buffer;
+			var addr = U.allocateMemory(curr.byteSize());
+			var next = adopt(addr, curr.byteSize());
+			next.copyFrom(curr);
 
-		next.copyFrom(curr);
+			if (!curr.isMapped()) {
+				curr.close();
+			}
 
-		if (!curr.isMapped()) {
-			this.buffer.close();
+			this.buffer = next;
 		}
-
-		this.buffer = next;
 	}
 
 	final boolean isMapped() {
+		var chunks = this.chunks;
+		if (chunks != null) {
+			return chunks.length > 0 && chunks[0].isMapped();
+		}
 		var b = buffer;
 		return b != null && b.isMapped();
 	}
 
+	final void force() {
+		var chunks = this.chunks;
+		if (chunks != null) {
+			for (var c : chunks) {
+				MappedMemorySegments.force(c);
+			}
+		} else {
+			MappedMemorySegments.force(buffer);
+		}
+	}
+
 	final void jump(long unit) {
 		pos = cap(unit);
 	}
 
 	final void resize(long newSize, long unit) {
 		var newLen = newSize * unit;
-		var curr = this.buffer;
 
 		// should not reach here
-		if (newLen == curr.byteSize()) {
+		if (newLen == byteSize()) {
+			return;
+		}
+
+		var ix = this.pos;
+		this.pos = newSize;
+		mark(ix, newSize);
+		swap(newLen);
+
+		if (chunks != null) {
+			for (; ix < newSize; ix++) {
+				set(chunk(ix), toOffset(ix & CHUNK_MASK, unit));
+			}
 			return;
 		}
 
-		var next = MemorySegment.allocateNative(newLen, alignment()).share();
+		var next = this.buffer;
+		var off = toOffset(ix, unit);
+
+		for (; ix < newSize; ix++) {
+			set(next, off);
+			off += unit;
+		}
+	}
+
+	/**
+	 * Marks the page of unit ix as dirty. Must precede every write, so that a running snapshot can
+	 * copy the page first.
+	 */
+	final void mark(long ix) {
+		var dirty = this.dirty;
+		if (dirty != null) {
+			var w = (int) (ix >>> (DIRTY_SHIFT + 6));
+			if (w < dirty.length) {
+				dirty[w] |= 1L << (ix >>> DIRTY_SHIFT);
+			}
+		}
+		var cow = this.cow;
+		if (cow != null) {
+			cow.before(ix);
+		}
+	}
+
+	/**
+	 * Marks the pages of units [from, to) as dirty.
+	 */
+	final void mark(long from, long to) {
+		if (dirty != null || cow != null) {
+			for (var p = from >>> DIRTY_SHIFT; p <= (to - 1) >>> DIRTY_SHIFT; p++) {
+				mark(p << DIRTY_SHIFT);
+			}
+		}
+	}
+
+	private MemorySegment map(long off, long len) {
+		try {
+			return MemorySegment.mapFile(file, region + off, len, MapMode.READ_WRITE).share();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Moves the contents of this buffer into a region of file and keeps it mapped from there on.
+	 */
+	final void persist(Path file, long region) {
+		preserve();
+		var chunks = this.chunks;
+		var curr = this.buffer;
+		var len = byteSize();
+
+		attach(file, region, len);
+
+		if (chunks != null) {
+			for (var i = 0; i < chunks.length; i++) {
+				this.chunks[i].copyFrom(chunks[i]);
+				if (!chunks[i].isMapped()) {
+					chunks[i].close();
+				}
+			}
+		} else {
+			buffer.copyFrom(curr);
+			if (!curr.isMapped()) {
+				curr.close();
+			}
+			release();
+		}
+	}
+
+	/**
+	 * Lets a running snapshot copy every page it has not written yet, before the storage is
+	 * released or moved.
+	 */
+	private void preserve() {
+		var cow = this.cow;
+		if (cow != null) {
+			cow.preserve(0);
+		}
+	}
+
+	/**
+	 * Replaces the current buffer by one with newLen bytes, preserving its contents up to
+	 * min(byteSize, newLen). Bytes past the old size are zeroed.
+	 */
+	private MemorySegment reallocate(long newLen) {
+		var curr = this.buffer;
+		var addr = this.address;
+		clean = Math.min(clean, newLen);
+
+		if (file != null) {
+			// same pages, the file is extended (with zeroes) if needed
+			var next = map(0, newLen);
+			curr.close();
+			return next;
+		}
+
+		if (huge) {
+			// realloc would not keep the alignment
+			var next = allocate(newLen);
+			next.copyFrom(curr.byteSize() > newLen ? curr.asSlice(0, newLen) : curr);
+			curr.close();
+			U.freeMemory(addr);
+			return next;
+		}
+
+		if (addr != 0) {
+			var len = curr.byteSize();
+			// segment does not own the memory, this only invalidates it
+			curr.close();
+			addr = U.reallocateMemory(addr, newLen);
+			if (newLen > len) {
+				U.setMemory(addr + len, newLen - len, (byte) 0);
+			}
+			return adopt(addr, newLen);
+		}
+
+		var next = allocate(newLen);
 
 		// are we shrinking ???
 		if (curr.byteSize() > newLen) {
@@ -256,16 +876,64 @@ abstract class CedarBuffer {
 			curr.close();
 		}
 
-		var ix = this.pos;
-		this.pos = newSize;
-		var off = toOffset(ix, unit);
+		return next;
+	}
 
-		for (; ix < newSize; ix++) {
-			set(next, off);
-			off += unit;
+	/**
+	 * Resizes the chunk table to hold newLen bytes. Only the last chunk can be partial, so full
+	 * chunks are never copied: a partial tail (small tries, or chunks sliced from an image) is
+	 * widened, which copies at most {@link #chunkBytes()} bytes.
+	 */
+	private void rechunk(long newLen) {
+		var cb = chunkBytes();
+		var curr = this.chunks;
+		var n = (int) ((newLen + cb - 1) / cb);
+		clean = Math.min(clean, newLen);
+		var next = Arrays.copyOf(curr, n);
+
+		// shrinking drops (or narrows) trailing chunks
+		for (var i = n; i < curr.length; i++) {
+			if (!curr[i].isMapped()) {
+				curr[i].close();
+			}
+		}
+
+		var from = Math.min(curr.length, n);
+		if (from > 0) {
+			var last = from - 1;
+			var len = Math.min(cb, newLen - last * cb);
+			var c = curr[last];
+			if (c.byteSize() != len) {
+				MemorySegment seg;
+				if (file != null) {
+					seg = map(last * cb, len);
+					c.close();
+				} else {
+					seg = MemorySegment.allocateNative(len, alignment()).share();
+					seg.copyFrom(c.byteSize() > len ? c.asSlice(0, len) : c);
+					if (!c.isMapped()) {
+						c.close();
+					}
+				}
+				next[last] = seg;
+			}
+		}
+
+		for (var i = from; i < n; i++) {
+			var len = Math.min(cb, newLen - i * cb);
+			next[i] = file != null ? map(i * cb, len) : MemorySegment.allocateNative(len, alignment()).share();
 		}
 
-		this.buffer = next;
+		this.chunks = next;
+	}
+
+	private void release() {
+		var addr = this.address;
+		if (addr != 0) {
+			this.address = 0;
+			this.huge = false;
+			U.freeMemory(addr);
+		}
 	}
 
 	@SuppressWarnings("unused")
@@ -279,9 +947,153 @@ abstract class CedarBuffer {
 
 	abstract void set(MemorySegment buffer, long offset);
 
+	/**
+	 * Resizes the storage to newLen bytes, excluding a running snapshot, which reads the pages it
+	 * has not written yet from it.
+	 */
+	private void swap(long newLen) {
+		var cow = this.cow;
+		if (cow == null) {
+			storage(newLen);
+		} else {
+			synchronized (cow) {
+				cow.preserve(newLen);
+				storage(newLen);
+			}
+		}
+	}
+
+	private void storage(long newLen) {
+		if (chunks != null) {
+			rechunk(newLen);
+		} else {
+			this.buffer = reallocate(newLen);
+		}
+	}
+
+	/**
+	 * Releases the storage of this buffer and takes over other's, which is left empty.
+	 */
+	final void take(CedarBuffer other) {
+		close();
+		this.dirty = null;
+		this.buffer = other.buffer;
+		this.chunks = other.chunks;
+		this.address = other.address;
+		this.huge = other.huge;
+		this.file = other.file;
+		this.region = other.region;
+		this.pos = other.pos;
+
+		other.buffer = null;
+		other.chunks = null;
+		other.address = 0;
+		other.huge = false;
+		other.file = null;
+	}
+
+	/**
+	 * Adopts src without copying. In chunked mode chunks are slices of src.
+	 */
+	/**
+	 * @return the len bytes starting at off, or null if they span chunks
+	 */
+	final MemorySegment view(long off, long len) {
+		var chunks = this.chunks;
+		if (chunks == null) {
+			return buffer.asSlice(off, len);
+		}
+		var cb = chunkBytes();
+		var c = chunks[(int) (off / cb)];
+		var at = off % cb;
+		return at + len <= c.byteSize() ? c.asSlice(at, len) : null;
+	}
+
+	final void wrap(MemorySegment src) {
+		this.dirty = null;
+		var cb = chunkBytes();
+		if (cb > 0) {
+			var len = src.byteSize();
+			var chunks = new MemorySegment[(int) ((len + cb - 1) / cb)];
+			for (var i = 0; i < chunks.length; i++) {
+				chunks[i] = src.asSlice(i * cb, Math.min(cb, len - i * cb));
+			}
+			this.chunks = chunks;
+		} else {
+			this.buffer = src;
+		}
+	}
+
 	final long totalSize() {
 		return 8 * 2 + byteSize();
 	}
+
+	/**
+	 * Writes the len bytes starting at off, which may span chunks, at region + off of ch.
+	 *
+	 * @return len
+	 */
+	private long write(Pages dst, long region, long off, long len) throws IOException {
+		if (len <= 0) {
+			return 0;
+		}
+		if (dst == null) {
+			return len;
+		}
+		var chunks = this.chunks;
+		var cb = chunks == null ? len : chunkBytes();
+		for (var done = 0L; done < len;) {
+			var at = chunks == null ? off + done : (off + done) % cb;
+			var c = chunks == null ? buffer : chunks[(int) ((off + done) / cb)];
+			var n = Math.min(len - done, c.byteSize() - at);
+			dst.write(region + off + done, c.asSlice(at, n).asByteBuffer());
+			done += n;
+		}
+		return len;
+	}
+}
+
+/**
+ * Slots of 64-bit values of a {@link Cedar64}. pos is the number of slots handed out so far.
+ */
+final class Longs extends CedarBuffer {
+	static final long UNIT = 8;
+
+	static long safeOffset(long ix) {
+		return ix << 3;
+	}
+
+	Longs() {
+	}
+
+	Longs(long cap) {
+		super(cap, UNIT);
+	}
+
+	@Override
+	long alignment() {
+		return 8;
+	}
+
+	long at(long ix) {
+		return getLongAtOffset(buffer, safeOffset(ix));
+	}
+
+	void require(long n) {
+		var cap = cap(UNIT);
+		if ((pos + n) > cap) {
+			grow(Math.max(n, cap), UNIT);
+		}
+	}
+
+	void set(long ix, long v) {
+		setLongAtOffset(buffer, safeOffset(ix), v);
+	}
+
+	@Override
+	void set(MemorySegment buffer, long off) {
+		setLongAtOffset(buffer, off, 0L);
+	}
 }
 
 final class NodeInfos extends CedarBuffer {
@@ -294,6 +1106,17 @@ final class NodeInfos extends CedarBuffer {
 		return infos;
 	}
 
+	static NodeInfos initial_n() {
+		var infos = new NodeInfos(32);
+		infos.fill(0);
+		infos.jump(UNIT);
+		return infos;
+	}
+
+	static long chunkOffset(long ix) {
+		return (ix & CHUNK_MASK) << 1;
+	}
+
 	static long safeOffset(long ix) {
 		return ix << 1;
 	}
@@ -311,11 +1134,29 @@ final class NodeInfos extends CedarBuffer {
 	}
 
 	byte child(long ix) {
+		if (CHUNKED) {
+			return getByteAtOffset(chunk(ix), chunkOffset(ix) + 1L);
+		}
 		return getByteAtOffset(buffer, safeOffset(ix) + 1L);
 	}
 
 	void child(long ix, byte v) {
-		setByteAtOffset(buffer, safeOffset(ix) + 1, v);
+		mark(ix);
+		if (CHUNKED) {
+			setByteAtOffset(chunk(ix), chunkOffset(ix) + 1, v);
+		} else {
+			setByteAtOffset(buffer, safeOffset(ix) + 1, v);
+		}
+	}
+
+	@Override
+	long chunkBytes() {
+		return CHUNKED ? UNIT << CHUNK_SHIFT : 0;
+	}
+
+	@Override
+	boolean hugePages() {
+		return HUGE_PAGES;
 	}
 
 	long offset() {
@@ -324,6 +1165,11 @@ final class NodeInfos extends CedarBuffer {
 
 	void push(byte sibling, byte child) {
 		require(1);
+		mark(pos);
+		if (CHUNKED) {
+			set(pos++, sibling, child);
+			return;
+		}
 		var off = offset();
 		setByteAtOffset(buffer, off, sibling);
 		setByteAtOffset(buffer, off + 1, child);
@@ -342,9 +1188,11 @@ final class NodeInfos extends CedarBuffer {
 	}
 
 	void set(long ix, byte sibling, byte child) {
-		var off = safeOffset(ix);
-		setByteAtOffset(buffer, off, sibling);
-		setByteAtOffset(buffer, off + 1, child);
+		mark(ix);
+		var b = CHUNKED ? chunk(ix) : buffer;
+		var off = CHUNKED ? chunkOffset(ix) : safeOffset(ix);
+		setByteAtOffset(b, off, sibling);
+		setByteAtOffset(b, off + 1, child);
 	}
 
 	@Override
@@ -353,15 +1201,27 @@ final class NodeInfos extends CedarBuffer {
 	}
 
 	byte sibling(long ix) {
+		if (CHUNKED) {
+			return getByteAtOffset(chunk(ix), chunkOffset(ix));
+		}
 		return getByteAtOffset(buffer, safeOffset(ix));
 	}
 
 	void sibling(long ix, byte v) {
-		setByteAtOffset(buffer, safeOffset(ix), v);
+		mark(ix);
+		if (CHUNKED) {
+			setByteAtOffset(chunk(ix), chunkOffset(ix), v);
+		} else {
+			setByteAtOffset(buffer, safeOffset(ix), v);
+		}
 	}
 }
 
-final class Nodes extends CedarBuffer {
+/**
+ * base and check of every node as ints. Not final only for {@link WideNodes}, which doesn't
+ * override any accessor, so calls on Nodes stay monomorphic.
+ */
+class Nodes extends CedarBuffer {
 
 	static final long UNIT = 8;
 
@@ -376,6 +1236,17 @@ final class Nodes extends CedarBuffer {
 		return array;
 	}
 
+	static Nodes initial_n() {
+		var array = new Nodes(32);
+		array.push(0, -1);
+		for (var i = 1; i < 32; i++) {
+			array.push(-(i - 1), -(i + 1));
+		}
+		array.base(1, -31);
+		array.check(31, -1);
+		return array;
+	}
+
 	static Nodes initial_r() {
 		var array = new Nodes(256);
 		array.push(-1, -1);
@@ -387,6 +1258,10 @@ final class Nodes extends CedarBuffer {
 		return array;
 	}
 
+	static long chunkOffset(long ix) {
+		return (ix & CHUNK_MASK) << 3;
+	}
+
 	static long safeOffset(long ix) {
 		return ix << 3;
 	}
@@ -398,35 +1273,67 @@ final class Nodes extends CedarBuffer {
 		super(cap, UNIT);
 	}
 
+	Nodes(long cap, long unit) {
+		super(cap, unit);
+	}
+
 	@Override
 	long alignment() {
 		return 8;
 	}
 
 	int base(long ix) {
+		if (CHUNKED) {
+			return getIntAtOffset(chunk(ix), chunkOffset(ix));
+		}
 		return getIntAtOffset(buffer, safeOffset(ix));
 	}
 
 	void base(long ix, int v) {
-		setIntAtOffset(buffer, safeOffset(ix), v);
+		mark(ix);
+		if (CHUNKED) {
+			setIntAtOffset(chunk(ix), chunkOffset(ix), v);
+		} else {
+			setIntAtOffset(buffer, safeOffset(ix), v);
+		}
 	}
 
 	int base_r(long ix) {
-		return -(getIntAtOffset(buffer, safeOffset(ix)) + 1);
+		return -(base(ix) + 1);
 	}
 
 	int check(long ix) {
+		if (CHUNKED) {
+			return getIntAtOffset(chunk(ix), chunkOffset(ix) + 4);
+		}
 		return getIntAtOffset(buffer, safeOffset(ix) + 4);
 	}
 
 	void check(long ix, int v) {
-		setIntAtOffset(buffer, safeOffset(ix) + 4, v);
+		mark(ix);
+		if (CHUNKED) {
+			setIntAtOffset(chunk(ix), chunkOffset(ix) + 4, v);
+		} else {
+			setIntAtOffset(buffer, safeOffset(ix) + 4, v);
+		}
+	}
+
+	@Override
+	long chunkBytes() {
+		return CHUNKED ? UNIT << CHUNK_SHIFT : 0;
+	}
+
+	@Override
+	boolean hugePages() {
+		return HUGE_PAGES;
 	}
 
 	int getAndSetBase(long ix, int v) {
-		var off = safeOffset(ix);
-		var rv = getIntAtOffset(buffer, off);
-		setIntAtOffset(buffer, off, v);
+		mark(ix);
+		var b = CHUNKED ? chunk(ix) : buffer;
+		var off = CHUNKED ? chunkOffset(ix) : safeOffset(ix);
+		var rv = getIntAtOffset(b, off);
+		setIntAtOffset(b, off, v);
 		return rv;
 	}
 
@@ -436,6 +1343,11 @@ final class Nodes extends CedarBuffer {
 
 	void push(int base, int check) {
 		require(1);
+		mark(pos);
+		if (CHUNKED) {
+			set(pos++, base, check);
+			return;
+		}
 		var off = offset();
 		var b = buffer;
 		setIntAtOffset(b, off, base);
@@ -453,10 +1365,19 @@ final class Nodes extends CedarBuffer {
 		super.resize(newLen, UNIT);
 	}
 
+	/**
+	 * @return bytes per node
+	 */
+	long unit() {
+		return UNIT;
+	}
+
 	void set(long ix, int base, int check) {
-		var off = safeOffset(ix);
-		setIntAtOffset(buffer, off, base);
-		setIntAtOffset(buffer, off + 4, check);
+		mark(ix);
+		var b = CHUNKED ? chunk(ix) : buffer;
+		var off = CHUNKED ? chunkOffset(ix) : safeOffset(ix);
+		setIntAtOffset(b, off, base);
+		setIntAtOffset(b, off + 4, check);
 	}
 
 	@Override
@@ -473,6 +1394,210 @@ final class Nodes extends CedarBuffer {
 
 }
 
+/**
+ * Nodes of a {@link WideCedar}, with 64-bit base and check. Accessors are suffixed with _w, the
+ * int ones inherited from {@link Nodes} must not be used.
+ */
+final class WideNodes extends Nodes {
+
+	static final long UNIT = 16;
+
+	static WideNodes initial() {
+		var array = new WideNodes(256);
+		array.push_w(0, -1);
+		for (var i = 1; i < 256; i++) {
+			array.push_w(-(i - 1), -(i + 1));
+		}
+		array.base_w(1, -255);
+		array.check_w(255, -1);
+		return array;
+	}
+
+	static long chunkOffset(long ix) {
+		return (ix & CHUNK_MASK) << 4;
+	}
+
+	static long safeOffset(long ix) {
+		return ix << 4;
+	}
+
+	WideNodes() {
+	}
+
+	WideNodes(long cap) {
+		super(cap, UNIT);
+	}
+
+	@Override
+	long alignment() {
+		return 16;
+	}
+
+	long base_w(long ix) {
+		if (CHUNKED) {
+			return getLongAtOffset(chunk(ix), chunkOffset(ix));
+		}
+		return getLongAtOffset(buffer, safeOffset(ix));
+	}
+
+	void base_w(long ix, long v) {
+		mark(ix);
+		if (CHUNKED) {
+			setLongAtOffset(chunk(ix), chunkOffset(ix), v);
+		} else {
+			setLongAtOffset(buffer, safeOffset(ix), v);
+		}
+	}
+
+	@Override
+	long chunkBytes() {
+		return CHUNKED ? UNIT << CHUNK_SHIFT : 0;
+	}
+
+	long check_w(long ix) {
+		if (CHUNKED) {
+			return getLongAtOffset(chunk(ix), chunkOffset(ix) + 8);
+		}
+		return getLongAtOffset(buffer, safeOffset(ix) + 8);
+	}
+
+	void check_w(long ix, long v) {
+		mark(ix);
+		if (CHUNKED) {
+			setLongAtOffset(chunk(ix), chunkOffset(ix) + 8, v);
+		} else {
+			setLongAtOffset(buffer, safeOffset(ix) + 8, v);
+		}
+	}
+
+	long getAndSetBase_w(long ix, long v) {
+		mark(ix);
+		var b = CHUNKED ? chunk(ix) : buffer;
+		var off = CHUNKED ? chunkOffset(ix) : safeOffset(ix);
+		var rv = getLongAtOffset(b, off);
+		setLongAtOffset(b, off, v);
+		return rv;
+	}
+
+	@Override
+	long offset() {
+		return pos << 4;
+	}
+
+	void push_w(long base, long check) {
+		require(1);
+		set_w(pos++, base, check);
+	}
+
+	@Override
+	void require(long n) {
+		if ((pos + n) > cap(UNIT)) {
+			grow(n, UNIT);
+		}
+	}
+
+	@Override
+	void resize(long newLen) {
+		super.resize(newLen, UNIT);
+	}
+
+	@Override
+	void set(MemorySegment buffer, long off) {
+		setLongAtOffset(buffer, off, 0);
+		setLongAtOffset(buffer, off + 8, 0);
+	}
+
+	void set_w(long ix, long base, long check) {
+		mark(ix);
+		var b = CHUNKED ? chunk(ix) : buffer;
+		var off = CHUNKED ? chunkOffset(ix) : safeOffset(ix);
+		setLongAtOffset(b, off, base);
+		setLongAtOffset(b, off + 8, check);
+	}
+
+	@Override
+	public String toString() {
+		var objs = LongStream.range(0, pos).mapToObj(ix -> Map.of("base", base_w(ix), "check", check_w(ix))).toArray();
+		return Arrays.toString(objs);
+	}
+
+	@Override
+	long unit() {
+		return UNIT;
+	}
+}
+
+/**
+ * Append-only log of the payloads of a {@link PayloadCedar}, as [len][bytes] records padded to 8
+ * bytes, so payloads are 8-byte aligned. pos is the number of bytes in use. The first 8 bytes are
+ * never used, so no record lives at offset 0.
+ */
+final class Payloads extends CedarBuffer {
+	static final long UNIT = 1;
+
+	static Payloads initial(long cap) {
+		var p = new Payloads(Math.max(cap, 256));
+		p.pos = 8;
+		return p;
+	}
+
+	/**
+	 * @return bytes taken by a record with a payload of len bytes
+	 */
+	static long record(long len) {
+		return 8 + ((len + 7) & ~7L);
+	}
+
+	Payloads() {
+	}
+
+	Payloads(long cap) {
+		super(cap, UNIT);
+	}
+
+	@Override
+	long alignment() {
+		return 8;
+	}
+
+	/**
+	 * @return offset of a new record holding a copy of payload
+	 */
+	long append(MemorySegment payload) {
+		var len = payload.byteSize();
+		require(record(len));
+
+		var off = pos;
+		var b = buffer;
+		setLongAtOffset(b, off, len);
+		if (len > 0) {
+			b.asSlice(off + 8, len).copyFrom(payload);
+		}
+
+		pos += record(len);
+		return off;
+	}
+
+	long length(long off) {
+		return getLongAtOffset(buffer, off);
+	}
+
+	void require(long n) {
+		if ((pos + n) > byteSize()) {
+			grow(Math.max(n, byteSize()), UNIT);
+		}
+	}
+
+	@Override
+	void set(MemorySegment buffer, long off) {
+		setByteAtOffset(buffer, off, (byte) 0);
+	}
+
+	MemorySegment slice(long off) {
+		return buffer.asSlice(off + 8, length(off));
+	}
+}
+
 /**
  * Poor man's pointer to emulate pass by ref
  */
@@ -491,6 +1616,14 @@ final class Rejects extends CedarBuffer {
 		return reject;
 	}
 
+	static Rejects initial_n() {
+		var reject = new Rejects(33);
+		for (short j = 0; j < 33; j++) {
+			reject.push((short) (j + 1));
+		}
+		return reject;
+	}
+
 	static long safeOffset(long ix) {
 		return ix << 1;
 	}
@@ -517,6 +1650,7 @@ final class Rejects extends CedarBuffer {
 
 	void push(short r) {
 		require(1);
+		mark(pos);
 		var off = offset();
 		var b = buffer;
 		setShortAtOffset(b, off, r);
@@ -530,6 +1664,7 @@ final class Rejects extends CedarBuffer {
 	}
 
 	void set(long ix, short v) {
+		mark(ix);
 		setShortAtOffset(buffer, safeOffset(ix), v);
 	}
 
@@ -554,4 +1689,148 @@ final class Rejects extends CedarBuffer {
  */
 interface Scratch {
 	void set(long from, long p, long value);
-}
\ No newline at end of file
+}
+
+/**
+ * Suffixes of the single-key branches of a {@link TailCedar}, appended as [len][bytes][value]
+ * records. pos is the number of bytes in use.
+ */
+final class Tails extends CedarBuffer {
+	static final long UNIT = 1;
+
+	static Tails initial() {
+		return new Tails(256);
+	}
+
+	Tails() {
+	}
+
+	Tails(long cap) {
+		super(cap, UNIT);
+	}
+
+	@Override
+	long alignment() {
+		return 8;
+	}
+
+	/**
+	 * @return offset of a new record holding key[start, end) and value
+	 */
+	long append(byte[] key, int start, int end, int value) {
+		var len = end - start;
+		require(8 + len);
+
+		var off = pos;
+		if (off + 8 + len > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Tails are limited to 2GB");
+		}
+
+		mark(off, off + 8 + len);
+		var b = buffer;
+		setIntAtOffset(b, off, len);
+		for (var i = 0; i < len; i++) {
+			setByteAtOffset(b, off + 4 + i, key[start + i]);
+		}
+		setIntAtOffset(b, off + 4 + len, value);
+
+		pos += 8 + len;
+		return off;
+	}
+
+	byte at(long tail, int i) {
+		return getByteAtOffset(buffer, tail + 4 + i);
+	}
+
+	/**
+	 * @return length of the common prefix of the tail and key[start, end)
+	 */
+	int common(long tail, byte[] key, int start, int end) {
+		var b = buffer;
+		var n = Math.min(getIntAtOffset(b, tail), end - start);
+		var i = 0;
+		while (i < n && getByteAtOffset(b, tail + 4 + i) == key[start + i]) {
+			i++;
+		}
+		return i;
+	}
+
+	int length(long tail) {
+		return getIntAtOffset(buffer, tail);
+	}
+
+	void require(long n) {
+		if ((pos + n) > byteSize()) {
+			grow(Math.max(n, byteSize()), UNIT);
+		}
+	}
+
+	@Override
+	void set(MemorySegment buffer, long off) {
+		setByteAtOffset(buffer, off, (byte) 0);
+	}
+
+	/**
+	 * Drops the first byte of a tail by writing a shorter record one byte ahead, over the length
+	 * and the byte that was dropped.
+	 *
+	 * @return offset of the shorter record
+	 */
+	long shift(long tail) {
+		var len = length(tail);
+		mark(tail + 1, tail + 5);
+		setIntAtOffset(buffer, tail + 1, len - 1);
+		return tail + 1;
+	}
+
+	/**
+	 * Releases the spare capacity left by growth.
+	 */
+	void trim() {
+		var used = pos;
+		resize(Math.max(used, 8), UNIT);
+		pos = used;
+	}
+
+	int value(long tail) {
+		return getIntAtOffset(buffer, tail + 4 + length(tail));
+	}
+
+	void value(long tail, int v) {
+		var off = tail + 4 + length(tail);
+		mark(off, off + 4);
+		setIntAtOffset(buffer, off, v);
+	}
+}
+
+/**
+ * Packed 4-byte units of a {@link StaticCedar}. Written once by the builder and never grown.
+ */
+final class Units extends CedarBuffer {
+	static final long UNIT = 4;
+
+	static long safeOffset(long ix) {
+		return ix << 2;
+	}
+
+	Units() {
+	}
+
+	Units(long cap) {
+		super(cap, UNIT);
+	}
+
+	@Override
+	long alignment() {
+		return 4;
+	}
+
+	int at(long ix) {
+		return getIntAtOffset(buffer, safeOffset(ix));
+	}
+
+	@Override
+	void set(MemorySegment buffer, long off) {
+		setIntAtOffset(buffer, off, 0);
+	}
+}
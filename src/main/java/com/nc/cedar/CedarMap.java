@@ -0,0 +1,265 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.BaseCedar.ABSENT_OR_NO_VALUE;
+import static com.nc.cedar.Bits.utf8;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * {@link Map} from strings to objects with keys stored in a trie instead of on heap. The trie's
+ * value is an index in a table of slots, and slots of removed keys are kept in an int free list for
+ * later puts. With no key objects and a single array of values, there's little left for the GC to
+ * trace when compared to a {@link java.util.HashMap}.<br>
+ * Lookups with byte[] keys ({@link #get(byte[])}, {@link #containsKey(byte[])}) don't allocate.
+ * Iterators walk the trie like {@link Cedar#predict(String)}, which is not necessarily key order,
+ * and don't support removal. Keys are rebuilt from the trie, so iterating allocates.<br>
+ * Like the tries, this class is not thread-safe.
+ *
+ * @param <V>
+ *            - value type
+ *
+ * @author cmuramoto
+ */
+public final class CedarMap<V> extends AbstractMap<String, V> {
+
+	final class Entry implements Map.Entry<String, V> {
+		final String key;
+		final int slot;
+
+		Entry(String key, int slot) {
+			this.key = key;
+			this.slot = slot;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Map.Entry<?, ?> e && key.equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+		}
+
+		@Override
+		public String getKey() {
+			return key;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public V getValue() {
+			return (V) slots[slot];
+		}
+
+		@Override
+		public int hashCode() {
+			return key.hashCode() ^ Objects.hashCode(getValue());
+		}
+
+		@Override
+		public V setValue(V value) {
+			var rv = getValue();
+			slots[slot] = value;
+			return rv;
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + getValue();
+		}
+	}
+
+	final class EntrySet extends AbstractSet<Map.Entry<String, V>> {
+
+		@Override
+		public void clear() {
+			CedarMap.this.clear();
+		}
+
+		@Override
+		public Iterator<Map.Entry<String, V>> iterator() {
+			var itr = trie.predict("").iterator();
+			return new Iterator<>() {
+				@Override
+				public boolean hasNext() {
+					return itr.hasNext();
+				}
+
+				@Override
+				public Map.Entry<String, V> next() {
+					var m = itr.next();
+					return new Entry(trie.suffix(m), m.value());
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	final boolean reduced;
+
+	BaseCedar trie;
+
+	/**
+	 * Values, slot 0 is never used, so the trie's previous value tells new keys apart in
+	 * {@link #put(byte[], Object)}.
+	 */
+	Object[] slots;
+
+	int next;
+
+	int[] free;
+
+	int freeCount;
+
+	int size;
+
+	EntrySet entries;
+
+	public CedarMap() {
+		this(false);
+	}
+
+	public CedarMap(boolean reduced) {
+		this.reduced = reduced;
+		init();
+	}
+
+	@Override
+	public void clear() {
+		trie.close();
+		init();
+	}
+
+	/**
+	 * Releases the off-heap memory of the keys. The map must not be used afterwards.
+	 */
+	public void close() {
+		trie.close();
+		slots = null;
+	}
+
+	public boolean containsKey(byte[] key) {
+		return (trie.get(key) & ABSENT_OR_NO_VALUE) == 0;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return key instanceof String s && containsKey(utf8(s));
+	}
+
+	@Override
+	public Set<Map.Entry<String, V>> entrySet() {
+		var rv = entries;
+		return rv == null ? entries = new EntrySet() : rv;
+	}
+
+	public V get(byte[] key) {
+		return get(key, 0, key.length);
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(byte[] key, int start, int end) {
+		var v = trie.get(key, start, end);
+		return (v & ABSENT_OR_NO_VALUE) == 0 ? (V) slots[(int) v] : null;
+	}
+
+	@Override
+	public V get(Object key) {
+		return key instanceof String s ? get(utf8(s)) : null;
+	}
+
+	private void init() {
+		trie = reduced ? new ReducedCedar() : new Cedar();
+		slots = new Object[16];
+		next = 1;
+		free = new int[16];
+		freeCount = 0;
+		size = 0;
+	}
+
+	public boolean isReduced() {
+		return reduced;
+	}
+
+	public V put(byte[] key, V value) {
+		return put(key, 0, key.length, value);
+	}
+
+	@SuppressWarnings("unchecked")
+	public V put(byte[] key, int start, int end, V value) {
+		int s;
+		if (freeCount > 0) {
+			s = free[--freeCount];
+		} else {
+			if (next == slots.length) {
+				slots = Arrays.copyOf(slots, next << 1);
+			}
+			s = next++;
+		}
+
+		slots[s] = value;
+		int prev;
+		try {
+			prev = trie.update(key, s, start, end);
+		} catch (MemoryBudgetException e) {
+			// the trie is untouched, so the slot goes back
+			release(s);
+			throw e;
+		}
+		if (prev == 0) {
+			size++;
+			return null;
+		}
+
+		// key was there, its old slot goes back to the free list
+		var rv = (V) slots[prev];
+		release(prev);
+		return rv;
+	}
+
+	@Override
+	public V put(String key, V value) {
+		return put(utf8(key), value);
+	}
+
+	private void release(int slot) {
+		slots[slot] = null;
+		if (freeCount == free.length) {
+			free = Arrays.copyOf(free, freeCount << 1);
+		}
+		free[freeCount++] = slot;
+	}
+
+	public V remove(byte[] key) {
+		return remove(key, 0, key.length);
+	}
+
+	@SuppressWarnings("unchecked")
+	public V remove(byte[] key, int start, int end) {
+		var v = trie.erase(key, start, end);
+		if ((v & ABSENT_OR_NO_VALUE) != 0) {
+			return null;
+		}
+
+		var rv = (V) slots[(int) v];
+		release((int) v);
+		size--;
+		return rv;
+	}
+
+	@Override
+	public V remove(Object key) {
+		return key instanceof String s ? remove(utf8(s)) : null;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,168 @@
+package com.nc.cedar;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Side file of an incremental {@link BaseCedar#checkpoint(Path)}, which writes pages of the store in
+ * place. The pages and the header are first appended to the journal, sealed with the CRC32C of
+ * everything before the seal and forced to disk. Only then are they copied into the store, which
+ * is forced in turn before the journal is deleted and the log truncated.<br>
+ * A crash while the journal is written leaves the store and the log as they were, and
+ * {@link #recover(Path)}, which runs when the store is opened, drops the torn journal. A crash
+ * while it's applied leaves a sealed journal, which recover applies again.<br>
+ * Layout: records of position in the store (long) and length (long) followed by the bytes, and a
+ * last record with position -1 and the CRC32C as length.
+ *
+ * @author cmuramoto
+ */
+final class CheckpointJournal implements AutoCloseable {
+
+	/**
+	 * Position and length.
+	 */
+	static final int RECORD = 16;
+
+	static final long SEAL = -1;
+
+	static Path of(Path store) {
+		return store.resolveSibling(store.getFileName() + ".ckpt");
+	}
+
+	/**
+	 * Applies the journal left next to store, if it was sealed, and deletes it.
+	 *
+	 * @return whether a journal was applied
+	 */
+	static boolean recover(Path store) throws IOException {
+		var file = of(store);
+		if (!Files.exists(file)) {
+			return false;
+		}
+
+		var applied = false;
+		try (var ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			var end = sealed(ch);
+			if (end >= 0) {
+				apply(ch, end, store);
+				applied = true;
+			}
+		}
+		Files.delete(file);
+
+		return applied;
+	}
+
+	/**
+	 * @return offset of the seal, or -1 if the journal is torn or its checksum doesn't match
+	 */
+	static long sealed(FileChannel ch) throws IOException {
+		var crc = new CRC32C();
+		var record = ByteBuffer.allocate(RECORD).order(ByteOrder.LITTLE_ENDIAN);
+		var buf = ByteBuffer.allocateDirect(1 << 16);
+		var size = ch.size();
+
+		for (var at = 0L; at + RECORD <= size;) {
+			read(ch, record.clear(), at);
+			var pos = record.getLong(0);
+			var len = record.getLong(8);
+			if (pos == SEAL) {
+				return len == crc.getValue() && at + RECORD == size ? at : -1;
+			}
+			if (pos < 0 || len < 0 || len > size - at - RECORD) {
+				return -1;
+			}
+			crc.update(record.flip());
+			at += RECORD;
+
+			for (var n = 0L; n < len;) {
+				buf.clear().limit((int) Math.min(buf.capacity(), len - n));
+				read(ch, buf, at + n);
+				n += buf.flip().remaining();
+				crc.update(buf);
+			}
+			at += len;
+		}
+
+		return -1;
+	}
+
+	static void apply(FileChannel ch, long end, Path store) throws IOException {
+		var record = ByteBuffer.allocate(RECORD).order(ByteOrder.LITTLE_ENDIAN);
+		try (var dst = FileChannel.open(store, StandardOpenOption.WRITE)) {
+			for (var at = 0L; at < end;) {
+				read(ch, record.clear(), at);
+				var len = record.getLong(8);
+				at += RECORD;
+				dst.position(record.getLong(0));
+				for (var n = 0L; n < len;) {
+					n += ch.transferTo(at + n, len - n, dst);
+				}
+				at += len;
+			}
+			dst.force(false);
+		}
+	}
+
+	static void read(FileChannel ch, ByteBuffer dst, long at) throws IOException {
+		for (var pos = at; dst.hasRemaining();) {
+			var n = ch.read(dst, pos);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			pos += n;
+		}
+	}
+
+	final FileChannel ch;
+	final CRC32C crc = new CRC32C();
+	final ByteBuffer record = ByteBuffer.allocate(RECORD).order(ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * Starts a new journal for store, replacing any previous one.
+	 */
+	CheckpointJournal(Path store) throws IOException {
+		this.ch = FileChannel.open(of(store), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Appends src, to be written at pos of the store. A {@link CedarBuffer.Pages}.
+	 */
+	void write(long pos, ByteBuffer src) throws IOException {
+		record(pos, src.remaining());
+		crc.update(src.duplicate());
+		while (src.hasRemaining()) {
+			ch.write(src);
+		}
+	}
+
+	/**
+	 * Seals the journal and forces it to disk, after which it's applied even if the process dies.
+	 */
+	void seal() throws IOException {
+		record(SEAL, crc.getValue());
+		ch.force(true);
+	}
+
+	private void record(long pos, long len) throws IOException {
+		record.clear().putLong(pos).putLong(len).flip();
+		if (pos != SEAL) {
+			crc.update(record.duplicate());
+		}
+		while (record.hasRemaining()) {
+			ch.write(record);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		ch.close();
+	}
+}
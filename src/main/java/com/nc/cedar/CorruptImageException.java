@@ -0,0 +1,30 @@
+package com.nc.cedar;
+
+/**
+ * Thrown when an image fails validation: it's not a cedar image, it was written by a newer
+ * version or by another engine, it's truncated or the CRC32C of a section doesn't match the one in
+ * its header.
+ *
+ * @author cmuramoto
+ */
+public final class CorruptImageException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	static final String[] SECTIONS = { "nodes", "infos", "blocks", "rejects", "filter", "tails" };
+
+	final int section;
+
+	CorruptImageException(int section, String msg) {
+		super(section < 0 ? msg : String.format("%s (section: %s)", msg, SECTIONS[section]));
+		this.section = section;
+	}
+
+	/**
+	 * @return index of the offending section in the header (0 for nodes, 1 for infos, 2 for blocks,
+	 *         3 for rejects, 4 for the filter and 5 for tails), -1 if the header itself is invalid
+	 */
+	public int section() {
+		return section;
+	}
+}
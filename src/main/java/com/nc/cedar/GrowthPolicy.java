@@ -0,0 +1,210 @@
+package com.nc.cedar;
+
+/**
+ * Decides how many nodes a trie adds when it runs out of free blocks. The increment is rounded up
+ * to whole blocks (256 nodes, 32 for {@link NibbleCedar}) and nodes and infos are resized to
+ * capacity + increment, so the policy trades reallocations (and copies, unless
+ * -DCedar.IN_PLACE=true) for slack memory.<br>
+ * Policies built by the factories of this interface are written to the image header by
+ * {@link BaseCedar#serialize(java.nio.file.Path)} and friends, and restored on load. Their
+ * {@link #toString()} is the spec accepted by {@link #parse(String)}, e.g.
+ *
+ * <pre>
+ * geometric(1.5)
+ * fixed(1048576)
+ * capped(4194304)
+ * until(16777216,geometric(2.0),capped(4194304))
+ * </pre>
+ *
+ * The header only has room for 64 bytes of spec, so deeply nested schedules (whose spec is
+ * longer) are not persisted either. Such policies, and other implementations, work just as well,
+ * but a loaded trie falls back to the default policy (see -DCedar.REALLOC_CAP) until
+ * {@link BaseCedar#growth(GrowthPolicy)} is called.
+ *
+ * @author cmuramoto
+ */
+public interface GrowthPolicy {
+
+	/**
+	 * Legacy 'realloc cap': grows by the current capacity, but never by more than max nodes.
+	 */
+	static GrowthPolicy capped(long max) {
+		return new Capped(max);
+	}
+
+	/**
+	 * Same as {@link #geometric(double)} with factor 2, the original cedar policy.
+	 */
+	static GrowthPolicy doubling() {
+		return geometric(2);
+	}
+
+	/**
+	 * Grows by the same number of nodes every time.
+	 */
+	static GrowthPolicy fixed(long nodes) {
+		return new Fixed(nodes);
+	}
+
+	/**
+	 * Grows capacity by factor, e.g. 1.25, 1.5 or 2. Lower factors waste less memory on big tries
+	 * at the cost of more reallocations while building.
+	 */
+	static GrowthPolicy geometric(double factor) {
+		return new Geometric(factor);
+	}
+
+	/**
+	 * Parses the spec written by {@link #toString()} of the policies built by this interface.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if spec is malformed
+	 */
+	static GrowthPolicy parse(String spec) {
+		var s = spec.replace(" ", "");
+		var at = new int[1];
+		var rv = parse(s, at);
+		if (at[0] != s.length()) {
+			throw invalid(spec);
+		}
+		return rv;
+	}
+
+	private static String arg(String s, int[] at) {
+		var i = at[0];
+		while (i < s.length() && s.charAt(i) != ',' && s.charAt(i) != ')') {
+			i++;
+		}
+		var rv = s.substring(at[0], i);
+		at[0] = i;
+		return rv;
+	}
+
+	private static void expect(String s, int[] at, char c) {
+		if (at[0] >= s.length() || s.charAt(at[0]) != c) {
+			throw invalid(s);
+		}
+		at[0]++;
+	}
+
+	private static IllegalArgumentException invalid(String spec) {
+		return new IllegalArgumentException("Invalid growth policy: " + spec);
+	}
+
+	private static GrowthPolicy parse(String s, int[] at) {
+		var open = s.indexOf('(', at[0]);
+		if (open < 0) {
+			throw invalid(s);
+		}
+		var name = s.substring(at[0], open);
+		at[0] = open + 1;
+
+		GrowthPolicy rv = switch (name) {
+		case "capped" -> capped(Long.parseLong(arg(s, at)));
+		case "fixed" -> fixed(Long.parseLong(arg(s, at)));
+		case "geometric" -> geometric(Double.parseDouble(arg(s, at)));
+		case "until" -> {
+			var threshold = Long.parseLong(arg(s, at));
+			expect(s, at, ',');
+			var before = parse(s, at);
+			expect(s, at, ',');
+			yield until(threshold, before, parse(s, at));
+		}
+		default -> throw invalid(s);
+		};
+		expect(s, at, ')');
+
+		return rv;
+	}
+
+	/**
+	 * Schedule: before is used while capacity is below threshold nodes, after from then on. E.g.
+	 * 'fast start, then capped' is until(threshold, doubling(), capped(max)).
+	 */
+	static GrowthPolicy until(long threshold, GrowthPolicy before, GrowthPolicy after) {
+		return new Until(threshold, before, after);
+	}
+
+	/**
+	 * @param capacity
+	 *            - current number of nodes
+	 * @return number of nodes to add. Values below one block still add one block.
+	 */
+	long increment(long capacity);
+}
+
+record Capped(long max) implements GrowthPolicy {
+
+	Capped {
+		if (max <= 0) {
+			throw new IllegalArgumentException("max must be positive: " + max);
+		}
+	}
+
+	@Override
+	public long increment(long capacity) {
+		return Math.min(capacity, max);
+	}
+
+	@Override
+	public String toString() {
+		return "capped(" + max + ")";
+	}
+}
+
+record Fixed(long nodes) implements GrowthPolicy {
+
+	Fixed {
+		if (nodes <= 0) {
+			throw new IllegalArgumentException("nodes must be positive: " + nodes);
+		}
+	}
+
+	@Override
+	public long increment(long capacity) {
+		return nodes;
+	}
+
+	@Override
+	public String toString() {
+		return "fixed(" + nodes + ")";
+	}
+}
+
+record Geometric(double factor) implements GrowthPolicy {
+
+	Geometric {
+		if (!(factor > 1 && factor <= 16)) {
+			throw new IllegalArgumentException("factor must be in (1,16]: " + factor);
+		}
+	}
+
+	@Override
+	public long increment(long capacity) {
+		return (long) Math.ceil(capacity * (factor - 1));
+	}
+
+	@Override
+	public String toString() {
+		return "geometric(" + factor + ")";
+	}
+}
+
+record Until(long threshold, GrowthPolicy before, GrowthPolicy after) implements GrowthPolicy {
+
+	Until {
+		if (before == null || after == null) {
+			throw new NullPointerException();
+		}
+	}
+
+	@Override
+	public long increment(long capacity) {
+		return capacity < threshold ? before.increment(capacity) : after.increment(capacity);
+	}
+
+	@Override
+	public String toString() {
+		return "until(" + threshold + "," + before + "," + after + ")";
+	}
+}
@@ -0,0 +1,139 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.Bits.U;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import jdk.incubator.foreign.CLinker;
+import jdk.incubator.foreign.FunctionDescriptor;
+import jdk.incubator.foreign.LibraryLookup;
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * Transparent huge page backed memory for node buffers (-DCedar.HUGE_PAGES=true). Memory is
+ * malloc'ed with 2MB of slack, so the segment can start at a 2MB boundary, and advised with
+ * madvise(MADV_HUGEPAGE), which is all the kernel needs when THP is set to 'madvise'. When set to
+ * 'always' alignment alone is enough, and when set to 'never' (or off Linux) this is plain aligned
+ * memory.<br>
+ * Whether pages were actually granted depends on the kernel finding free 2MB frames, so it's only
+ * known after the fact, see {@link #backed(MemorySegment)}.
+ *
+ * @author cmuramoto
+ */
+final class HugePages {
+
+	static final long SIZE = 2L * 1024 * 1024;
+
+	static final int MADV_HUGEPAGE = 14;
+
+	static final Path SMAPS = Path.of("/proc/self/smaps");
+
+	/**
+	 * Null if madvise can't be linked (restricted foreign access or not a posix platform).
+	 */
+	static final MethodHandle MADVISE;
+
+	static {
+		MethodHandle mh = null;
+		try {
+			var symbol = LibraryLookup.ofDefault().lookup("madvise");
+			if (symbol.isPresent()) {
+				mh = CLinker.getInstance().downcallHandle(symbol.get(), //
+						MethodType.methodType(int.class, MemoryAddress.class, long.class, int.class), //
+						FunctionDescriptor.of(CLinker.C_INT, CLinker.C_POINTER, CLinker.C_LONG, CLinker.C_INT));
+			}
+		} catch (Throwable e) {
+			// aligned memory only
+		}
+		MADVISE = mh;
+	}
+
+	/**
+	 * @return true if the kernel accepted the advice
+	 */
+	static boolean advise(long addr, long len) {
+		var mh = MADVISE;
+		if (mh == null) {
+			return false;
+		}
+		try {
+			return (int) mh.invokeExact(MemoryAddress.ofLong(addr), len, MADV_HUGEPAGE) == 0;
+		} catch (Throwable e) {
+			return false;
+		}
+	}
+
+	static long align(long addr) {
+		return (addr + SIZE - 1) & ~(SIZE - 1);
+	}
+
+	/**
+	 * Allocates len bytes plus the slack needed to start at a 2MB boundary. The aligned region is
+	 * advised and zeroed.
+	 *
+	 * @return the malloc'ed address, which must be passed to free, see {@link #align(long)}
+	 */
+	static long allocate(long len) {
+		var addr = U.allocateMemory(len + SIZE);
+		var aligned = align(addr);
+		advise(aligned, len);
+		U.setMemory(aligned, len, (byte) 0);
+		return addr;
+	}
+
+	/**
+	 * @return bytes of segment's mapping backed by huge pages, according to /proc/self/smaps. 0 if
+	 *         not available.
+	 */
+	static long backed(MemorySegment segment) {
+		if (!Files.isReadable(SMAPS)) {
+			return 0;
+		}
+
+		var lo = segment.address().toRawLongValue();
+		var hi = lo + segment.byteSize();
+		var rv = 0L;
+		try (var lines = Files.lines(SMAPS)) {
+			var inRange = false;
+			for (var itr = lines.iterator(); itr.hasNext();) {
+				var line = itr.next();
+				var dash = range(line);
+				if (dash > 0) {
+					var start = Long.parseUnsignedLong(line, 0, dash, 16);
+					var end = Long.parseUnsignedLong(line, dash + 1, line.indexOf(' '), 16);
+					inRange = start < hi && end > lo;
+				} else if (inRange && line.startsWith("AnonHugePages:")) {
+					rv += Long.parseLong(line.substring(14, line.length() - 2).trim()) * 1024;
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		return Math.min(rv, segment.byteSize());
+	}
+
+	/**
+	 * @return position of the dash in a mapping header (e.g. 7f12a0000000-7f12a0400000 rw-p ...),
+	 *         -1 for attribute lines
+	 */
+	private static int range(String line) {
+		var i = 0;
+		for (; i < line.length(); i++) {
+			var c = line.charAt(i);
+			if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+				break;
+			}
+		}
+		return i > 0 && i < line.length() && line.charAt(i) == '-' ? i : -1;
+	}
+
+	private HugePages() {
+	}
+}
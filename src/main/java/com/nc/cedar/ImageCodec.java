@@ -0,0 +1,290 @@
+package com.nc.cedar;
+
+import static jdk.incubator.foreign.MemoryAccess.getByteAtOffset;
+import static jdk.incubator.foreign.MemoryAccess.getIntAtOffset;
+import static jdk.incubator.foreign.MemoryAccess.getLongAtOffset;
+import static jdk.incubator.foreign.MemoryAccess.getShortAtOffset;
+import static jdk.incubator.foreign.MemoryAccess.setByteAtOffset;
+import static jdk.incubator.foreign.MemoryAccess.setIntAtOffset;
+import static jdk.incubator.foreign.MemoryAccess.setLongAtOffset;
+import static jdk.incubator.foreign.MemoryAccess.setShortAtOffset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * Codec of compressed images (see {@link BaseCedar#serializeCompressed(java.nio.file.Path)}).
+ * Sections are split in frames of {@link #FRAME_ROWS} units, coded and decoded independently, so
+ * both directions run in parallel and decoding writes straight into the section's buffer.<br>
+ * A section is a table of rows (its units) with fixed-width columns, e.g. base and check for nodes.
+ * Each column is delta coded against the row above, zigzag'ed and written as a varint, and a row
+ * whose deltas repeat the previous row's is folded into a run count. This is what node arrays are
+ * made of: free nodes are chained as base = -(i - 1), check = -(i + 1), so whole free blocks (and
+ * the untouched tail of the capacity) become a single run, and used nodes in a block have nearby
+ * bases and checks. Byte columns (labels, tails, the filter) are not delta coded. Frames that
+ * don't shrink are stored raw.<br>
+ * Layout of a section: frame count (int), signed frame lengths (long each, negative when raw) and
+ * then the frames.
+ *
+ * @author cmuramoto
+ */
+final class ImageCodec {
+
+	/**
+	 * Column layout of a section.
+	 */
+	static record Layout(int width, int columns) {
+		int unit() {
+			return width * columns;
+		}
+	}
+
+	static final int FRAME_ROWS = 1 << 18;
+
+	/**
+	 * Frames compressed before a batch is written, per worker.
+	 */
+	static final int BATCH = 4;
+
+	static Layout layout(CedarBuffer cb, int section) {
+		return switch (section) {
+		case 0 -> new Layout(cb instanceof WideNodes ? 8 : 4, 2);
+		case 1 -> new Layout(1, 2);
+		case 2 -> new Layout(4, 5);
+		case 3 -> new Layout(2, 1);
+		default -> new Layout(1, 1);
+		};
+	}
+
+	/**
+	 * Decodes the section starting at off of src into a buffer of len bytes bound to cb. Frames are
+	 * decoded in place, unless they span chunks (chunks smaller than a frame), in which case they
+	 * are decoded aside and copied into their chunks.
+	 *
+	 * @return offset of the next section
+	 */
+	static long read(MemorySegment src, long off, CedarBuffer cb, int section, long len) {
+		cb.bind(len);
+		if (len == 0) {
+			return off;
+		}
+
+		var layout = layout(cb, section);
+		var frames = getIntAtOffset(src, off);
+		var lengths = new long[frames];
+		var offsets = new long[frames];
+		var at = off + 4 + 8L * frames;
+
+		for (var i = 0; i < frames; i++) {
+			lengths[i] = getLongAtOffset(src, off + 4 + 8L * i);
+			offsets[i] = at;
+			at += Math.abs(lengths[i]);
+		}
+
+		var frameBytes = (long) FRAME_ROWS * layout.unit();
+
+		IntStream.range(0, frames).parallel().forEach(i -> {
+			var start = i * frameBytes;
+			var bytes = Math.min(frameBytes, len - start);
+			var n = lengths[i];
+			if (n < 0) {
+				cb.copyFrom(start, src.asSlice(offsets[i], -n));
+				return;
+			}
+
+			var raw = cb.view(start, bytes);
+			if (raw != null) {
+				decode(src.asSlice(offsets[i], n).toByteArray(), raw, layout);
+			} else {
+				try (var tmp = MemorySegment.allocateNative(bytes, 8)) {
+					decode(src.asSlice(offsets[i], n).toByteArray(), tmp, layout);
+					cb.copyFrom(start, tmp);
+				}
+			}
+		});
+
+		return at;
+	}
+
+	/**
+	 * Encodes the section held by cb and appends it to ch.
+	 */
+	static void write(FileChannel ch, CedarBuffer cb, int section, long len) throws IOException {
+		if (len == 0) {
+			return;
+		}
+
+		var layout = layout(cb, section);
+		var frameBytes = (long) FRAME_ROWS * layout.unit();
+		var frames = (int) ((len + frameBytes - 1) / frameBytes);
+
+		var table = ByteBuffer.allocate(4 + 8 * frames).order(ByteOrder.nativeOrder());
+		var tableAt = ch.position();
+		table.putInt(frames);
+		ch.position(tableAt + table.capacity());
+
+		var batch = BATCH * ForkJoinPool.getCommonPoolParallelism();
+
+		for (var first = 0; first < frames; first += batch) {
+			var base = first;
+			var coded = IntStream.range(first, Math.min(frames, first + batch)).parallel().mapToObj(i -> {
+				var raw = new byte[(int) Math.min(frameBytes, len - i * frameBytes)];
+				cb.copyTo(i * frameBytes, MemorySegment.ofArray(raw));
+				var enc = encode(raw, layout);
+				return enc == null ? raw : enc;
+			}).toArray(byte[][]::new);
+
+			for (var i = 0; i < coded.length; i++) {
+				var raw = (int) Math.min(frameBytes, len - (base + i) * frameBytes);
+				var frame = coded[i];
+				// coded frames are always shorter than raw ones
+				table.putLong(frame.length < raw ? frame.length : -raw);
+				write(ch, ByteBuffer.wrap(frame));
+			}
+		}
+
+		var end = ch.position();
+		ch.position(tableAt);
+		write(ch, table.flip());
+		ch.position(end);
+	}
+
+	static void decode(byte[] src, MemorySegment dst, Layout layout) {
+		var w = layout.width();
+		var cols = layout.columns();
+		var rows = dst.byteSize() / layout.unit();
+		var prev = new long[cols];
+		var deltas = new long[cols];
+		var p = 0;
+		var row = 0L;
+		var off = 0L;
+
+		while (row < rows) {
+			var run = 0L;
+			for (var shift = 0;; shift += 7) {
+				var b = src[p++];
+				run |= (long) (b & 0x7F) << shift;
+				if (b >= 0) {
+					break;
+				}
+			}
+
+			for (var r = 0L; r <= run && row < rows; r++, row++) {
+				if (r == run) {
+					for (var j = 0; j < cols; j++) {
+						var zz = 0L;
+						for (var shift = 0;; shift += 7) {
+							var b = src[p++];
+							zz |= (long) (b & 0x7F) << shift;
+							if (b >= 0) {
+								break;
+							}
+						}
+						deltas[j] = (zz >>> 1) ^ -(zz & 1);
+					}
+				}
+
+				for (var j = 0; j < cols; j++, off += w) {
+					var v = w == 1 ? deltas[j] : prev[j] + deltas[j];
+					prev[j] = v;
+					put(dst, off, w, v);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the coded frame, null if it might not be smaller than raw
+	 */
+	static byte[] encode(byte[] raw, Layout layout) {
+		var src = MemorySegment.ofArray(raw);
+		var w = layout.width();
+		var cols = layout.columns();
+		var rows = raw.length / layout.unit();
+		var prev = new long[cols];
+		var last = new long[cols];
+		var zz = new long[cols];
+		var out = new byte[raw.length + 16];
+		var p = 0;
+		var run = 0L;
+		var off = 0L;
+
+		for (var row = 0; row < rows; row++) {
+			var same = true;
+			for (var j = 0; j < cols; j++, off += w) {
+				var v = get(src, off, w);
+				var d = w == 1 ? v : v - prev[j];
+				prev[j] = v;
+				zz[j] = (d << 1) ^ (d >> 63);
+				same &= zz[j] == last[j];
+			}
+
+			if (same) {
+				run++;
+				continue;
+			}
+
+			if (p + 10 * (cols + 1) >= raw.length) {
+				return null;
+			}
+
+			p = varint(out, p, run);
+			for (var j = 0; j < cols; j++) {
+				p = varint(out, p, last[j] = zz[j]);
+			}
+			run = 0;
+		}
+
+		if (run > 0) {
+			if (p + 10 >= raw.length) {
+				return null;
+			}
+			p = varint(out, p, run);
+		}
+
+		return Arrays.copyOf(out, p);
+	}
+
+	static long get(MemorySegment src, long off, int w) {
+		return switch (w) {
+		case 1 -> getByteAtOffset(src, off);
+		case 2 -> getShortAtOffset(src, off);
+		case 4 -> getIntAtOffset(src, off);
+		default -> getLongAtOffset(src, off);
+		};
+	}
+
+	static void put(MemorySegment dst, long off, int w, long v) {
+		switch (w) {
+		case 1 -> setByteAtOffset(dst, off, (byte) v);
+		case 2 -> setShortAtOffset(dst, off, (short) v);
+		case 4 -> setIntAtOffset(dst, off, (int) v);
+		default -> setLongAtOffset(dst, off, v);
+		}
+	}
+
+	static int varint(byte[] out, int p, long v) {
+		while ((v & ~0x7FL) != 0) {
+			out[p++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out[p++] = (byte) v;
+		return p;
+	}
+
+	static void write(FileChannel ch, ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			ch.write(buf);
+		}
+	}
+
+	private ImageCodec() {
+	}
+}
@@ -0,0 +1,617 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.Bits.UTF8;
+import static com.nc.cedar.Bits.u32;
+import static com.nc.cedar.Bits.utf8;
+import static jdk.incubator.foreign.MemoryAccess.getByteAtOffset;
+import static jdk.incubator.foreign.MemoryAccess.getLongAtOffset;
+import static jdk.incubator.foreign.MemoryAccess.setLongAtOffset;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * Succinct frozen trie (LOUDS) for archived dictionaries, built from any {@link BaseCedar}. Nodes
+ * are numbered in level order, root first, so the children of a node are consecutive and node i
+ * is reached by edge i - 1. The trie is stored as:
+ *
+ * <pre>
+ * louds     for each node, one 1 per child followed by a 0 (2 bits per node)
+ * zeros     position of every 512th 0 of louds, to select the children of a node
+ * labels    one byte per edge, sorted (unsigned) among siblings
+ * terminal  one bit per node, set where a key ends
+ * ranks     1s in terminal before every 512 bits, to index values
+ * values    value - min of each key, packed in the minimal width, in level order
+ * </pre>
+ *
+ * That's about 11 bits per node plus the width of the values per key, a fraction of a double array,
+ * at the cost of lookups that select and binary search at every byte instead of a single jump.
+ * Images are meant to be mapped with {@link #deserialize(Path, boolean)}.<br>
+ * Queries have the same semantics as the ones in {@link StaticCedar}, including keys being
+ * enumerated with {@link #keys(String)}. Keys must not contain zero bytes.
+ *
+ * @author cmuramoto
+ */
+public final class LoudsCedar {
+
+	/**
+	 * Bits appended on heap, copied off-heap once done.
+	 */
+	static final class BitArray {
+		long[] words = new long[16];
+		long size;
+
+		void add(boolean bit) {
+			ensure(size + 1);
+			if (bit) {
+				words[(int) (size >>> 6)] |= 1L << size;
+			}
+			size++;
+		}
+
+		void add(long bits, int width) {
+			if (width == 0) {
+				return;
+			}
+			ensure(size + width);
+			var w = (int) (size >>> 6);
+			var shift = (int) (size & 63);
+			words[w] |= bits << shift;
+			if (shift + width > 64) {
+				words[w + 1] |= bits >>> (64 - shift);
+			}
+			size += width;
+		}
+
+		void ensure(long bits) {
+			var n = (int) ((bits + 63) >>> 6);
+			if (n > words.length) {
+				words = Arrays.copyOf(words, Math.max(n, words.length << 1));
+			}
+		}
+
+		Longs finish() {
+			return LoudsCedar.finish(words, (int) ((size + 63) >>> 6));
+		}
+	}
+
+	/**
+	 * Level-order construction over the sorted keys. Nodes of a level are ranges of keys sharing
+	 * the path to them.
+	 */
+	static final class Builder {
+		final StaticCedar.Entry[] entries;
+		final BitArray louds = new BitArray();
+		final BitArray terminal = new BitArray();
+		final BitArray values = new BitArray();
+		byte[] labels = new byte[1024];
+		long edges;
+		long nodes;
+		int min;
+		int width;
+
+		Builder(StaticCedar.Entry[] entries) {
+			this.entries = entries;
+			var min = 0;
+			var max = 0;
+			for (var i = 0; i < entries.length; i++) {
+				var v = entries[i].value();
+				min = i == 0 ? v : Math.min(min, v);
+				max = i == 0 ? v : Math.max(max, v);
+			}
+			this.min = min;
+			this.width = 64 - Long.numberOfLeadingZeros((long) max - min);
+		}
+
+		void build() {
+			var entries = this.entries;
+			var lo = new int[]{ 0 };
+			var hi = new int[]{ entries.length };
+			var n = 1;
+
+			for (var depth = 0; n > 0; depth++) {
+				var nlo = new int[16];
+				var nhi = new int[16];
+				var nn = 0;
+
+				for (var i = 0; i < n; i++) {
+					var l = lo[i];
+					var h = hi[i];
+					var leaf = l < h && entries[l].key().length == depth;
+					terminal.add(leaf);
+					if (leaf) {
+						values.add((long) entries[l].value() - min, width);
+						l++;
+					}
+
+					while (l < h) {
+						var c = entries[l].key()[depth];
+						var end = l + 1;
+						while (end < h && entries[end].key()[depth] == c) {
+							end++;
+						}
+						if (nn == nlo.length) {
+							nlo = Arrays.copyOf(nlo, nn << 1);
+							nhi = Arrays.copyOf(nhi, nn << 1);
+						}
+						nlo[nn] = l;
+						nhi[nn++] = end;
+						louds.add(true);
+						label(c);
+						l = end;
+					}
+					louds.add(false);
+					nodes++;
+				}
+
+				lo = nlo;
+				hi = nhi;
+				n = nn;
+			}
+		}
+
+		void label(byte c) {
+			if (edges == labels.length) {
+				labels = Arrays.copyOf(labels, labels.length << 1);
+			}
+			labels[(int) edges++] = c;
+		}
+	}
+
+	final class PredictIter extends Itr<Match> {
+		long[] cursors;
+		long[] ends;
+		byte[] path;
+		int depth;
+
+		PredictIter(long root) {
+			this.cursors = new long[16];
+			this.ends = new long[16];
+			this.path = new byte[16];
+			this.depth = root < 0 ? -1 : 0;
+
+			if (root >= 0) {
+				children(root, 0);
+				if (terminal(root)) {
+					curr = new Match(value(root), 0, root);
+				}
+			}
+		}
+
+		@Override
+		void advance() {
+			while (depth >= 0) {
+				var edge = cursors[depth];
+				if (edge == ends[depth]) {
+					depth--;
+					continue;
+				}
+				cursors[depth]++;
+
+				var child = edge + 1;
+				if (++depth == cursors.length) {
+					cursors = Arrays.copyOf(cursors, depth << 1);
+					ends = Arrays.copyOf(ends, depth << 1);
+					path = Arrays.copyOf(path, depth << 1);
+				}
+				path[depth - 1] = label(edge);
+				children(child, depth);
+
+				if (terminal(child)) {
+					curr = new Match(value(child), depth, child);
+					return;
+				}
+			}
+		}
+
+		void children(long node, int depth) {
+			var start = start(node);
+			cursors[depth] = start - node;
+			ends[depth] = nextZero(start) - node;
+		}
+	}
+
+	final class PrefixIter extends Itr<Match> {
+		final byte[] key;
+		long node;
+		int i;
+
+		PrefixIter(byte[] key) {
+			this.key = key;
+		}
+
+		@Override
+		void advance() {
+			var key = this.key;
+			while (i < key.length && node >= 0) {
+				node = child(node, key[i++]);
+				if (node >= 0 && terminal(node)) {
+					curr = new Match(value(node), i - 1, node);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Zeros of louds between samples, and terminal bits between ranks.
+	 */
+	static final int SAMPLE = 512;
+
+	/**
+	 * Keys, nodes, min and width of values, followed by the byte length of each section.
+	 */
+	static final long HEADER = 8 * 10;
+
+	static Longs bind(MemorySegment src, long off, long len, boolean copy) {
+		var longs = new Longs();
+		var ms = src.asSlice(off, len);
+		if (copy) {
+			longs.copyOf(ms);
+		} else {
+			longs.wrap(ms);
+		}
+		longs.pos = len / Longs.UNIT;
+		return longs;
+	}
+
+	public static LoudsCedar deserialize(MemorySegment src, boolean copy) {
+		var keys = getLongAtOffset(src, 0);
+		var nodes = getLongAtOffset(src, 8);
+		var min = (int) getLongAtOffset(src, 16);
+		var width = (int) getLongAtOffset(src, 24);
+
+		var sections = new Longs[6];
+		var off = HEADER;
+		for (var i = 0; i < sections.length; i++) {
+			var len = getLongAtOffset(src, 32 + 8 * i);
+			sections[i] = bind(src, off, len, copy);
+			off += len;
+		}
+
+		return new LoudsCedar(keys, nodes, min, width, sections);
+	}
+
+	public static LoudsCedar deserialize(Path src, boolean copy) {
+		MemorySegment ms = null;
+		try {
+			ms = MemorySegment.mapFile(src, 0, Files.size(src), MapMode.READ_ONLY).share();
+			return deserialize(ms, copy);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (ms != null && copy) {
+				ms.close();
+			}
+		}
+	}
+
+	static Longs finish(long[] words, int n) {
+		// never empty, so that every section is a proper segment
+		var rv = new Longs(Math.max(n, 1));
+		rv.buffer.copyFrom(MemorySegment.ofArray(words).asSlice(0, Longs.safeOffset(n)));
+		rv.pos = Math.max(n, 1);
+		return rv;
+	}
+
+	/**
+	 * Builds a succinct trie with all keys and values of src, which is left untouched.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if src has keys with zero bytes
+	 */
+	public static LoudsCedar of(BaseCedar src) {
+		var sorted = StaticCedar.entries(src, false);
+		var b = new Builder(sorted);
+		b.build();
+
+		var louds = b.louds.finish();
+		var terminal = b.terminal.finish();
+
+		// louds ends with a 0, so sampling stops before its padding
+		var zeros = new long[(int) (b.nodes / SAMPLE + 1)];
+		for (long pos = 0, k = 0; k < b.nodes; pos++) {
+			if ((louds.at(pos >>> 6) & (1L << pos)) == 0) {
+				if (k % SAMPLE == 0) {
+					zeros[(int) (k / SAMPLE)] = pos;
+				}
+				k++;
+			}
+		}
+
+		var ranks = new long[(int) (terminal.pos * 64 / SAMPLE + 1)];
+		for (long w = 0, r = 0; w < terminal.pos; w++) {
+			if ((w & (SAMPLE / 64 - 1)) == 0) {
+				ranks[(int) (w * 64 / SAMPLE)] = r;
+			}
+			r += Long.bitCount(terminal.at(w));
+		}
+
+		var labels = new long[(int) ((b.edges + 7) >>> 3)];
+		MemorySegment.ofArray(labels).copyFrom(MemorySegment.ofArray(b.labels).asSlice(0, b.edges));
+
+		var sections = new Longs[]{ louds, finish(zeros, zeros.length), finish(labels, labels.length), terminal, finish(ranks, ranks.length), b.values.finish() };
+
+		return new LoudsCedar(sorted.length, b.nodes, b.min, b.width, sections);
+	}
+
+	final Longs louds;
+	final Longs zeros;
+	final Longs labels;
+	final Longs terminal;
+	final Longs ranks;
+	final Longs values;
+
+	final long keys;
+	final long nodes;
+	final int min;
+	final int width;
+
+	private LoudsCedar(long keys, long nodes, int min, int width, Longs[] sections) {
+		this.keys = keys;
+		this.nodes = nodes;
+		this.min = min;
+		this.width = width;
+		this.louds = sections[0];
+		this.zeros = sections[1];
+		this.labels = sections[2];
+		this.terminal = sections[3];
+		this.ranks = sections[4];
+		this.values = sections[5];
+	}
+
+	Longs[] sections() {
+		return new Longs[]{ louds, zeros, labels, terminal, ranks, values };
+	}
+
+	public long byteSize() {
+		var len = 0L;
+		for (var s : sections()) {
+			len += s.byteSize();
+		}
+		return len;
+	}
+
+	/**
+	 * @return the child of node reached by label c, -1 if there's none
+	 */
+	long child(long node, byte c) {
+		var start = start(node);
+		var lo = start - node;
+		var hi = nextZero(start) - node - 1;
+		var b = u32(c);
+
+		while (lo <= hi) {
+			var mid = (lo + hi) >>> 1;
+			var l = u32(label(mid));
+			if (l < b) {
+				lo = mid + 1;
+			} else if (l > b) {
+				hi = mid - 1;
+			} else {
+				return mid + 1;
+			}
+		}
+		return -1;
+	}
+
+	public void close() {
+		for (var s : sections()) {
+			s.close();
+		}
+	}
+
+	/**
+	 * @return the node reached by key[pos, end), -1 if some byte does not match
+	 */
+	long find(byte[] key, int pos, int end) {
+		var node = 0L;
+		while (pos < end && node >= 0) {
+			node = child(node, key[pos++]);
+		}
+		return node;
+	}
+
+	private long find(byte[] key) {
+		return find(key, 0, key.length);
+	}
+
+	public long get(byte[] key) {
+		return get(key, 0, key.length);
+	}
+
+	/**
+	 * Same as {@link BaseCedar#get(byte[], int, int)}.
+	 */
+	public long get(byte[] key, int pos, int end) {
+		var node = find(key, pos, end);
+		if (node < 0) {
+			return BaseCedar.ABSENT;
+		}
+		if (!terminal(node)) {
+			return BaseCedar.NO_VALUE;
+		}
+		return value(node);
+	}
+
+	public long get(String key) {
+		return get(utf8(key));
+	}
+
+	public long imageSize() {
+		return HEADER + byteSize();
+	}
+
+	public Stream<String> keys() {
+		return keys("");
+	}
+
+	/**
+	 * @return all keys starting with prefix, in unsigned byte order.
+	 */
+	public Stream<String> keys(String prefix) {
+		var iter = new PredictIter(find(utf8(prefix)));
+		return iter.stream().map(m -> prefix + new String(iter.path, 0, m.length(), UTF8));
+	}
+
+	byte label(long edge) {
+		return getByteAtOffset(labels.buffer, edge);
+	}
+
+	public Match match(byte[] key) {
+		var node = find(key);
+		if (node < 0 || !terminal(node)) {
+			return null;
+		}
+		var v = value(node);
+		if (((long) v & BaseCedar.ABSENT_OR_NO_VALUE) != 0) {
+			return null;
+		}
+		return new Match(v, key.length, node);
+	}
+
+	public Match match(String key) {
+		return match(utf8(key));
+	}
+
+	/**
+	 * @return position of the first 0 of louds at or after pos
+	 */
+	long nextZero(long pos) {
+		var louds = this.louds;
+		var w = pos >>> 6;
+		var x = ~louds.at(w) & (-1L << pos);
+		while (x == 0) {
+			x = ~louds.at(++w);
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(x);
+	}
+
+	/**
+	 * Same as {@link StaticCedar#predict(String)}. Children are consecutive, so unlike there,
+	 * enumeration only visits existing nodes.
+	 */
+	public Stream<Match> predict(byte[] key) {
+		return new PredictIter(find(key)).stream();
+	}
+
+	public Stream<Match> predict(String key) {
+		return predict(utf8(key));
+	}
+
+	/**
+	 * @return number of keys ending before node
+	 */
+	long rank(long node) {
+		var terminal = this.terminal;
+		var r = ranks.at(node / SAMPLE);
+		for (var w = (node / SAMPLE) * (SAMPLE / 64); w < (node >>> 6); w++) {
+			r += Long.bitCount(terminal.at(w));
+		}
+		return r + Long.bitCount(terminal.at(node >>> 6) & ((1L << node) - 1));
+	}
+
+	/**
+	 * @return position in louds of the k-th 0 (from 0)
+	 */
+	long select0(long k) {
+		var louds = this.louds;
+		var pos = zeros.at(k / SAMPLE);
+		var r = k % SAMPLE;
+		var w = pos >>> 6;
+		var x = ~louds.at(w) & (-1L << pos);
+
+		for (var c = Long.bitCount(x); r >= c; c = Long.bitCount(x)) {
+			r -= c;
+			x = ~louds.at(++w);
+		}
+
+		for (; r > 0; r--) {
+			x &= x - 1;
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(x);
+	}
+
+	public void serialize(MemorySegment dst) {
+		setLongAtOffset(dst, 0, keys);
+		setLongAtOffset(dst, 8, nodes);
+		setLongAtOffset(dst, 16, min);
+		setLongAtOffset(dst, 24, width);
+
+		var sections = sections();
+		var off = HEADER;
+		for (var i = 0; i < sections.length; i++) {
+			var len = sections[i].byteSize();
+			setLongAtOffset(dst, 32 + 8 * i, len);
+			sections[i].copyTo(dst.asSlice(off, len));
+			off += len;
+		}
+	}
+
+	public void serialize(Path dst) {
+		try (var ms = MemorySegment.mapFile(dst, 0, imageSize(), MapMode.READ_WRITE)) {
+			serialize(ms);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return number of keys
+	 */
+	public long size() {
+		return keys;
+	}
+
+	/**
+	 * @return position in louds of the first child bit of node
+	 */
+	long start(long node) {
+		return node == 0 ? 0 : select0(node - 1) + 1;
+	}
+
+	boolean terminal(long node) {
+		return (terminal.at(node >>> 6) & (1L << node)) != 0;
+	}
+
+	/**
+	 * @return value of the key ending at node
+	 */
+	int value(long node) {
+		var width = this.width;
+		if (width == 0) {
+			return min;
+		}
+		var bit = rank(node) * width;
+		var w = bit >>> 6;
+		var shift = (int) (bit & 63);
+		var v = values.at(w) >>> shift;
+		if (shift + width > 64) {
+			v |= values.at(w + 1) << (64 - shift);
+		}
+		return (int) ((v & ((1L << width) - 1)) + min);
+	}
+
+	public IntStream values() {
+		return predict("").mapToInt(Match::value);
+	}
+
+	public Stream<Match> withCommonPrefix(byte[] key) {
+		return new PrefixIter(key).stream();
+	}
+
+	/**
+	 * Same as {@link Cedar#withCommonPrefix(String)}.
+	 */
+	public Stream<Match> withCommonPrefix(String key) {
+		return withCommonPrefix(utf8(key));
+	}
+}
@@ -0,0 +1,177 @@
+package com.nc.cedar;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cap on the bytes of nodes, infos, blocks, rejects and tails held by the tries that share it.
+ * Growth is charged before anything is allocated, so a trie that would go past the limit throws
+ * {@link MemoryBudgetException} and is left as it was, instead of failing on a native allocation
+ * half way through an update.<br>
+ * Budgets can be nested, e.g. one per trie under one per tenant: a charge must fit in every budget
+ * up the chain. When -DCedar.MEMORY_BUDGET=<bytes> is set, {@link #global()} is the root of the
+ * budgets built with {@link #MemoryBudget(long)} and the default budget of every trie.<br>
+ * Filters and the values of {@link Cedar64}, {@link PayloadCedar} and {@link CedarMap} are not
+ * charged.
+ *
+ * @author cmuramoto
+ */
+public final class MemoryBudget {
+
+	/**
+	 * Memory pressure hook, see {@link MemoryBudget#listener(Listener)}.
+	 */
+	@FunctionalInterface
+	public interface Listener {
+		/**
+		 * @param budget
+		 *            - the budget under pressure, which may be a parent of the one charged
+		 * @param requested
+		 *            - bytes of the charge
+		 * @param rejected
+		 *            - true if the charge didn't fit, false if it did but usage is past the
+		 *            watermark
+		 */
+		void pressure(MemoryBudget budget, long requested, boolean rejected);
+	}
+
+	static final MemoryBudget GLOBAL;
+
+	static {
+		var limit = Long.getLong("Cedar.MEMORY_BUDGET", 0L);
+		GLOBAL = limit > 0 ? new MemoryBudget(limit, null) : null;
+	}
+
+	/**
+	 * @return the budget set with -DCedar.MEMORY_BUDGET, null if not set
+	 */
+	public static MemoryBudget global() {
+		return GLOBAL;
+	}
+
+	final long limit;
+
+	final MemoryBudget parent;
+
+	final AtomicLong used = new AtomicLong();
+
+	volatile Listener listener;
+
+	volatile double watermark = 0.9;
+
+	/**
+	 * A budget nested in {@link #global()}, if there's one.
+	 */
+	public MemoryBudget(long limit) {
+		this(limit, GLOBAL);
+	}
+
+	/**
+	 * @param parent
+	 *            - budget this one is nested in, may be null
+	 */
+	public MemoryBudget(long limit, MemoryBudget parent) {
+		if (limit <= 0) {
+			throw new IllegalArgumentException("limit must be positive: " + limit);
+		}
+		this.limit = limit;
+		this.parent = parent;
+	}
+
+	/**
+	 * Charges bytes to this budget and its parents, all or none.
+	 *
+	 * @throws MemoryBudgetException
+	 *             if bytes don't fit in some budget of the chain
+	 */
+	void acquire(long bytes) {
+		long curr;
+		long next;
+		do {
+			curr = used.get();
+			next = curr + bytes;
+			if (next > limit) {
+				notify(bytes, true);
+				throw new MemoryBudgetException(this, bytes);
+			}
+		} while (!used.compareAndSet(curr, next));
+
+		if (parent != null) {
+			try {
+				parent.acquire(bytes);
+			} catch (MemoryBudgetException e) {
+				used.addAndGet(-bytes);
+				throw e;
+			}
+		}
+
+		if (next > limit * watermark) {
+			notify(bytes, false);
+		}
+	}
+
+	public long available() {
+		return Math.max(0, limit - used.get());
+	}
+
+	/**
+	 * Charges bytes that were allocated already (e.g. when a trie is loaded), even if they don't
+	 * fit.
+	 */
+	void force(long bytes) {
+		used.addAndGet(bytes);
+		if (parent != null) {
+			parent.force(bytes);
+		}
+	}
+
+	public long limit() {
+		return limit;
+	}
+
+	/**
+	 * Sets the hook called when a charge is rejected or leaves usage past the watermark. It runs
+	 * in the thread that charged, so it should be quick.
+	 */
+	public void listener(Listener listener) {
+		this.listener = listener;
+	}
+
+	private void notify(long bytes, boolean rejected) {
+		var l = listener;
+		if (l != null) {
+			l.pressure(this, bytes, rejected);
+		}
+	}
+
+	public MemoryBudget parent() {
+		return parent;
+	}
+
+	void release(long bytes) {
+		used.addAndGet(-bytes);
+		if (parent != null) {
+			parent.release(bytes);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "MemoryBudget[used=" + used.get() + ", limit=" + limit + "]";
+	}
+
+	public long used() {
+		return used.get();
+	}
+
+	/**
+	 * @param watermark
+	 *            - fraction of the limit past which successful charges are reported too, 0.9 by
+	 *            default
+	 */
+	public void watermark(double watermark) {
+		if (!(watermark > 0 && watermark <= 1)) {
+			throw new IllegalArgumentException("watermark must be in (0,1]: " + watermark);
+		}
+		this.watermark = watermark;
+	}
+}
@@ -0,0 +1,33 @@
+package com.nc.cedar;
+
+/**
+ * Thrown when a trie would grow past its {@link MemoryBudget}. Nothing was allocated and the trie
+ * is unchanged, so it can still be read, erased from or compacted.
+ *
+ * @author cmuramoto
+ */
+public final class MemoryBudgetException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	final transient MemoryBudget budget;
+
+	final long requested;
+
+	MemoryBudgetException(MemoryBudget budget, long requested) {
+		super(String.format("Memory budget exceeded: requested %d bytes with %d of %d in use", requested, budget.used(), budget.limit()));
+		this.budget = budget;
+		this.requested = requested;
+	}
+
+	/**
+	 * @return the budget that rejected the charge, which may be a parent of the trie's budget
+	 */
+	public MemoryBudget budget() {
+		return budget;
+	}
+
+	public long requested() {
+		return requested;
+	}
+}
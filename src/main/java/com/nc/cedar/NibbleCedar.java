@@ -0,0 +1,187 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.Bits.U;
+import static com.nc.cedar.Bits.hash;
+import static com.nc.cedar.Bits.i32;
+import static com.nc.cedar.Bits.u32;
+import static com.nc.cedar.Bits.u64;
+import static com.nc.cedar.Bits.utf8;
+import static jdk.internal.misc.Unsafe.ARRAY_BYTE_BASE_OFFSET;
+
+import java.nio.file.Path;
+
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * A {@link Cedar} that branches on 4-bit labels: every byte of the key is split into its high and
+ * low nibbles, so a node has at most 16 children plus the terminal. Nodes are allocated in
+ * 32-slot blocks (labels are 1..16 and 0 is the terminal) instead of 256-slot ones, which packs
+ * high-entropy keys (hashes, UUIDs, hex strings) much more densely. <br>
+ * Offsets and lengths reported by {@link Match} and {@link TextMatch} are in bytes, just like in
+ * the other tries.
+ *
+ * @author cmuramoto
+ */
+public final class NibbleCedar extends BaseCedar {
+
+	public static NibbleCedar deserialize(MemorySegment src, boolean copy) {
+		return BaseCedar.deserialize(NibbleCedar::new, src, copy);
+	}
+
+	public static NibbleCedar deserialize(Path src, boolean copy) {
+		return BaseCedar.deserialize(NibbleCedar::new, src, copy);
+	}
+
+	/**
+	 * Loads an image written by {@link BaseCedar#serializeCompressed(Path)}.
+	 */
+	public static NibbleCedar deserializeCompressed(Path src) {
+		return BaseCedar.deserializeCompressed(NibbleCedar::new, src);
+	}
+
+	/**
+	 * Lookup-only view of an image written by either {@link BaseCedar#serialize(Path)} or
+	 * {@link BaseCedar#serializeReadOnly(Path, boolean)}. The file is mapped read-only and stays
+	 * mapped until the trie is closed.
+	 */
+	public static NibbleCedar deserializeReadOnly(Path src) {
+		return BaseCedar.deserializeReadOnly(NibbleCedar::new, src);
+	}
+
+	/**
+	 * Opens a trie persisted with {@link BaseCedar#persist(Path)}, or creates an empty one in file.
+	 */
+	public static NibbleCedar open(Path file) {
+		return BaseCedar.open(NibbleCedar::new, NibbleCedar::new, file);
+	}
+
+	static byte hi(byte b) {
+		return (byte) (((b >>> 4) & 0xF) + 1);
+	}
+
+	static byte lo(byte b) {
+		return (byte) ((b & 0xF) + 1);
+	}
+
+	public NibbleCedar() {
+		this(REALLOC_CAP);
+	}
+
+	public NibbleCedar(boolean ordered) {
+		this(ordered, 0);
+	}
+
+	public NibbleCedar(boolean ordered, GrowthPolicy growth) {
+		super(Nodes.initial_n(), NodeInfos.initial_n(), Blocks.initial_n(), Rejects.initial_n(), ordered, growth);
+
+		capacity = 32;
+		size = 32;
+		max_trial = 1;
+	}
+
+	public NibbleCedar(boolean ordered, int realloc) {
+		this(ordered, growth(realloc));
+	}
+
+	public NibbleCedar(GrowthPolicy growth) {
+		this(true, growth);
+	}
+
+	public NibbleCedar(int realloc) {
+		this(true, realloc);
+	}
+
+	private NibbleCedar(Nodes array, NodeInfos infos, Blocks blocks, Rejects reject, int flags) {
+		super(array, infos, blocks, reject, flags);
+	}
+
+	@Override
+	int block_shift() {
+		return 5;
+	}
+
+	@Override
+	int labels_per_byte() {
+		return 2;
+	}
+
+	@Override
+	byte label_of(byte b, int i) {
+		return i == 0 ? hi(b) : lo(b);
+	}
+
+	@Override
+	NibbleCedar empty() {
+		return new NibbleCedar((flags & 0x1) != 0, growth);
+	}
+
+	@Override
+	public long get(byte[] key) {
+		return get(key, 0, key.length);
+	}
+
+	@Override
+	public long get(byte[] key, int pos, int end) {
+		var filter = this.filter;
+		if (filter != null && !filter.test(hash(key, pos, end))) {
+			return ABSENT;
+		}
+
+		var from = 0L;
+		var to = 0L;
+		var array = this.array;
+		var encode = this.encode;
+
+		while (pos < end) {
+			var b = label(encode, U.getByte(key, ARRAY_BYTE_BASE_OFFSET + pos));
+
+			to = u64(array.base(from) ^ hi(b));
+			if (array.check(to) != i32(from)) {
+				return ABSENT;
+			}
+			from = to;
+
+			to = u64(array.base(from) ^ lo(b));
+			if (array.check(to) != i32(from)) {
+				return ABSENT;
+			}
+			from = to;
+
+			pos++;
+		}
+
+		var b = array.base(from);
+		var check = array.check(b);
+		if (check != i32(from)) {
+			return NO_VALUE;
+		} else {
+			return array.base(b);
+		}
+	}
+
+	@Override
+	public long get(String s) {
+		return get(utf8(s));
+	}
+
+	@Override
+	public byte[] suffixBytes(long to, int len, byte[] scratch) {
+		scratch = scratch == null || scratch.length < len ? new byte[len] : scratch;
+		var array = this.array;
+		var decode = this.decode;
+		while (len-- > 0) {
+			var from = u64(array.check(to));
+			var lo = (array.base(from) ^ to) - 1;
+			to = from;
+
+			from = u64(array.check(to));
+			var hi = (array.base(from) ^ to) - 1;
+			to = from;
+
+			var label = (byte) ((hi << 4) | lo);
+			scratch[len] = decode == null ? label : decode[u32(label)];
+		}
+
+		return scratch;
+	}
+}
@@ -0,0 +1,329 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.BaseCedar.ABSENT_OR_NO_VALUE;
+import static com.nc.cedar.BaseCedar.VALUE_LIMIT;
+import static com.nc.cedar.Bits.utf8;
+import static jdk.incubator.foreign.MemoryAccess.getLongAtOffset;
+import static jdk.incubator.foreign.MemoryAccess.setLongAtOffset;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * Trie with byte payloads stored off-heap. Payloads are appended to a log (the arena) and the
+ * key's value in the trie is the offset of its record, in 8-byte units, so the arena can hold up to
+ * 16GB. Replacing or removing a key leaves its old record dead in the arena.<br>
+ * Dead records are dropped by {@link #compact()}, which also runs on its own instead of growing the
+ * arena once at least half of it is dead, so growth and compaction share the same copy.<br>
+ * <b>That compaction runs synchronously, inside the put that found the arena full</b>: the put
+ * copies every live payload and rewrites the value of every key before returning, so it stalls
+ * for time proportional to the live data. Latency-sensitive writers should call
+ * {@link #autoCompact(boolean)} with false and run {@link #compact()} themselves when a pause is
+ * acceptable, e.g. once {@link #deadBytes()} crosses a threshold. The trie and the arena are not
+ * thread-safe, so compaction can't run in the background while puts go on.<br>
+ * {@link #getPayload(String)} returns a slice of the arena, without copying: it is only valid until
+ * the next update, which might move the arena.
+ *
+ * <pre>
+ * <code>
+ *   var cedar = new PayloadCedar();
+ *   cedar.put("doc-1", "{\"title\": \"cedar\"}".getBytes());
+ *   MemorySegment json = cedar.getPayload("doc-1");
+ * </code>
+ * </pre>
+ *
+ * @author cmuramoto
+ */
+public final class PayloadCedar {
+
+	static final long HEADER = 40;
+
+	public static PayloadCedar deserialize(MemorySegment src, boolean copy) {
+		var reduced = getLongAtOffset(src, 0) != 0;
+		var size = getLongAtOffset(src, 8);
+		var dead = getLongAtOffset(src, 16);
+		var used = getLongAtOffset(src, 24);
+		var trieLen = getLongAtOffset(src, 32);
+
+		var image = src.asSlice(HEADER, trieLen);
+		BaseCedar trie = reduced ? ReducedCedar.deserialize(image, copy) : Cedar.deserialize(image, copy);
+
+		var arena = new Payloads();
+		var ms = src.asSlice(HEADER + align(trieLen), used);
+		if (copy) {
+			arena.copyOf(ms);
+		} else {
+			arena.wrap(ms);
+		}
+		arena.pos = used;
+
+		return new PayloadCedar(trie, arena, size, dead);
+	}
+
+	public static PayloadCedar deserialize(Path src, boolean copy) {
+		MemorySegment ms = null;
+		try {
+			ms = MemorySegment.mapFile(src, 0, Files.size(src), MapMode.READ_WRITE).share();
+			return deserialize(ms, copy);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (ms != null && copy) {
+				ms.close();
+			}
+		}
+	}
+
+	static long align(long len) {
+		return (len + 7) & ~7L;
+	}
+
+	static long offset(int value) {
+		return (value & 0xFFFFFFFFL) << 3;
+	}
+
+	final BaseCedar trie;
+
+	final Payloads arena;
+
+	long size;
+
+	/**
+	 * Bytes taken by records of replaced or removed keys.
+	 */
+	long dead;
+
+	/**
+	 * Whether put compacts instead of growing a half-dead arena.
+	 */
+	boolean autoCompact = true;
+
+	public PayloadCedar() {
+		this(false);
+	}
+
+	public PayloadCedar(boolean reduced) {
+		this(reduced ? new ReducedCedar() : new Cedar(), Payloads.initial(256), 0, 0);
+	}
+
+	private PayloadCedar(BaseCedar trie, Payloads arena, long size, long dead) {
+		this.trie = trie;
+		this.arena = arena;
+		this.size = size;
+		this.dead = dead;
+	}
+
+	/**
+	 * @return bytes held by the arena, including dead records and room for growth
+	 */
+	public long arenaSize() {
+		return arena.byteSize();
+	}
+
+	/**
+	 * @return whether put compacts the arena instead of growing it once half of it is dead
+	 */
+	public boolean autoCompact() {
+		return autoCompact;
+	}
+
+	/**
+	 * Turns the compaction put runs instead of growing a half-dead arena on or off (it's on by
+	 * default). With it off, puts only ever grow the arena and dead records stay until
+	 * {@link #compact()} is called.
+	 */
+	public void autoCompact(boolean enabled) {
+		this.autoCompact = enabled;
+	}
+
+	public void close() {
+		trie.close();
+		arena.close();
+	}
+
+	/**
+	 * Rewrites the arena with the payloads of live keys only, in key order.
+	 */
+	public void compact() {
+		var trie = this.trie;
+		var arena = this.arena;
+		var next = Payloads.initial(arena.pos - dead);
+
+		var scratch = new byte[64];
+		for (var itr = trie.predict("").iterator(); itr.hasNext();) {
+			var m = itr.next();
+			var off = next.append(arena.slice(offset(m.value())));
+			// the key is already there, so this only overwrites its value
+			scratch = trie.suffixBytes(m.from(), m.length(), scratch);
+			trie.update(scratch, (int) (off >>> 3), 0, m.length());
+		}
+
+		if (arena.isMapped()) {
+			// a slice of a deserialized image, which stays mapped until the trie is closed
+			arena.buffer = null;
+		}
+		arena.take(next);
+		dead = 0;
+	}
+
+	public boolean containsKey(byte[] key) {
+		return (trie.get(key) & ABSENT_OR_NO_VALUE) == 0;
+	}
+
+	public boolean containsKey(String key) {
+		return containsKey(utf8(key));
+	}
+
+	/**
+	 * @return bytes taken by records that will be dropped by the next compaction
+	 */
+	public long deadBytes() {
+		return dead;
+	}
+
+	/**
+	 * @return a view of the payload of key, null if there is none
+	 */
+	public MemorySegment getPayload(byte[] key) {
+		var v = trie.get(key);
+		return (v & ABSENT_OR_NO_VALUE) == 0 ? arena.slice(offset((int) v)) : null;
+	}
+
+	public MemorySegment getPayload(String key) {
+		return getPayload(utf8(key));
+	}
+
+	public long imageSize() {
+		return HEADER + align(trie.imageSize()) + arena.pos;
+	}
+
+	public boolean isReduced() {
+		return trie.isReduced();
+	}
+
+	/**
+	 * @return the payload of a match produced by {@link #predict(String)}
+	 */
+	public MemorySegment payload(Match m) {
+		return arena.slice(offset(m.value()));
+	}
+
+	/**
+	 * Same as {@link Cedar#predict(String)}, see {@link #payload(Match)}.
+	 */
+	public Stream<Match> predict(String prefix) {
+		return trie.predict(prefix);
+	}
+
+	public boolean put(byte[] key, byte[] payload) {
+		return put(key, 0, key.length, MemorySegment.ofArray(payload));
+	}
+
+	/**
+	 * Appends a copy of payload to the arena and points key to it. If the arena is full and at least
+	 * half dead, this first compacts it, which stalls for time proportional to the live payloads
+	 * (see {@link #autoCompact(boolean)}).
+	 *
+	 * @return true if key had a payload, which is now dead
+	 * @throws IllegalStateException
+	 *             if the arena can't grow anymore
+	 * @throws MemoryBudgetException
+	 *             if the trie can't take the key, in which case the record is dropped
+	 */
+	public boolean put(byte[] key, int start, int end, MemorySegment payload) {
+		var arena = this.arena;
+		var len = Payloads.record(payload.byteSize());
+		if (autoCompact && arena.pos + len > arena.byteSize() && dead >= (arena.pos >>> 1)) {
+			compact();
+		}
+
+		if (((arena.pos + len) >>> 3) > VALUE_LIMIT) {
+			throw new IllegalStateException("Payloads are limited to 16GB");
+		}
+
+		var off = arena.append(payload);
+		int prev;
+		try {
+			prev = trie.update(key, (int) (off >>> 3), start, end);
+		} catch (MemoryBudgetException e) {
+			// the trie is untouched, so the record is dropped
+			arena.pos = off;
+			throw e;
+		}
+		if (prev != 0) {
+			dead += Payloads.record(arena.length(offset(prev)));
+			return true;
+		}
+
+		size++;
+		return false;
+	}
+
+	public boolean put(byte[] key, MemorySegment payload) {
+		return put(key, 0, key.length, payload);
+	}
+
+	public boolean put(String key, byte[] payload) {
+		return put(utf8(key), payload);
+	}
+
+	public boolean put(String key, MemorySegment payload) {
+		return put(utf8(key), payload);
+	}
+
+	/**
+	 * @return true if key was there
+	 */
+	public boolean remove(byte[] key) {
+		var v = trie.erase(key);
+		if ((v & ABSENT_OR_NO_VALUE) != 0) {
+			return false;
+		}
+
+		dead += Payloads.record(arena.length(offset((int) v)));
+		size--;
+		return true;
+	}
+
+	public boolean remove(String key) {
+		return remove(utf8(key));
+	}
+
+	public void serialize(MemorySegment dst) {
+		var trieLen = trie.imageSize();
+		var used = arena.pos;
+		setLongAtOffset(dst, 0, trie.isReduced() ? 1 : 0);
+		setLongAtOffset(dst, 8, size);
+		setLongAtOffset(dst, 16, dead);
+		setLongAtOffset(dst, 24, used);
+		setLongAtOffset(dst, 32, trieLen);
+
+		trie.serialize(dst.asSlice(HEADER, trieLen));
+		dst.asSlice(HEADER + align(trieLen), used).copyFrom(arena.buffer.asSlice(0, used));
+	}
+
+	public void serialize(Path dst) {
+		try (var ms = MemorySegment.mapFile(dst, 0, imageSize(), MapMode.READ_WRITE)) {
+			serialize(ms);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return number of keys
+	 */
+	public long size() {
+		return size;
+	}
+
+	public String suffix(Match m) {
+		return trie.suffix(m);
+	}
+}
@@ -1,6 +1,6 @@
 package com.nc.cedar;
 
-import static com.nc.cedar.Bits.UTF8;
+import static com.nc.cedar.Bits.hash;
 import static com.nc.cedar.Bits.i32;
 import static com.nc.cedar.Bits.u32;
 import static com.nc.cedar.Bits.u64;
@@ -8,152 +8,40 @@ import static com.nc.cedar.Bits.utf8;
 
 import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 import jdk.incubator.foreign.MemorySegment;
 
 public final class ReducedCedar extends BaseCedar {
 
-	final class PrefixIter extends Itr<Match> {
-
-		final byte[] key;
-		final Ptr from;
-		int i;
-
-		PrefixIter(byte[] key) {
-			this.key = key;
-			this.from = new Ptr();
-		}
-
-		@Override
-		void advance() {
-			while (i < key.length) {
-				var value = find(key, from, i, i + 1);
-
-				if (value != ABSENT) {
-					if (value == NO_VALUE) {
-						i++;
-						continue;
-					} else {
-						curr = new Match((int) value, i, from.v);
-						i++;
-						break;
-					}
-				} else {
-					break;
-				}
-			}
-		}
+	public static ReducedCedar deserialize(MemorySegment src, boolean copy) {
+		return BaseCedar.deserialize(ReducedCedar::new, src, copy);
 	}
 
-	final class PrefixPredictIter extends Itr<Match> implements Scratch {
-
-		final byte[] key;
-		final Ptr from;
-		long p;
-		long root;
-		long value;
-
-		PrefixPredictIter(byte[] key) {
-			this.key = key;
-			from = new Ptr();
-		}
-
-		@Override
-		void advance() {
-			if (value == ABSENT) {
-				return;
-			}
-
-			if (from.v == 0 && p == 0) {
-				// To locate the prefix's position first, if it doesn't exist then that means we
-				// don't have do anything. `from` would serve as the cursor.
-
-				if (key.length == 0 || find(key, from) != ABSENT) {
-					this.root = this.from.v;
-
-					begin(this.from.v, this.p, this);
-
-					tryAdvance();
-				}
-			} else {
-				tryAdvance();
-			}
-		}
-
-		@Override
-		public void set(long from, long p, long value) {
-			this.from.v = from;
-			this.p = p;
-			this.value = value;
-		}
-
-		void tryAdvance() {
-			if (value != ABSENT) {
-				var result = new Match((int) value, (int) p, from.v);
-
-				ReducedCedar.this.next(from.v, p, root, this);
-
-				curr = result;
-			} else {
-				curr = null;
-			}
-		}
+	public static ReducedCedar deserialize(Path src, boolean copy) {
+		return BaseCedar.deserialize(ReducedCedar::new, src, copy);
 	}
 
-	final class ScanItr extends Itr<TextMatch> {
-
-		final byte[] text;
-		final Ptr from;
-		int base;
-		int i;
-
-		ScanItr(byte[] text, int base) {
-			super();
-			this.text = text;
-			from = new Ptr();
-			this.base = base;
-		}
-
-		@Override
-		void advance() {
-			for (; base < text.length; base++) {
-				var limit = text.length - base;
-
-				while (i < limit) {
-					var off = base + i;
-
-					var r = find(text, from, off, off + 1);
-
-					if (r != ABSENT) {
-						if (r == NO_VALUE) {
-							i++;
-							continue;
-						} else {
-							curr = new TextMatch(base, base + i + 1, (int) r);
-							i++;
-							return;
-						}
-					} else {
-						break;
-					}
-				}
-
-				i = 0;
-				from.v = 0;
-			}
-		}
+	/**
+	 * Loads an image written by {@link BaseCedar#serializeCompressed(Path)}.
+	 */
+	public static ReducedCedar deserializeCompressed(Path src) {
+		return BaseCedar.deserializeCompressed(ReducedCedar::new, src);
 	}
 
-	public static ReducedCedar deserialize(MemorySegment src, boolean copy) {
-		return BaseCedar.deserialize(ReducedCedar::new, src, copy);
+	/**
+	 * Lookup-only view of an image written by either {@link BaseCedar#serialize(Path)} or
+	 * {@link BaseCedar#serializeReadOnly(Path, boolean)}. The file is mapped read-only and stays
+	 * mapped until the trie is closed.
+	 */
+	public static ReducedCedar deserializeReadOnly(Path src) {
+		return BaseCedar.deserializeReadOnly(ReducedCedar::new, src);
 	}
 
-	public static ReducedCedar deserialize(Path src, boolean copy) {
-		return BaseCedar.deserialize(ReducedCedar::new, src, copy);
+	/**
+	 * Opens a trie persisted with {@link BaseCedar#persist(Path)}, or creates an empty one in file.
+	 */
+	public static ReducedCedar open(Path file) {
+		return BaseCedar.open(ReducedCedar::new, ReducedCedar::new, file);
 	}
 
 	public ReducedCedar() {
@@ -164,8 +52,8 @@ public final class ReducedCedar extends BaseCedar {
 		this(ordered, 0);
 	}
 
-	public ReducedCedar(boolean ordered, int realloc) {
-		super(Nodes.initial_r(), NodeInfos.initial(), Blocks.initial(), Rejects.initial(), ordered, realloc);
+	public ReducedCedar(boolean ordered, GrowthPolicy growth) {
+		super(Nodes.initial_r(), NodeInfos.initial(), Blocks.initial(), Rejects.initial(), ordered, growth);
 
 		capacity = 256;
 		size = 256;
@@ -173,6 +61,14 @@ public final class ReducedCedar extends BaseCedar {
 		max_trial = 1;
 	}
 
+	public ReducedCedar(boolean ordered, int realloc) {
+		this(ordered, growth(realloc));
+	}
+
+	public ReducedCedar(GrowthPolicy growth) {
+		this(true, growth);
+	}
+
 	public ReducedCedar(int realloc) {
 		this(true, realloc);
 	}
@@ -181,7 +77,8 @@ public final class ReducedCedar extends BaseCedar {
 		super(array, infos, blocks, reject, flags);
 	}
 
-	private void begin(long from, long p, Scratch s) {
+	@Override
+	void begin(long from, long p, Scratch s) {
 		var array = this.array;
 		var infos = this.infos;
 		var base = array.base_r(from);
@@ -216,60 +113,13 @@ public final class ReducedCedar extends BaseCedar {
 		s.set(from, p, v);
 	}
 
-	public void build(byte[]... keys) {
-		for (var i = 0; i < keys.length; i++) {
-			update(keys[i], i);
-		}
-	}
-
 	@Override
-	public <E extends Map.Entry<String, Integer>> void build(Iterable<E> kv) {
-		for (var e : kv) {
-			update(e.getKey(), e.getValue());
-		}
+	ReducedCedar empty() {
+		return new ReducedCedar((flags & 0x1) != 0, growth);
 	}
 
 	@Override
-	public void build(Map<String, Integer> kv) {
-		for (var e : kv.entrySet()) {
-			update(e.getKey(), e.getValue());
-		}
-	}
-
-	@Override
-	public void build(String... keys) {
-		for (var i = 0; i < keys.length; i++) {
-			update(keys[i], i);
-		}
-	}
-
-	Iterator<Match> common_prefix_iter(byte[] utf8) {
-		return new PrefixIter(utf8);
-	}
-
-	@Override
-	Iterator<Match> common_prefix_iter(String key) {
-		return common_prefix_iter(utf8(key));
-	}
-
-	@Override
-	public long erase(byte[] key) {
-		return erase(key, 0, key.length);
-	}
-
-	@Override
-	public long erase(byte[] key, int start, int end) {
-		var from = new Ptr();
-		var r = find(key, from, start, end);
-
-		if ((r & ABSENT_OR_NO_VALUE) == 0) {
-			erase(from.v);
-		}
-
-		return r;
-	}
-
-	private void erase(long from) {
+	void erase(long from) {
 		// reduced-trie
 		var e = array.base(from) >= 0 ? i32(from) : array.base_r(from);
 
@@ -298,20 +148,13 @@ public final class ReducedCedar extends BaseCedar {
 	}
 
 	@Override
-	public long erase(String key) {
-		return erase(utf8(key));
-	}
-
-	long find(byte[] key, Ptr from) {
-		return find(key, from, 0, key.length);
-	}
-
 	long find(byte[] key, Ptr from, int start, int end) {
 		var to = 0L;
 		var pos = 0;
 		end = (end <= 0 || end <= start) ? key.length : end;
 		var span = end - start;
 		var array = this.array;
+		var encode = this.encode;
 		// hoist in local, then perform a single heap write post-loop
 		var v = from.v;
 
@@ -321,7 +164,7 @@ public final class ReducedCedar extends BaseCedar {
 				break;
 			}
 
-			to = u64(array.base_r(v) ^ u32(key[start + pos]));
+			to = u64(array.base_r(v) ^ u32(label(encode, key[start + pos])));
 			if (array.check(to) != i32(v)) {
 				from.v = v;
 				return ABSENT;
@@ -335,7 +178,7 @@ public final class ReducedCedar extends BaseCedar {
 
 		// reduced-trie
 		if (array.base(v) >= 0) {
-			if (pos == end) {
+			if (pos == span) {
 				return array.base(v);
 			} else {
 				return ABSENT;
@@ -351,7 +194,7 @@ public final class ReducedCedar extends BaseCedar {
 		}
 	}
 
-	private int find_place() {
+	private int find_place_r() {
 		if (blocks_head_closed != 0) {
 			return blocks.head(blocks_head_closed);
 		}
@@ -364,7 +207,7 @@ public final class ReducedCedar extends BaseCedar {
 		return add_block() << 8;
 	}
 
-	private int find_places(byte[] child) {
+	private int find_places_r(byte[] child) {
 		var idx = blocks_head_open;
 
 		// we still have available 'Open' blocks.
@@ -429,7 +272,7 @@ public final class ReducedCedar extends BaseCedar {
 		return add_block() << 8;
 	}
 
-	private int follow(long from, byte label) {
+	private int follow_r(long from, byte label) {
 		var base = array.base_r(from);
 
 		var to = 0;
@@ -437,7 +280,7 @@ public final class ReducedCedar extends BaseCedar {
 		// the node is not there
 		if (base < 0 || array.check(base ^ ul) < 0) {
 			// allocate a e node
-			to = pop_e_node(base, label, (int) from);
+			to = pop_e_node_r(base, label, (int) from);
 			var branch = to ^ ul;
 
 			// maintain the info in ninfo
@@ -447,7 +290,7 @@ public final class ReducedCedar extends BaseCedar {
 			to = base ^ ul;
 			if (array.check(to) != from) {
 				// call `resolve` to relocate.
-				to = resolve(from, base, label);
+				to = resolve_r(from, base, label);
 			}
 		}
 
@@ -461,11 +304,21 @@ public final class ReducedCedar extends BaseCedar {
 
 	@Override
 	public long get(byte[] key, int pos, int end) {
+		var filter = this.filter;
+		if (filter != null && !filter.test(hash(key, pos, end))) {
+			return ABSENT;
+		}
+
+		var encode = this.encode;
+		if (encode != null) {
+			return get(key, pos, end, encode);
+		}
+
 		var from = 0L;
 		var to = 0L;
 		var array = this.array;
 		// hoist in local, then perform a single heap write post-loop
-		while (pos < key.length) {
+		while (pos < end) {
 			// reduced-trie
 			if (array.base(from) >= 0) {
 				break;
@@ -482,7 +335,7 @@ public final class ReducedCedar extends BaseCedar {
 
 		// reduced-trie
 		if (array.base(from) >= 0) {
-			if (pos == key.length) {
+			if (pos == end) {
 				return array.base(from);
 			} else {
 				return ABSENT;
@@ -498,38 +351,51 @@ public final class ReducedCedar extends BaseCedar {
 		}
 	}
 
-	@Override
-	public long get(String s) {
-		return get(utf8(s));
-	}
-
-	public Stream<String> keys() {
-		return predict("").map(this::suffix);
-	}
+	// remapped alphabet, kept apart so the identity path doesn't pay for the table lookup
+	private long get(byte[] key, int pos, int end, byte[] encode) {
+		var from = 0L;
+		var to = 0L;
+		var array = this.array;
+		// hoist in local, then perform a single heap write post-loop
+		while (pos < end) {
+			// reduced-trie
+			if (array.base(from) >= 0) {
+				break;
+			}
 
-	@Override
-	public Match match(byte[] utf8) {
-		return match(utf8, 0, utf8.length);
-	}
+			to = u64(array.base_r(from) ^ u32(encode[u32(key[pos])]));
+			if (array.check(to) != i32(from)) {
+				return ABSENT;
+			}
 
-	@Override
-	public Match match(byte[] utf8, int start, int end) {
-		var from = new Ptr();
+			from = to;
+			pos++;
+		}
 
-		var r = find(utf8, from, start, end);
+		// reduced-trie
+		if (array.base(from) >= 0) {
+			if (pos == end) {
+				return array.base(from);
+			} else {
+				return ABSENT;
+			}
+		}
 
-		if ((r & ABSENT_OR_NO_VALUE) != 0) {
-			return null;
+		var b = array.base_r(from);
+		var check = array.check(b);
+		if (check != i32(from)) {
+			return NO_VALUE;
 		} else {
-			return new Match((int) r, utf8.length, from.v);
+			return array.base(b);
 		}
 	}
 
 	@Override
-	public Match match(String str) {
-		return match(utf8(str));
+	public long get(String s) {
+		return get(utf8(s));
 	}
 
+	@Override
 	void next(long from, long p, long root, Scratch scratch) {
 		var c = (byte) 0;
 
@@ -555,10 +421,10 @@ public final class ReducedCedar extends BaseCedar {
 		}
 	}
 
-	private int pop_e_node(int base, byte label, int from) {
+	private int pop_e_node_r(int base, byte label, int from) {
 		int e;
 		if (base < 0) {
-			e = find_place();
+			e = find_place_r();
 		} else {
 			e = base ^ u32(label);
 		}
@@ -593,22 +459,13 @@ public final class ReducedCedar extends BaseCedar {
 		array.base(e, VALUE_LIMIT);
 		array.check(e, from);
 		if (base < 0) {
-			array.base(from, -(e ^ i32(label)) - 1);
+			array.base(from, -(e ^ u32(label)) - 1);
 		}
 
 		return e;
 	}
 
-	public Stream<Match> predict(byte[] utf8) {
-		return new PrefixPredictIter(utf8).stream();
-	}
-
-	@Override
-	public Stream<Match> predict(String key) {
-		return predict(utf8(key));
-	}
-
-	private int resolve(long from_n, int base_n, byte label_n) {
+	private int resolve_r(long from_n, int base_n, byte label_n) {
 		var to_pn = base_n ^ u32(label_n);
 
 		// the `base` and `from` for the conflicting one.
@@ -619,11 +476,11 @@ public final class ReducedCedar extends BaseCedar {
 		var flag = consult(base_n, base_p, infos.child(from_n), infos.child(from_p));
 
 		// collect the list of children for the block that we are going to relocate.
-		var children = flag ? set_child(base_n, infos.child(from_n), label_n, true) : set_child(base_p, infos.child(from_p), (byte) 0xFF, false);
+		var children = flag ? set_child_r(base_n, infos.child(from_n), label_n, true) : set_child_r(base_p, infos.child(from_p), (byte) 0xFF, false);
 
 		// decide which algorithm to allocate free block depending on the number of children we
 		// have.
-		var base = children.length == 1 ? find_place() : find_places(children);
+		var base = children.length == 1 ? find_place_r() : find_places_r(children);
 
 		base ^= u32(children[0]);
 
@@ -646,7 +503,7 @@ public final class ReducedCedar extends BaseCedar {
 
 		// the actual work for relocating the chilren
 		for (var i = 0; i < children.length; i++) {
-			var to = pop_e_node(base, children[i], from);
+			var to = pop_e_node_r(base, children[i], from);
 			var to_ = base_ ^ u32(children[i]);
 
 			if (i == children.length - 1) {
@@ -702,16 +559,7 @@ public final class ReducedCedar extends BaseCedar {
 		}
 	}
 
-	public Stream<TextMatch> scan(byte[] utf8) {
-		return new ScanItr(utf8, 0).stream();
-	}
-
-	@Override
-	public Stream<TextMatch> scan(String text) {
-		return scan(utf8(text));
-	}
-
-	byte[] set_child(int base, byte c, byte label, boolean not_terminal) {
+	byte[] set_child_r(int base, byte c, byte label, boolean not_terminal) {
 		var child = new byte[32];
 		var pos = 0;
 
@@ -749,30 +597,14 @@ public final class ReducedCedar extends BaseCedar {
 	}
 
 	@Override
-	public String suffix(long to, int len) {
-		return suffix(to, len, new byte[len]);
-	}
-
-	public String suffix(long to, int len, byte[] scratch) {
-		var s = suffixBytes(to, len, scratch);
-		return new String(s, 0, len, UTF8);
-	}
-
-	@Override
-	public String suffix(Match m) {
-		return suffix(m.from(), m.length());
-	}
-
-	public byte[] suffixBytes(long to, int len) {
-		return suffixBytes(to, len, new byte[len]);
-	}
-
 	public byte[] suffixBytes(long to, int len, byte[] scratch) {
 		scratch = scratch == null || scratch.length < len ? new byte[len] : scratch;
 		var array = this.array;
+		var decode = this.decode;
 		while (len-- > 0) {
 			var from = u64(array.check(to));
-			scratch[len] = (byte) ((array.base_r(from) ^ to) & 0xFF);
+			var label = (byte) ((array.base_r(from) ^ to) & 0xFF);
+			scratch[len] = decode == null ? label : decode[u32(label)];
 			to = from;
 		}
 
@@ -780,31 +612,23 @@ public final class ReducedCedar extends BaseCedar {
 	}
 
 	@Override
-	public int update(byte[] utf8, int value) {
-		return update(utf8, value, 0, utf8.length);
-	}
-
-	@Override
-	public int update(byte[] utf8, int value, int start, int end) {
-		return update(utf8, value, 0L, start, end);
-	}
-
-	private int update(byte[] key, int value, long from, int pos, int end) {
+	int update(byte[] key, int value, long from, int pos, int end) {
 		guardUpdate(key, from, pos, end);
 
+		var encode = this.encode;
 		while (pos < end) {
 			// reduced-trie
 			var val_ = array.base(from);
 			if (val_ >= 0 && val_ != VALUE_LIMIT) {
-				var to = follow(from, (byte) 0);
+				var to = follow_r(from, (byte) 0);
 				array.base(to, val_);
 			}
 
-			from = follow(from, key[pos++]);
+			from = follow_r(from, label(encode, key[pos++]));
 		}
 
 		// reduced-trie
-		var to = array.base(from) >= 0 ? i32(from) : follow(from, (byte) 0);
+		var to = array.base(from) >= 0 ? i32(from) : follow_r(from, (byte) 0);
 
 		// reduced-trie
 		if (array.base(to) == VALUE_LIMIT) {
@@ -813,23 +637,4 @@ public final class ReducedCedar extends BaseCedar {
 
 		return array.getAndSetBase(to, value);
 	}
-
-	@Override
-	public int update(String key, int value) {
-		return update(utf8(key), value);
-	}
-
-	public IntStream values() {
-		return predict("").mapToInt(Match::value);
-	}
-
-	public Stream<Match> withCommonPrefix(byte[] utf8) {
-		return new PrefixIter(utf8).stream();
-	}
-
-	@Override
-	public Stream<Match> withCommonPrefix(String key) {
-
-		return withCommonPrefix(utf8(key));
-	}
 }
\ No newline at end of file
@@ -0,0 +1,234 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarBuffer.DIRTY_SHIFT;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32C;
+
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * Background image of a trie as of the time it was started (see
+ * {@link BaseCedar#snapshotAsync(Path)}), in the spirit of fork() based snapshots: starting only
+ * copies the header and installs a {@link Section} in every buffer, then a thread writes the
+ * sections page by page (the dirty pages of {@link CedarBuffer#mark(long)}) while the writer keeps
+ * going. The first time the writer touches a page the snapshot has not written yet, the page is
+ * copied aside, so the snapshot writes what was there at the mark. A page is copied at most once
+ * and never after the snapshot has written it, so the writer only ever waits for a page copy.
+ *
+ * @author cmuramoto
+ */
+final class Snapshot implements Runnable {
+
+	/**
+	 * Copy-on-write state of a buffer. Pages are written or copied in any order, but only once.
+	 */
+	static final class Section {
+		final CedarBuffer cb;
+
+		/**
+		 * Index of the section in the header.
+		 */
+		final int slot;
+
+		/**
+		 * Bytes at the mark.
+		 */
+		final long len;
+
+		/**
+		 * Bytes per page.
+		 */
+		final long page;
+
+		final long pages;
+
+		/**
+		 * Pages already taken by the snapshot or copied by the writer. Bits are only set (with
+		 * release semantics, after the page was read) under the section's lock and never cleared,
+		 * so the writer may test them without it.
+		 */
+		final long[] done;
+
+		/**
+		 * Pages copied by the writer and not yet taken by the snapshot.
+		 */
+		final Map<Long, byte[]> copies = new HashMap<>();
+
+		Section(CedarBuffer cb, int slot, long unit) {
+			this.cb = cb;
+			this.slot = slot;
+			this.len = cb.byteSize();
+			this.page = unit << DIRTY_SHIFT;
+			this.pages = (len + page - 1) / page;
+			this.done = new long[(int) ((pages + 63) >>> 6)];
+		}
+
+		/**
+		 * Called by the writer before it modifies unit ix.
+		 */
+		void before(long ix) {
+			var p = ix >>> DIRTY_SHIFT;
+			if (p < pages && !done(p)) {
+				synchronized (this) {
+					copy(p);
+				}
+			}
+		}
+
+		private void copy(long p) {
+			if (!done(p)) {
+				copies.put(p, read(p));
+				setDone(p);
+			}
+		}
+
+		private boolean done(long p) {
+			return ((long) DONE.getAcquire(done, (int) (p >>> 6)) & (1L << p)) != 0;
+		}
+
+		/**
+		 * Copies every page past newLen, before the writer shrinks or releases the buffer.
+		 */
+		void preserve(long newLen) {
+			synchronized (this) {
+				for (var p = newLen / page; p < pages; p++) {
+					copy(p);
+				}
+			}
+		}
+
+		private byte[] read(long p) {
+			var off = p * page;
+			var b = new byte[(int) Math.min(page, len - off)];
+			cb.copyTo(off, MemorySegment.ofArray(b));
+			return b;
+		}
+
+		private void setDone(long p) {
+			var w = (int) (p >>> 6);
+			DONE.setRelease(done, w, done[w] | (1L << p));
+		}
+
+		/**
+		 * @return page p as of the mark
+		 */
+		synchronized byte[] take(long p) {
+			if (done(p)) {
+				return copies.remove(p);
+			}
+			var b = read(p);
+			setDone(p);
+			return b;
+		}
+	}
+
+	static final VarHandle DONE = MethodHandles.arrayElementVarHandle(long[].class);
+
+	/**
+	 * Bytes buffered before each write.
+	 */
+	static final int BATCH = 1 << 20;
+
+	/**
+	 * Marks cedar and writes its image to file in a new thread.
+	 */
+	static CompletableFuture<Path> start(BaseCedar cedar, Path file) {
+		var header = new byte[BaseCedar.IMAGE_HEADER];
+		cedar.header(MemorySegment.ofArray(header), cedar.infos.byteSize(), cedar.blocks.byteSize(), cedar.reject.byteSize(), null);
+
+		var filter = cedar.filter;
+		var tails = cedar.tails;
+		var sections = new Section[4 + (filter == null ? 0 : 1) + (tails == null ? 0 : 1)];
+		var i = 0;
+		sections[i++] = new Section(cedar.array, 0, cedar.array.unit());
+		sections[i++] = new Section(cedar.infos, 1, NodeInfos.UNIT);
+		sections[i++] = new Section(cedar.blocks, 2, Blocks.UNIT);
+		sections[i++] = new Section(cedar.reject, 3, Rejects.UNIT);
+		if (filter != null) {
+			sections[i++] = new Section(filter, 4, Bloom.UNIT);
+		}
+		if (tails != null) {
+			sections[i++] = new Section(tails, 5, Tails.UNIT);
+		}
+
+		for (var s : sections) {
+			s.cb.cow = s;
+		}
+
+		var snapshot = new Snapshot(file, header, sections);
+		var t = new Thread(snapshot, "cedar-snapshot-" + file.getFileName());
+		t.setDaemon(true);
+		t.start();
+
+		return snapshot.done;
+	}
+
+	final Path file;
+	final byte[] header;
+	final Section[] sections;
+	final CompletableFuture<Path> done = new CompletableFuture<>();
+
+	private Snapshot(Path file, byte[] header, Section[] sections) {
+		this.file = file;
+		this.header = header;
+		this.sections = sections;
+	}
+
+	@Override
+	public void run() {
+		try (var ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			var buf = ByteBuffer.allocate(BATCH);
+			buf.put(header);
+			var crcs = new int[6];
+
+			for (var s : sections) {
+				var crc = new CRC32C();
+				for (var p = 0L; p < s.pages; p++) {
+					var b = s.take(p);
+					crc.update(b);
+					if (buf.remaining() < b.length) {
+						ImageCodec.write(ch, buf.flip());
+						buf.clear();
+					}
+					buf.put(b);
+				}
+				crcs[s.slot] = (int) crc.getValue();
+				// from here on the writer no longer copies pages of this buffer
+				synchronized (s) {
+					s.cb.cow = null;
+				}
+			}
+
+			ImageCodec.write(ch, buf.flip());
+
+			// checksums are only known now, so they go last, over the blank ones
+			BaseCedar.checksums(MemorySegment.ofArray(header), crcs);
+			var sums = ByteBuffer.wrap(header, BaseCedar.CHECKSUMS, 4 * 7);
+			while (sums.hasRemaining()) {
+				ch.write(sums, sums.position());
+			}
+			ch.force(true);
+			done.complete(file);
+		} catch (IOException | RuntimeException e) {
+			done.completeExceptionally(e);
+		} finally {
+			for (var s : sections) {
+				synchronized (s) {
+					if (s.cb.cow == s) {
+						s.cb.cow = null;
+					}
+				}
+			}
+		}
+	}
+}
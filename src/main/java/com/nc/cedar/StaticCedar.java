@@ -0,0 +1,713 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.Bits.UTF8;
+import static com.nc.cedar.Bits.u32;
+import static com.nc.cedar.Bits.utf8;
+import static jdk.incubator.foreign.MemoryAccess.getLongAtOffset;
+import static jdk.incubator.foreign.MemoryAccess.setLongAtOffset;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * Frozen double array in the style of darts-clone, built from any {@link BaseCedar}. Every node is
+ * a single 4-byte unit:
+ *
+ * <pre>
+ * bits 0-7   label
+ * bit  8     has leaf, i.e., a key ends at this node
+ * bit  9     offset is stored in multiples of 256
+ * bits 10-30 offset, the node's base is its position xor the offset
+ * bit  31    set in leaf units, whose other 31 bits hold the value
+ * </pre>
+ *
+ * A child with label c lives at base ^ c and the value of the key ending at a node lives at base
+ * itself, in place of the terminal label. There are no parent links, blocks or rejects and no
+ * slack for growth, so the array is about half the size of the source's nodes and infos. Nodes
+ * are placed depth-first, so a lookup mostly walks nearby units.<br>
+ * Queries have the same semantics as the ones in {@link Cedar}, but since nodes don't know their
+ * parents, {@link Match#from()} can't be turned back into a key: use {@link #keys(String)}
+ * instead. Values must be non-negative and keys must not contain zero bytes.<br>
+ * {@link #dawg(BaseCedar)} builds the same layout out of the minimized automaton, where nodes with
+ * equivalent subtrees share their children.
+ *
+ * @author cmuramoto
+ */
+public final class StaticCedar {
+
+	/**
+	 * Depth-first placement over the sorted keys, on heap. Units are copied off-heap once done.
+	 */
+	static class Builder {
+		final Entry[] entries;
+		final ArrayList<int[][]> scratch = new ArrayList<>();
+		final BitSet used = new BitSet();
+		final BitSet bases = new BitSet();
+		int[] units = new int[1024];
+		int head = 1;
+		// lookups probe a whole block below any base, including the root's
+		int length = 256;
+
+		Builder(Entry[] entries) {
+			this.entries = entries;
+			used.set(0);
+		}
+
+		void build(int lo, int hi, int depth, int pos) {
+			while (scratch.size() <= depth) {
+				scratch.add(new int[2][257]);
+			}
+			var labels = scratch.get(depth)[0];
+			var starts = scratch.get(depth)[1];
+			var n = 0;
+
+			var entries = this.entries;
+			for (var i = lo; i < hi; i++) {
+				var key = entries[i].key;
+				var c = key.length == depth ? 0 : u32(key[depth]);
+				if (n == 0 || labels[n - 1] != c) {
+					labels[n] = c;
+					starts[n++] = i;
+				}
+			}
+
+			var base = place(pos, labels, n);
+			if (labels[0] == 0) {
+				units[base] = IS_LEAF | entries[starts[0]].value;
+			}
+
+			for (var j = 0; j < n; j++) {
+				if (labels[j] != 0) {
+					build(starts[j], j + 1 < n ? starts[j + 1] : hi, depth + 1, base ^ labels[j]);
+				}
+			}
+		}
+
+		/**
+		 * Finds a base for the n labels of the node at pos and claims their units. The leaf unit
+		 * (label 0) is left for the caller.
+		 *
+		 * @return the base
+		 */
+		int place(int pos, int[] labels, int n) {
+			var base = findBase(pos, labels, n);
+			bases.set(base);
+			length = Math.max(length, (base | 0xFF) + 1);
+			ensure(length);
+
+			var units = this.units;
+			units[pos] |= encode(base ^ pos) | (labels[0] == 0 ? HAS_LEAF : 0);
+
+			for (var j = 0; j < n; j++) {
+				var c = labels[j];
+				used.set(base ^ c);
+				units[base ^ c] = c;
+			}
+			head = used.nextClearBit(head);
+
+			return base;
+		}
+
+		void ensure(int len) {
+			if (units.length < len) {
+				units = Arrays.copyOf(units, Math.max(len, units.length << 1));
+			}
+		}
+
+		int findBase(int pos, int[] labels, int n) {
+			var l0 = labels[0];
+			var misses = 0;
+
+			for (var e = used.nextClearBit(head);;) {
+				var base = e ^ l0;
+				var off = base ^ pos;
+				if (off >= FAR && (off & 0xFF) != 0) {
+					// far offsets lose their low byte, so base must agree with pos on it
+					var aligned = (e & ~0xFF) | ((pos ^ l0) & 0xFF);
+					e = aligned < e ? aligned + 0x100 : aligned;
+					continue;
+				}
+				if (off >= LIMIT) {
+					throw new IllegalStateException("Too many nodes for 4-byte units");
+				}
+				if (!bases.get(base) && fits(base, labels, n)) {
+					if (misses > MAX_MISSES) {
+						// don't keep probing holes which are unlikely to ever fit
+						head = used.nextClearBit(Math.max(head, e & ~0xFF));
+					}
+					return base;
+				}
+				misses++;
+				e = off >= FAR ? e + 0x100 : used.nextClearBit(e + 1);
+			}
+		}
+
+		boolean fits(int base, int[] labels, int n) {
+			for (var j = 0; j < n; j++) {
+				if (used.get(base ^ labels[j])) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		Units finish() {
+			ensure(length);
+			var rv = new Units(length);
+			rv.buffer.copyFrom(MemorySegment.ofArray(units).asSlice(0, Units.safeOffset(length)));
+			rv.pos = length;
+			return rv;
+		}
+	}
+
+	record Entry(byte[] key, int value) {
+	}
+
+	/**
+	 * Builds the minimal acyclic automaton of the sorted keys (a DAWG) before placing it: states
+	 * are registered bottom-up by (leaf, labels, children), so equivalent subtrees end up as one
+	 * state. Each state is placed once and every other node reaching it just points its offset to
+	 * the same base, which is valid since no two nodes share a base. When that base is out of
+	 * reach of a node's offset, the state is placed again.<br>
+	 * Leaf units hold an index into a table of distinct values, so keys share leaves whenever their
+	 * values are equal.
+	 */
+	static final class Minimizer extends Builder {
+		final HashMap<State, Integer> register = new HashMap<>();
+		final ArrayList<State> states = new ArrayList<>();
+		final HashMap<Integer, Integer> ids = new HashMap<>();
+		int[] values = new int[16];
+		/**
+		 * Base + 1 of each state's first placement, 0 if not placed yet.
+		 */
+		int[] placed;
+
+		Minimizer(Entry[] entries) {
+			super(entries);
+		}
+
+		void emit(int state, int pos) {
+			var st = states.get(state);
+			var leaf = st.leaf >= 0;
+			var base = placed[state] - 1;
+
+			if (base >= 0 && reachable(base ^ pos)) {
+				units[pos] |= encode(base ^ pos) | (leaf ? HAS_LEAF : 0);
+				return;
+			}
+
+			var labels = st.labels;
+			if (leaf) {
+				labels = new int[labels.length + 1];
+				System.arraycopy(st.labels, 0, labels, 1, st.labels.length);
+			}
+
+			base = place(pos, labels, labels.length);
+			if (leaf) {
+				units[base] = IS_LEAF | st.leaf;
+			}
+			if (placed[state] == 0) {
+				placed[state] = base + 1;
+			}
+
+			for (var j = 0; j < st.labels.length; j++) {
+				emit(st.targets[j], base ^ st.labels[j]);
+			}
+		}
+
+		/**
+		 * Places the automaton with the root at 0.
+		 */
+		void emit(int root) {
+			placed = new int[states.size()];
+			emit(root, 0);
+		}
+
+		/**
+		 * @return the state accepting the suffixes (from depth on) of the keys in [lo, hi)
+		 */
+		int minimize(int lo, int hi, int depth) {
+			var entries = this.entries;
+			var leaf = -1;
+			if (entries[lo].key.length == depth) {
+				leaf = id(entries[lo++].value);
+			}
+
+			var labels = new int[8];
+			var targets = new int[8];
+			var n = 0;
+
+			while (lo < hi) {
+				var c = entries[lo].key[depth];
+				var end = lo + 1;
+				while (end < hi && entries[end].key[depth] == c) {
+					end++;
+				}
+				if (n == labels.length) {
+					labels = Arrays.copyOf(labels, n << 1);
+					targets = Arrays.copyOf(targets, n << 1);
+				}
+				labels[n] = u32(c);
+				targets[n++] = minimize(lo, end, depth + 1);
+				lo = end;
+			}
+
+			var state = new State(leaf, Arrays.copyOf(labels, n), Arrays.copyOf(targets, n));
+			return register.computeIfAbsent(state, __ -> {
+				states.add(state);
+				return states.size() - 1;
+			});
+		}
+
+		int id(int value) {
+			return ids.computeIfAbsent(value, __ -> {
+				var id = ids.size();
+				if (id == values.length) {
+					values = Arrays.copyOf(values, id << 1);
+				}
+				values[id] = value;
+				return id;
+			});
+		}
+
+		Units table() {
+			var rv = new Units(ids.size());
+			rv.buffer.copyFrom(MemorySegment.ofArray(values).asSlice(0, Units.safeOffset(ids.size())));
+			rv.pos = ids.size();
+			return rv;
+		}
+	}
+
+	/**
+	 * A state of the {@link Minimizer}, leaf is the index of its value or -1.
+	 */
+	record State(int leaf, int[] labels, int[] targets) {
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof State s && leaf == s.leaf && Arrays.equals(labels, s.labels) && Arrays.equals(targets, s.targets);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * leaf + Arrays.hashCode(labels)) + Arrays.hashCode(targets);
+		}
+	}
+
+	final class PredictIter extends Itr<Match> {
+		long[] bases;
+		int[] labels;
+		byte[] path;
+		int depth;
+
+		PredictIter(long root, int unit) {
+			this.bases = new long[16];
+			this.labels = new int[16];
+			this.path = new byte[16];
+			this.depth = root < 0 ? -1 : 0;
+
+			if (root >= 0) {
+				bases[0] = root ^ offset(unit);
+				if (hasLeaf(unit)) {
+					curr = new Match(valueAt(bases[0]), 0, bases[0]);
+				}
+			}
+		}
+
+		@Override
+		void advance() {
+			var units = StaticCedar.this.units;
+			while (depth >= 0) {
+				var base = bases[depth];
+				var l = labels[depth];
+				var unit = 0;
+				while (++l < 256 && label(unit = units.at(base ^ l)) != l) {
+				}
+
+				if (l == 256) {
+					depth--;
+					continue;
+				}
+
+				labels[depth] = l;
+				push(l, (base ^ l) ^ offset(unit));
+
+				if (hasLeaf(unit)) {
+					curr = new Match(valueAt(bases[depth]), depth, bases[depth]);
+					return;
+				}
+			}
+		}
+
+		void push(int label, long base) {
+			if (++depth == bases.length) {
+				bases = Arrays.copyOf(bases, depth << 1);
+				labels = Arrays.copyOf(labels, depth << 1);
+				path = Arrays.copyOf(path, depth << 1);
+			}
+			path[depth - 1] = (byte) label;
+			bases[depth] = base;
+			labels[depth] = 0;
+		}
+	}
+
+	final class PrefixIter extends Itr<Match> {
+		final byte[] key;
+		long node;
+		int i;
+
+		PrefixIter(byte[] key) {
+			this.key = key;
+		}
+
+		@Override
+		void advance() {
+			var units = StaticCedar.this.units;
+			var key = this.key;
+			while (i < key.length) {
+				var b = u32(key[i++]);
+				var next = node ^ offset(units.at(node)) ^ b;
+				var unit = units.at(next);
+				if (label(unit) != b) {
+					i = key.length;
+					return;
+				}
+				node = next;
+				if (hasLeaf(unit)) {
+					curr = new Match(valueAt(node ^ offset(unit)), i - 1, node);
+					return;
+				}
+			}
+		}
+	}
+
+	static final int HAS_LEAF = 1 << 8;
+	static final int EXTENDED = 1 << 9;
+	static final int IS_LEAF = 1 << 31;
+
+	/**
+	 * Offsets from FAR up to LIMIT are only representable with the low byte cleared.
+	 */
+	static final int FAR = 1 << 21;
+	static final int LIMIT = 1 << 29;
+	static final int MAX_MISSES = 64;
+
+	/**
+	 * Number of keys and byte length of the units. The length has {@link #MINIMIZED} set when the
+	 * units are followed by the value table (its byte length and then the values).
+	 */
+	static final long HEADER = 16;
+
+	static final long MINIMIZED = 1L << 63;
+
+	static Units bind(MemorySegment src, long off, long len, boolean copy) {
+		var units = new Units();
+		var ms = src.asSlice(off, len);
+		if (copy) {
+			units.copyOf(ms);
+		} else {
+			units.wrap(ms);
+		}
+		units.pos = len / Units.UNIT;
+		return units;
+	}
+
+	/**
+	 * Builds a minimized static array with all keys and values of src, which is left untouched.
+	 * Subtrees accepting the same suffixes with the same values are stored once, so dictionaries
+	 * with much suffix redundancy (inflected forms, SKUs sharing suffixes) take a fraction of what
+	 * {@link #of(BaseCedar)} takes, while lookups work the same. Since values live in a side table,
+	 * negative ones are kept, with the same caveats as in {@link Cedar}.<br>
+	 * Building takes a hash table of the distinct states on heap.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if src has keys with zero bytes
+	 */
+	public static StaticCedar dawg(BaseCedar src) {
+		var sorted = entries(src, false);
+
+		var m = new Minimizer(sorted);
+		if (sorted.length > 0) {
+			m.emit(m.minimize(0, sorted.length, 0));
+		}
+
+		return new StaticCedar(m.finish(), m.table(), sorted.length);
+	}
+
+	public static StaticCedar deserialize(MemorySegment src, boolean copy) {
+		var keys = getLongAtOffset(src, 0);
+		var len = getLongAtOffset(src, 8);
+		var units = bind(src, HEADER, len & ~MINIMIZED, copy);
+		Units values = null;
+		if ((len & MINIMIZED) != 0) {
+			var off = HEADER + (len & ~MINIMIZED);
+			values = bind(src, off + 8, getLongAtOffset(src, off), copy);
+		}
+		return new StaticCedar(units, values, keys);
+	}
+
+	public static StaticCedar deserialize(Path src, boolean copy) {
+		MemorySegment ms = null;
+		try {
+			ms = MemorySegment.mapFile(src, 0, Files.size(src), MapMode.READ_ONLY).share();
+			return deserialize(ms, copy);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (ms != null && copy) {
+				ms.close();
+			}
+		}
+	}
+
+	static int encode(int offset) {
+		return offset < FAR ? offset << 10 : ((offset >>> 8) << 10) | EXTENDED;
+	}
+
+	/**
+	 * @return the keys and values of src, in unsigned byte order
+	 */
+	static Entry[] entries(BaseCedar src, boolean nonNegative) {
+		var entries = new ArrayList<Entry>();
+		src.predict("").forEach(m -> {
+			var key = src.suffixBytes(m.from(), m.length(), null);
+			if (nonNegative && m.value() < 0) {
+				throw new IllegalArgumentException("Negative value for " + new String(key, UTF8));
+			}
+			for (var b : key) {
+				if (b == 0) {
+					throw new IllegalArgumentException("Zero byte in " + new String(key, UTF8));
+				}
+			}
+			entries.add(new Entry(key, m.value()));
+		});
+
+		var sorted = entries.toArray(Entry[]::new);
+		Arrays.sort(sorted, (l, r) -> Arrays.compareUnsigned(l.key, r.key));
+		return sorted;
+	}
+
+	static boolean hasLeaf(int unit) {
+		return (unit & HAS_LEAF) != 0;
+	}
+
+	static int label(int unit) {
+		return unit & (IS_LEAF | 0xFF);
+	}
+
+	static int offset(int unit) {
+		return (unit >>> 10) << ((unit & EXTENDED) >>> 6);
+	}
+
+	/**
+	 * Builds a static array with all keys and values of src, which is left untouched.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if src has negative values or keys with zero bytes
+	 */
+	public static StaticCedar of(BaseCedar src) {
+		var sorted = entries(src, true);
+
+		var builder = new Builder(sorted);
+		if (sorted.length > 0) {
+			builder.build(0, sorted.length, 0, 0);
+		}
+
+		return new StaticCedar(builder.finish(), null, sorted.length);
+	}
+
+	/**
+	 * @return true if offset fits in a unit
+	 */
+	static boolean reachable(int offset) {
+		return offset < FAR || (offset < LIMIT && (offset & 0xFF) == 0);
+	}
+
+	static int value(int unit) {
+		return unit & ~IS_LEAF;
+	}
+
+	final Units units;
+
+	/**
+	 * Distinct values of a {@link #dawg(BaseCedar)}, indexed by its leaf units. Null if leaf units
+	 * hold the values themselves.
+	 */
+	final Units values;
+
+	final long keys;
+
+	private StaticCedar(Units units, Units values, long keys) {
+		this.units = units;
+		this.values = values;
+		this.keys = keys;
+	}
+
+	public long byteSize() {
+		return units.byteSize() + (values == null ? 0 : values.byteSize());
+	}
+
+	public void close() {
+		units.close();
+		if (values != null) {
+			values.close();
+		}
+	}
+
+	/**
+	 * @return the node reached by key[pos, end), -1 if some byte does not match
+	 */
+	long find(byte[] key, int pos, int end) {
+		var units = this.units;
+		var node = 0L;
+
+		while (pos < end) {
+			var b = u32(key[pos++]);
+			var next = node ^ offset(units.at(node)) ^ b;
+			if (label(units.at(next)) != b) {
+				return -1;
+			}
+			node = next;
+		}
+
+		return node;
+	}
+
+	public long get(byte[] key) {
+		return get(key, 0, key.length);
+	}
+
+	/**
+	 * Same as {@link BaseCedar#get(byte[], int, int)}.
+	 */
+	public long get(byte[] key, int pos, int end) {
+		var units = this.units;
+		var node = 0L;
+		var unit = units.at(0);
+
+		while (pos < end) {
+			var b = u32(key[pos++]);
+			node ^= offset(unit) ^ b;
+			unit = units.at(node);
+			if (label(unit) != b) {
+				return BaseCedar.ABSENT;
+			}
+		}
+
+		if (!hasLeaf(unit)) {
+			return BaseCedar.NO_VALUE;
+		}
+		return valueAt(node ^ offset(unit));
+	}
+
+	public long get(String key) {
+		return get(utf8(key));
+	}
+
+	public long imageSize() {
+		return HEADER + units.byteSize() + (values == null ? 0 : 8 + values.byteSize());
+	}
+
+	public Stream<String> keys() {
+		return keys("");
+	}
+
+	/**
+	 * @return all keys starting with prefix, in unsigned byte order.
+	 */
+	public Stream<String> keys(String prefix) {
+		var iter = predictIter(utf8(prefix));
+		return iter.stream().map(m -> prefix + new String(iter.path, 0, m.length(), UTF8));
+	}
+
+	public Match match(byte[] key) {
+		var r = get(key);
+		if ((r & BaseCedar.ABSENT_OR_NO_VALUE) != 0) {
+			return null;
+		}
+		return new Match((int) r, key.length, find(key, 0, key.length));
+	}
+
+	public Match match(String key) {
+		return match(utf8(key));
+	}
+
+	/**
+	 * Same as {@link Cedar#predict(String)}, in unsigned byte order. Since there are no sibling
+	 * links, enumeration probes the 255 labels of every node it visits, so prefer it for
+	 * moderately sized subtrees.
+	 */
+	public Stream<Match> predict(byte[] key) {
+		return predictIter(key).stream();
+	}
+
+	public Stream<Match> predict(String key) {
+		return predict(utf8(key));
+	}
+
+	private PredictIter predictIter(byte[] key) {
+		var node = find(key, 0, key.length);
+		return new PredictIter(node, node < 0 ? 0 : units.at(node));
+	}
+
+	public void serialize(MemorySegment dst) {
+		var values = this.values;
+		setLongAtOffset(dst, 0, keys);
+		setLongAtOffset(dst, 8, units.byteSize() | (values == null ? 0 : MINIMIZED));
+		units.copyTo(dst.asSlice(HEADER, units.byteSize()));
+
+		if (values != null) {
+			var off = HEADER + units.byteSize();
+			setLongAtOffset(dst, off, values.byteSize());
+			values.copyTo(dst.asSlice(off + 8, values.byteSize()));
+		}
+	}
+
+	public void serialize(Path dst) {
+		try (var ms = MemorySegment.mapFile(dst, 0, imageSize(), MapMode.READ_WRITE)) {
+			serialize(ms);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return number of keys
+	 */
+	public long size() {
+		return keys;
+	}
+
+	/**
+	 * @return the value of the leaf unit at ix
+	 */
+	int valueAt(long ix) {
+		var v = value(units.at(ix));
+		return values == null ? v : values.at(v);
+	}
+
+	public IntStream values() {
+		return predict("").mapToInt(Match::value);
+	}
+
+	public Stream<Match> withCommonPrefix(byte[] key) {
+		return new PrefixIter(key).stream();
+	}
+
+	/**
+	 * Same as {@link Cedar#withCommonPrefix(String)}.
+	 */
+	public Stream<Match> withCommonPrefix(String key) {
+		return withCommonPrefix(utf8(key));
+	}
+}
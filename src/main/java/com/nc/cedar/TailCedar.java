@@ -0,0 +1,589 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.Bits.hash;
+import static com.nc.cedar.Bits.i32;
+import static com.nc.cedar.Bits.u32;
+import static com.nc.cedar.Bits.u64;
+import static com.nc.cedar.Bits.utf8;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * A {@link Cedar} with tail compression, as in cedar's MP-trie: once a branch leads to a single
+ * key, the rest of its bytes (and its value) are appended to an off-heap tail buffer instead of
+ * taking one node per byte. The leaf refers to its tail through a negative base. Inserting a key
+ * that shares a prefix with a tail splits the tail one byte at a time, in place, until they
+ * diverge. Erasing a key drops its tail, whose bytes are only reclaimed by
+ * {@link BaseCedar#compact()}, which also folds single-key chains left by erasures back into
+ * tails. <br>
+ * Dictionaries where most bytes sit in unique suffixes (URLs, paths) shrink several-fold.
+ * Tails hold raw key bytes, so the total size of the tails is limited to 2GB.
+ *
+ * @author cmuramoto
+ */
+public final class TailCedar extends BaseCedar {
+
+	final class PrefixIter extends Itr<Match> {
+
+		final byte[] key;
+		long v;
+		int i;
+
+		PrefixIter(byte[] key) {
+			this.key = key;
+		}
+
+		@Override
+		void advance() {
+			var array = TailCedar.this.array;
+			var encode = TailCedar.this.encode;
+			var key = this.key;
+
+			while (i < key.length) {
+				var to = u64(array.base(v) ^ u32(label(encode, key[i])));
+				if (array.check(to) != i32(v)) {
+					break;
+				}
+				v = to;
+
+				var b = array.base(v);
+				if (b < 0) {
+					// a single key below v, which matches if its tail comes next
+					var tail = tailOf(b);
+					var len = tails.length(tail);
+					if (tails.common(tail, key, i + 1, key.length) == len) {
+						curr = new Match(tails.value(tail), i + len, v);
+					}
+					break;
+				}
+
+				if (array.check(b) == i32(v)) {
+					curr = new Match(array.base(b), i, v);
+					i++;
+					return;
+				}
+				i++;
+			}
+
+			i = key.length;
+		}
+	}
+
+	final class PrefixPredictIter extends Itr<Match> implements Scratch {
+
+		final byte[] key;
+		long from;
+		long p;
+		long root;
+		long value;
+		boolean started;
+
+		PrefixPredictIter(byte[] key) {
+			this.key = key;
+		}
+
+		@Override
+		void advance() {
+			if (value == ABSENT) {
+				return;
+			}
+
+			if (!started) {
+				started = true;
+
+				if (locate()) {
+					begin(root, p, this);
+					tryAdvance();
+				}
+			} else {
+				tryAdvance();
+			}
+		}
+
+		/**
+		 * Positions root at the node of the prefix. If the prefix ends within a tail, root is the
+		 * tail's node and p is minus the number of tail bytes already in the prefix.
+		 */
+		boolean locate() {
+			var array = TailCedar.this.array;
+			var encode = TailCedar.this.encode;
+			var key = this.key;
+			var v = 0L;
+
+			for (var i = 0; i < key.length; i++) {
+				var base = array.base(v);
+				if (base < 0) {
+					var rest = key.length - i;
+					if (tails.common(tailOf(base), key, i, key.length) != rest) {
+						return false;
+					}
+					root = v;
+					p = -rest;
+					return true;
+				}
+
+				var to = u64(base ^ u32(label(encode, key[i])));
+				if (array.check(to) != i32(v)) {
+					return false;
+				}
+				v = to;
+			}
+
+			root = v;
+			return true;
+		}
+
+		@Override
+		public void set(long from, long p, long value) {
+			this.from = from;
+			this.p = p;
+			this.value = value;
+		}
+
+		void tryAdvance() {
+			if (value != ABSENT) {
+				var result = new Match((int) value, (int) p, from);
+
+				TailCedar.this.next(from, p, root, this);
+
+				curr = result;
+			} else {
+				curr = null;
+			}
+		}
+
+	}
+
+	final class ScanItr extends Itr<TextMatch> {
+
+		final byte[] text;
+		long v;
+		int base;
+		int i;
+
+		ScanItr(byte[] text, int base) {
+			super();
+			this.text = text;
+			this.base = base;
+		}
+
+		@Override
+		void advance() {
+			var array = TailCedar.this.array;
+			var encode = TailCedar.this.encode;
+			var text = this.text;
+
+			for (; base < text.length; base++) {
+				while (base + i < text.length) {
+					var off = base + i;
+
+					var to = u64(array.base(v) ^ u32(label(encode, text[off])));
+					if (array.check(to) != i32(v)) {
+						break;
+					}
+					v = to;
+					i++;
+
+					var b = array.base(v);
+					if (b < 0) {
+						var tail = tailOf(b);
+						var len = tails.length(tail);
+						if (tails.common(tail, text, off + 1, text.length) == len) {
+							curr = new TextMatch(base, off + 1 + len, tails.value(tail));
+							// nothing else below a tail
+							i = text.length;
+							return;
+						}
+						break;
+					}
+
+					if (array.check(b) == i32(v)) {
+						curr = new TextMatch(base, base + i, array.base(b));
+						return;
+					}
+				}
+
+				i = 0;
+				v = 0;
+			}
+		}
+	}
+
+	public static TailCedar deserialize(MemorySegment src, boolean copy) {
+		return BaseCedar.deserialize(TailCedar::new, src, copy);
+	}
+
+	public static TailCedar deserialize(Path src, boolean copy) {
+		return BaseCedar.deserialize(TailCedar::new, src, copy);
+	}
+
+	/**
+	 * Loads an image written by {@link BaseCedar#serializeCompressed(Path)}.
+	 */
+	public static TailCedar deserializeCompressed(Path src) {
+		return BaseCedar.deserializeCompressed(TailCedar::new, src);
+	}
+
+	/**
+	 * Lookup-only view of an image written by either {@link BaseCedar#serialize(Path)} or
+	 * {@link BaseCedar#serializeReadOnly(Path, boolean)}. The file is mapped read-only and stays
+	 * mapped until the trie is closed.
+	 */
+	public static TailCedar deserializeReadOnly(Path src) {
+		return BaseCedar.deserializeReadOnly(TailCedar::new, src);
+	}
+
+	/**
+	 * Opens a trie persisted with {@link BaseCedar#persist(Path)}, or creates an empty one in file.
+	 */
+	public static TailCedar open(Path file) {
+		return BaseCedar.open(TailCedar::new, TailCedar::new, file);
+	}
+
+	/**
+	 * Offset of the tail referenced by the base of a leaf.
+	 */
+	static long tailOf(int base) {
+		return -2L - base;
+	}
+
+	/**
+	 * Base of a leaf whose tail is at offset tail. -1 is taken by nodes without children.
+	 */
+	static int tailRef(long tail) {
+		return (int) (-2L - tail);
+	}
+
+	public TailCedar() {
+		this(REALLOC_CAP);
+	}
+
+	public TailCedar(boolean ordered) {
+		this(ordered, 0);
+	}
+
+	public TailCedar(boolean ordered, GrowthPolicy growth) {
+		super(Nodes.initial(), NodeInfos.initial(), Blocks.initial(), Rejects.initial(), ordered, growth);
+
+		capacity = 256;
+		size = 256;
+		max_trial = 1;
+		tails = Tails.initial();
+	}
+
+	public TailCedar(boolean ordered, int realloc) {
+		this(ordered, growth(realloc));
+	}
+
+	public TailCedar(GrowthPolicy growth) {
+		this(true, growth);
+	}
+
+	public TailCedar(int realloc) {
+		this(true, realloc);
+	}
+
+	private TailCedar(Nodes array, NodeInfos infos, Blocks blocks, Rejects reject, int flags) {
+		super(array, infos, blocks, reject, flags);
+	}
+
+	@Override
+	void begin(long from, long p, Scratch s) {
+		var array = this.array;
+		var infos = this.infos;
+		var base = array.base(from);
+
+		var c = infos.child(from);
+
+		if (from == 0) {
+			c = infos.sibling(base ^ u32(c));
+
+			// if no sibling couldn be found from the virtual root, then we are done.
+			if (c == 0) {
+				s.set(from, p, ABSENT);
+				return;
+			}
+		}
+
+		// recursively traversing down to look for the first leaf.
+		while (c != 0) {
+			from = u64(array.base(from) ^ u32(c));
+			c = infos.child(from);
+			p += 1;
+		}
+
+		// To return the value of the leaf, which is either in a tail or in the terminal.
+		base = array.base(from);
+		if (base < 0) {
+			var tail = tailOf(base);
+			s.set(from, p + tails.length(tail), tails.value(tail));
+		} else {
+			s.set(from, p, array.base(base ^ u32(c)));
+		}
+	}
+
+	@Override
+	Iterator<Match> common_prefix_iter(byte[] utf8) {
+		return new PrefixIter(utf8);
+	}
+
+	@Override
+	TailCedar empty() {
+		return new TailCedar((flags & 0x1) != 0, growth);
+	}
+
+	@Override
+	void erase(long from) {
+		var e = array.base(from);
+		if (e < 0) {
+			// the tail's node is the leaf, its bytes are left behind until the next compact()
+			erase(u64(array.check(from)), from);
+		} else {
+			erase(from, e);
+		}
+	}
+
+	/**
+	 * Moves the first byte of from's tail into a child, which takes over the rest of the tail in
+	 * place, or the value into a terminal if the tail is empty.
+	 */
+	private void expand(long from) {
+		var tail = tailOf(array.base(from));
+		var len = tails.length(tail);
+
+		array.base(from, -1);
+
+		if (len == 0) {
+			var to = follow(from, (byte) 0);
+			array.base(to, tails.value(tail));
+		} else {
+			var to = follow(from, label(encode, tails.at(tail, 0)));
+			array.base(to, tailRef(tails.shift(tail)));
+		}
+	}
+
+	@Override
+	long find(byte[] key, Ptr from, int start, int end) {
+		var to = 0L;
+		var pos = 0;
+		end = (end <= 0 || end <= start) ? key.length : end;
+		var span = end - start;
+		var array = this.array;
+		var encode = this.encode;
+		// hoist in local, then perform a single heap write post-loop
+		var v = from.v;
+
+		while (pos < span) {
+			var base = array.base(v);
+			if (base < 0) {
+				from.v = v;
+				return find(base, key, start + pos, end);
+			}
+
+			to = u64(base ^ u32(label(encode, key[start + pos])));
+			if (array.check(to) != i32(v)) {
+				from.v = v;
+				return ABSENT;
+			}
+
+			v = to;
+			pos++;
+		}
+
+		var b = array.base(from.v = v);
+		if (b < 0) {
+			return find(b, key, end, end);
+		}
+		var check = array.check(b);
+		if (check != i32(v)) {
+			return NO_VALUE;
+		} else {
+			return array.base(b);
+		}
+	}
+
+	/**
+	 * Matches key[pos, end) against the tail referenced by base.
+	 */
+	private long find(int base, byte[] key, int pos, int end) {
+		var tail = tailOf(base);
+		var rest = end - pos;
+		if (tails.common(tail, key, pos, end) < rest) {
+			return ABSENT;
+		}
+		return rest == tails.length(tail) ? tails.value(tail) : NO_VALUE;
+	}
+
+	@Override
+	public long get(byte[] key) {
+		return get(key, 0, key.length);
+	}
+
+	@Override
+	public long get(byte[] key, int pos, int end) {
+		var filter = this.filter;
+		if (filter != null && !filter.test(hash(key, pos, end))) {
+			return ABSENT;
+		}
+
+		var from = 0L;
+		var to = 0L;
+		var array = this.array;
+		var encode = this.encode;
+
+		while (pos < end) {
+			var base = array.base(from);
+			if (base < 0) {
+				return find(base, key, pos, end);
+			}
+
+			to = u64(base ^ u32(label(encode, key[pos])));
+			if (array.check(to) != i32(from)) {
+				return ABSENT;
+			}
+
+			from = to;
+			pos++;
+		}
+
+		var b = array.base(from);
+		if (b < 0) {
+			return find(b, key, end, end);
+		}
+		var check = array.check(b);
+		if (check != i32(from)) {
+			return NO_VALUE;
+		} else {
+			return array.base(b);
+		}
+	}
+
+	@Override
+	public long get(String s) {
+		return get(utf8(s));
+	}
+
+	@Override
+	void next(long from, long p, long root, Scratch scratch) {
+		var base = array.base(from);
+		byte c;
+
+		if (base < 0) {
+			// a tail is a leaf of its own, so step back to its parent right away
+			p -= tails.length(tailOf(base));
+			if (from == root) {
+				scratch.set(from, p, ABSENT);
+				return;
+			}
+			c = infos.sibling(from);
+			from = u64(array.check(from));
+			p--;
+		} else {
+			c = infos.sibling(base);
+		}
+
+		// traversing up until there is a sibling or it has reached the root.
+		while (c == 0 && from != root) {
+			c = infos.sibling(from);
+			from = u64(array.check(from));
+			p--;
+		}
+
+		if (c != 0) {
+			// it has a sibling so we leverage on `begin` to traverse the subtree down again.
+			from = u64(array.base(from) ^ u32(c));
+			begin(from, p + 1, scratch);
+		} else {
+			// no more work since we couldn't find anything.
+			scratch.set(from, p, ABSENT);
+		}
+	}
+
+	@Override
+	public Stream<Match> predict(byte[] utf8) {
+		guardPredict();
+
+		return new PrefixPredictIter(utf8).stream();
+	}
+
+	@Override
+	public Stream<TextMatch> scan(byte[] utf8) {
+		return new ScanItr(utf8, 0).stream();
+	}
+
+	@Override
+	public byte[] suffixBytes(long to, int len, byte[] scratch) {
+		scratch = scratch == null || scratch.length < len ? new byte[len] : scratch;
+
+		var base = array.base(to);
+		if (base < 0) {
+			// tails hold raw bytes, the last ones of the key
+			var tail = tailOf(base);
+			var tl = tails.length(tail);
+			var n = Math.min(len, tl);
+			for (var i = 0; i < n; i++) {
+				scratch[len - n + i] = tails.at(tail, tl - n + i);
+			}
+			len -= n;
+		}
+
+		return super.suffixBytes(to, len, scratch);
+	}
+
+	@Override
+	int update(byte[] key, int value, long from, int pos, int end) {
+		guardUpdate(key, from, pos, end);
+
+		var array = this.array;
+		var encode = this.encode;
+		while (pos < end) {
+			var base = array.base(from);
+			if (base < 0) {
+				var tail = tailOf(base);
+				var rest = end - pos;
+				if (tails.length(tail) == rest && tails.common(tail, key, pos, end) == rest) {
+					var prev = tails.value(tail);
+					tails.value(tail, value);
+					return prev;
+				}
+				// split one byte at a time until the key and the tail diverge
+				expand(from);
+				continue;
+			}
+
+			var label = label(encode, key[pos++]);
+			var to = u64(base ^ u32(label));
+			if (array.check(to) != i32(from)) {
+				// a new branch, the rest of the key goes straight to a tail
+				to = follow(from, label);
+				array.base(to, tailRef(tails.append(key, pos, end, value)));
+				return 0;
+			}
+			from = to;
+		}
+
+		var base = array.base(from);
+		if (base < 0) {
+			var tail = tailOf(base);
+			if (tails.length(tail) == 0) {
+				var prev = tails.value(tail);
+				tails.value(tail, value);
+				return prev;
+			}
+			expand(from);
+		}
+
+		var to = follow(from, (byte) 0);
+
+		return array.getAndSetBase(to, value);
+	}
+
+	@Override
+	public Stream<Match> withCommonPrefix(byte[] utf8) {
+		return new PrefixIter(utf8).stream();
+	}
+}
@@ -0,0 +1,201 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.Bits.U;
+import static com.nc.cedar.Bits.hash;
+import static com.nc.cedar.Bits.u32;
+import static com.nc.cedar.Bits.utf8;
+import static jdk.internal.misc.Unsafe.ARRAY_BYTE_BASE_OFFSET;
+
+import java.nio.file.Path;
+
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * Same as {@link Cedar}, but with 64-bit base and check ({@link WideNodes}), so tries are not
+ * limited to 2^31 nodes. Nodes take 16 bytes instead of 8, so {@link Cedar} remains the better
+ * choice for anything that fits in it.<br>
+ * Blocks keep int links (up to 2^31 blocks, i.e. 2^39 nodes) and only store the low byte of their
+ * first free node, the rest being the block index itself. Values are still ints.<br>
+ * {@link BaseCedar#persist(Path)} keeps its 16GB regions, which hold up to 2^30 wide nodes, larger
+ * tries must be written with {@link BaseCedar#serialize(Path)}.
+ *
+ * @author cmuramoto
+ */
+public final class WideCedar extends BaseCedar {
+
+	/**
+	 * Blocks are indexed by ints, the last one starts at 2^39 - 256.
+	 */
+	static final long MAX_CAPACITY = 1L << 39;
+
+	static final Factory<WideCedar> FACTORY = new Factory<>() {
+		@Override
+		public WideCedar allocate(Nodes array, NodeInfos infos, Blocks blocks, Rejects reject, int flags) {
+			return new WideCedar(array, infos, blocks, reject, flags);
+		}
+
+		@Override
+		public Nodes nodes() {
+			return new WideNodes();
+		}
+	};
+
+	public static WideCedar deserialize(MemorySegment src, boolean copy) {
+		return BaseCedar.deserialize(FACTORY, src, copy);
+	}
+
+	public static WideCedar deserialize(Path src, boolean copy) {
+		return BaseCedar.deserialize(FACTORY, src, copy);
+	}
+
+	/**
+	 * Loads an image written by {@link BaseCedar#serializeCompressed(Path)}.
+	 */
+	public static WideCedar deserializeCompressed(Path src) {
+		return BaseCedar.deserializeCompressed(FACTORY, src);
+	}
+
+	/**
+	 * Lookup-only view of an image written by either {@link BaseCedar#serialize(Path)} or
+	 * {@link BaseCedar#serializeReadOnly(Path, boolean)}.
+	 */
+	public static WideCedar deserializeReadOnly(Path src) {
+		return BaseCedar.deserializeReadOnly(FACTORY, src);
+	}
+
+	/**
+	 * Opens a trie persisted with {@link BaseCedar#persist(Path)}, or creates an empty one in file.
+	 */
+	public static WideCedar open(Path file) {
+		return BaseCedar.open(FACTORY, WideCedar::new, file);
+	}
+
+	final WideNodes nodes;
+
+	public WideCedar() {
+		this(REALLOC_CAP);
+	}
+
+	public WideCedar(boolean ordered) {
+		this(ordered, 0);
+	}
+
+	public WideCedar(boolean ordered, GrowthPolicy growth) {
+		super(WideNodes.initial(), NodeInfos.initial(), Blocks.initial(), Rejects.initial(), ordered, growth);
+		this.nodes = (WideNodes) array;
+
+		capacity = 256;
+		size = 256;
+		max_trial = 1;
+	}
+
+	public WideCedar(boolean ordered, int realloc) {
+		this(ordered, growth(realloc));
+	}
+
+	public WideCedar(GrowthPolicy growth) {
+		this(true, growth);
+	}
+
+	public WideCedar(int realloc) {
+		this(true, realloc);
+	}
+
+	private WideCedar(Nodes array, NodeInfos infos, Blocks blocks, Rejects reject, int flags) {
+		super(array, infos, blocks, reject, flags);
+		this.nodes = (WideNodes) array;
+	}
+
+	@Override
+	long base(long ix) {
+		return nodes.base_w(ix);
+	}
+
+	@Override
+	void base(long ix, long v) {
+		nodes.base_w(ix, v);
+	}
+
+	@Override
+	long check(long ix) {
+		return nodes.check_w(ix);
+	}
+
+	@Override
+	void check(long ix, long v) {
+		nodes.check_w(ix, v);
+	}
+
+	@Override
+	WideCedar empty() {
+		return new WideCedar((flags & 0x1) != 0, growth);
+	}
+
+	@Override
+	public long get(byte[] key) {
+		return get(key, 0, key.length);
+	}
+
+	@Override
+	public long get(byte[] key, int pos, int end) {
+		var filter = this.filter;
+		if (filter != null && !filter.test(hash(key, pos, end))) {
+			return ABSENT;
+		}
+
+		var encode = this.encode;
+		var from = 0L;
+		var to = 0L;
+		var nodes = this.nodes;
+
+		while (pos < end) {
+			var b = U.getByte(key, ARRAY_BYTE_BASE_OFFSET + pos);
+			to = nodes.base_w(from) ^ u32(encode == null ? b : encode[u32(b)]);
+			if (nodes.check_w(to) != from) {
+				return ABSENT;
+			}
+
+			from = to;
+			pos++;
+		}
+
+		var b = nodes.base_w(from);
+		if (nodes.check_w(b) != from) {
+			return NO_VALUE;
+		} else {
+			return nodes.base_w(b);
+		}
+	}
+
+	@Override
+	public long get(String s) {
+		return get(utf8(s));
+	}
+	@Override
+	int getAndSetBase(long ix, int value) {
+		return (int) nodes.getAndSetBase_w(ix, value);
+	}
+
+	/**
+	 * Blocks store the low byte of their first free node, the block index has the rest.
+	 */
+	@Override
+	long head(int idx) {
+		return ((long) idx << 8) | (blocks.head(idx) & 0xFF);
+	}
+
+	@Override
+	void head(int idx, long e) {
+		blocks.head(idx, (int) (e & 0xFF));
+	}
+
+	@Override
+	long max_capacity() {
+		return MAX_CAPACITY;
+	}
+
+	@Override
+	void set(long ix, long base, long check) {
+		nodes.set_w(ix, base, check);
+	}
+}
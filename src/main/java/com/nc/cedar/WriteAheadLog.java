@@ -0,0 +1,404 @@
+package com.nc.cedar;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of the updates and erasures of a trie, so that it can be recovered as its last
+ * image plus the log. Attach it with {@link BaseCedar#wal(WriteAheadLog)}, which first replays
+ * whatever is in the log, and {@link BaseCedar#serialize(Path)} truncates it once the new image is
+ * on disk.<br>
+ * Mutations only copy their record into a ring buffer. A flusher thread writes the buffer out and
+ * fsyncs it (group commit) every syncMillis, or as soon as syncOps records are pending, so an
+ * update is durable after the next commit or after {@link #sync()}. The writer only waits when
+ * the buffer is full.<br>
+ * Records (op, value, key length and key) are written in batches prefixed by their length and
+ * CRC32C, and replay stops at the first batch that was torn by a crash.
+ *
+ * @author cmuramoto
+ */
+public final class WriteAheadLog implements AutoCloseable {
+
+	static final byte UPDATE = 1;
+	static final byte ERASE = 2;
+
+	/**
+	 * Op, value and key length.
+	 */
+	static final int RECORD = 9;
+
+	/**
+	 * Length and CRC32C of a batch.
+	 */
+	static final int BATCH = 8;
+
+	static final long SYNC_MILLIS = Long.getLong("Cedar.WAL_SYNC_MILLIS", 10);
+	static final int SYNC_OPS = Integer.getInteger("Cedar.WAL_SYNC_OPS", 4096);
+	static final int BUFFER = Integer.getInteger("Cedar.WAL_BUFFER", 1 << 20);
+
+	/**
+	 * Opens (or creates) a log with the default policy: -DCedar.WAL_SYNC_MILLIS (10),
+	 * -DCedar.WAL_SYNC_OPS (4096) and a ring of -DCedar.WAL_BUFFER bytes (1MB).
+	 */
+	public static WriteAheadLog open(Path file) {
+		return open(file, SYNC_MILLIS, SYNC_OPS, BUFFER);
+	}
+
+	public static WriteAheadLog open(Path file, long syncMillis, int syncOps) {
+		return open(file, syncMillis, syncOps, BUFFER);
+	}
+
+	/**
+	 * @param syncMillis
+	 *            commit period, 0 to commit only by count
+	 * @param syncOps
+	 *            pending records that trigger a commit, 0 to commit only by time
+	 * @param buffer
+	 *            bytes of the ring, rounded up to a power of two
+	 */
+	public static WriteAheadLog open(Path file, long syncMillis, int syncOps, int buffer) {
+		if (syncMillis < 0 || syncOps < 0 || (syncMillis == 0 && syncOps == 0)) {
+			throw new IllegalArgumentException("Invalid group commit: " + syncMillis + "ms/" + syncOps + " ops");
+		}
+		if (buffer < 64 || buffer > (1 << 30)) {
+			throw new IllegalArgumentException("Invalid buffer: " + buffer);
+		}
+
+		try {
+			var ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			return new WriteAheadLog(file, ch, syncMillis, syncOps, buffer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	final Path file;
+	final FileChannel ch;
+	final byte[] ring;
+	final int mask;
+	final long syncNanos;
+	final int syncOps;
+	final Object lock = new Object();
+	final Thread flusher;
+
+	/**
+	 * Bytes ever appended, only written by the writer.
+	 */
+	volatile long head;
+
+	/**
+	 * Bytes ever committed (or discarded by truncate), only written under lock.
+	 */
+	volatile long tail;
+
+	volatile boolean closed;
+
+	volatile IOException failure;
+
+	/**
+	 * Records appended since the flusher was last woken up.
+	 */
+	int pending;
+
+	long commits;
+
+	private WriteAheadLog(Path file, FileChannel ch, long syncMillis, int syncOps, int buffer) {
+		this.file = file;
+		this.ch = ch;
+		this.ring = new byte[Integer.highestOneBit(buffer - 1) << 1];
+		this.mask = ring.length - 1;
+		this.syncNanos = TimeUnit.MILLISECONDS.toNanos(syncMillis);
+		this.syncOps = syncOps;
+		this.flusher = new Thread(this::flush, "cedar-wal-" + file.getFileName());
+		this.flusher.setDaemon(true);
+	}
+
+	private void append(byte op, int value, byte[] key, int off, int len) {
+		if (failure != null) {
+			throw new UncheckedIOException(failure);
+		}
+		if (closed) {
+			throw new IllegalStateException("Log is closed");
+		}
+
+		var n = RECORD + len;
+		if (n > ring.length) {
+			// larger than the ring: goes straight to a batch of its own
+			var rec = new byte[n];
+			record(rec, 0, op, value, key, off, len);
+			synchronized (lock) {
+				try {
+					commit();
+					write(rec, 0, n);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			return;
+		}
+
+		var h = head;
+		while (ring.length - (h - tail) < n) {
+			LockSupport.unpark(flusher);
+			LockSupport.parkNanos(10_000);
+			if (failure != null) {
+				throw new UncheckedIOException(failure);
+			}
+		}
+
+		var at = (int) (h & mask);
+		if (at + n <= ring.length) {
+			record(ring, at, op, value, key, off, len);
+		} else {
+			var rec = new byte[n];
+			record(rec, 0, op, value, key, off, len);
+			var first = ring.length - at;
+			System.arraycopy(rec, 0, ring, at, first);
+			System.arraycopy(rec, first, ring, 0, n - first);
+		}
+		head = h + n;
+
+		if (syncOps > 0 && ++pending >= syncOps) {
+			pending = 0;
+			LockSupport.unpark(flusher);
+		}
+	}
+
+	/**
+	 * Stops the flusher and commits what is pending. The file is kept.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		LockSupport.unpark(flusher);
+		try {
+			flusher.join();
+			synchronized (lock) {
+				commit();
+				ch.close();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes and fsyncs what is in the ring as one batch. Caller must hold lock.
+	 */
+	private void commit() throws IOException {
+		var t = tail;
+		var h = head;
+		if (h == t || !ch.isOpen()) {
+			return;
+		}
+
+		var len = (int) (h - t);
+		var at = (int) (t & mask);
+		var first = Math.min(len, ring.length - at);
+
+		var crc = new CRC32C();
+		crc.update(ring, at, first);
+		crc.update(ring, 0, len - first);
+
+		var hdr = ByteBuffer.allocate(BATCH).order(ByteOrder.LITTLE_ENDIAN).putInt(len).putInt((int) crc.getValue()).flip();
+		write(hdr, ByteBuffer.wrap(ring, at, first), ByteBuffer.wrap(ring, 0, len - first));
+		ch.force(false);
+
+		commits++;
+		tail = h;
+	}
+
+	/**
+	 * @return number of batches written so far
+	 */
+	public long commits() {
+		synchronized (lock) {
+			return commits;
+		}
+	}
+
+	void erase(byte[] key, int start, int end) {
+		// same defaults as find
+		end = (end <= 0 || end <= start) ? key.length : end;
+		append(ERASE, 0, key, start, end - start);
+	}
+
+	private void flush() {
+		while (!closed) {
+			if (syncNanos > 0) {
+				LockSupport.parkNanos(this, syncNanos);
+			} else {
+				LockSupport.park(this);
+			}
+			try {
+				synchronized (lock) {
+					commit();
+				}
+			} catch (IOException e) {
+				failure = e;
+				return;
+			}
+		}
+	}
+
+	public Path file() {
+		return file;
+	}
+
+	private static void record(byte[] dst, int at, byte op, int value, byte[] key, int off, int len) {
+		dst[at] = op;
+		dst[at + 1] = (byte) value;
+		dst[at + 2] = (byte) (value >>> 8);
+		dst[at + 3] = (byte) (value >>> 16);
+		dst[at + 4] = (byte) (value >>> 24);
+		dst[at + 5] = (byte) len;
+		dst[at + 6] = (byte) (len >>> 8);
+		dst[at + 7] = (byte) (len >>> 16);
+		dst[at + 8] = (byte) (len >>> 24);
+		System.arraycopy(key, off, dst, at + RECORD, len);
+	}
+
+	/**
+	 * Applies every intact batch to cedar, drops a torn tail and starts the flusher.
+	 *
+	 * @return number of records applied
+	 */
+	long replay(BaseCedar cedar) {
+		if (closed) {
+			throw new IllegalStateException("Log is closed");
+		}
+
+		var applied = 0L;
+		synchronized (lock) {
+			try {
+				var size = ch.size();
+				var hdr = ByteBuffer.allocate(BATCH).order(ByteOrder.LITTLE_ENDIAN);
+				var off = 0L;
+
+				while (off + BATCH <= size) {
+					hdr.clear();
+					read(hdr, off);
+					var len = hdr.getInt(0);
+					if (len < RECORD || off + BATCH + len > size) {
+						break;
+					}
+
+					var batch = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+					read(batch, off + BATCH);
+					var crc = new CRC32C();
+					crc.update(batch.array(), 0, len);
+					if ((int) crc.getValue() != hdr.getInt(4)) {
+						break;
+					}
+
+					for (var p = 0; p < len;) {
+						var op = batch.get(p);
+						var value = batch.getInt(p + 1);
+						var key = Arrays.copyOfRange(batch.array(), p + RECORD, p + RECORD + batch.getInt(p + 5));
+						if (op == UPDATE) {
+							cedar.update(key, value);
+						} else {
+							cedar.erase(key);
+						}
+						p += RECORD + key.length;
+						applied++;
+					}
+					off += BATCH + len;
+				}
+
+				if (off < size) {
+					ch.truncate(off);
+					ch.force(true);
+				}
+				ch.position(off);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		if (flusher.getState() == Thread.State.NEW) {
+			flusher.start();
+		}
+		return applied;
+	}
+
+	private void read(ByteBuffer dst, long off) throws IOException {
+		while (dst.hasRemaining()) {
+			if (ch.read(dst, off + dst.position()) < 0) {
+				throw new IOException("Unexpected end of " + file);
+			}
+		}
+	}
+
+	/**
+	 * Commits what is pending and waits for it to be on disk.
+	 */
+	public void sync() {
+		synchronized (lock) {
+			try {
+				commit();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("WriteAheadLog[%s, pending: %d bytes, commits: %d]", file, head - tail, commits());
+	}
+
+	/**
+	 * Drops every record, including the ones not committed yet. Must be called by the writer, once
+	 * an image with all logged mutations is durable.
+	 */
+	void truncate() {
+		synchronized (lock) {
+			try {
+				tail = head;
+				ch.truncate(0);
+				ch.position(0);
+				ch.force(true);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	void update(byte[] key, int value, int start, int end) {
+		append(UPDATE, value, key, start, end - start);
+	}
+
+	private void write(byte[] b, int off, int len) throws IOException {
+		var crc = new CRC32C();
+		crc.update(b, off, len);
+		var hdr = ByteBuffer.allocate(BATCH).order(ByteOrder.LITTLE_ENDIAN).putInt(len).putInt((int) crc.getValue()).flip();
+		write(hdr, ByteBuffer.wrap(b, off, len));
+		ch.force(false);
+		commits++;
+	}
+
+	private void write(ByteBuffer... bufs) throws IOException {
+		var remaining = 0L;
+		for (var buf : bufs) {
+			remaining += buf.remaining();
+		}
+		while (remaining > 0) {
+			remaining -= ch.write(bufs);
+		}
+	}
+}
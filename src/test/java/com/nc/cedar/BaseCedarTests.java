@@ -1,7 +1,6 @@
 package com.nc.cedar;
 
 import static org.junit.Assert.assertNotNull;
-import static org.junit.Assume.assumeFalse;
 
 import java.nio.file.Path;
 import java.time.LocalTime;
@@ -71,10 +70,18 @@ public abstract class BaseCedarTests {
 		return reduced ? ReducedCedar.deserialize(tmp, copy) : Cedar.deserialize(tmp, copy);
 	}
 
+	BaseCedar deserializeCompressed(Path tmp) {
+		return reduced ? ReducedCedar.deserializeCompressed(tmp) : Cedar.deserializeCompressed(tmp);
+	}
+
 	BaseCedar instantiate() {
 		return reduced ? new ReducedCedar() : new Cedar();
 	}
 
+	BaseCedar open(Path file) {
+		return reduced ? ReducedCedar.open(file) : Cedar.open(file);
+	}
+
 	public void shuffle(Object[] o) {
 		var rnd = ThreadLocalRandom.current();
 		var len = o.length;
@@ -84,8 +91,4 @@ public abstract class BaseCedarTests {
 		}
 	}
 
-	void unsupportedInReduced() {
-		assumeFalse("Reduced only works with ascii", reduced);
-	}
-
 }
@@ -0,0 +1,124 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.vec;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class Cedar64Tests extends BaseCedarTests {
+
+	static long packed(int i) {
+		// file id in the high 16 bits, offset in the low 48, past the int range
+		return ((long) (i % 1000) << 48) | ((1L << 40) + i * 4096L);
+	}
+
+	Cedar64 instantiate64() {
+		return new Cedar64(reduced);
+	}
+
+	@Test
+	public void test_64_erase_reuses_slots() {
+		var keys = IntStream.range(0, 10000).mapToObj(__ -> UUID.randomUUID().toString()).distinct().toArray(String[]::new);
+		var c = instantiate64();
+
+		for (var i = 0; i < keys.length; i++) {
+			c.updateLong(keys[i], packed(i));
+		}
+		var slots = c.values.pos;
+
+		for (var i = 0; i < keys.length; i += 2) {
+			assertEquals(packed(i), c.eraseLong(keys[i], -1));
+			assertEquals(-1, c.eraseLong(keys[i], -1));
+		}
+		assertEquals(keys.length / 2, c.size());
+
+		for (var i = 0; i < keys.length; i++) {
+			if ((i & 1) == 0) {
+				assertFalse(c.containsKey(keys[i]));
+				c.updateLong(keys[i], -packed(i));
+			}
+		}
+
+		assertEquals(slots, c.values.pos);
+		assertEquals(keys.length, c.size());
+		for (var i = 0; i < keys.length; i++) {
+			assertEquals((i & 1) == 0 ? -packed(i) : packed(i), c.getLong(keys[i], 0));
+		}
+
+		c.close();
+	}
+
+	@Test
+	public void test_64_get_update() {
+		var c = instantiate64();
+
+		assertEquals(0, c.updateLong("a", Long.MAX_VALUE));
+		assertEquals(0, c.updateLong("ab", Long.MIN_VALUE));
+		assertEquals(0, c.updateLong("abc", -1));
+		assertEquals(0, c.updateLong("网球", 1L << 40));
+
+		assertEquals(Long.MAX_VALUE, c.getLong("a", 0));
+		assertEquals(Long.MIN_VALUE, c.getLong("ab", 0));
+		assertEquals(-1, c.getLong("abc", 0));
+		assertEquals(1L << 40, c.getLong("网球", 0));
+		assertEquals(7, c.getLong("abcd", 7));
+		assertEquals(7, c.getLong("", 7));
+		assertEquals(4, c.size());
+
+		assertEquals(-1, c.updateLong("abc", 3));
+		assertEquals(3, c.getLong("abc", 0));
+		assertEquals(4, c.size());
+
+		var predicted = c.predict("a").mapToLong(c::value).sorted().toArray();
+		assertArrayEquals(new long[]{ Long.MIN_VALUE, 3, Long.MAX_VALUE }, predicted);
+
+		var common = c.withCommonPrefix("abcd").map(c::suffix).toArray(String[]::new);
+		assertEquals(3, common.length);
+
+		assertArrayEquals(vec("a", "ab", "abc"), c.predict("a").map(m -> "a" + c.suffix(m)).sorted().toArray(String[]::new));
+
+		c.close();
+	}
+
+	@Test
+	public void test_64_serialization() throws IOException {
+		var keys = IntStream.range(0, 20000).mapToObj(__ -> UUID.randomUUID().toString()).distinct().toArray(String[]::new);
+		var c = instantiate64();
+
+		for (var i = 0; i < keys.length; i++) {
+			c.updateLong(keys[i], packed(i));
+		}
+		c.eraseLong(keys[0], -1);
+
+		var tmp = Files.createTempFile("cedar", "bin");
+		c.serialize(tmp);
+		assertEquals(c.imageSize(), Files.size(tmp));
+		c.close();
+
+		for (var copy : new boolean[]{ true, false }) {
+			var s = Cedar64.deserialize(tmp, copy);
+			assertEquals(reduced, s.isReduced());
+			assertEquals(keys.length - 1, s.size());
+			assertEquals(-1, s.getLong(keys[0], -1));
+			for (var i = 1; i < keys.length; i++) {
+				assertEquals(packed(i), s.getLong(keys[i], -1));
+			}
+
+			// reuses the slot freed before serialization
+			var slots = s.values.pos;
+			s.updateLong(keys[0], 1L << 62);
+			assertEquals(slots, s.values.pos);
+			assertEquals(1L << 62, s.getLong(keys[0], -1));
+			assertTrue(s.containsKey(keys[0]));
+			s.close();
+		}
+	}
+}
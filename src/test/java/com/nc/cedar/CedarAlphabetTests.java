@@ -0,0 +1,142 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.assertAll;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+public class CedarAlphabetTests extends BaseCedarTests {
+
+	static String[] hex(int max, int len) {
+		var rng = ThreadLocalRandom.current();
+		var seen = new HashSet<String>();
+		var chars = new char[len];
+		while (seen.size() < max) {
+			for (var i = 0; i < len; i++) {
+				chars[i] = Character.forDigit(rng.nextInt(16), 16);
+			}
+			seen.add(new String(chars));
+		}
+		return seen.toArray(String[]::new);
+	}
+
+	void assertKeys(BaseCedar cedar, String[] dict) {
+		var keys = cedar.predict("").map(cedar::suffix).sorted().toArray(String[]::new);
+		var sorted = dict.clone();
+		Arrays.sort(sorted);
+		assertArrayEquals(sorted, keys);
+	}
+
+	@Test
+	public void test_remap_footprint() {
+		var dict = hex(50000, 12);
+
+		var plain = instantiate();
+		plain.build(dict);
+
+		var remapped = instantiate();
+		remapped.remap(dict);
+		remapped.build(dict);
+
+		log("Nodes (reduced: %s): plain: %d, remapped: %d", reduced, plain.size, remapped.size);
+
+		assertAll(plain, dict);
+		assertAll(remapped, dict);
+
+		plain.close();
+		remapped.close();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void test_remap_requires_empty_trie() {
+		var cedar = instantiate();
+		cedar.update("abc", 0);
+		cedar.remap("abc");
+	}
+
+	@Test
+	public void test_remap_roundtrip() throws IOException {
+		var dict = hex(5000, 8);
+		var cedar = instantiate();
+		cedar.remap(dict);
+		cedar.build(dict);
+
+		assertNotNull(cedar.decode);
+		assertAll(cedar, dict);
+		assertKeys(cedar, dict);
+
+		// most frequent bytes take the lowest labels
+		assertEquals(0, cedar.encode[0]);
+		assertTrue(Bits.u32(cedar.encode['a']) <= 16);
+		assertTrue((cedar.get("zz") & BaseCedar.ABSENT) != 0);
+
+		var prefix = dict[0].substring(0, 3);
+		var predicted = cedar.predict(prefix).map(m -> prefix + cedar.suffix(m)).sorted().toArray(String[]::new);
+		var expected = Arrays.stream(dict).filter(s -> s.startsWith(prefix)).sorted().toArray(String[]::new);
+		assertArrayEquals(expected, predicted);
+
+		var tmp = Files.createTempFile("cedar", "bin");
+		cedar.serialize(tmp);
+		cedar.close();
+
+		for (var copy : new boolean[]{ true, false }) {
+			var c = deserialize(tmp, copy);
+			assertNotNull(c.decode);
+			assertAll(c, dict);
+			assertKeys(c, dict);
+			c.close();
+		}
+	}
+
+	@Test
+	public void test_remap_scan() {
+		var cedar = instantiate();
+		cedar.remap("fo", "foo", "ba", "bar");
+		cedar.update("fo", 0);
+		cedar.update("foo", 1);
+		cedar.update("ba", 2);
+		cedar.update("bar", 3);
+
+		var values = cedar.scan("foo foo bar").mapToInt(TextMatch::value).toArray();
+
+		assertArrayEquals(new int[]{ 0, 1, 0, 1, 2, 3 }, values);
+	}
+
+	@Test
+	public void test_remap_slices() {
+		var dict = hex(5000, 8);
+		var cedar = instantiate();
+		cedar.remap(dict);
+		cedar.enableFilter(0);
+
+		// keys are slices of longer buffers, so walks must stop at end
+		var slices = new byte[dict.length][];
+		for (var i = 0; i < dict.length; i++) {
+			slices[i] = ("<" + dict[i] + ">tail").getBytes(StandardCharsets.US_ASCII);
+			cedar.update(slices[i], i, 1, 1 + dict[i].length());
+		}
+		assertAll(cedar, dict);
+		assertEquals(dict.length, cedar.filter_keys);
+
+		for (var i = 0; i < dict.length; i++) {
+			var end = 1 + dict[i].length();
+			assertEquals(i, cedar.get(slices[i], 1, end));
+			assertTrue((cedar.get(slices[i], 1, end - 1) & BaseCedar.ABSENT_OR_NO_VALUE) != 0);
+			// overwrites through slices are not new keys
+			assertEquals(i, cedar.update(slices[i], i, 1, end));
+		}
+		assertEquals(dict.length, cedar.filter_keys);
+
+		cedar.close();
+	}
+}
@@ -0,0 +1,217 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.BaseCedar.ABSENT_OR_NO_VALUE;
+import static com.nc.cedar.CedarTestSupport.assertAll;
+import static com.nc.cedar.CedarTestSupport.dict;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import org.junit.Test;
+
+public class CedarBudgetTests extends BaseCedarTests {
+
+	/**
+	 * Inserts dict until the budget says no.
+	 *
+	 * @return number of keys inserted
+	 */
+	static int fill(BaseCedar cedar, String[] dict) {
+		for (var i = 0; i < dict.length; i++) {
+			var size = cedar.size;
+			var capacity = cedar.capacity;
+			try {
+				cedar.update(dict[i], i);
+			} catch (MemoryBudgetException e) {
+				// rejected before anything changed
+				assertEquals(size, cedar.size);
+				assertEquals(capacity, cedar.capacity);
+				assertNotEquals(0, cedar.get(dict[i]) & ABSENT_OR_NO_VALUE);
+				return i;
+			}
+		}
+		fail("Budget was never exceeded");
+		return -1;
+	}
+
+	/**
+	 * Runs put over dict until the budget of trie says no.
+	 *
+	 * @return number of keys put
+	 */
+	static int fill(BaseCedar trie, String[] dict, IntConsumer put) {
+		trie.budget(new MemoryBudget(1 << 20, null));
+		for (var i = 0; i < dict.length; i++) {
+			try {
+				put.accept(i);
+			} catch (MemoryBudgetException e) {
+				return i;
+			}
+		}
+		fail("Budget was never exceeded");
+		return -1;
+	}
+
+	void assertFirst(BaseCedar cedar, String[] dict, int n) {
+		assertAll(cedar, dict, 0, n);
+		assertEquals(n, cedar.predict("").count());
+	}
+
+	@Test
+	public void test_budget_wrappers_roll_back() {
+		var dict = dict(50000, 10);
+
+		var map = new CedarMap<Integer>(reduced);
+		var n = fill(map.trie, dict, i -> map.put(dict[i], i));
+		// the slot taken for the rejected key is free again
+		assertEquals(n, map.size());
+		assertEquals(n + 2, map.next);
+		assertEquals(1, map.freeCount);
+		assertEquals(null, map.slots[map.free[0]]);
+		assertEquals(null, map.get(dict[n]));
+		assertEquals(0, (int) map.put(dict[0], -1));
+		assertEquals(-1, (int) map.get(dict[0]));
+		// which reused the free slot and released the old one of dict[0]
+		assertEquals(n + 2, map.next);
+		assertEquals(1, map.freeCount);
+		map.trie.close();
+
+		var longs = new Cedar64(reduced);
+		var m = fill(longs.trie, dict, i -> longs.updateLong(dict[i], i));
+		assertEquals(m, longs.size());
+		assertEquals(m + 1, longs.values.pos);
+		assertEquals(m, longs.free);
+		assertEquals(-1, longs.getLong(dict[m], -1));
+		assertEquals(0, longs.updateLong(dict[0], -1));
+		longs.close();
+
+		var payloads = new PayloadCedar(reduced);
+		var pos = new long[1];
+		var k = fill(payloads.trie, dict, i -> {
+			pos[0] = payloads.arena.pos;
+			payloads.put(dict[i], new byte[]{ (byte) i });
+		});
+		// the record of the rejected key is not in the arena
+		assertEquals(k, payloads.size());
+		assertEquals(pos[0], payloads.arena.pos);
+		assertEquals(null, payloads.getPayload(dict[k]));
+		payloads.close();
+	}
+
+	@Test
+	public void test_budget_compact() {
+		var budget = new MemoryBudget(1 << 20, null);
+		var dict = dict(50000, 10);
+		var cedar = instantiate();
+		cedar.budget(budget);
+
+		var n = fill(cedar, dict);
+		var used = budget.used();
+		assertEquals(cedar.footprint(), used);
+
+		for (var i = 0; i < n; i += 2) {
+			cedar.erase(dict[i]);
+		}
+
+		// both tries are alive during the rebuild
+		assertThrows(MemoryBudgetException.class, cedar::compact);
+		assertEquals(used, budget.used());
+
+		var larger = new MemoryBudget(4 << 20, null);
+		cedar.budget(larger);
+		assertEquals(0, budget.used());
+		assertEquals(used, larger.used());
+
+		cedar.compact();
+		assertTrue(larger.used() < used);
+		assertEquals(cedar.footprint(), larger.used());
+
+		for (var i = 1; i < n; i += 2) {
+			assertEquals(i, cedar.get(dict[i]));
+		}
+
+		cedar.close();
+		assertEquals(0, larger.used());
+	}
+
+	@Test
+	public void test_budget_nested() {
+		var tenant = new MemoryBudget(1 << 20, null);
+		var a = instantiate();
+		var b = instantiate();
+		a.budget(new MemoryBudget(1 << 20, tenant));
+		b.budget(new MemoryBudget(1 << 20, tenant));
+
+		var dict = dict(100000, 12);
+		MemoryBudgetException rejected = null;
+		var i = 0;
+		try {
+			for (; i < dict.length; i++) {
+				((i & 1) == 0 ? a : b).update(dict[i], i);
+			}
+		} catch (MemoryBudgetException e) {
+			rejected = e;
+		}
+
+		// each trie fits in its own budget, but not both in the tenant's
+		assertSame(tenant, rejected.budget());
+		assertEquals(a.budget().used() + b.budget().used(), tenant.used());
+		assertTrue(tenant.used() <= tenant.limit());
+
+		for (var j = 0; j < i; j++) {
+			assertEquals(j, ((j & 1) == 0 ? a : b).get(dict[j]));
+		}
+
+		a.close();
+		assertEquals(b.budget().used(), tenant.used());
+		b.close();
+		assertEquals(0, tenant.used());
+	}
+
+	@Test
+	public void test_budget_rejects_update() {
+		var budget = new MemoryBudget(256 * 1024, null);
+		budget.watermark(0.25);
+		var pressure = new AtomicInteger();
+		var rejections = new AtomicInteger();
+		budget.listener((__, requested, rejected) -> {
+			assertTrue(requested > 0);
+			(rejected ? rejections : pressure).incrementAndGet();
+		});
+
+		var dict = dict(50000, 16);
+		var cedar = instantiate();
+		cedar.budget(budget);
+
+		var n = fill(cedar, dict);
+		assertTrue(n > 0);
+		assertEquals(1, rejections.get());
+		assertTrue(pressure.get() > 0);
+		assertTrue(budget.used() <= budget.limit());
+		assertFirst(cedar, dict, n);
+
+		// existing keys can still be replaced and erased
+		assertEquals(0, cedar.update(dict[0], dict.length));
+		assertEquals(dict.length, cedar.get(dict[0]));
+		assertEquals(1, cedar.erase(dict[1]));
+		assertThrows(MemoryBudgetException.class, () -> cedar.update(dict[n], n));
+
+		// moving to an unbounded budget releases the charge
+		cedar.budget(null);
+		assertEquals(0, budget.used());
+		for (var i = n; i < dict.length; i++) {
+			cedar.update(dict[i], i);
+		}
+		assertEquals(dict.length - 1, cedar.predict("").count());
+
+		assertThrows(MemoryBudgetException.class, () -> cedar.budget(budget));
+		assertEquals(0, budget.used());
+		cedar.close();
+	}
+}
@@ -0,0 +1,149 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.dict;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+public class CedarCompactTests extends BaseCedarTests {
+
+	void assertAbsent(long v) {
+		assertTrue((v & BaseCedar.ABSENT_OR_NO_VALUE) != 0);
+	}
+
+	void assertSurvivors(BaseCedar cedar, String[] dict, int stride) {
+		for (var i = 0; i < dict.length; i++) {
+			if (i % stride == 0) {
+				assertEquals(i, cedar.get(dict[i]));
+			} else {
+				assertAbsent(cedar.get(dict[i]));
+			}
+		}
+	}
+
+	BaseCedar erased(String[] dict, int stride) {
+		var cedar = instantiate();
+		cedar.build(dict);
+
+		for (var i = 0; i < dict.length; i++) {
+			if (i % stride != 0) {
+				assertEquals(i, cedar.erase(dict[i]));
+			}
+		}
+		return cedar;
+	}
+
+	@Test
+	public void test_compact_footprint() {
+		var dict = dict(100000, 12);
+		var cedar = erased(dict, 10);
+
+		var fresh = instantiate();
+		for (var i = 0; i < dict.length; i += 10) {
+			fresh.update(dict[i], i);
+		}
+
+		var before = cedar.array.byteSize();
+		cedar.compact();
+
+		log("Nodes (reduced: %s): before: %d, compacted: %d, fresh: %d (cap: %d)", reduced, before / Nodes.UNIT, cedar.size, fresh.size, fresh.capacity);
+
+		assertEquals(cedar.size, cedar.capacity);
+		assertEquals(cedar.size * Nodes.UNIT, cedar.array.byteSize());
+		assertTrue(cedar.array.byteSize() < before / 4);
+		assertTrue(cedar.array.byteSize() <= fresh.array.byteSize());
+		assertSurvivors(cedar, dict, 10);
+
+		// trimmed buffers must grow again
+		for (var i = 0; i < dict.length; i++) {
+			if (i % 10 != 0) {
+				cedar.update(dict[i], i);
+			}
+		}
+		for (var i = 0; i < dict.length; i++) {
+			assertEquals(i, cedar.get(dict[i]));
+		}
+
+		fresh.close();
+		cedar.close();
+	}
+
+	@Test
+	public void test_compact_keeps_alphabet_and_filter() throws IOException {
+		var dict = dict(20000, 8);
+		var cedar = instantiate();
+		cedar.remap(dict);
+		cedar.build(dict);
+		cedar.enableFilter(0);
+
+		for (var i = 0; i < dict.length; i++) {
+			if (i % 3 != 0) {
+				cedar.erase(dict[i]);
+			}
+		}
+
+		cedar.compact();
+		assertEquals(0, cedar.filter_stale);
+		assertSurvivors(cedar, dict, 3);
+
+		var tmp = Files.createTempFile("cedar", "bin");
+		cedar.serialize(tmp);
+		cedar.close();
+
+		cedar = deserialize(tmp, true);
+		assertSurvivors(cedar, dict, 3);
+		cedar.close();
+	}
+
+	@Test
+	public void test_compact_keeps_ordering() {
+		var dict = dict(20000, 6);
+		List<Function<Boolean, BaseCedar>> engines = List.of(Cedar::new, ReducedCedar::new, NibbleCedar::new, TailCedar::new, WideCedar::new);
+
+		for (var engine : engines) {
+			for (var ordered : new boolean[]{ true, false }) {
+				var cedar = engine.apply(ordered);
+				for (var i = 0; i < dict.length; i++) {
+					cedar.update(dict[i], i);
+				}
+				for (var i = 0; i < dict.length; i += 3) {
+					cedar.erase(dict[i]);
+				}
+				var flags = cedar.flags;
+				var before = cedar.predict("").map(cedar::suffix).toArray(String[]::new);
+
+				cedar.compact();
+
+				var msg = cedar.getClass().getSimpleName() + ", ordered: " + ordered;
+				assertEquals(msg, flags, cedar.empty().flags);
+				assertArrayEquals(msg, before, cedar.predict("").map(cedar::suffix).toArray(String[]::new));
+				cedar.close();
+			}
+		}
+	}
+
+	@Test
+	public void test_compact_persistent() throws IOException {
+		var dict = dict(50000, 10);
+		var file = Files.createTempFile("cedar", "store");
+		file.toFile().deleteOnExit();
+
+		var cedar = erased(dict, 5);
+		cedar.persist(file);
+		cedar.compact();
+		assertSurvivors(cedar, dict, 5);
+		cedar.close();
+
+		cedar = open(file);
+		assertEquals(cedar.size, cedar.capacity);
+		assertSurvivors(cedar, dict, 5);
+		cedar.close();
+	}
+}
@@ -0,0 +1,124 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.dict;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+public class CedarCompressionTests extends BaseCedarTests {
+
+	static void assertSame(BaseCedar expected, BaseCedar actual) {
+		assertEquals(expected.size, actual.size);
+		assertEquals(expected.capacity, actual.capacity);
+		assertEquals(expected.imageSize(), actual.imageSize());
+		assertArrayEquals(expected.predict("").map(expected::suffix).toArray(), actual.predict("").map(actual::suffix).toArray());
+		assertArrayEquals(expected.predict("").mapToInt(Match::value).toArray(), actual.predict("").mapToInt(Match::value).toArray());
+	}
+
+	@Test
+	public void test_compressed_engines() throws IOException {
+		var dict = dict(20000, 14);
+		List<Supplier<BaseCedar>> engines = List.of(NibbleCedar::new, TailCedar::new, WideCedar::new);
+		List<Function<Path, BaseCedar>> loaders = List.of(NibbleCedar::deserializeCompressed, TailCedar::deserializeCompressed, WideCedar::deserializeCompressed);
+
+		for (var i = 0; i < engines.size(); i++) {
+			var cedar = engines.get(i).get();
+			cedar.build(dict);
+
+			var tmp = Files.createTempFile("cedar", "z");
+			cedar.serializeCompressed(tmp);
+			log("%s: image: %d, compressed: %d", cedar.getClass().getSimpleName(), cedar.imageSize(), Files.size(tmp));
+
+			var c = loaders.get(i).apply(tmp);
+			assertEquals(cedar.getClass(), c.getClass());
+			assertSame(cedar, c);
+
+			c.close();
+			cedar.close();
+			Files.delete(tmp);
+		}
+	}
+
+	@Test
+	public void test_compressed_round_trip() throws IOException {
+		var dict = dict(100000, 12);
+		var cedar = instantiate();
+		cedar.remap(dict);
+		cedar.build(dict);
+		cedar.enableFilter(0);
+		cedar.growth(GrowthPolicy.fixed(1 << 16));
+
+		for (var i = 0; i < dict.length; i += 3) {
+			cedar.erase(dict[i]);
+		}
+
+		var tmp = Files.createTempFile("cedar", "z");
+		cedar.serializeCompressed(tmp);
+
+		var compressed = Files.size(tmp);
+		log("Bytes (reduced: %s): image: %d, compressed: %d", reduced, cedar.imageSize(), compressed);
+		// dense nodes only halve, infos and blocks shrink a lot more
+		assertTrue(compressed < cedar.imageSize() * 2 / 3);
+
+		var c = deserializeCompressed(tmp);
+		assertSame(cedar, c);
+		assertEquals(cedar.growth(), c.growth());
+		assertTrue(c.filter != null);
+
+		for (var i = 0; i < dict.length; i++) {
+			assertEquals(cedar.get(dict[i]), c.get(dict[i]));
+		}
+
+		// the loaded trie is a regular one
+		for (var i = 0; i < dict.length; i += 3) {
+			c.update(dict[i], i);
+			assertEquals(i, c.get(dict[i]));
+		}
+		assertEquals(dict.length, c.predict("").count());
+
+		// shrinking releases chunks (and growing widens the last one) one at a time
+		var keys = c.predict("").map(c::suffix).toArray();
+		var values = c.predict("").mapToInt(Match::value).toArray();
+		c.compact();
+		c.update("after-compact", 1);
+		c.erase("after-compact");
+		assertArrayEquals(keys, c.predict("").map(c::suffix).toArray());
+		assertArrayEquals(values, c.predict("").mapToInt(Match::value).toArray());
+
+		c.close();
+		cedar.close();
+		Files.delete(tmp);
+	}
+
+	@Test
+	public void test_compressed_sparse() throws IOException {
+		// a few blocks in use, the rest of the capacity is untouched
+		var dict = dict(1000, 8);
+		var cedar = instantiate();
+		cedar.growth(GrowthPolicy.fixed(1 << 20));
+		cedar.build(dict);
+
+		var tmp = Files.createTempFile("cedar", "z");
+		cedar.serializeCompressed(tmp);
+		assertTrue(Files.size(tmp) * 100 < cedar.imageSize());
+
+		var c = deserializeCompressed(tmp);
+		assertSame(cedar, c);
+		for (var i = 0; i < dict.length; i++) {
+			assertEquals(i, c.get(dict[i]));
+		}
+
+		c.close();
+		cedar.close();
+		Files.delete(tmp);
+	}
+}
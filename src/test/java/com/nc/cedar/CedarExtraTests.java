@@ -6,7 +6,10 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.IntStream;
 
 import org.junit.Assert;
@@ -103,6 +106,46 @@ public class CedarExtraTests extends BaseCedarTests {
 		}
 	}
 
+	@Test
+	public void test_multilingual_keys() {
+		var rng = ThreadLocalRandom.current();
+		// latin, latin extended, cyrillic, hiragana and han, so labels cover the whole byte range
+		var ranges = vec('a', 26, 0x100, 128, 0x430, 32, 0x3041, 80, 0x4E00, 512);
+		var seen = new HashSet<String>();
+		while (seen.size() < 20000) {
+			var sb = new StringBuilder();
+			for (var i = 1 + rng.nextInt(8); i > 0; i--) {
+				var r = rng.nextInt(ranges.length / 2) * 2;
+				sb.append((char) (ranges[r] + rng.nextInt(ranges[r + 1])));
+			}
+			seen.add(sb.toString());
+		}
+		var keys = seen.toArray(String[]::new);
+
+		var cedar = instantiate();
+		cedar.build(keys);
+
+		for (var i = 0; i < keys.length; i++) {
+			assertEquals(i, cedar.get(keys[i]));
+		}
+
+		var sorted = keys.clone();
+		Arrays.sort(sorted);
+		assertArrayEquals(sorted, cedar.predict("").map(cedar::suffix).sorted().toArray(String[]::new));
+
+		for (var i = 0; i < keys.length; i += 2) {
+			assertEquals(i, cedar.erase(keys[i]));
+		}
+
+		for (var i = 0; i < keys.length; i++) {
+			if ((i & 1) == 0) {
+				assertTrue((BaseCedar.ABSENT_OR_NO_VALUE & cedar.get(keys[i])) != 0);
+			} else {
+				assertEquals(i, cedar.get(keys[i]));
+			}
+		}
+	}
+
 	@Test
 	public void test_predict_two() {
 		var cedar = instantiate();
@@ -153,22 +196,13 @@ public class CedarExtraTests extends BaseCedarTests {
 
 		var matches = cedar.scan(text).map(tm -> new ScanMatch(text, tm)).toArray(ScanMatch[]::new);
 
-		if (reduced) {
-			// reduced scan only matches short prefixes :(
-			assertEquals(3, matches.length);
-
-			matches[0].expect("fo", 0, 2, 0);
-			matches[1].expect("fo", 4, 6, 0);
-			matches[2].expect("ba", 8, 10, 2);
-		} else {
-			assertEquals(6, matches.length);
-
-			matches[0].expect("fo", 0, 2, 0);
-			matches[1].expect("foo", 0, 3, 1);
-			matches[2].expect("fo", 4, 6, 0);
-			matches[3].expect("foo", 4, 7, 1);
-			matches[4].expect("ba", 8, 10, 2);
-			matches[5].expect("bar", 8, 11, 3);
-		}
+		assertEquals(6, matches.length);
+
+		matches[0].expect("fo", 0, 2, 0);
+		matches[1].expect("foo", 0, 3, 1);
+		matches[2].expect("fo", 4, 6, 0);
+		matches[3].expect("foo", 4, 7, 1);
+		matches[4].expect("ba", 8, 10, 2);
+		matches[5].expect("bar", 8, 11, 3);
 	}
 }
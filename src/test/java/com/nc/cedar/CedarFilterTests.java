@@ -0,0 +1,172 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.assertAll;
+import static com.nc.cedar.CedarTestSupport.dict;
+import static com.nc.cedar.CedarTestSupport.randomAlpha;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+public class CedarFilterTests extends BaseCedarTests {
+
+	void assertAbsent(long v) {
+		assertTrue((v & BaseCedar.ABSENT_OR_NO_VALUE) != 0);
+	}
+
+	@Test
+	public void test_filter_erase_rebuild() {
+		var dict = dict(10000, 12);
+		var cedar = instantiate();
+		cedar.build(dict);
+		cedar.enableFilter(0);
+
+		for (var i = 0; i < dict.length; i += 2) {
+			assertEquals(i, cedar.erase(dict[i]));
+		}
+
+		// erasing half of the keys must have triggered at least one rebuild
+		assertTrue(cedar.filter_stale * 4 <= cedar.filter_keys);
+
+		cedar.rebuildFilter();
+		assertEquals(dict.length / 2, cedar.filter_keys);
+		assertEquals(0, cedar.filter_stale);
+
+		for (var i = 0; i < dict.length; i++) {
+			if ((i & 1) == 0) {
+				assertAbsent(cedar.get(dict[i]));
+			} else {
+				assertEquals(i, cedar.get(dict[i]));
+			}
+		}
+
+		cedar.close();
+	}
+
+	@Test
+	public void test_filter_grows_with_updates() {
+		var dict = dict(20000, 10);
+		var cedar = instantiate();
+		cedar.enableFilter(16);
+
+		var initial = cedar.filter.byteSize();
+
+		cedar.build(dict);
+
+		assertTrue(cedar.filter.byteSize() > initial);
+		assertTrue(cedar.filter.keys() >= dict.length);
+		assertAll(cedar, dict);
+
+		cedar.disableFilter();
+		assertNull(cedar.filter);
+		assertAll(cedar, dict);
+
+		cedar.close();
+	}
+
+	@Test
+	public void test_filter_ignores_overwrites() {
+		var dict = dict(10000, 10);
+		var cedar = instantiate();
+		cedar.enableFilter(0);
+		cedar.build(dict);
+
+		var keys = cedar.filter_keys;
+		var filter = cedar.filter;
+		assertTrue(keys <= dict.length);
+
+		for (var round = 0; round < 10; round++) {
+			for (var i = 0; i < dict.length; i++) {
+				cedar.update(dict[i], round);
+			}
+		}
+
+		// no rebuilds
+		assertEquals(keys, cedar.filter_keys);
+		assertSame(filter, cedar.filter);
+
+		cedar.close();
+	}
+
+	@Test
+	public void test_filter_rejects_misses() {
+		var dict = dict(10000, 12);
+		var cedar = instantiate();
+		cedar.build(dict);
+		cedar.enableFilter(0);
+
+		assertAll(cedar, dict);
+
+		var keys = new HashSet<String>();
+		for (var s : dict) {
+			keys.add(s);
+		}
+
+		var rng = ThreadLocalRandom.current();
+		var probes = 100000;
+		var positives = 0;
+		for (var i = 0; i < probes; i++) {
+			var s = randomAlpha(rng, 12);
+			if (keys.contains(s)) {
+				continue;
+			}
+			var utf8 = Bits.utf8(s);
+			if (cedar.filter.test(Bits.hash(utf8, 0, utf8.length))) {
+				positives++;
+			}
+			assertAbsent(cedar.get(s));
+		}
+
+		assertTrue("False positive rate too high: " + positives, positives < probes / 20);
+
+		cedar.close();
+	}
+
+	@Test
+	public void test_filter_serialization() throws IOException {
+		var dict = dict(5000, 16);
+		var cedar = instantiate();
+		cedar.build(dict);
+		cedar.enableFilter(0);
+		cedar.erase(dict[0]);
+
+		var keys = cedar.filter_keys;
+		var stale = cedar.filter_stale;
+
+		var tmp = Files.createTempFile("cedar", "bin");
+		cedar.serialize(tmp);
+		cedar.close();
+
+		for (var copy : new boolean[]{ true, false }) {
+			cedar = deserialize(tmp, copy);
+			assertNotNull(cedar.filter);
+			assertEquals(keys, cedar.filter_keys);
+			assertEquals(stale, cedar.filter_stale);
+
+			assertAbsent(cedar.get(dict[0]));
+			for (var i = 1; i < dict.length; i++) {
+				assertEquals(i, cedar.get(dict[i]));
+			}
+			cedar.close();
+		}
+
+		// no filter: section is empty
+		cedar = instantiate();
+		cedar.build(dict);
+		cedar.serialize(tmp = Files.createTempFile("cedar", "bin"));
+		cedar.close();
+
+		cedar = deserialize(tmp, true);
+		assertNull(cedar.filter);
+		assertAll(cedar, dict);
+		cedar.close();
+	}
+}
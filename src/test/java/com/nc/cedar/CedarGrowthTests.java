@@ -0,0 +1,123 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.assertAll;
+import static com.nc.cedar.CedarTestSupport.dict;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CedarGrowthTests extends BaseCedarTests {
+
+	BaseCedar instantiate(GrowthPolicy growth) {
+		return reduced ? new ReducedCedar(growth) : new Cedar(growth);
+	}
+
+	@Test
+	public void test_growth_build() {
+		var dict = dict(50000, 10);
+		var policies = List.of(GrowthPolicy.doubling(), GrowthPolicy.geometric(1.25), GrowthPolicy.fixed(1000), GrowthPolicy.capped(4096), GrowthPolicy.until(64 * 1024, GrowthPolicy.doubling(), GrowthPolicy.fixed(8192)));
+
+		for (var growth : policies) {
+			var cedar = instantiate(growth);
+			cedar.build(dict);
+			assertAll(cedar, dict);
+			assertEquals(0, cedar.capacity & 255);
+
+			// increments are rounded up to whole blocks
+			if (growth instanceof Fixed) {
+				assertEquals(0, (cedar.capacity - 256) % 1024);
+			}
+			log("%s: capacity %d", growth, cedar.capacity);
+			cedar.close();
+		}
+	}
+
+	@Test
+	public void test_growth_increments() {
+		assertEquals(1024, GrowthPolicy.doubling().increment(1024));
+		assertEquals(512, GrowthPolicy.geometric(1.5).increment(1024));
+		assertEquals(256, GrowthPolicy.geometric(1.25).increment(1024));
+		assertEquals(100, GrowthPolicy.fixed(100).increment(1 << 20));
+		assertEquals(1024, GrowthPolicy.capped(4096).increment(1024));
+		assertEquals(4096, GrowthPolicy.capped(4096).increment(1 << 20));
+
+		var schedule = GrowthPolicy.until(1 << 20, GrowthPolicy.doubling(), GrowthPolicy.fixed(4096));
+		assertEquals(1 << 19, schedule.increment(1 << 19));
+		assertEquals(4096, schedule.increment(1 << 20));
+
+		// legacy realloc argument
+		assertEquals(GrowthPolicy.capped(8192), BaseCedar.growth(5000));
+		assertEquals(GrowthPolicy.doubling(), BaseCedar.growth(0));
+
+		var cedar = instantiate(GrowthPolicy.fixed(1));
+		assertEquals(256, cedar.increment(8));
+		cedar.growth(GrowthPolicy.fixed(300));
+		assertEquals(512, cedar.increment(8));
+		assertEquals(512, (long) cedar.allocation().get("growth"));
+		assertEquals(512, (long) cedar.allocation().get("realloc"));
+		cedar.close();
+
+		assertThrows(IllegalArgumentException.class, () -> GrowthPolicy.geometric(1));
+		assertThrows(IllegalArgumentException.class, () -> GrowthPolicy.fixed(0));
+	}
+
+	@Test
+	public void test_growth_parse() {
+		var policies = List.of(GrowthPolicy.doubling(), GrowthPolicy.geometric(1.25), GrowthPolicy.fixed(1000), GrowthPolicy.capped(4096), GrowthPolicy.until(1 << 24, GrowthPolicy.geometric(1.5), GrowthPolicy.until(1 << 26, GrowthPolicy.capped(1 << 22), GrowthPolicy.fixed(1 << 20))));
+
+		for (var growth : policies) {
+			assertEquals(growth, GrowthPolicy.parse(growth.toString()));
+		}
+
+		assertEquals(GrowthPolicy.until(10, GrowthPolicy.doubling(), GrowthPolicy.fixed(256)), GrowthPolicy.parse("until(10, geometric(2), fixed(256))"));
+
+		for (var spec : List.of("", "geometric", "geometric(1.5", "fixed(a)", "capped(-1)", "until(1,fixed(1))", "fixed(1)x", "other(1)")) {
+			assertThrows(spec, IllegalArgumentException.class, () -> GrowthPolicy.parse(spec));
+		}
+	}
+
+	@Test
+	public void test_growth_persisted() throws IOException {
+		var dict = dict(10000, 8);
+		var growth = GrowthPolicy.until(1 << 22, GrowthPolicy.geometric(1.5), GrowthPolicy.capped(1 << 20));
+		var cedar = instantiate(growth);
+		cedar.build(dict);
+
+		var tmp = Files.createTempFile("cedar", "bin");
+		cedar.serialize(tmp);
+		cedar.close();
+
+		var copy = deserialize(tmp, true);
+		assertEquals(growth, copy.growth());
+		assertAll(copy, dict);
+
+		// custom policies work, but aren't persisted
+		GrowthPolicy custom = c -> 512;
+		copy.growth(custom);
+		copy.update("some-new-key", 1);
+		assertSame(custom, copy.growth());
+		assertTrue(BaseCedar.growthSpec(custom).isEmpty());
+		// neither are specs the header has no room for
+		var nested = GrowthPolicy.until(1 << 24, GrowthPolicy.geometric(1.5), GrowthPolicy.until(1 << 26, GrowthPolicy.capped(1 << 22), GrowthPolicy.fixed(1 << 20)));
+		assertTrue(nested.toString().length() > BaseCedar.GROWTH_SPEC);
+		assertTrue(BaseCedar.growthSpec(nested).isEmpty());
+
+		copy.serialize(tmp);
+		copy.close();
+
+		var again = deserialize(tmp, true);
+		assertEquals(BaseCedar.growth(BaseCedar.REALLOC_CAP), again.growth());
+		assertAll(again, dict);
+		assertEquals(1, again.get("some-new-key"));
+		again.close();
+
+		Files.delete(tmp);
+	}
+}
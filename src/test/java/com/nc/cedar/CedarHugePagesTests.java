@@ -0,0 +1,71 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.assertAll;
+import static com.nc.cedar.CedarTestSupport.dict;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class CedarHugePagesTests extends BaseCedarTests {
+
+	static void assertAligned(CedarBuffer b) {
+		assertTrue(b.huge);
+		assertEquals(0, b.buffer.address().toRawLongValue() & (HugePages.SIZE - 1));
+	}
+
+	void assumeHugePages() {
+		assumeTrue("Run with -DCedar.HUGE_PAGES=true", CedarBuffer.HUGE_PAGES);
+		assumeFalse("Chunked buffers are never huge", CedarBuffer.CHUNKED);
+	}
+
+	@Test
+	public void test_huge_pages_off() {
+		assumeFalse(CedarBuffer.HUGE_PAGES);
+
+		var cedar = instantiate();
+		cedar.build(dict(1000, 8));
+		assertFalse(cedar.array.huge);
+		assertEquals(0, cedar.hugePageBytes());
+		cedar.close();
+	}
+
+	@Test
+	public void test_huge_pages_trie() throws IOException {
+		assumeHugePages();
+
+		var dict = dict(200000, 12);
+		var cedar = instantiate();
+		assertAligned(cedar.array);
+		assertAligned(cedar.infos);
+
+		cedar.build(dict);
+		assertAligned(cedar.array);
+		assertAligned(cedar.infos);
+		assertAll(cedar, dict);
+
+		var granted = cedar.hugePageBytes();
+		log("Huge pages (reduced: %s): %d of %d bytes", reduced, granted, cedar.array.byteSize() + cedar.infos.byteSize());
+		assertTrue(granted >= 0 && granted <= cedar.array.byteSize() + cedar.infos.byteSize());
+
+		cedar.compact();
+		assertAligned(cedar.array);
+		assertAll(cedar, dict);
+
+		var tmp = Files.createTempFile("cedar", "bin");
+		cedar.serialize(tmp);
+		cedar.close();
+		assertEquals(0, cedar.array.address);
+
+		var copy = deserialize(tmp, true);
+		assertAligned(copy.array);
+		assertAll(copy, dict);
+		copy.close();
+	}
+}
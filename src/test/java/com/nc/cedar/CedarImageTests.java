@@ -0,0 +1,197 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.dict;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+public class CedarImageTests extends BaseCedarTests {
+
+	static void flip(Path image, long off) throws IOException {
+		try (var raf = new RandomAccessFile(image.toFile(), "rw")) {
+			raf.seek(off);
+			var b = raf.read();
+			raf.seek(off);
+			raf.write(b ^ 0xFF);
+		}
+	}
+
+	static int intAt(Path image, long off) throws IOException {
+		try (var raf = new RandomAccessFile(image.toFile(), "r")) {
+			raf.seek(off);
+			return Integer.reverseBytes(raf.readInt());
+		}
+	}
+
+	BaseCedar populate(String[] dict) {
+		var cedar = instantiate();
+		for (var i = 0; i < dict.length; i++) {
+			cedar.update(dict[i], i);
+		}
+		return cedar;
+	}
+
+	@Test
+	public void test_image_corrupt_section() throws Exception {
+		var dict = dict(20000);
+		var image = Files.createTempFile("cedar", "bin");
+
+		var cedar = populate(dict);
+		cedar.serialize(image);
+
+		var copy = deserialize(image, true);
+		assertTrue(copy.verification().isDone());
+		assertEquals(dict.length - 1, copy.get(dict[dict.length - 1]));
+		copy.close();
+
+		var mapped = deserialize(image, false);
+		mapped.verification().get();
+		mapped.close();
+
+		// some node
+		flip(image, BaseCedar.IMAGE_HEADER + 1024);
+
+		var e = assertThrows(CorruptImageException.class, () -> deserialize(image, true));
+		assertEquals(0, e.section());
+
+		var corrupt = deserialize(image, false);
+		var lazy = corrupt.verification();
+		var cause = assertThrows(ExecutionException.class, lazy::get).getCause();
+		assertTrue(cause instanceof CorruptImageException);
+		assertEquals(0, ((CorruptImageException) cause).section());
+		// a corrupt mapped image is not written to
+		assertThrows(CorruptImageException.class, () -> corrupt.update("other", 1));
+		corrupt.close();
+
+		cedar.close();
+		Files.delete(image);
+	}
+
+	@Test
+	public void test_image_header() throws Exception {
+		var dict = dict(1000);
+		var image = Files.createTempFile("cedar", "bin");
+
+		var cedar = populate(dict);
+		cedar.serialize(image);
+		assertEquals(BaseCedar.MAGIC, intAt(image, 0));
+		assertEquals(BaseCedar.VERSION, intAt(image, 4));
+		assertEquals(BaseCedar.ENGINES.indexOf(cedar.getClass()), intAt(image, 8));
+
+		// the other engine
+		var e = assertThrows(CorruptImageException.class, () -> {
+			if (reduced) {
+				Cedar.deserialize(image, true);
+			} else {
+				ReducedCedar.deserialize(image, true);
+			}
+		});
+		assertEquals(-1, e.section());
+
+		try (var raf = new RandomAccessFile(image.toFile(), "rw")) {
+			raf.setLength(raf.length() - 1);
+		}
+		assertThrows(CorruptImageException.class, () -> deserialize(image, true));
+
+		flip(image, 0);
+		assertEquals(-1, assertThrows(CorruptImageException.class, () -> deserialize(image, false)).section());
+
+		cedar.close();
+		Files.delete(image);
+	}
+
+	@Test
+	public void test_image_legacy() throws Exception {
+		var dict = dict(10000);
+		var image = Files.createTempFile("cedar", "bin");
+
+		var cedar = populate(dict);
+		cedar.serialize(image);
+		var bytes = Files.readAllBytes(image);
+		var src = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+		// the header without magic, version, engine and checksums
+		var unversioned = Arrays.copyOfRange(bytes, 4 * 10, bytes.length);
+
+		// the original header: counters, positions and lengths of nodes, infos, blocks and rejects
+		var sections = bytes.length - BaseCedar.IMAGE_HEADER;
+		var original = ByteBuffer.allocate(BaseCedar.LEGACY_HEADER + sections).order(ByteOrder.LITTLE_ENDIAN);
+		original.put(bytes, 4 * 10, 4 * 5 + 8 * 2);
+		original.put(bytes, 4 * 10 + 4 * 5 + 8 * 4, 8 * 4);
+		original.put(bytes, 4 * 10 + 4 * 5 + 8 * 10, 8 * 4);
+		original.put(bytes, BaseCedar.IMAGE_HEADER, sections);
+		// no filter nor tails
+		assertEquals(0, src.getLong(4 * 10 + 4 * 5 + 8 * 14) + src.getLong(4 * 10 + 4 * 5 + 8 * 15));
+
+		// the original constructors packed the realloc cap, rounded up to a power of two, above the
+		// ordering bit, and by default it was REALLOC_CAP
+		var ordering = src.getInt(4 * 10);
+		for (var realloc : new int[]{ BaseCedar.REALLOC_CAP, 1000 }) {
+			var flags = ordering | (int) BaseCedar.ceilPowerOfTwo(realloc) << 1;
+			ByteBuffer.wrap(unversioned).order(ByteOrder.LITTLE_ENDIAN).putInt(0, flags);
+			original.putInt(0, flags);
+
+			for (var legacy : new byte[][]{ unversioned, original.array() }) {
+				Files.write(image, legacy);
+				for (var copy : new boolean[]{ true, false }) {
+					var loaded = deserialize(image, copy);
+					assertTrue(loaded.verification().isDone());
+					assertEquals(cedar.ordered(), loaded.ordered());
+					// the unversioned header has a growth spec, which wins
+					assertEquals(legacy == unversioned ? cedar.growth : BaseCedar.growth(realloc), loaded.growth);
+					for (var i = 0; i < dict.length; i++) {
+						assertEquals(i, loaded.get(dict[i]));
+					}
+					loaded.close();
+				}
+
+				// and written back in the current layout
+				var loaded = deserialize(image, true);
+				loaded.serialize(image);
+				loaded.close();
+				assertEquals(BaseCedar.MAGIC, intAt(image, 0));
+			}
+		}
+
+		cedar.close();
+		Files.delete(image);
+	}
+
+	@Test
+	public void test_image_snapshot_and_compressed_are_checksummed() throws Exception {
+		var dict = dict(20000);
+		var image = Files.createTempFile("cedar", "bin");
+
+		var cedar = populate(dict);
+		cedar.enableFilter(0);
+
+		cedar.serializeCompressed(image);
+		var compressed = deserializeCompressed(image);
+		assertTrue(compressed.verification().isDone());
+		assertEquals(cedar.predict("").count(), compressed.predict("").count());
+		compressed.close();
+
+		cedar.snapshotAsync(image).get();
+		assertEquals(1, intAt(image, BaseCedar.CHECKSUMS));
+		var snapshot = deserialize(image, true);
+		assertEquals(cedar.predict("").count(), snapshot.predict("").count());
+		snapshot.close();
+
+		flip(image, Files.size(image) - 1);
+		assertThrows(CorruptImageException.class, () -> deserialize(image, true));
+
+		cedar.close();
+		Files.delete(image);
+	}
+}
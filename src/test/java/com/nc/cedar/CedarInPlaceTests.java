@@ -0,0 +1,77 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.assertAll;
+import static com.nc.cedar.CedarTestSupport.dict;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class CedarInPlaceTests extends BaseCedarTests {
+
+	void assumeFlat() {
+		assumeFalse("Chunked buffers never move", CedarBuffer.CHUNKED);
+	}
+
+	@Test
+	public void test_in_place_buffer_growth() {
+		assumeFlat();
+
+		var nodes = new Nodes(16);
+		nodes.inPlace();
+		assertNotEquals(0, nodes.address);
+
+		for (var i = 0; i < 16; i++) {
+			nodes.push(i, -i);
+		}
+
+		nodes.resize(1 << 20);
+
+		assertNotEquals(0, nodes.address);
+		assertEquals(1L << 20, nodes.cap(Nodes.UNIT));
+		for (var i = 0; i < 16; i++) {
+			assertEquals(i, nodes.base(i));
+			assertEquals(-i, nodes.check(i));
+		}
+
+		nodes.close();
+		assertEquals(0, nodes.address);
+	}
+
+	@Test
+	public void test_in_place_trie() throws IOException {
+		assumeFlat();
+
+		var dict = dict(100000, 12);
+		var cedar = instantiate();
+		cedar.inPlace();
+
+		var before = cedar.array.byteSize();
+		cedar.build(dict);
+
+		assertTrue(cedar.array.byteSize() > before);
+		assertNotEquals(0, cedar.array.address);
+		assertNotEquals(0, cedar.infos.address);
+		assertAll(cedar, dict);
+
+		var tmp = Files.createTempFile("cedar", "bin");
+		cedar.serialize(tmp);
+
+		for (var i = 0; i < dict.length; i += 2) {
+			assertEquals(i, cedar.erase(dict[i]));
+		}
+		cedar.close();
+
+		cedar = deserialize(tmp, true);
+		cedar.inPlace();
+		assertAll(cedar, dict);
+		cedar.update(dict[0] + dict[1], 7);
+		assertEquals(7, cedar.get(dict[0] + dict[1]));
+		cedar.close();
+	}
+}
@@ -0,0 +1,123 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.randomAlpha;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+public class CedarMapTests extends BaseCedarTests {
+
+	<V> CedarMap<V> instantiateMap() {
+		return new CedarMap<>(reduced);
+	}
+
+	@Test
+	public void test_map_basics() {
+		CedarMap<Object> map = instantiateMap();
+
+		assertNull(map.put("a", "A"));
+		assertNull(map.put("ab", 1));
+		assertNull(map.put("网球", null));
+		assertEquals(3, map.size());
+
+		assertEquals("A", map.get("a"));
+		assertEquals(1, map.get("ab".getBytes(StandardCharsets.UTF_8)));
+		assertNull(map.get("网球"));
+		assertTrue(map.containsKey("网球"));
+		assertFalse(map.containsKey("abc"));
+		assertFalse(map.containsKey(1));
+		assertNull(map.get(1));
+
+		assertEquals(1, map.put("ab", 2));
+		assertEquals(3, map.size());
+
+		var expected = new HashMap<String, Object>();
+		expected.put("a", "A");
+		expected.put("ab", 2);
+		expected.put("网球", null);
+		assertEquals(expected, map);
+		assertEquals(map, expected);
+		assertEquals(expected.hashCode(), map.hashCode());
+
+		assertArrayEquals(new String[]{ "a", "ab", "网球" }, map.keySet().stream().sorted().toArray(String[]::new));
+
+		for (var e : map.entrySet()) {
+			if (e.getKey().equals("a")) {
+				e.setValue("B");
+			}
+		}
+		assertEquals("B", map.get("a"));
+
+		assertEquals("B", map.remove("a"));
+		assertNull(map.remove("a"));
+		assertEquals(2, map.size());
+
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertNull(map.get("ab"));
+		map.put("x", "X");
+		assertEquals(Map.of("x", "X"), map);
+
+		map.close();
+	}
+
+	@Test
+	public void test_map_free_list() {
+		CedarMap<Integer> map = instantiateMap();
+		var rng = ThreadLocalRandom.current();
+		var keys = new String[5000];
+		for (var i = 0; i < keys.length; i++) {
+			do {
+				keys[i] = randomAlpha(rng, 4 + rng.nextInt(12));
+			} while (map.put(keys[i], i) != null);
+		}
+
+		var slots = map.next;
+		for (var round = 0; round < 5; round++) {
+			for (var i = round & 1; i < keys.length; i += 2) {
+				assertEquals(Integer.valueOf(i), map.remove(keys[i]));
+			}
+			for (var i = round & 1; i < keys.length; i += 2) {
+				assertNull(map.put(keys[i], i));
+			}
+		}
+
+		// erased slots were reused, the table didn't grow
+		assertEquals(slots, map.next);
+		assertEquals(keys.length, map.size());
+		for (var i = 0; i < keys.length; i++) {
+			assertEquals(Integer.valueOf(i), map.get(keys[i]));
+		}
+
+		map.close();
+	}
+
+	@Test
+	public void test_map_random_ops() {
+		CedarMap<Integer> map = instantiateMap();
+		var expected = new HashMap<String, Integer>();
+		var rng = ThreadLocalRandom.current();
+
+		for (var i = 0; i < 100000; i++) {
+			var key = randomAlpha(rng, 1 + rng.nextInt(4));
+			switch (rng.nextInt(3)) {
+			case 0 -> assertEquals(expected.put(key, i), map.put(key, i));
+			case 1 -> assertEquals(expected.remove(key), map.remove(key));
+			default -> assertEquals(expected.get(key), map.get(key));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+
+		assertEquals(expected, map);
+		map.close();
+	}
+}
@@ -0,0 +1,97 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.assertAll;
+import static com.nc.cedar.CedarTestSupport.dict;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class CedarReadOnlyTests extends BaseCedarTests {
+
+	static void assertUnsupported(Runnable r) {
+		try {
+			r.run();
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	BaseCedar deserializeReadOnly(Path tmp) {
+		return reduced ? ReducedCedar.deserializeReadOnly(tmp) : Cedar.deserializeReadOnly(tmp);
+	}
+
+	@Test
+	public void test_read_only_image() throws IOException {
+		var dict = dict(50000, 12);
+		var cedar = instantiate();
+		cedar.build(dict);
+
+		var full = Files.createTempFile("cedar", "bin");
+		var lookup = Files.createTempFile("cedar", "bin");
+		var predict = Files.createTempFile("cedar", "bin");
+		cedar.serialize(full);
+		cedar.serializeReadOnly(lookup, false);
+		cedar.serializeReadOnly(predict, true);
+		cedar.close();
+
+		log("Image sizes (reduced: %s): full: %d, lookup: %d, predict: %d", reduced, Files.size(full), Files.size(lookup), Files.size(predict));
+		assertTrue(Files.size(lookup) < Files.size(full) * 0.8);
+		assertTrue(Files.size(predict) < Files.size(full));
+
+		var expected = dict.clone();
+		Arrays.sort(expected);
+
+		for (var tmp : new Path[]{ full, lookup, predict }) {
+			var c = deserializeReadOnly(tmp);
+			assertAll(c, dict);
+			assertEquals(dict[0], c.suffix(c.match(dict[0])));
+
+			if (tmp != lookup) {
+				assertArrayEquals(expected, c.predict("").map(c::suffix).sorted().toArray(String[]::new));
+			} else {
+				assertUnsupported(() -> c.predict(""));
+			}
+
+			assertUnsupported(() -> c.update("foo", 1));
+			assertUnsupported(() -> c.erase(dict[0]));
+			assertUnsupported(c::compact);
+			c.close();
+		}
+
+		// regular deserialization of a lookup-only image is lookup-only as well
+		for (var copy : new boolean[]{ true, false }) {
+			var c = deserialize(lookup, copy);
+			assertAll(c, dict);
+			assertUnsupported(() -> c.update("foo", 1));
+			c.close();
+		}
+	}
+
+	@Test
+	public void test_read_only_keeps_filter_and_alphabet() throws IOException {
+		var dict = dict(10000, 8);
+		var cedar = instantiate();
+		cedar.remap(dict);
+		cedar.build(dict);
+		cedar.enableFilter(0);
+
+		var tmp = Files.createTempFile("cedar", "bin");
+		cedar.serializeReadOnly(tmp, false);
+		cedar.close();
+
+		var c = deserializeReadOnly(tmp);
+		assertTrue(c.filter != null && c.decode != null);
+		assertAll(c, dict);
+		assertTrue((c.get("not-there") & BaseCedar.ABSENT_OR_NO_VALUE) != 0);
+		c.close();
+	}
+}
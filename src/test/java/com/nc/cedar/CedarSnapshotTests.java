@@ -0,0 +1,102 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.dict;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+public class CedarSnapshotTests extends BaseCedarTests {
+
+	static long[] values(BaseCedar cedar, String[] dict) {
+		var rv = new long[dict.length];
+		for (var i = 0; i < dict.length; i++) {
+			rv[i] = cedar.get(dict[i]);
+		}
+		return rv;
+	}
+
+	void assertImage(Path image, String[] dict, long[] expected) {
+		var copy = deserialize(image, true);
+		var keys = 0;
+		for (var i = 0; i < dict.length; i++) {
+			assertEquals(expected[i], copy.get(dict[i]));
+			keys += (expected[i] & BaseCedar.ABSENT_OR_NO_VALUE) == 0 ? 1 : 0;
+		}
+		assertEquals(keys, copy.predict("").count());
+		copy.close();
+	}
+
+	@Test
+	public void test_snapshot_survives_compact() throws Exception {
+		var dict = dict(100000);
+		var image = Files.createTempFile("cedar", "bin");
+
+		var cedar = instantiate();
+		for (var i = 0; i < dict.length; i++) {
+			cedar.update(dict[i], i);
+		}
+		for (var i = 0; i < dict.length; i += 2) {
+			cedar.erase(dict[i]);
+		}
+		var expected = values(cedar, dict);
+
+		var snapshot = cedar.snapshotAsync(image);
+		// releases every buffer the snapshot is reading
+		cedar.compact();
+		for (var i = 1; i < dict.length; i += 2) {
+			cedar.update(dict[i], 0);
+		}
+		assertEquals(image, snapshot.get());
+
+		assertImage(image, dict, expected);
+
+		cedar.close();
+		Files.delete(image);
+	}
+
+	@Test
+	public void test_snapshot_while_updating() throws Exception {
+		var dict = dict(200000);
+		var half = dict.length / 2;
+		var image = Files.createTempFile("cedar", "bin");
+
+		var cedar = instantiate();
+		cedar.enableFilter(0);
+		for (var i = 0; i < half; i++) {
+			cedar.update(dict[i], i);
+		}
+		var expected = values(cedar, dict);
+
+		var t0 = System.nanoTime();
+		var snapshot = cedar.snapshotAsync(image);
+		var t1 = System.nanoTime();
+
+		// overwrites, erasures and growth while the snapshot runs
+		for (var i = 0; i < half; i++) {
+			cedar.update(dict[i], i + 1);
+		}
+		for (var i = half; i < dict.length; i++) {
+			cedar.update(dict[i], i);
+		}
+		for (var i = 0; i < 1000; i++) {
+			cedar.erase(dict[i]);
+		}
+		var t2 = System.nanoTime();
+
+		assertEquals(image, snapshot.get());
+		log("Snapshot (reduced: %s): mark: %dus, updates: %dms, done: %dms", reduced, (t1 - t0) / 1000, toMillis(t2 - t1), toMillis(System.nanoTime() - t1));
+
+		assertImage(image, dict, expected);
+
+		// the next one sees the updates
+		expected = values(cedar, dict);
+		cedar.snapshotAsync(image).get();
+		assertImage(image, dict, expected);
+
+		cedar.close();
+		Files.delete(image);
+	}
+}
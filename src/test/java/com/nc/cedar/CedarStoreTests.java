@@ -0,0 +1,184 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.assertAll;
+import static com.nc.cedar.CedarTestSupport.dict;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+public class CedarStoreTests extends BaseCedarTests {
+
+	static Path tmp() throws IOException {
+		var tmp = Files.createTempFile("cedar", "store");
+		tmp.toFile().deleteOnExit();
+		return tmp;
+	}
+
+	@Test
+	public void test_store_checkpoint_writes_dirty_pages() throws IOException {
+		var dict = dict(300000, 10);
+		var half = dict.length / 2;
+		var file = tmp();
+
+		var cedar = instantiate();
+		for (var i = 0; i < half; i++) {
+			cedar.update(dict[i], i);
+		}
+		cedar.enableFilter(0);
+
+		var full = cedar.checkpoint(file);
+		assertTrue(full >= cedar.array.byteSize() + cedar.infos.byteSize());
+
+		// a few updates only touch a few pages
+		for (var i = 0; i < 100; i++) {
+			cedar.update(dict[i], dict.length + i);
+		}
+		for (var i = half; i < half + 100; i++) {
+			cedar.update(dict[i], i);
+		}
+		var partial = cedar.checkpoint(file);
+		log("Checkpoint (reduced: %s): full: %d, 200 updates: %d", reduced, full, partial);
+		assertTrue(partial * 10 < full);
+
+		var other = open(file);
+		for (var i = 0; i < 100; i++) {
+			assertEquals(dict.length + i, other.get(dict[i]));
+		}
+		assertAll(other, dict, 100, half + 100);
+		other.close();
+
+		// growth extends the regions, and only the touched pages and what was added are written
+		for (var i = half + 100; i < dict.length; i++) {
+			cedar.update(dict[i], i);
+		}
+		var touched = cedar.pending();
+		assertTrue(touched < cedar.footprint() + cedar.filter.byteSize());
+		assertEquals(touched, cedar.checkpoint(file));
+
+		other = open(file);
+		assertAll(other, dict, 100, dict.length);
+		assertEquals(cedar.predict("").count(), other.predict("").count());
+		other.close();
+
+		// compact replaces the buffers, which are then written as a whole
+		cedar.compact();
+		assertTrue(cedar.checkpoint(file) >= cedar.array.byteSize());
+		other = open(file);
+		assertAll(other, dict, 100, dict.length);
+		other.close();
+
+		cedar.close();
+	}
+
+	@Test
+	public void test_store_checkpoint_journal() throws IOException {
+		var dict = dict(50000, 10);
+		var file = tmp();
+		var journal = CheckpointJournal.of(file);
+		journal.toFile().deleteOnExit();
+
+		var cedar = instantiate();
+		for (var i = 0; i < 1000; i++) {
+			cedar.update(dict[i], i);
+		}
+		cedar.checkpoint(file);
+		assertTrue(Files.notExists(journal));
+
+		// dies after sealing the journal: opening applies it
+		for (var i = 1000; i < 2000; i++) {
+			cedar.update(dict[i], i);
+		}
+		try (var j = new CheckpointJournal(file)) {
+			cedar.checkpoint(j::write);
+			j.write(0, cedar.checkpointHeader());
+			j.seal();
+		}
+		var other = open(file);
+		assertTrue(Files.notExists(journal));
+		assertAll(other, dict, 0, 2000);
+		other.close();
+
+		// dies while writing it: the store is untouched and the journal dropped
+		for (var i = 2000; i < dict.length; i++) {
+			cedar.update(dict[i], i);
+		}
+		try (var j = new CheckpointJournal(file)) {
+			cedar.checkpoint(j::write);
+			j.write(0, cedar.checkpointHeader());
+		}
+		other = open(file);
+		assertTrue(Files.notExists(journal));
+		assertAll(other, dict, 0, 2000);
+		assertEquals(2000, other.predict("").count());
+		other.close();
+
+		cedar.close();
+	}
+
+	@Test
+	public void test_store_grows_and_reopens() throws IOException {
+		var dict = dict(60000, 10);
+		var half = dict.length / 2;
+		var file = tmp();
+
+		var cedar = open(file);
+		for (var i = 0; i < half; i++) {
+			cedar.update(dict[i], i);
+		}
+		var size = cedar.array.byteSize();
+		cedar.close();
+
+		cedar = open(file);
+		assertEquals(size, cedar.array.byteSize());
+		assertAll(cedar, dict, 0, half);
+
+		// growing remaps the regions
+		for (var i = half; i < dict.length; i++) {
+			cedar.update(dict[i], i);
+		}
+		assertTrue(cedar.array.byteSize() > size);
+		assertEquals(half, cedar.erase(dict[half]));
+		cedar.sync();
+
+		// the file is the image, no close required
+		var other = open(file);
+		assertTrue((other.get(dict[half]) & BaseCedar.ABSENT_OR_NO_VALUE) != 0);
+		assertAll(other, dict, half + 1, dict.length);
+		assertAll(other, dict, 0, half);
+		other.close();
+		cedar.close();
+	}
+
+	@Test
+	public void test_store_persist_existing() throws IOException {
+		var dict = dict(20000, 12);
+		var cedar = instantiate();
+		cedar.build(dict);
+		cedar.enableFilter(0);
+
+		var file = tmp();
+		cedar.persist(file);
+		assertAll(cedar, dict, 0, dict.length);
+
+		cedar.update("persisted", 7);
+		cedar.close();
+
+		cedar = open(file);
+		assertNotNull(cedar.filter);
+		assertAll(cedar, dict, 0, dict.length);
+		assertEquals(7, cedar.get("persisted"));
+		assertEquals(dict.length + 1, cedar.predict("").count());
+		cedar.close();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void test_store_sync_requires_persist() {
+		instantiate().sync();
+	}
+}
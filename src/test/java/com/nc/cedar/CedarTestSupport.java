@@ -1,9 +1,12 @@
 package com.nc.cedar;
 
+import static org.junit.Assert.assertEquals;
+
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -36,6 +39,51 @@ public interface CedarTestSupport {
 		return new String(chars);
 	}
 
+	static String[] dict(int max, int len) {
+		var rng = ThreadLocalRandom.current();
+		var seen = new HashSet<String>();
+		while (seen.size() < max) {
+			seen.add(randomAlpha(rng, len));
+		}
+		return seen.toArray(String[]::new);
+	}
+
+	static String[] dict(int max) {
+		var rng = ThreadLocalRandom.current();
+		var seen = new HashSet<String>();
+		while (seen.size() < max) {
+			seen.add(randomAlpha(rng, 1 + rng.nextInt(16)));
+		}
+		return seen.toArray(String[]::new);
+	}
+
+	static void assertAll(BaseCedar cedar, String[] dict) {
+		assertAll(cedar, dict, 0, dict.length);
+	}
+
+	static void assertAll(BaseCedar cedar, String[] dict, int from, int to) {
+		for (var i = from; i < to; i++) {
+			assertEquals(i, cedar.get(dict[i]));
+			assertEquals(i, cedar.match(dict[i]).value());
+		}
+	}
+
+	static void assertAll(StaticCedar c, String[] dict) {
+		assertEquals(dict.length, c.size());
+		for (var i = 0; i < dict.length; i++) {
+			assertEquals(i, c.get(dict[i]));
+			assertEquals(i, c.match(dict[i]).value());
+		}
+	}
+
+	static void assertAll(LoudsCedar c, String[] dict) {
+		assertEquals(dict.length, c.size());
+		for (var i = 0; i < dict.length; i++) {
+			assertEquals(i, c.get(dict[i]));
+			assertEquals(i, c.match(dict[i]).value());
+		}
+	}
+
 	static Map<String, Integer> toMap(Collection<String> c) {
 		var rv = new LinkedHashMap<String, Integer>();
 		for (var string : c) {
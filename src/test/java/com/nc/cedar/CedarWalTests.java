@@ -0,0 +1,147 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.dict;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class CedarWalTests extends BaseCedarTests {
+
+	static void awaitCommits(WriteAheadLog wal, long commits) throws InterruptedException {
+		for (var i = 0; i < 200 && wal.commits() < commits; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(commits, wal.commits());
+	}
+
+	@Test
+	public void test_wal_group_commit() throws IOException, InterruptedException {
+		var log = Files.createTempFile("cedar", "wal");
+
+		var wal = WriteAheadLog.open(log, 0, 100);
+		var cedar = instantiate();
+		assertEquals(0, cedar.wal(wal));
+
+		for (var i = 0; i < 99; i++) {
+			cedar.update("k" + i, i);
+		}
+		Thread.sleep(50);
+		assertEquals(0, wal.commits());
+		assertEquals(0, Files.size(log));
+
+		cedar.update("k99", 99);
+		awaitCommits(wal, 1);
+		assertTrue(Files.size(log) > 100 * WriteAheadLog.RECORD);
+		wal.close();
+		cedar.close();
+
+		Files.delete(log);
+		wal = WriteAheadLog.open(log, 20, 0);
+		cedar = instantiate();
+		cedar.wal(wal);
+
+		for (var i = 0; i < 10; i++) {
+			cedar.update("k" + i, i);
+		}
+		awaitCommits(wal, 1);
+
+		wal.close();
+		cedar.close();
+		Files.delete(log);
+	}
+
+	@Test
+	public void test_wal_replay_and_truncate() throws IOException {
+		var dict = dict(20000);
+		var image = Files.createTempFile("cedar", "bin");
+		var log = Files.createTempFile("cedar", "wal");
+
+		var cedar = instantiate();
+		var wal = WriteAheadLog.open(log);
+		assertEquals(0, cedar.wal(wal));
+
+		for (var i = 0; i < dict.length / 2; i++) {
+			cedar.update(dict[i], i);
+		}
+		cedar.serialize(image);
+		assertEquals(0, Files.size(log));
+		// written next to the image and moved over it
+		try (var ls = Files.list(image.getParent())) {
+			assertEquals(0, ls.filter(p -> p.getFileName().toString().startsWith(image.getFileName() + "") && p.toString().endsWith(".tmp")).count());
+		}
+
+		for (var i = dict.length / 2; i < dict.length; i++) {
+			cedar.update(dict[i], i);
+		}
+		for (var i = 0; i < 1000; i++) {
+			cedar.erase(dict[i]);
+		}
+		// absent keys are not logged
+		cedar.erase("not there");
+		wal.sync();
+		wal.close();
+
+		var recovered = deserialize(image, true);
+		var other = WriteAheadLog.open(log);
+		assertEquals(dict.length - dict.length / 2 + 1000, recovered.wal(other));
+
+		for (var key : dict) {
+			assertEquals(cedar.get(key), recovered.get(key));
+		}
+		assertEquals(cedar.predict("").count(), recovered.predict("").count());
+
+		recovered.update("after", 1);
+		recovered.serialize(image);
+		assertEquals(0, Files.size(log));
+
+		other.close();
+		recovered.close();
+		cedar.close();
+		Files.delete(image);
+		Files.delete(log);
+	}
+
+	@Test
+	public void test_wal_torn_batch() throws IOException {
+		var log = Files.createTempFile("cedar", "wal");
+		var cedar = instantiate();
+		// commits only on sync and close, so the b's are a single batch
+		var wal = WriteAheadLog.open(log, 0, Integer.MAX_VALUE);
+		cedar.wal(wal);
+
+		for (var i = 0; i < 100; i++) {
+			cedar.update("a" + i, i);
+		}
+		wal.sync();
+		var intact = Files.size(log);
+
+		for (var i = 0; i < 100; i++) {
+			cedar.update("b" + i, i);
+		}
+		wal.close();
+
+		try (var raf = new RandomAccessFile(log.toFile(), "rw")) {
+			raf.seek(raf.length() - 1);
+			var last = raf.read();
+			raf.seek(raf.length() - 1);
+			raf.write(last ^ 0xFF);
+		}
+
+		var recovered = instantiate();
+		var other = WriteAheadLog.open(log);
+		assertEquals(100, recovered.wal(other));
+		assertEquals(intact, Files.size(log));
+		assertEquals(99, recovered.get("a99"));
+		assertEquals(BaseCedar.ABSENT, recovered.get("b0"));
+
+		other.close();
+		recovered.close();
+		cedar.close();
+		Files.delete(log);
+	}
+}
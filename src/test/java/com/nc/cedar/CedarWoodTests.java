@@ -26,8 +26,6 @@ public class CedarWoodTests extends BaseCedarTests {
 
 	@Test
 	public void test_common_prefix_iter() {
-		unsupportedInReduced();
-
 		var dict = vec("a", "ab", "abc", "アルゴリズム", "データ", "構造", "网", "网球", "网球拍", "中", "中华", "中华人民", "中华人民共和国");
 
 		var key_values = toMap(dict);
@@ -65,8 +63,6 @@ public class CedarWoodTests extends BaseCedarTests {
 
 	@Test
 	public void test_common_prefix_search() {
-		unsupportedInReduced();
-
 		var dict = vec("a", //
 				"ab", //
 				"abc", //
@@ -102,8 +98,6 @@ public class CedarWoodTests extends BaseCedarTests {
 
 	@Test
 	public void test_duplication() {
-		unsupportedInReduced();
-
 		var cedar = instantiate();
 
 		var dict = vec("些许端", "些須", "些须", "亜", "亝", "亞", "亞", "亞丁", "亞丁港");
@@ -254,8 +248,6 @@ public class CedarWoodTests extends BaseCedarTests {
 
 	@Test
 	public void test_unicode_grapheme_cluster() {
-		unsupportedInReduced();
-
 		var dict = vec("a", "abc", "abcde\u0301");
 
 		var key_values = toMap(dict);
@@ -269,7 +261,6 @@ public class CedarWoodTests extends BaseCedarTests {
 
 	@Test
 	public void test_unicode_han_sip() {
-		unsupportedInReduced();
 		var dict = vec("讥䶯䶰", "讥䶯䶰䶱䶲", "讥䶯䶰䶱䶲䶳䶴䶵𦡦");
 
 		var key_values = toMap(dict);
@@ -315,7 +306,6 @@ public class CedarWoodTests extends BaseCedarTests {
 		cedar = instantiate();
 		cedar.build(key_values);
 
-		unsupportedInReduced();
 		cedar.update("中", 1);
 		cedar.update("中华", 2);
 		cedar.update("中华人民", 3);
@@ -0,0 +1,45 @@
+package com.nc.cedar;
+
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+/**
+ * Manual benchmark comparing flat and chunked buffers: it asserts nothing about performance and a
+ * run only measures the layout the JVM was started with, since {@link CedarBuffer#CHUNKED} is
+ * fixed at class load. Run it once as is and once with -DCedar.CHUNKED=true, then compare the
+ * logged lookup latency (ns/op) and the worst update stall, which for flat buffers is dominated by
+ * the copy on growth.
+ */
+public class HugeChunkedPerfTests extends BaseHugeCedarTests {
+
+	private static final int STEP = 10_000_000;
+
+	private static final int MAX = 50_000_000;
+
+	@Test
+	public void run() {
+		assumeEnoughMemory();
+
+		for (var keys = STEP; keys <= MAX; keys += STEP) {
+			var cedar = instantiate();
+			resetCounters();
+
+			var stall = new long[1];
+			IntStream.range(0, keys).forEach(v -> {
+				var key = str(v);
+				var now = System.nanoTime();
+				cedar.update(key, v);
+				var elapsed = System.nanoTime() - now;
+				store += elapsed;
+				stall[0] = Math.max(stall[0], elapsed);
+			});
+
+			log("Layout: %s, keys: %d, worst update: %dms, store: %dms", CedarBuffer.CHUNKED ? "chunked" : "flat", keys, toMillis(stall[0]), toMillis(store));
+
+			loop(cedar, keys);
+
+			cedar.close();
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package com.nc.cedar;
+
+import org.junit.After;
+
+/**
+ * Manual benchmark: it asserts nothing about performance and a run only measures the page size
+ * the JVM was started with, since {@link CedarBuffer#HUGE_PAGES} is fixed at class load. Same as
+ * {@link HugeDistinctPerfTests}, run it once as is and once with -DCedar.HUGE_PAGES=true (Linux,
+ * /sys/kernel/mm/transparent_hugepage/enabled set to madvise or always), then compare the logged
+ * lookup latency (ns/op). With 4KB pages, the ~1GB of nodes built from the distinct dataset need
+ * far more TLB entries than the CPU has, so most lookups pay for page walks, which 2MB pages
+ * mostly avoid.
+ */
+public class HugePagesPerfTests extends HugeDistinctPerfTests {
+
+	@Override
+	@After
+	public void teardown() {
+		log("Huge pages: %s, granted: %dMB of %dMB", CedarBuffer.HUGE_PAGES, cedar.hugePageBytes() >> 20, (cedar.array.byteSize() + cedar.infos.byteSize()) >> 20);
+		super.teardown();
+	}
+}
@@ -0,0 +1,145 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.assertAll;
+import static com.nc.cedar.CedarTestSupport.dict;
+import static com.nc.cedar.CedarTestSupport.randomAlpha;
+import static com.nc.cedar.CedarTestSupport.vec;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+public class LoudsCedarTests extends BaseCedarTests {
+
+	static void assertSameKeys(BaseCedar src, LoudsCedar c, String prefix) {
+		var expected = src.predict(prefix).map(m -> prefix + src.suffix(m)).sorted().toArray(String[]::new);
+		var keys = c.keys(prefix).toArray(String[]::new);
+		assertArrayEquals(expected, keys);
+		assertEquals(expected.length, c.predict(prefix).count());
+	}
+
+	@Test
+	public void test_louds_common_prefix_and_predict() {
+		var dict = vec("a", "ab", "abc", "abcdef", "b", "bcd", "アルゴリズム", "网", "网球", "网球拍");
+		var cedar = instantiate();
+		cedar.build(dict);
+
+		var c = LoudsCedar.of(cedar);
+		var s = StaticCedar.of(cedar);
+
+		for (var q : vec("abcdefg", "abx", "bcde", "网球拍卖会", "x")) {
+			assertArrayEquals(s.withCommonPrefix(q).mapToInt(Match::value).toArray(), c.withCommonPrefix(q).mapToInt(Match::value).toArray());
+			assertArrayEquals(s.withCommonPrefix(q).mapToInt(Match::length).toArray(), c.withCommonPrefix(q).mapToInt(Match::length).toArray());
+		}
+
+		assertArrayEquals(vec(0, 1, 2, 3), c.predict("a").mapToInt(Match::value).toArray());
+		assertArrayEquals(vec(0, 1, 2, 5), c.predict("a").mapToInt(Match::length).toArray());
+		assertArrayEquals(vec("网", "网球", "网球拍"), c.keys("网").toArray(String[]::new));
+		assertEquals(0, c.predict("abd").count());
+
+		assertEquals(BaseCedar.NO_VALUE, c.get("abcd"));
+		assertEquals(BaseCedar.ABSENT, c.get("abd"));
+		assertNull(c.match("abcd"));
+
+		s.close();
+		c.close();
+		cedar.close();
+	}
+
+	@Test
+	public void test_louds_empty_and_negative() {
+		var cedar = new Cedar();
+		var c = LoudsCedar.of(cedar);
+		assertEquals(0, c.size());
+		assertEquals(BaseCedar.NO_VALUE, c.get(""));
+		assertEquals(BaseCedar.ABSENT, c.get("a"));
+		assertEquals(0, c.keys().count());
+		c.close();
+
+		cedar.update("neg", -5);
+		cedar.update("max", Integer.MAX_VALUE - 1);
+		cedar.update("zero", 0);
+		c = LoudsCedar.of(cedar);
+		assertEquals(-5, c.get("neg"));
+		assertEquals(Integer.MAX_VALUE - 1, c.get("max"));
+		assertEquals(0, c.get("zero"));
+		assertEquals(32, c.width);
+		c.close();
+		cedar.close();
+	}
+
+	@Test
+	public void test_louds_footprint_and_lookups() {
+		var dict = dict(100000);
+		var cedar = instantiate();
+		cedar.build(dict);
+
+		var c = LoudsCedar.of(cedar);
+		var s = StaticCedar.of(cedar);
+		var before = cedar.array.byteSize() + cedar.infos.byteSize();
+		log("Bytes (reduced: %s): nodes+infos: %d, static: %d, louds: %d", reduced, before, s.byteSize(), c.byteSize());
+		assertTrue(c.byteSize() * 6 < before);
+		assertTrue(c.byteSize() * 2 < s.byteSize());
+
+		assertAll(c, dict);
+
+		var rng = ThreadLocalRandom.current();
+		for (var i = 0; i < 100000; i++) {
+			var probe = randomAlpha(rng, 1 + rng.nextInt(8));
+			assertEquals(cedar.get(probe), c.get(probe));
+		}
+
+		for (var prefix : vec("", "a", "ab", "zz", dict[0])) {
+			assertSameKeys(cedar, c, prefix);
+			assertArrayEquals(s.predict(prefix).mapToInt(Match::value).toArray(), c.predict(prefix).mapToInt(Match::value).toArray());
+		}
+
+		var t0 = System.nanoTime();
+		for (var key : dict) {
+			s.get(key);
+		}
+		var t1 = System.nanoTime();
+		for (var key : dict) {
+			c.get(key);
+		}
+		var t2 = System.nanoTime();
+		log("Lookups: static: %dms, louds: %dms", toMillis(t1 - t0), toMillis(t2 - t1));
+
+		s.close();
+		c.close();
+		cedar.close();
+	}
+
+	@Test
+	public void test_louds_serialization() throws IOException {
+		var dict = dict(20000);
+		var cedar = instantiate();
+		cedar.build(dict);
+
+		var c = LoudsCedar.of(cedar);
+		var tmp = Files.createTempFile("cedar", "bin");
+		c.serialize(tmp);
+		assertEquals(c.imageSize(), Files.size(tmp));
+		c.close();
+
+		var sorted = dict.clone();
+		Arrays.sort(sorted);
+
+		for (var copy : new boolean[]{ true, false }) {
+			var l = LoudsCedar.deserialize(tmp, copy);
+			assertAll(l, dict);
+			assertArrayEquals(sorted, l.keys().toArray(String[]::new));
+			l.close();
+		}
+
+		Files.delete(tmp);
+		cedar.close();
+	}
+}
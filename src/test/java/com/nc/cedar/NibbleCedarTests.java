@@ -0,0 +1,152 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.assertAll;
+import static com.nc.cedar.CedarTestSupport.vec;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Runs the cedarwood suite against {@link NibbleCedar}, plus a few checks tailored to
+ * high-entropy keys.
+ *
+ * @author cmuramoto
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class NibbleCedarTests extends CedarWoodTests {
+
+	@Parameters(name = "reduced={0}")
+	public static Collection<Object[]> parameters() {
+		return List.<Object[]>of(new Object[]{ false });
+	}
+
+	static String[] uuids(int max) {
+		return IntStream.range(0, max).mapToObj(__ -> UUID.randomUUID().toString()).distinct().toArray(String[]::new);
+	}
+
+	@Override
+	BaseCedar deserialize(Path tmp, boolean copy) {
+		return NibbleCedar.deserialize(tmp, copy);
+	}
+
+	@Override
+	BaseCedar instantiate() {
+		return new NibbleCedar();
+	}
+
+	@Override
+	BaseCedar open(Path file) {
+		return NibbleCedar.open(file);
+	}
+
+	@Test
+	public void test_nibble_compact() {
+		var dict = uuids(20000);
+		var cedar = instantiate();
+		cedar.build(dict);
+
+		for (var i = 1; i < dict.length; i += 2) {
+			assertEquals(i, cedar.erase(dict[i]));
+		}
+
+		var before = cedar.array.byteSize();
+		cedar.compact();
+		assertTrue(cedar.array.byteSize() < before);
+
+		for (var i = 0; i < dict.length; i += 2) {
+			assertEquals(i, cedar.get(dict[i]));
+			assertTrue((BaseCedar.ABSENT_OR_NO_VALUE & cedar.get(dict[i + 1])) != 0);
+		}
+		cedar.close();
+	}
+
+	@Test
+	public void test_nibble_density() {
+		var dict = uuids(50000);
+
+		var plain = new Cedar();
+		plain.build(dict);
+
+		var nibble = instantiate();
+		nibble.build(dict);
+
+		log("Nodes: cedar: %d (%d bytes), nibble: %d (%d bytes)", plain.size, plain.array.byteSize(), nibble.size, nibble.array.byteSize());
+
+		assertAll(plain, dict);
+		assertAll(nibble, dict);
+
+		plain.close();
+		nibble.close();
+	}
+
+	@Test
+	public void test_nibble_mass_erase() {
+		var dict = uuids(10000);
+		var cedar = instantiate();
+		cedar.build(dict);
+
+		for (var i = 0; i < dict.length; i++) {
+			assertEquals(i, cedar.erase(dict[i]));
+			assertTrue((BaseCedar.ABSENT_OR_NO_VALUE & cedar.get(dict[i])) != 0);
+		}
+
+		assertEquals(0, cedar.predict("").count());
+	}
+
+	@Test
+	public void test_nibble_reconstruct_and_scan() {
+		var cedar = instantiate();
+		var dict = vec("banana", "barata", "bacanal", "bacalhau", "mustnotmatch_ba");
+		cedar.build(dict);
+
+		var keys = cedar.predict("ba").map(m -> "ba" + cedar.suffix(m)).sorted().toArray(String[]::new);
+		assertArrayEquals(vec("bacalhau", "bacanal", "banana", "barata"), keys);
+
+		cedar.update("fo", 5);
+		cedar.update("foo", 6);
+
+		var values = cedar.scan("foo foo").mapToInt(TextMatch::value).toArray();
+		assertArrayEquals(vec(5, 6, 5, 6), values);
+
+		var ends = cedar.scan("foo foo").mapToInt(TextMatch::end).toArray();
+		assertArrayEquals(vec(2, 3, 6, 7), ends);
+	}
+
+	@Test
+	public void test_nibble_serialization() throws IOException {
+		var dict = uuids(5000);
+		var cedar = instantiate();
+		cedar.build(dict);
+
+		var tmp = Files.createTempFile("cedar", "bin");
+		cedar.serialize(tmp);
+		cedar.close();
+
+		var sorted = dict.clone();
+		Arrays.sort(sorted);
+
+		for (var copy : new boolean[]{ true, false }) {
+			var c = deserialize(tmp, copy);
+			assertAll(c, dict);
+			assertArrayEquals(sorted, c.predict("").map(c::suffix).sorted().toArray(String[]::new));
+
+			c.update("not-a-uuid", -1);
+			assertEquals(-1, c.get("not-a-uuid"));
+			c.close();
+		}
+	}
+}
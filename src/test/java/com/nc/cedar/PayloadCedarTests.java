@@ -0,0 +1,157 @@
+package com.nc.cedar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class PayloadCedarTests extends BaseCedarTests {
+
+	static byte[] payload(String key, int version) {
+		return (key + "#" + version + "#" + "x".repeat(key.length() % 13)).getBytes(StandardCharsets.UTF_8);
+	}
+
+	PayloadCedar instantiatePayloads() {
+		return new PayloadCedar(reduced);
+	}
+
+	@Test
+	public void test_payload_compaction() {
+		var keys = IntStream.range(0, 5000).mapToObj(__ -> UUID.randomUUID().toString()).distinct().toArray(String[]::new);
+		var c = instantiatePayloads();
+
+		for (var version = 0; version < 10; version++) {
+			for (var key : keys) {
+				c.put(key, payload(key, version));
+			}
+		}
+		for (var i = 0; i < keys.length; i += 2) {
+			assertTrue(c.remove(keys[i]));
+			assertFalse(c.remove(keys[i]));
+		}
+
+		// growth compacted the arena at least once, so it holds far less than the 10 versions
+		var live = 0L;
+		for (var i = 1; i < keys.length; i += 2) {
+			live += 8 + ((payload(keys[i], 9).length + 7) & ~7);
+		}
+		assertTrue(c.arenaSize() < 10 * live);
+
+		c.compact();
+		assertEquals(0, c.deadBytes());
+		assertEquals(keys.length / 2, c.size());
+
+		for (var i = 0; i < keys.length; i++) {
+			var p = c.getPayload(keys[i]);
+			if ((i & 1) == 0) {
+				assertNull(p);
+			} else {
+				assertArrayEquals(payload(keys[i], 9), p.toByteArray());
+			}
+		}
+
+		c.close();
+	}
+
+	@Test
+	public void test_payload_manual_compaction() {
+		var keys = IntStream.range(0, 2000).mapToObj(__ -> UUID.randomUUID().toString()).distinct().toArray(String[]::new);
+		var c = instantiatePayloads();
+		assertTrue(c.autoCompact());
+		c.autoCompact(false);
+
+		var written = 0L;
+		for (var version = 0; version < 10; version++) {
+			for (var key : keys) {
+				c.put(key, payload(key, version));
+				written += 8 + ((payload(key, version).length + 7) & ~7);
+			}
+		}
+
+		// puts only grew the arena, every replaced record is still there
+		assertTrue(c.arenaSize() >= written);
+		assertEquals(written / 10 * 9, c.deadBytes());
+
+		c.compact();
+		assertEquals(0, c.deadBytes());
+		assertEquals(keys.length, c.size());
+		for (var key : keys) {
+			assertArrayEquals(payload(key, 9), c.getPayload(key).toByteArray());
+		}
+
+		c.close();
+	}
+
+	@Test
+	public void test_payload_put_get() {
+		var c = instantiatePayloads();
+
+		assertFalse(c.put("a", new byte[0]));
+		assertFalse(c.put("ab", "some payload".getBytes()));
+		assertFalse(c.put("网球", new byte[]{ 1, 2, 3 }));
+
+		assertEquals(0, c.getPayload("a").byteSize());
+		assertArrayEquals("some payload".getBytes(), c.getPayload("ab").toByteArray());
+		assertArrayEquals(new byte[]{ 1, 2, 3 }, c.getPayload("网球").toByteArray());
+		assertNull(c.getPayload("abc"));
+		assertNull(c.getPayload(""));
+		assertEquals(3, c.size());
+		assertEquals(0, c.deadBytes());
+
+		assertTrue(c.put("ab", "other".getBytes()));
+		assertArrayEquals("other".getBytes(), c.getPayload("ab").toByteArray());
+		assertEquals(3, c.size());
+		assertEquals(8 + 16, c.deadBytes());
+
+		// payloads are 8-byte aligned
+		assertEquals(0, c.getPayload("ab").address().toRawLongValue() & 7);
+
+		var predicted = c.predict("a").map(m -> new String(c.payload(m).toByteArray())).sorted().toArray(String[]::new);
+		assertArrayEquals(new String[]{ "", "other" }, predicted);
+
+		c.close();
+	}
+
+	@Test
+	public void test_payload_serialization() throws IOException {
+		var keys = IntStream.range(0, 20000).mapToObj(__ -> UUID.randomUUID().toString()).distinct().toArray(String[]::new);
+		var c = instantiatePayloads();
+
+		for (var key : keys) {
+			c.put(key, payload(key, 0));
+		}
+		c.put(keys[0], payload(keys[0], 1));
+		var dead = c.deadBytes();
+
+		var tmp = Files.createTempFile("cedar", "bin");
+		c.serialize(tmp);
+		assertEquals(c.imageSize(), Files.size(tmp));
+		c.close();
+
+		for (var copy : new boolean[]{ true, false }) {
+			var s = PayloadCedar.deserialize(tmp, copy);
+			assertEquals(reduced, s.isReduced());
+			assertEquals(keys.length, s.size());
+			assertEquals(dead, s.deadBytes());
+			assertArrayEquals(payload(keys[0], 1), s.getPayload(keys[0]).toByteArray());
+			for (var i = 1; i < keys.length; i++) {
+				assertArrayEquals(payload(keys[i], 0), s.getPayload(keys[i]).toByteArray());
+			}
+
+			s.compact();
+			s.put(keys[1], payload(keys[1], 2));
+			assertArrayEquals(payload(keys[1], 2), s.getPayload(keys[1]).toByteArray());
+			assertArrayEquals(payload(keys[2], 0), s.getPayload(keys[2]).toByteArray());
+			s.close();
+		}
+	}
+}
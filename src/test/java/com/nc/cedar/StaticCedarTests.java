@@ -0,0 +1,218 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.assertAll;
+import static com.nc.cedar.CedarTestSupport.dict;
+import static com.nc.cedar.CedarTestSupport.randomAlpha;
+import static com.nc.cedar.CedarTestSupport.vec;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+public class StaticCedarTests extends BaseCedarTests {
+
+	static void assertSameKeys(BaseCedar src, StaticCedar c, String prefix) {
+		var expected = src.predict(prefix).map(m -> prefix + src.suffix(m)).sorted().toArray(String[]::new);
+		var keys = c.keys(prefix).toArray(String[]::new);
+		// unsigned byte order, which for these keys is the natural one
+		assertArrayEquals(expected, keys);
+		assertEquals(expected.length, c.predict(prefix).count());
+	}
+
+	@Test
+	public void test_static_common_prefix_and_predict() {
+		var dict = vec("a", "ab", "abc", "abcdef", "b", "bcd", "アルゴリズム", "网", "网球", "网球拍");
+		var cedar = instantiate();
+		cedar.build(dict);
+
+		var c = StaticCedar.of(cedar);
+
+		for (var q : vec("abcdefg", "abx", "bcde", "网球拍卖会", "x")) {
+			assertArrayEquals(cedar.withCommonPrefix(q).mapToInt(Match::value).toArray(), c.withCommonPrefix(q).mapToInt(Match::value).toArray());
+			assertArrayEquals(cedar.withCommonPrefix(q).mapToInt(Match::length).toArray(), c.withCommonPrefix(q).mapToInt(Match::length).toArray());
+		}
+
+		assertArrayEquals(vec(0, 1, 2, 3), c.predict("a").mapToInt(Match::value).toArray());
+		assertArrayEquals(vec(0, 1, 2, 5), c.predict("a").mapToInt(Match::length).toArray());
+		assertArrayEquals(vec("网", "网球", "网球拍"), c.keys("网").toArray(String[]::new));
+		assertEquals(0, c.predict("abd").count());
+
+		assertEquals(BaseCedar.NO_VALUE, c.get("abcd"));
+		assertEquals(BaseCedar.ABSENT, c.get("abd"));
+		assertNull(c.match("abcd"));
+
+		c.close();
+		cedar.close();
+	}
+
+	@Test
+	public void test_static_dawg_footprint() {
+		// inflected forms: the value only depends on the suffix, so every stem shares its subtree
+		var suffixes = vec("", "s", "ed", "ing", "er", "ers", "ness", "able");
+		var rng = ThreadLocalRandom.current();
+		var stems = new HashSet<String>();
+		while (stems.size() < 20000) {
+			stems.add(randomAlpha(rng, 3 + rng.nextInt(8)));
+		}
+
+		var cedar = instantiate();
+		for (var stem : stems) {
+			for (var i = 0; i < suffixes.length; i++) {
+				cedar.update(stem + suffixes[i], i);
+			}
+		}
+
+		var plain = StaticCedar.of(cedar);
+		var c = StaticCedar.dawg(cedar);
+		log("Bytes (reduced: %s): static: %d, dawg: %d", reduced, plain.byteSize(), c.byteSize());
+		assertTrue(c.byteSize() * 4 < plain.byteSize());
+		// some stems are other stems plus a suffix
+		assertEquals(cedar.predict("").count(), c.size());
+
+		for (var stem : stems) {
+			for (var i = 0; i < suffixes.length; i++) {
+				assertEquals(cedar.get(stem + suffixes[i]), c.get(stem + suffixes[i]));
+			}
+			assertEquals(cedar.get(stem + "x"), c.get(stem + "x"));
+		}
+
+		for (var i = 0; i < 100000; i++) {
+			var probe = randomAlpha(rng, 1 + rng.nextInt(12));
+			assertEquals(cedar.get(probe), c.get(probe));
+		}
+
+		for (var prefix : vec("", "a", "ab", stems.iterator().next())) {
+			assertSameKeys(cedar, c, prefix);
+			assertArrayEquals(plain.predict(prefix).mapToInt(Match::value).toArray(), c.predict(prefix).mapToInt(Match::value).toArray());
+		}
+
+		plain.close();
+		c.close();
+		cedar.close();
+	}
+
+	@Test
+	public void test_static_dawg_lookups_and_serialization() throws IOException {
+		var dict = dict(20000);
+		var cedar = new Cedar();
+		cedar.build(dict);
+		cedar.update("negative", -7);
+
+		var c = StaticCedar.dawg(cedar);
+		assertEquals(-7, c.get("negative"));
+		cedar.erase("negative");
+
+		for (var q : vec("abcdefg", dict[0] + "zz", dict[1])) {
+			assertArrayEquals(cedar.withCommonPrefix(q).mapToInt(Match::value).toArray(), c.withCommonPrefix(q).mapToInt(Match::value).toArray());
+			assertArrayEquals(cedar.withCommonPrefix(q).mapToInt(Match::length).toArray(), c.withCommonPrefix(q).mapToInt(Match::length).toArray());
+		}
+
+		var tmp = Files.createTempFile("cedar", "bin");
+		c.serialize(tmp);
+		assertEquals(c.imageSize(), Files.size(tmp));
+		c.close();
+
+		var sorted = dict.clone();
+		Arrays.sort(sorted);
+
+		for (var copy : new boolean[]{ true, false }) {
+			var s = StaticCedar.deserialize(tmp, copy);
+			assertEquals(-7, s.get("negative"));
+			assertEquals(dict.length + 1, s.size());
+			for (var i = 0; i < dict.length; i++) {
+				assertEquals(i, s.get(dict[i]));
+			}
+			assertArrayEquals(sorted, s.keys().filter(k -> !k.equals("negative")).toArray(String[]::new));
+			s.close();
+		}
+
+		var empty = StaticCedar.dawg(instantiate());
+		assertEquals(0, empty.size());
+		assertEquals(BaseCedar.NO_VALUE, empty.get(""));
+		assertEquals(BaseCedar.ABSENT, empty.get("a"));
+		empty.close();
+
+		Files.delete(tmp);
+		cedar.close();
+	}
+
+	@Test
+	public void test_static_empty_and_invalid() {
+		var cedar = instantiate();
+		var c = StaticCedar.of(cedar);
+		assertEquals(0, c.size());
+		assertEquals(BaseCedar.NO_VALUE, c.get(""));
+		assertEquals(BaseCedar.ABSENT, c.get("a"));
+		assertEquals(0, c.keys().count());
+		c.close();
+
+		cedar.update("neg", -1);
+		try {
+			StaticCedar.of(cedar);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		cedar.close();
+	}
+
+	@Test
+	public void test_static_footprint_and_lookups() {
+		var dict = dict(100000);
+		var cedar = instantiate();
+		cedar.build(dict);
+
+		var c = StaticCedar.of(cedar);
+		var before = cedar.array.byteSize() + cedar.infos.byteSize();
+		log("Bytes (reduced: %s): nodes+infos: %d, static: %d", reduced, before, c.byteSize());
+		assertTrue(c.byteSize() < before * 0.6);
+
+		assertAll(c, dict);
+
+		var rng = ThreadLocalRandom.current();
+		for (var i = 0; i < 100000; i++) {
+			var probe = randomAlpha(rng, 1 + rng.nextInt(8));
+			assertEquals(cedar.get(probe), c.get(probe));
+		}
+
+		for (var prefix : vec("", "a", "ab", "zz", dict[0])) {
+			assertSameKeys(cedar, c, prefix);
+		}
+
+		c.close();
+		cedar.close();
+	}
+
+	@Test
+	public void test_static_serialization() throws IOException {
+		var dict = dict(20000);
+		var cedar = instantiate();
+		cedar.build(dict);
+
+		var c = StaticCedar.of(cedar);
+		var tmp = Files.createTempFile("cedar", "bin");
+		c.serialize(tmp);
+		assertEquals(c.imageSize(), Files.size(tmp));
+		c.close();
+
+		var sorted = dict.clone();
+		Arrays.sort(sorted);
+
+		for (var copy : new boolean[]{ true, false }) {
+			var s = StaticCedar.deserialize(tmp, copy);
+			assertAll(s, dict);
+			assertArrayEquals(sorted, s.keys().toArray(String[]::new));
+			s.close();
+		}
+		cedar.close();
+	}
+}
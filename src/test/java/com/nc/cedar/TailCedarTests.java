@@ -0,0 +1,193 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.assertAll;
+import static com.nc.cedar.CedarTestSupport.vec;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Runs the cedarwood suite against {@link TailCedar}, plus checks for splitting and dropping
+ * tails.
+ *
+ * @author cmuramoto
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TailCedarTests extends CedarWoodTests {
+
+	@Parameters(name = "reduced={0}")
+	public static Collection<Object[]> parameters() {
+		return List.<Object[]>of(new Object[]{ false });
+	}
+
+	static String[] urls(int max) {
+		var rng = ThreadLocalRandom.current();
+		var hosts = vec("https://www.example.com", "https://docs.example.org", "http://static.example.net");
+		return IntStream.range(0, max).mapToObj(i -> String.format("%s/%s/%08x/item-%d.html", hosts[i % hosts.length], i % 7 == 0 ? "archive" : "posts", rng.nextInt(), i)).toArray(String[]::new);
+	}
+
+	void assertSuffixes(BaseCedar cedar, String[] dict) {
+		assertAll(cedar, dict);
+		for (var i = 0; i < dict.length; i++) {
+			assertEquals(dict[i], cedar.suffix(cedar.match(dict[i])));
+		}
+	}
+
+	@Override
+	BaseCedar deserialize(Path tmp, boolean copy) {
+		return TailCedar.deserialize(tmp, copy);
+	}
+
+	@Override
+	BaseCedar instantiate() {
+		return new TailCedar();
+	}
+
+	@Override
+	BaseCedar open(Path file) {
+		return TailCedar.open(file);
+	}
+
+	@Test
+	public void test_tail_density() {
+		var dict = urls(50000);
+
+		var plain = new Cedar();
+		plain.build(dict);
+
+		var tail = instantiate();
+		tail.build(dict);
+
+		var p = plain.array.byteSize() + plain.infos.byteSize();
+		var t = tail.array.byteSize() + tail.infos.byteSize() + tail.tails.byteSize();
+		log("Bytes: cedar: %d, tail: %d (nodes: %d, tails: %d)", p, t, tail.size, tail.tails.pos);
+		assertTrue(t * 2 < p);
+
+		assertSuffixes(plain, dict);
+		assertSuffixes(tail, dict);
+
+		plain.close();
+		tail.close();
+	}
+
+	@Test
+	public void test_tail_erase_and_compact() {
+		var dict = urls(20000);
+		var cedar = instantiate();
+		cedar.build(dict);
+
+		for (var i = 1; i < dict.length; i += 2) {
+			assertEquals(i, cedar.erase(dict[i]));
+			assertTrue((BaseCedar.ABSENT_OR_NO_VALUE & cedar.get(dict[i])) != 0);
+		}
+
+		var before = cedar.tails.byteSize();
+		cedar.compact();
+		assertTrue(cedar.tails.byteSize() < before);
+
+		for (var i = 0; i < dict.length; i += 2) {
+			assertEquals(i, cedar.get(dict[i]));
+			assertTrue((BaseCedar.ABSENT_OR_NO_VALUE & cedar.get(dict[i + 1])) != 0);
+		}
+
+		for (var i = 1; i < dict.length; i += 2) {
+			cedar.update(dict[i], i);
+		}
+		assertSuffixes(cedar, dict);
+		cedar.close();
+	}
+
+	@Test
+	public void test_tail_split() {
+		var cedar = instantiate();
+
+		assertEquals(0, cedar.update("abcdef", 1));
+		assertEquals(BaseCedar.NO_VALUE, cedar.get("abc"));
+		assertEquals(BaseCedar.ABSENT, cedar.get("abcx"));
+		assertEquals(BaseCedar.ABSENT, cedar.get("abcdefg"));
+
+		// prefix of a tail, extension of a tail and divergence in the middle of a tail
+		cedar.update("abc", 2);
+		cedar.update("abcdefgh", 3);
+		cedar.update("abcdxy", 4);
+		cedar.update("a", 5);
+		assertEquals(1, cedar.update("abcdef", 6));
+
+		var dict = vec("a", "abc", "abcdef", "abcdefgh", "abcdxy");
+		assertArrayEquals(vec(5, 2, 6, 3, 4), Arrays.stream(dict).mapToLong(cedar::get).mapToInt(v -> (int) v).toArray());
+		assertArrayEquals(dict, cedar.predict("").map(cedar::suffix).sorted().toArray(String[]::new));
+		assertArrayEquals(vec("abcdef", "abcdefgh"), cedar.predict("abcde").map(m -> "abcde" + cedar.suffix(m)).sorted().toArray(String[]::new));
+		assertArrayEquals(vec(5, 2, 6, 3), cedar.withCommonPrefix("abcdefghij").mapToInt(Match::value).toArray());
+
+		assertEquals(4, cedar.erase("abcdxy"));
+		assertEquals(3, cedar.erase("abcdefgh"));
+		assertEquals(BaseCedar.ABSENT, cedar.get("abcdxy"));
+		assertArrayEquals(vec("a", "abc", "abcdef"), cedar.predict("").map(cedar::suffix).sorted().toArray(String[]::new));
+		assertArrayEquals(vec(5, 2, 6), cedar.scan("xabcdefx").mapToInt(TextMatch::value).toArray());
+		assertArrayEquals(vec(2, 4, 7), cedar.scan("xabcdefx").mapToInt(TextMatch::end).toArray());
+	}
+
+	@Test
+	public void test_tail_persist() throws IOException {
+		var dict = urls(20000);
+		var half = Arrays.copyOf(dict, dict.length / 2);
+		var file = Files.createTempFile("cedar", "store");
+		Files.delete(file);
+
+		var cedar = open(file);
+		cedar.build(half);
+		cedar.close();
+
+		// tails keep growing (and being remapped) after reopening
+		cedar = open(file);
+		assertSuffixes(cedar, half);
+		for (var i = half.length; i < dict.length; i++) {
+			cedar.update(dict[i], i);
+		}
+		cedar.close();
+
+		cedar = open(file);
+		assertSuffixes(cedar, dict);
+		cedar.close();
+		Files.delete(file);
+	}
+
+	@Test
+	public void test_tail_serialization() throws IOException {
+		var dict = urls(5000);
+		var cedar = instantiate();
+		cedar.build(dict);
+
+		var tmp = Files.createTempFile("cedar", "bin");
+		cedar.serialize(tmp);
+		cedar.close();
+
+		var sorted = dict.clone();
+		Arrays.sort(sorted);
+
+		for (var copy : new boolean[]{ true, false }) {
+			var c = deserialize(tmp, copy);
+			assertSuffixes(c, dict);
+			assertArrayEquals(sorted, c.predict("").map(c::suffix).sorted().toArray(String[]::new));
+
+			c.update(dict[0] + "/more", -1);
+			assertEquals(-1, c.get(dict[0] + "/more"));
+			assertEquals(0, c.get(dict[0]));
+			c.close();
+		}
+	}
+}
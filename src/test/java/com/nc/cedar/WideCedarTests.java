@@ -0,0 +1,132 @@
+package com.nc.cedar;
+
+import static com.nc.cedar.CedarTestSupport.assertAll;
+import static com.nc.cedar.CedarTestSupport.dict;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Runs the cedarwood suite against {@link WideCedar}, plus a few checks on 64-bit nodes.
+ *
+ * @author cmuramoto
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class WideCedarTests extends CedarWoodTests {
+
+	@Parameters(name = "reduced={0}")
+	public static Collection<Object[]> parameters() {
+		return List.<Object[]>of(new Object[]{ false });
+	}
+
+	@Override
+	BaseCedar deserialize(Path tmp, boolean copy) {
+		return WideCedar.deserialize(tmp, copy);
+	}
+
+	@Override
+	BaseCedar instantiate() {
+		return new WideCedar();
+	}
+
+	@Override
+	BaseCedar open(Path file) {
+		return WideCedar.open(file);
+	}
+
+	@Test
+	public void test_wide_compact() {
+		var dict = dict(20000, 12);
+		var cedar = instantiate();
+		cedar.build(dict);
+
+		for (var i = 1; i < dict.length; i += 2) {
+			assertEquals(i, cedar.erase(dict[i]));
+		}
+
+		var before = cedar.array.byteSize();
+		cedar.compact();
+		assertTrue(cedar.array.byteSize() < before);
+		assertTrue(cedar.array instanceof WideNodes);
+
+		for (var i = 0; i < dict.length; i += 2) {
+			assertEquals(i, cedar.get(dict[i]));
+			assertTrue((BaseCedar.ABSENT_OR_NO_VALUE & cedar.get(dict[i + 1])) != 0);
+		}
+		cedar.close();
+	}
+
+	@Test
+	public void test_wide_matches_cedar() {
+		var dict = dict(50000, 16);
+
+		var plain = new Cedar();
+		plain.build(dict);
+
+		var wide = instantiate();
+		wide.build(dict);
+
+		log("Nodes: cedar: %d (%d bytes), wide: %d (%d bytes)", plain.size, plain.array.byteSize(), wide.size, wide.array.byteSize());
+
+		assertEquals(plain.size, wide.size);
+		assertEquals(2 * plain.array.byteSize(), wide.array.byteSize());
+		assertArrayEquals(plain.predict("").map(plain::suffix).toArray(), wide.predict("").map(wide::suffix).toArray());
+		assertAll(wide, dict);
+
+		plain.close();
+		wide.close();
+	}
+
+	@Test
+	public void test_wide_nodes() {
+		var nodes = WideNodes.initial();
+		var far = (1L << 35) + 17;
+
+		nodes.set_w(3, far, -far);
+		assertEquals(far, nodes.base_w(3));
+		assertEquals(-far, nodes.check_w(3));
+		assertEquals(far, nodes.getAndSetBase_w(3, -1));
+		assertEquals(-1, nodes.base_w(3));
+
+		assertEquals(WideCedar.MAX_CAPACITY, new WideCedar().max_capacity());
+		assertTrue(WideCedar.MAX_CAPACITY > BaseCedar.MAX_CAPACITY);
+	}
+
+	@Test
+	public void test_wide_serialization() throws IOException {
+		var dict = dict(5000, 12);
+		var cedar = instantiate();
+		cedar.build(dict);
+
+		var tmp = Files.createTempFile("cedar", "bin");
+		cedar.serialize(tmp);
+		cedar.close();
+
+		var sorted = dict.clone();
+		Arrays.sort(sorted);
+
+		for (var copy : new boolean[]{ true, false }) {
+			var c = deserialize(tmp, copy);
+			assertTrue(c.array instanceof WideNodes);
+			assertAll(c, dict);
+			assertArrayEquals(sorted, c.predict("").map(c::suffix).sorted().toArray(String[]::new));
+
+			c.update("not-in-dict", -1);
+			assertEquals(-1, c.get("not-in-dict"));
+			c.close();
+		}
+		Files.delete(tmp);
+	}
+}